@@ -0,0 +1,44 @@
+package com.traininginsights.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Bounded pools for analytics work. analyticsExecutor runs queries that fan out per metric; each task takes its own
+ * DB connection, so the pool stays well below the connection pool size, and when it is saturated the calling request
+ * thread runs the task.
+ */
+@Configuration
+public class AnalyticsExecutorConfig {
+    @Bean(name = "analyticsExecutor")
+    public ThreadPoolTaskExecutor analyticsExecutor(@Value("${app.analytics.parallelism:4}") int parallelism){
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(parallelism);
+        executor.setMaxPoolSize(parallelism);
+        executor.setQueueCapacity(parallelism * 8);
+        executor.setThreadNamePrefix("analytics-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.setWaitForTasksToCompleteOnShutdown(false);
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * Workers for queued analytics jobs (AnalyticsJobService). Submissions beyond the queue are rejected, not run inline.
+     */
+    @Bean(name = "analyticsJobExecutor")
+    public ThreadPoolTaskExecutor analyticsJobExecutor(@Value("${app.analytics.jobWorkers:2}") int workers, @Value("${app.analytics.jobQueue:50}") int queue){
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(workers);
+        executor.setMaxPoolSize(workers);
+        executor.setQueueCapacity(queue);
+        executor.setThreadNamePrefix("analytics-job-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        executor.initialize();
+        return executor;
+    }
+}
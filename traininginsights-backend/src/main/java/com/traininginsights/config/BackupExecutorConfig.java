@@ -0,0 +1,28 @@
+package com.traininginsights.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Workers that read the tables of a backup export in parallel (AdminBackupService). Each holds a DB connection for
+ * the duration of its table, on top of the one of the export itself; the queue takes the tables of a few concurrent
+ * exports.
+ */
+@Configuration
+public class BackupExecutorConfig {
+    @Bean(name = "backupExecutor")
+    public ThreadPoolTaskExecutor backupExecutor(@Value("${app.backup.workers:3}") int workers){
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(workers);
+        executor.setMaxPoolSize(workers);
+        executor.setQueueCapacity(100);
+        executor.setThreadNamePrefix("backup-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        executor.initialize();
+        return executor;
+    }
+}
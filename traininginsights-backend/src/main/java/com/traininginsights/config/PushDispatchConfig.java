@@ -0,0 +1,27 @@
+package com.traininginsights.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Workers that deliver queued web-push messages (PushDispatcher). Sends are HTTP calls to the browser vendors' push
+ * services, so they never run on request threads; a full queue rejects instead of blocking the caller.
+ */
+@Configuration
+public class PushDispatchConfig {
+    @Bean(name = "pushExecutor")
+    public ThreadPoolTaskExecutor pushExecutor(@Value("${app.push.workers:4}") int workers, @Value("${app.push.queue:10000}") int queue){
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(workers);
+        executor.setMaxPoolSize(workers);
+        executor.setQueueCapacity(queue);
+        executor.setThreadNamePrefix("push-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        executor.initialize();
+        return executor;
+    }
+}
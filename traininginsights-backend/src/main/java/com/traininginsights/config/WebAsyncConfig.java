@@ -0,0 +1,41 @@
+package com.traininginsights.config;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Threads that write async responses (the StreamingResponseBody of a backup export). Boot only provides its
+ * applicationTaskExecutor when no other Executor bean exists, and the executors of this package rule it out, so
+ * without this MVC would fall back to an unbounded SimpleAsyncTaskExecutor. A request beyond the queue is rejected
+ * instead of starting another thread.
+ */
+@Configuration
+public class WebAsyncConfig implements WebMvcConfigurer {
+    private final ThreadPoolTaskExecutor mvcAsyncExecutor;
+
+    public WebAsyncConfig(@Qualifier("mvcAsyncExecutor") ThreadPoolTaskExecutor mvcAsyncExecutor){ this.mvcAsyncExecutor = mvcAsyncExecutor; }
+
+    @Bean(name = "mvcAsyncExecutor")
+    public static ThreadPoolTaskExecutor mvcAsyncExecutor(@Value("${app.mvc.asyncWorkers:4}") int workers){
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(workers);
+        executor.setMaxPoolSize(workers);
+        executor.setQueueCapacity(20);
+        executor.setThreadNamePrefix("mvc-async-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        executor.initialize();
+        return executor;
+    }
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer){
+        configurer.setTaskExecutor(mvcAsyncExecutor);
+    }
+}
@@ -1,5 +1,6 @@
 package com.traininginsights.controller;
 
+import com.traininginsights.dto.BackupDtos;
 import com.traininginsights.service.AdminBackupService;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
@@ -7,7 +8,10 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.InputStream;
+import java.util.List;
 import java.util.Map;
 
 @RestController
@@ -18,35 +22,54 @@ public class AdminBackupController {
 
     @PreAuthorize("hasRole('ROLE_SUPERADMIN')")
     @GetMapping("/export")
-    public ResponseEntity<byte[]> export(){
-        byte[] data = backupService.exportAll();
+    public ResponseEntity<StreamingResponseBody> export(){
+        // written to the response while the tables are read, never held in memory as a whole
+        StreamingResponseBody body = backupService::writeJson;
         return ResponseEntity.ok()
                 .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=ti-backup.json")
                 .contentType(MediaType.APPLICATION_JSON)
-                .body(data);
+                .body(body);
     }
 
     @PreAuthorize("hasRole('ROLE_SUPERADMIN')")
     @GetMapping("/export-zip")
-    public ResponseEntity<byte[]> exportZip(){
-        byte[] data = backupService.exportAllZip();
+    public ResponseEntity<StreamingResponseBody> exportZip(@RequestParam(value = "since", required = false) Long since){
+        // since: snapshot from the manifest of an earlier backup, for a delta; checked before the response starts
+        if (since != null) backupService.checkDeltaBase(since);
+        StreamingResponseBody body = out -> backupService.writeZip(out, since);
         return ResponseEntity.ok()
-                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=ti-backup.zip")
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=" + (since == null ? "ti-backup.zip" : "ti-backup-delta-" + since + ".zip"))
                 .contentType(MediaType.parseMediaType("application/zip"))
-                .body(data);
+                .body(body);
     }
 
     @PreAuthorize("hasRole('ROLE_SUPERADMIN')")
     @PostMapping(value = "/import", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
     public Map<String,Object> importBackup(@RequestPart("file") MultipartFile file) throws Exception{
-        byte[] data = file.getBytes();
-        return backupService.importFromBytes(data);
+        try (InputStream in = file.getInputStream()){
+            return backupService.importFromStream(in, file.getSize());
+        }
     }
 
     @PreAuthorize("hasRole('ROLE_SUPERADMIN')")
     @PostMapping(value = "/import-zip", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
     public Map<String,Object> importBackupZip(@RequestPart("file") MultipartFile file) throws Exception{
-        byte[] data = file.getBytes();
-        return backupService.importFromZip(data);
+        try (InputStream in = file.getInputStream()){
+            return backupService.importFromZip(in, file.getSize());
+        }
+    }
+
+    @PreAuthorize("hasRole('ROLE_SUPERADMIN')")
+    @PostMapping(value = "/import-chain", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public Map<String,Object> importBackupChain(@RequestPart("files") List<MultipartFile> files) throws Exception{
+        // a full backup zip followed by its deltas, oldest first
+        return backupService.importChain(files);
+    }
+
+    @PreAuthorize("hasRole('ROLE_SUPERADMIN')")
+    @GetMapping("/import/progress")
+    public ResponseEntity<BackupDtos.ImportProgress> importProgress(){
+        BackupDtos.ImportProgress progress = backupService.importProgress();
+        return progress == null ? ResponseEntity.noContent().build() : ResponseEntity.ok(progress);
     }
 }
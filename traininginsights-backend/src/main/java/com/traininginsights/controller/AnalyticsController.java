@@ -1,6 +1,10 @@
 package com.traininginsights.controller;
 
+import com.traininginsights.service.AnalyticsRollupService;
+import com.traininginsights.service.AnalyticsJobService;
 import com.traininginsights.service.AnalyticsService;
+import com.traininginsights.service.MetricCatalogService;
+import com.traininginsights.service.ResponseMetricService;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
 
@@ -13,6 +17,8 @@ import com.traininginsights.repository.UserRepository;
 import com.traininginsights.repository.GroupRepository;
 import com.traininginsights.model.User;
 import com.traininginsights.model.Group;
+import com.traininginsights.dto.AnalyticsDtos;
+import org.springframework.http.ResponseEntity;
 import org.springframework.http.HttpStatus;
 import org.springframework.web.server.ResponseStatusException;
 
@@ -21,9 +27,13 @@ import org.springframework.web.server.ResponseStatusException;
 public class AnalyticsController {
 
     private final AnalyticsService service;
+    private final AnalyticsRollupService rollupService;
+    private final ResponseMetricService metricService;
+    private final MetricCatalogService catalogService;
+    private final AnalyticsJobService jobService;
     private final UserRepository userRepository;
     private final GroupRepository groupRepository;
-    public AnalyticsController(AnalyticsService service, UserRepository userRepository, GroupRepository groupRepository){ this.service = service; this.userRepository = userRepository; this.groupRepository = groupRepository; }
+    public AnalyticsController(AnalyticsService service, AnalyticsRollupService rollupService, ResponseMetricService metricService, MetricCatalogService catalogService, AnalyticsJobService jobService, UserRepository userRepository, GroupRepository groupRepository){ this.service = service; this.rollupService = rollupService; this.metricService = metricService; this.catalogService = catalogService; this.jobService = jobService; this.userRepository = userRepository; this.groupRepository = groupRepository; }
 
     private void assertTrainerAllowedGroup(Authentication auth, Long groupId){
         if (groupId == null) return;
@@ -60,13 +70,7 @@ public class AnalyticsController {
         boolean isTrainer = caller.getRoles().stream().anyMatch(r-> r.getName().name().equals("ROLE_TRAINER"));
         boolean isAdminLike = caller.getRoles().stream().anyMatch(r->{ String n=r.getName().name(); return n.equals("ROLE_ADMIN")||n.equals("ROLE_SUPERADMIN"); });
         if (!isTrainer || isAdminLike) return null;
-        java.util.Set<Long> ids = new java.util.HashSet<>();
-        for (Group g : groupRepository.findAll()){
-            if (g.getTrainers() != null && g.getTrainers().stream().anyMatch(u-> u.getId().equals(caller.getId()))){
-                ids.add(g.getId());
-            }
-        }
-        return ids;
+        return groupRepository.findIdsByTrainerId(caller.getId());
     }
 
     @PreAuthorize("hasAnyRole('TRAINER','ADMIN','SUPERADMIN')")
@@ -102,6 +106,38 @@ public class AnalyticsController {
         return Map.of("metric", metric, "dimension", dimension, "granularity", granularity, "data", data, "labels", labels);
     }
 
+    // Rebuild the pre-aggregated cube from all questionnaire responses
+    @PreAuthorize("hasAnyRole('ADMIN','SUPERADMIN')")
+    @PostMapping("/rollups/rebuild")
+    public java.util.Map<String,Object> rebuildRollups(){
+        return rollupService.rebuild();
+    }
+
+    // Re-extract response_metrics from all questionnaire responses
+    @PreAuthorize("hasAnyRole('ADMIN','SUPERADMIN')")
+    @PostMapping("/metrics/backfill")
+    public java.util.Map<String,Object> backfillMetrics(){
+        var result = metricService.backfill();
+        catalogService.invalidateAll();
+        return result;
+    }
+
+    // Compare the cube answer with the live aggregation path for the same parameters as /aggregate
+    @PreAuthorize("hasAnyRole('ADMIN','SUPERADMIN')")
+    @GetMapping("/rollups/check")
+    public java.util.Map<String,Object> checkRollups(
+            @RequestParam String metric,
+            @RequestParam String dimension,
+            @RequestParam String granularity,
+            @RequestParam(required=false) Long groupId,
+            @RequestParam(required=false) Long clubId,
+            @RequestParam(required=false) String start,
+            @RequestParam(required=false) String end,
+            @RequestParam(required=false) String phase
+    ){
+        return service.rollupConsistency(metric, dimension, granularity, groupId, clubId, start, end, phase, null);
+    }
+
     @PreAuthorize("hasAnyRole('TRAINER','ADMIN','SUPERADMIN')")
     @GetMapping("/aggregate-multi")
     public java.util.Map<String,Object> aggregateMulti(Authentication auth,
@@ -122,6 +158,10 @@ public class AnalyticsController {
                     .map(String::trim).filter(s->!s.isEmpty()).toList();
         }
         var allowed = allowedTrainerGroupIds(auth);
+        return aggregateMultiBody(metrics, dimension, granularity, gid, clubId, start, end, phase, allowed);
+    }
+
+    private java.util.Map<String,Object> aggregateMultiBody(List<String> metrics, String dimension, String granularity, Long gid, Long clubId, String start, String end, String phase, java.util.Set<Long> allowed){
     var result = service.aggregateMulti(metrics, dimension, granularity, gid, clubId, start, end, phase, allowed);
         // union of keys for labels
         Set<String> keys = new HashSet<>();
@@ -147,7 +187,8 @@ public class AnalyticsController {
             @RequestParam(required=false) String period,
             @RequestParam(required=false, defaultValue = "0") int page,
             @RequestParam(required=false, defaultValue = "25") int size,
-            @RequestParam(required=false, defaultValue = "submittedAt,desc") String sort
+            @RequestParam(required=false, defaultValue = "submittedAt,desc") String sort,
+            @RequestParam(required=false) String cursor
     ){
         Long gid = normalizeGroupIdForTrainer(auth, groupId);
         assertTrainerAllowedGroup(auth, gid);
@@ -156,21 +197,87 @@ public class AnalyticsController {
                     .map(String::trim).filter(s->!s.isEmpty()).toList();
         }
         var allowed = allowedTrainerGroupIds(auth);
-    var result = service.drilldown(metrics, dimension, granularity, gid, clubId, start, end, phase, filterKey, period, page, size, sort, allowed);
+        return drilldownBody(metrics, dimension, granularity, gid, clubId, start, end, phase, filterKey, period, page, size, sort, cursor, allowed);
+    }
+
+    private java.util.Map<String,Object> drilldownBody(List<String> metrics, String dimension, String granularity, Long gid, Long clubId, String start, String end, String phase, String filterKey, String period, int page, int size, String sort, String cursor, java.util.Set<Long> allowed){
+    var result = service.drilldown(metrics, dimension, granularity, gid, clubId, start, end, phase, filterKey, period, page, size, sort, cursor, allowed);
         // labels for possible dimension keys present
         Set<String> keys = new HashSet<>();
         for (var row : result.rows){ Object k = row.get("key"); if (k != null) keys.add(k.toString()); }
         var labels = service.resolveLabels(dimension, keys);
-        return Map.of(
-                "dimension", dimension,
-                "granularity", granularity,
-                "rows", result.rows,
-                "total", result.total,
-                "page", result.page,
-                "size", result.size,
-                "sort", result.sort,
-                "labels", labels
-        );
+        java.util.Map<String,Object> body = new java.util.HashMap<>();
+        body.put("dimension", dimension);
+        body.put("granularity", granularity);
+        body.put("rows", result.rows);
+        body.put("size", result.size);
+        body.put("sort", result.sort);
+        body.put("labels", labels);
+        if (cursor != null){
+            body.put("nextCursor", result.nextCursor);
+        } else {
+            body.put("total", result.total);
+            body.put("page", result.page);
+        }
+        return body;
+    }
+
+    // Background jobs for heavy aggregate/drilldown queries: submit, poll status, fetch the result
+    @PreAuthorize("hasAnyRole('TRAINER','ADMIN','SUPERADMIN')")
+    @PostMapping("/jobs")
+    public ResponseEntity<java.util.Map<String,Object>> submitJob(Authentication auth, @RequestBody AnalyticsDtos.JobRequest req){
+        String type = req.type == null ? "aggregate" : req.type;
+        if (!type.equals("aggregate") && !type.equals("drilldown")) throw new IllegalArgumentException("Unsupported job type: " + type);
+        if (req.dimension == null || req.granularity == null) throw new IllegalArgumentException("dimension and granularity are required");
+        if (type.equals("aggregate") && (req.metrics == null || req.metrics.isEmpty())) throw new IllegalArgumentException("metrics are required");
+        Long gid = normalizeGroupIdForTrainer(auth, req.groupId);
+        assertTrainerAllowedGroup(auth, gid);
+        var allowed = allowedTrainerGroupIds(auth);
+        int size = req.size == null ? 25 : req.size;
+        String sort = req.sort == null ? "submittedAt,desc" : req.sort;
+
+        java.util.Map<String,Object> params = new java.util.HashMap<>();
+        params.put("metrics", req.metrics);
+        params.put("dimension", req.dimension);
+        params.put("granularity", req.granularity);
+        params.put("groupId", gid);
+        params.put("clubId", req.clubId);
+        params.put("start", req.start);
+        params.put("end", req.end);
+        params.put("phase", req.phase);
+        params.put("allowedGroupIds", allowed);
+        if (type.equals("drilldown")){
+            params.put("key", req.key);
+            params.put("period", req.period);
+            params.put("size", size);
+            params.put("sort", sort);
+            params.put("cursor", req.cursor);
+        }
+        // reject bad bounds with 400 now rather than as a failed job
+        AnalyticsService.parseBound(req.start, "start");
+        AnalyticsService.parseBound(req.end, "end");
+        var job = type.equals("aggregate")
+                ? jobService.submit(auth.getName(), type, params, () -> aggregateMultiBody(req.metrics, req.dimension, req.granularity, gid, req.clubId, req.start, req.end, req.phase, allowed))
+                : jobService.submit(auth.getName(), type, params, () -> drilldownBody(req.metrics, req.dimension, req.granularity, gid, req.clubId, req.start, req.end, req.phase, req.key, req.period, 0, size, sort, req.cursor == null ? "" : req.cursor, allowed));
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(job.describe());
+    }
+
+    @PreAuthorize("hasAnyRole('TRAINER','ADMIN','SUPERADMIN')")
+    @GetMapping("/jobs/{id}")
+    public java.util.Map<String,Object> jobStatus(Authentication auth, @PathVariable String id){
+        return jobService.get(id, auth.getName()).describe();
+    }
+
+    // 200 with the same body as the synchronous endpoint when done; 202 with the status while queued/running
+    @PreAuthorize("hasAnyRole('TRAINER','ADMIN','SUPERADMIN')")
+    @GetMapping("/jobs/{id}/result")
+    public ResponseEntity<Object> jobResult(Authentication auth, @PathVariable String id){
+        var job = jobService.get(id, auth.getName());
+        return switch (job.getStatus()){
+            case DONE -> ResponseEntity.ok(job.getResult());
+            case FAILED -> throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Analytics job failed: " + job.getError());
+            default -> ResponseEntity.status(HttpStatus.ACCEPTED).body(job.describe());
+        };
     }
 
     @PreAuthorize("hasAnyRole('TRAINER','ADMIN','SUPERADMIN')")
@@ -180,11 +287,22 @@ public class AnalyticsController {
             @RequestParam(required=false) Long clubId,
             @RequestParam(required=false) String start,
             @RequestParam(required=false) String end,
-            @RequestParam(required=false) String phase
+            @RequestParam(required=false) String phase,
+            @RequestParam(required=false) Long questionnaireId
     ){
         Long gid = normalizeGroupIdForTrainer(auth, groupId);
         assertTrainerAllowedGroup(auth, gid);
     var allowed = allowedTrainerGroupIds(auth);
+        if (questionnaireId != null){
+            // catalog of one questionnaire: declared number/slider fields plus fields seen in its responses
+            var catalog = catalogService.forQuestionnaire(questionnaireId);
+            if (catalog == null) return Map.of("metrics", Set.of());
+            if (gid == null && clubId == null && allowed == null) return Map.of("metrics", catalog);
+            // scoped callers (trainers, or a group/club filter) only get the fields that also occur in their scope
+            Set<String> scoped = new java.util.TreeSet<>(catalog);
+            scoped.retainAll(service.availableMetrics(gid, clubId, start, end, phase, allowed));
+            return Map.of("metrics", scoped);
+        }
     var metrics = service.availableMetrics(gid, clubId, start, end, phase, allowed);
         return Map.of("metrics", metrics);
     }
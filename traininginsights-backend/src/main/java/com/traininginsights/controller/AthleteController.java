@@ -53,10 +53,12 @@ public class AthleteController {
 
     @GetMapping("/trainings/all")
     @Transactional(readOnly = true)
-    public List<Training> allTrainings(Authentication auth){
+    public List<Training> allTrainings(Authentication auth, @RequestParam(required=false) Instant from, @RequestParam(required=false) Instant to){
         User athlete = userRepository.findByEmailIgnoreCase(auth.getName()).orElseThrow();
         Group g = athlete.getGroupEntity();
         if (g == null) return List.of();
+        // an optional window returns that slice in chronological order
+        if (from != null || to != null) return trainingService.findByGroupId(g.getId(), from, to, org.springframework.data.domain.Pageable.unpaged());
         return trainingService.allForGroup(g);
     }
 
@@ -0,0 +1,46 @@
+package com.traininginsights.controller;
+
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Download responses for stored attachment files. The file is returned as a FileSystemResource, so Spring MVC copies
+ * it from disk to the response in small buffers (never whole into memory), sets Content-Length and Accept-Ranges,
+ * answers Range requests with 206 partial content (resumable downloads, seeking in videos), and answers
+ * If-None-Match / If-Modified-Since with 304 using the ETag and Last-Modified set here.
+ */
+final class AttachmentResponses {
+    private AttachmentResponses(){}
+
+    static ResponseEntity<Resource> file(Path path, String filename, String contentType) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+        long modified = attrs.lastModifiedTime().toMillis();
+        // a stored attachment is never rewritten in place, so size and modification time identify its content
+        String etag = "\"" + Long.toHexString(attrs.size()) + "-" + Long.toHexString(modified) + "\"";
+        MediaType type;
+        try {
+            type = contentType != null ? MediaType.parseMediaType(contentType) : MediaType.APPLICATION_OCTET_STREAM;
+        } catch (Exception e){
+            type = MediaType.APPLICATION_OCTET_STREAM;
+        }
+        return ResponseEntity.ok()
+                .contentType(type)
+                .eTag(etag)
+                .lastModified(modified)
+                // private: downloads are permission checked; no-cache: revalidate, which is a 304 while unchanged
+                .cacheControl(CacheControl.noCache().cachePrivate())
+                .header(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment().filename(filename != null ? filename : "attachment", StandardCharsets.UTF_8).build().toString())
+                .body(new FileSystemResource(path));
+    }
+}
@@ -110,6 +110,25 @@ public class NotificationController {
         return notificationService.unreadCount(u);
     }
 
+    // Email delivery of notifications the caller sent (notificationId of the send results): emailedAt stays null until
+    // the recipient's BCC chunk is sent. Ids of notifications the caller did not send are left out.
+    @PostMapping("/email-status")
+    public List<EmailStatusDTO> emailStatus(@RequestBody List<Long> notificationIds){
+        String email = SecurityContextHolder.getContext().getAuthentication().getName();
+        User u = userRepository.findByEmailIgnoreCase(email).orElseThrow();
+        if (notificationIds != null && notificationIds.size() > 10000) throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "At most 10000 notification ids per request");
+        List<EmailStatusDTO> out = new java.util.ArrayList<>();
+        for (var s : notificationService.emailStatus(u.getId(), notificationIds)){
+            EmailStatusDTO d = new EmailStatusDTO();
+            d.notificationId = s.getId();
+            d.emailedAt = s.getEmailedAt();
+            out.add(d);
+        }
+        return out;
+    }
+
+    public static class EmailStatusDTO { public Long notificationId; public java.time.Instant emailedAt; }
+
     // Admins and trainers can send to members of a club (trainers limited to clubs they belong to)
     @PreAuthorize("hasAnyRole('ADMIN','SUPERADMIN','TRAINER')")
     @PostMapping("/club/{clubId}/send")
@@ -214,7 +233,7 @@ public class NotificationController {
     }
 
     @GetMapping("/attachments/{attachmentId}")
-    public org.springframework.http.ResponseEntity<org.springframework.core.io.InputStreamResource> downloadNotificationAttachment(@PathVariable Long attachmentId, org.springframework.security.core.Authentication auth) throws java.io.IOException {
+    public org.springframework.http.ResponseEntity<org.springframework.core.io.Resource> downloadNotificationAttachment(@PathVariable Long attachmentId, org.springframework.security.core.Authentication auth) throws java.io.IOException {
         Attachment a = attachmentRepository.findById(attachmentId).orElseThrow();
         var notif = a.getNotification();
         if (notif == null) return org.springframework.http.ResponseEntity.notFound().build();
@@ -226,11 +245,7 @@ public class NotificationController {
         Path base = Paths.get(uploadsDir).toAbsolutePath().normalize();
         Path filePath = Paths.get(a.getPath()).toAbsolutePath().normalize();
         if (!filePath.startsWith(base) || !Files.exists(filePath)) return org.springframework.http.ResponseEntity.notFound().build();
-        var in = Files.newInputStream(filePath);
-        return org.springframework.http.ResponseEntity.ok()
-                .header("Content-Disposition", "attachment; filename=\"" + a.getFilename().replace("\"", "") + "\"")
-                .contentType(org.springframework.http.MediaType.APPLICATION_OCTET_STREAM)
-                .body(new org.springframework.core.io.InputStreamResource(in));
+        return AttachmentResponses.file(filePath, a.getFilename(), null);
     }
 
     public static class BatchSendRequest { public Long[] ids; public String title; public String body; public String channel; }
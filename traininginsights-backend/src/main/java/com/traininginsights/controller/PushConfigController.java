@@ -2,6 +2,7 @@ package com.traininginsights.controller;
 
 import com.traininginsights.model.PushConfig;
 import com.traininginsights.repository.PushConfigRepository;
+import com.traininginsights.service.PushService;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
 
@@ -11,7 +12,8 @@ import java.util.Map;
 @RequestMapping("/api/push/config")
 public class PushConfigController {
     private final PushConfigRepository repo;
-    public PushConfigController(PushConfigRepository repo){ this.repo = repo; }
+    private final PushService pushService;
+    public PushConfigController(PushConfigRepository repo, PushService pushService){ this.repo = repo; this.pushService = pushService; }
 
     @PreAuthorize("hasRole('SUPERADMIN')")
     @GetMapping
@@ -27,6 +29,9 @@ public class PushConfigController {
         c.setVapidPublic(pub);
         c.setVapidPrivate(priv);
         c.setSubject(subj);
-        return repo.save(c);
+        PushConfig saved = repo.save(c);
+        // senders pick up the new keys on their next push
+        pushService.invalidate();
+        return saved;
     }
 }
@@ -21,8 +21,9 @@ public class PushController {
     private final UserRepository userRepository;
     private final PushService pushService;
     private final ObjectMapper objectMapper;
+    private final com.traininginsights.service.NotificationOutboxService outbox;
 
-    public PushController(PushSubscriptionRepository repo, UserRepository userRepository, PushService pushService, ObjectMapper objectMapper){ this.repo = repo; this.userRepository = userRepository; this.pushService = pushService; this.objectMapper = objectMapper; }
+    public PushController(PushSubscriptionRepository repo, UserRepository userRepository, PushService pushService, ObjectMapper objectMapper, com.traininginsights.service.NotificationOutboxService outbox){ this.repo = repo; this.userRepository = userRepository; this.pushService = pushService; this.objectMapper = objectMapper; this.outbox = outbox; }
 
     public static class SubscribePayload {
         public String endpoint;
@@ -63,6 +64,7 @@ public class PushController {
         out.put("vapidPublic", pushService.getVapidPublic());
         out.put("vapidSubject", pushService.getVapidSubject());
         out.put("hasPrivate", pushService.hasVapidPrivate());
+        out.put("configVersion", pushService.getConfigVersion());
         String audience = null, host = null;
         try {
             var sub = repo.findById(id).orElse(null);
@@ -79,6 +81,16 @@ public class PushController {
         return out;
     }
 
+    // Outbox health: pending/sending/done/dead row counts
+    @PreAuthorize("hasAnyRole('ADMIN','SUPERADMIN')")
+    @GetMapping("/outbox")
+    public Map<String, Long> outboxStats(){ return outbox.stats(); }
+
+    // Give dead-lettered pushes another round of attempts (e.g. after fixing VAPID keys)
+    @PreAuthorize("hasAnyRole('ADMIN','SUPERADMIN')")
+    @PostMapping("/outbox/requeue-dead")
+    public Map<String, Object> requeueDead(){ return Map.of("requeued", outbox.requeueDead()); }
+
     // for admin/testing: list subscriptions for current user
     @PreAuthorize("isAuthenticated()")
     @GetMapping("/my")
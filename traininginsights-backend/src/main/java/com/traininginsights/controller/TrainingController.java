@@ -26,9 +26,6 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.UUID;
-import java.net.URLEncoder;
-import java.nio.charset.StandardCharsets;
-import org.springframework.core.io.InputStreamResource;
 import java.io.IOException;
 import org.springframework.http.ResponseEntity;
 import org.springframework.http.MediaType;
@@ -53,43 +50,52 @@ public class TrainingController {
     public TrainingController(TrainingService service, UserRepository userRepository, AttachmentRepository attachmentRepository, QuestionnaireResponseService responseService, TrainingAttendanceService attendanceService, QuestionnaireRepository questionnaireRepository, @Value("${app.uploadsDir:uploads}") String uploadsDir){ this.service = service; this.userRepository = userRepository; this.attachmentRepository = attachmentRepository; this.responseService = responseService; this.attendanceService = attendanceService; this.questionnaireRepository = questionnaireRepository; this.uploadsDir = uploadsDir; }
 
     @PreAuthorize("hasAnyRole('TRAINER','ADMIN','SUPERADMIN','ATHLETE')")
-    @GetMapping public java.util.List<com.traininginsights.dto.TrainingDtos.TrainingDTO> all(Authentication auth){
+    @GetMapping public java.util.List<com.traininginsights.dto.TrainingDtos.TrainingDTO> all(Authentication auth,
+            @RequestParam(required=false) java.time.Instant from, @RequestParam(required=false) java.time.Instant to,
+            @RequestParam(required=false) Integer page, @RequestParam(required=false) Integer size){
         var caller = userRepository.findByEmailIgnoreCase(auth.getName()).orElseThrow();
         boolean isAthlete = caller.getRoles().stream().anyMatch(r -> r.getName().name().equals("ROLE_ATHLETE"));
         boolean isAdminLike = caller.getRoles().stream().anyMatch(r -> {
             String n = r.getName().name(); return n.equals("ROLE_ADMIN") || n.equals("ROLE_SUPERADMIN");
         });
-        java.util.List<Training> raw;
         if (!isAthlete) {
-            if (isAdminLike) raw = service.all();
-            else raw = service.all().stream()
-                    .filter(t ->
-                            // trainings where trainer is assigned to at least one group
-                            (t.getGroups() != null && t.getGroups().stream().anyMatch(g -> g.getTrainers().stream().anyMatch(u -> u.getId().equals(caller.getId()))))
-                                    // OR trainings authored by the trainer (even if no groups yet)
-                                    || (t.getCreatedBy() != null && t.getCreatedBy().getId().equals(caller.getId()))
-                    )
-                    .toList();
-        } else {
-            var group = caller.getGroupEntity();
-            if (group == null) raw = java.util.Collections.emptyList();
-            else raw = service.findByGroupId(group.getId());
-        }
-        if (isAthlete) {
-            // Bulk presence map for athlete: trainingId -> Boolean
-            java.util.Map<Long, Boolean> presenceMap = new java.util.HashMap<>();
-            try {
-                var attendanceList = attendanceService.byUser(caller);
-                for (var att : attendanceList){
-                    if (att.getTraining()!=null && att.getTraining().getId()!=null){
-                        presenceMap.put(att.getTraining().getId(), att.isPresent());
-                    }
-                }
-            } catch (Exception ignored) {}
-            java.util.Map<Long, Boolean> finalPresenceMap = presenceMap;
-            return raw.stream().map(t -> toDTO(t, caller, finalPresenceMap.get(t.getId()))).toList();
-        }
-        return raw.stream().map(this::toDTO).toList();
+            // admins see everything; trainers see trainings of groups they train plus the ones they authored
+            return service.listView(null, isAdminLike ? null : caller.getId(), true, from, to, pageable(page, size));
+        }
+        var group = caller.getGroupEntity();
+        if (group == null) return java.util.Collections.emptyList();
+        var dtos = service.listView(group.getId(), null, true, from, to, pageable(page, size));
+        // Bulk presence map for athlete: trainingId -> Boolean
+        java.util.Map<Long, Boolean> presenceMap = new java.util.HashMap<>();
+        try {
+            presenceMap = attendanceService.presenceByTraining(caller);
+        } catch (Exception ignored) {}
+        for (var dto : dtos) dto.myPresence = presenceMap.get(dto.id);
+        return dtos;
+    }
+
+    // Calendar view: compact entries in [from, to), cursor-paginated by start time
+    @PreAuthorize("hasAnyRole('TRAINER','ADMIN','SUPERADMIN','ATHLETE')")
+    @GetMapping("/calendar")
+    public TrainingDtos.CalendarPage calendar(Authentication auth, @RequestParam java.time.Instant from, @RequestParam java.time.Instant to,
+            @RequestParam(required=false) String cursor, @RequestParam(defaultValue="200") int size){
+        if (size < 1 || size > 500) throw new IllegalArgumentException("size must be between 1 and 500");
+        var caller = userRepository.findByEmailIgnoreCase(auth.getName()).orElseThrow();
+        boolean isAthlete = caller.getRoles().stream().anyMatch(r -> r.getName().name().equals("ROLE_ATHLETE"));
+        boolean isAdminLike = caller.getRoles().stream().anyMatch(r -> {
+            String n = r.getName().name(); return n.equals("ROLE_ADMIN") || n.equals("ROLE_SUPERADMIN");
+        });
+        if (!isAthlete) return service.calendar(null, isAdminLike ? null : caller.getId(), from, to, cursor, size);
+        var group = caller.getGroupEntity();
+        if (group == null){
+            TrainingDtos.CalendarPage empty = new TrainingDtos.CalendarPage();
+            empty.entries = List.of();
+            return empty;
+        }
+        var page = service.calendar(group.getId(), null, from, to, cursor, size);
+        var presence = attendanceService.presenceByTraining(caller, page.entries.stream().map(e -> e.id).toList());
+        for (var e : page.entries) e.myPresence = presence.get(e.id);
+        return page;
     }
 
     @PreAuthorize("hasAnyRole('TRAINER','ADMIN','SUPERADMIN','ATHLETE')")
@@ -129,10 +135,18 @@ public class TrainingController {
     @PreAuthorize("hasAnyRole('TRAINER','ADMIN','SUPERADMIN')")
     @Transactional(readOnly = true)
     @GetMapping("/by-group/{groupId}")
-    public List<Training> byGroup(@PathVariable Long groupId){
-        return service.all().stream()
-                .filter(t -> t.getGroups() != null && t.getGroups().stream().anyMatch(g -> g.getId().equals(groupId)))
-                .toList();
+    public List<Training> byGroup(@PathVariable Long groupId,
+            @RequestParam(required=false) java.time.Instant from, @RequestParam(required=false) java.time.Instant to,
+            @RequestParam(required=false) Integer page, @RequestParam(required=false) Integer size){
+        return service.findByGroupId(groupId, from, to, pageable(page, size));
+    }
+
+    // No size means the whole (time-windowed) list, as before paging was added
+    private static org.springframework.data.domain.Pageable pageable(Integer page, Integer size){
+        if (size == null) return org.springframework.data.domain.Pageable.unpaged();
+        if (size < 1 || size > 500) throw new IllegalArgumentException("size must be between 1 and 500");
+        if (page != null && page < 0) throw new IllegalArgumentException("page must not be negative");
+        return org.springframework.data.domain.PageRequest.of(page == null ? 0 : page, size);
     }
 
     @PreAuthorize("hasAnyRole('TRAINER','ADMIN','SUPERADMIN')")
@@ -688,7 +702,7 @@ public class TrainingController {
     }
 
     @GetMapping("/attachments/{attachmentId}")
-    public ResponseEntity<InputStreamResource> download(Authentication auth, @PathVariable Long attachmentId){
+    public ResponseEntity<org.springframework.core.io.Resource> download(Authentication auth, @PathVariable Long attachmentId){
         Attachment a = attachmentRepository.findById(attachmentId).orElseThrow();
         Training t = a.getTraining();
         var caller = userRepository.findByEmailIgnoreCase(auth.getName()).orElseThrow();
@@ -704,13 +718,7 @@ public class TrainingController {
         Path filePath = Paths.get(a.getPath()).toAbsolutePath().normalize();
         if (!filePath.startsWith(base) || !Files.exists(filePath)) return ResponseEntity.notFound().build();
         try {
-            InputStreamResource resource = new InputStreamResource(Files.newInputStream(filePath));
-            String filename = a.getFilename() != null ? a.getFilename() : "attachment";
-            String disp = "attachment; filename=\"" + URLEncoder.encode(filename, StandardCharsets.UTF_8.toString()).replaceAll("\\+", "%20") + "\"";
-            return ResponseEntity.ok()
-                    .contentType(MediaType.parseMediaType(a.getContentType()!=null ? a.getContentType(): "application/octet-stream"))
-                    .header("Content-Disposition", disp)
-                    .body(resource);
+            return AttachmentResponses.file(filePath, a.getFilename(), a.getContentType());
         } catch (IOException e){
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(null);
         }
@@ -734,12 +742,12 @@ public class TrainingController {
 
     @PreAuthorize("hasRole('TRAINER')")
     @GetMapping("/mine")
-    public List<TrainingDtos.TrainingDTO> myTrainings(Authentication auth){
+    public List<TrainingDtos.TrainingDTO> myTrainings(Authentication auth,
+            @RequestParam(required=false) java.time.Instant from, @RequestParam(required=false) java.time.Instant to,
+            @RequestParam(required=false) Integer page, @RequestParam(required=false) Integer size){
         // find trainings where authenticated trainer is assigned to one of the training groups
-        return service.all().stream()
-                .filter(t -> t.getGroups() != null && t.getGroups().stream().anyMatch(g -> g.getTrainers().stream().anyMatch(u -> u.getEmail().equalsIgnoreCase(auth.getName()))))
-                .map(this::toDTO)
-                .toList();
+        var caller = userRepository.findByEmailIgnoreCase(auth.getName()).orElseThrow();
+        return service.listView(null, caller.getId(), false, from, to, pageable(page, size));
     }
 
     @PreAuthorize("hasAnyRole('TRAINER','ADMIN','SUPERADMIN')")
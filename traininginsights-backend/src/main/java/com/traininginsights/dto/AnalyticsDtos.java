@@ -0,0 +1,23 @@
+package com.traininginsights.dto;
+
+import java.util.List;
+
+public class AnalyticsDtos {
+    public static class JobRequest {
+        public String type; // aggregate|drilldown
+        public List<String> metrics;
+        public String dimension;
+        public String granularity;
+        public Long groupId;
+        public Long clubId;
+        public String start; // ISO instant
+        public String end;   // ISO instant
+        public String phase;
+        // drilldown only
+        public String key;
+        public String period;
+        public Integer size;
+        public String sort;
+        public String cursor; // drilldown jobs always page by cursor; absent = first page
+    }
+}
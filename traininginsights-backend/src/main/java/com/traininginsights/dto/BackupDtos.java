@@ -42,7 +42,7 @@ public class BackupDtos {
 
     public static class MembershipExport { public Long id; public Long userId; public Long clubId; public Long seasonId; public String startDate; public String endDate; public String status; public boolean notified7Days; public boolean notified1Day; }
 
-    public static class NotificationExport { public Long id; public Long senderId; public Long recipientId; public Long clubId; public Long groupId; public String title; public String body; public Instant createdAt; public boolean isRead; public boolean dispatched; public Instant sentAt; }
+    public static class NotificationExport { public Long id; public Long senderId; public Long recipientId; public Long clubId; public Long groupId; public String title; public String body; public Instant createdAt; public boolean isRead; public boolean dispatched; public Instant sentAt; public Instant emailedAt; }
 
     public static class QuestionnaireExport { public Long id; public String title; public String structure; public boolean daily; public Long creatorId; }
 
@@ -63,4 +63,13 @@ public class BackupDtos {
     public static class UserTokenExport { public Long id; public Long userId; public String token; public String type; public Instant expiresAt; public boolean used; public Instant createdAt; }
     public static class PasswordResetLogExport { public Long id; public Instant resetAt; public Long userId; }
     public static class AttachmentExport { public Long id; public Long trainingId; public String filename; public String contentType; public String relativePath; }
+
+    /**
+     * First entry of a backup zip. snapshot marks the database state the backup covers; a delta backup holds the rows
+     * written after the snapshot of the backup named by since.
+     */
+    public static class Manifest { public String type; public long snapshot; public Long since; public Instant createdAt; }
+
+    /** State of the running (or last) backup restore: table being written, bytes of the upload read, rows per table. */
+    public static class ImportProgress { public boolean running; public String table; public long bytesRead; public long totalBytes; public Instant startedAt; public Instant finishedAt; public String error; public java.util.Map<String,Object> counts; }
 }
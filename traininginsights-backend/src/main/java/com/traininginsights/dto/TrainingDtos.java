@@ -30,6 +30,24 @@ public class TrainingDtos {
         public Boolean myPresence;
     }
 
+    // Compact calendar entry: what a month/week cell renders, details come from GET /api/trainings/{id}
+    public static class CalendarEntry {
+        public Long id;
+        public String title;
+        public Instant start;
+        public Instant end;
+        public Set<Long> groupIds;
+        public Long seriesId;
+        public boolean hasPreQuestionnaire;
+        public boolean hasPostQuestionnaire;
+        public Boolean myPresence;
+    }
+
+    public static class CalendarPage {
+        public java.util.List<CalendarEntry> entries;
+        public String nextCursor; // null on the last page
+    }
+
     // Minimal group projection
     public static class GroupLite {
         public Long id;
@@ -0,0 +1,81 @@
+package com.traininginsights.model;
+
+import jakarta.persistence.*;
+
+import java.time.LocalDate;
+
+/**
+ * Pre-aggregated cell of the analytics cube: running sum/count of one numeric questionnaire metric for a
+ * dimension key and period, bucketed per UTC submission day and per filter scope (all, group or club).
+ * Maintained incrementally on questionnaire submit; rebuilt nightly by AnalyticsRollupScheduler.
+ */
+@Entity
+@Table(name = "analytics_rollups",
+    uniqueConstraints = @UniqueConstraint(name = "uq_analytics_rollup_cell",
+        columnNames = {"metric","phase","dimension","dim_key","granularity","period","bucket_day","scope_type","scope_id"}),
+    indexes = @Index(name = "idx_analytics_rollup_lookup", columnList = "metric,dimension,granularity,scope_type,scope_id,bucket_day"))
+public class AnalyticsRollup {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false)
+    private String metric;
+
+    // Empty string when the response had no phase (keeps the unique constraint effective)
+    @Column(nullable = false)
+    private String phase;
+
+    @Column(nullable = false)
+    private String dimension; // athlete|group|club
+
+    @Column(name = "dim_key", nullable = false)
+    private String dimKey;
+
+    @Column(nullable = false)
+    private String granularity; // day|week|month|training
+
+    @Column(nullable = false)
+    private String period;
+
+    // UTC date of submittedAt; lets start/end filters sum whole days from the cube
+    @Column(name = "bucket_day", nullable = false)
+    private LocalDate bucketDay;
+
+    @Column(name = "scope_type", nullable = false)
+    private String scopeType; // all|group|club
+
+    @Column(name = "scope_id", nullable = false)
+    private Long scopeId; // 0 for scope 'all'
+
+    @Column(name = "value_sum", nullable = false)
+    private double valueSum;
+
+    @Column(name = "value_count", nullable = false)
+    private long valueCount;
+
+    public Long getId() { return id; }
+    public void setId(Long id) { this.id = id; }
+    public String getMetric() { return metric; }
+    public void setMetric(String metric) { this.metric = metric; }
+    public String getPhase() { return phase; }
+    public void setPhase(String phase) { this.phase = phase; }
+    public String getDimension() { return dimension; }
+    public void setDimension(String dimension) { this.dimension = dimension; }
+    public String getDimKey() { return dimKey; }
+    public void setDimKey(String dimKey) { this.dimKey = dimKey; }
+    public String getGranularity() { return granularity; }
+    public void setGranularity(String granularity) { this.granularity = granularity; }
+    public String getPeriod() { return period; }
+    public void setPeriod(String period) { this.period = period; }
+    public LocalDate getBucketDay() { return bucketDay; }
+    public void setBucketDay(LocalDate bucketDay) { this.bucketDay = bucketDay; }
+    public String getScopeType() { return scopeType; }
+    public void setScopeType(String scopeType) { this.scopeType = scopeType; }
+    public Long getScopeId() { return scopeId; }
+    public void setScopeId(Long scopeId) { this.scopeId = scopeId; }
+    public double getValueSum() { return valueSum; }
+    public void setValueSum(double valueSum) { this.valueSum = valueSum; }
+    public long getValueCount() { return valueCount; }
+    public void setValueCount(long valueCount) { this.valueCount = valueCount; }
+}
@@ -0,0 +1,39 @@
+package com.traininginsights.model;
+
+import jakarta.persistence.*;
+
+import java.time.Instant;
+
+/**
+ * Whether a derived analytics table (response_metrics, analytics_rollups) covers every questionnaire response.
+ * Kept in the database so a restart or another instance does not trust a table that was left incomplete.
+ * generation is bumped on every invalidation; a rebuild only marks the table ready when no invalidation happened
+ * while it ran.
+ */
+@Entity
+@Table(name = "analytics_state")
+public class AnalyticsState {
+    @Id
+    private String name;
+
+    @Column(nullable = false)
+    private boolean ready;
+
+    @Column(nullable = false)
+    private long generation;
+
+    @Column(name = "updated_at")
+    private Instant updatedAt;
+
+    public String getName() { return name; }
+    public void setName(String name) { this.name = name; }
+
+    public boolean isReady() { return ready; }
+    public void setReady(boolean ready) { this.ready = ready; }
+
+    public long getGeneration() { return generation; }
+    public void setGeneration(long generation) { this.generation = generation; }
+
+    public Instant getUpdatedAt() { return updatedAt; }
+    public void setUpdatedAt(Instant updatedAt) { this.updatedAt = updatedAt; }
+}
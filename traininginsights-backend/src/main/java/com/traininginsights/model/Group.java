@@ -29,7 +29,8 @@ public class Group {
     @ManyToMany
     @JoinTable(name = "group_trainers",
         joinColumns = @JoinColumn(name = "group_id"),
-        inverseJoinColumns = @JoinColumn(name = "user_id"))
+        inverseJoinColumns = @JoinColumn(name = "user_id"),
+        indexes = @Index(name = "idx_group_trainers_user", columnList = "user_id"))
     @JsonIgnore // prevent deep recursive serialization (Group -> trainers -> roles/clubs/groups)
     private Set<User> trainers = new HashSet<>();
 
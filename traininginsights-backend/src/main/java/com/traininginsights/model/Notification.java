@@ -29,6 +29,8 @@ public class Notification {
     // whether an email for this notification was dispatched and when
     private boolean dispatched = false;
     private Instant sentAt;
+    // when the broadcast email reached the mail server for this recipient (their BCC chunk was sent)
+    private Instant emailedAt;
 
     // optional context for deep-linking
     private Long trainingId;
@@ -56,6 +58,8 @@ public class Notification {
     public void setDispatched(boolean dispatched) { this.dispatched = dispatched; }
     public Instant getSentAt() { return sentAt; }
     public void setSentAt(Instant sentAt) { this.sentAt = sentAt; }
+    public Instant getEmailedAt() { return emailedAt; }
+    public void setEmailedAt(Instant emailedAt) { this.emailedAt = emailedAt; }
     public Long getTrainingId() { return trainingId; }
     public void setTrainingId(Long trainingId) { this.trainingId = trainingId; }
     public Long getQuestionnaireId() { return questionnaireId; }
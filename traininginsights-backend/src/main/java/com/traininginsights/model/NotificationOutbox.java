@@ -0,0 +1,86 @@
+package com.traininginsights.model;
+
+import jakarta.persistence.*;
+
+import java.time.Instant;
+
+/**
+ * Pending delivery of a notification over an external channel (currently web-push, one row per subscription).
+ * Written in the transaction that creates the notification and drained by NotificationOutboxService.
+ * status: PENDING (due at nextAttemptAt), SENDING (claimed until nextAttemptAt, then due again), DONE, DEAD
+ * (gave up after maxAttempts or a permanent failure).
+ */
+@Entity
+@Table(name = "notification_outbox",
+    uniqueConstraints = @UniqueConstraint(name = "uq_notification_outbox_key", columnNames = "idempotency_key"),
+    indexes = @Index(name = "idx_notification_outbox_due", columnList = "status,next_attempt_at"))
+public class NotificationOutbox {
+    public static final String PENDING = "PENDING";
+    public static final String SENDING = "SENDING";
+    public static final String DONE = "DONE";
+    public static final String DEAD = "DEAD";
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    // e.g. push:<notificationId>:<subscriptionId>; a second enqueue of the same delivery is rejected
+    @Column(name = "idempotency_key", nullable = false, length = 200)
+    private String idempotencyKey;
+
+    @Column(name = "notification_id")
+    private Long notificationId;
+
+    @Column(nullable = false, length = 20)
+    private String channel = "PUSH";
+
+    @Column(name = "subscription_id")
+    private Long subscriptionId;
+
+    @Column(columnDefinition = "TEXT")
+    private String payload;
+
+    @Column(nullable = false, length = 20)
+    private String status = PENDING;
+
+    private int attempts;
+
+    @Column(name = "next_attempt_at", nullable = false)
+    private Instant nextAttemptAt = Instant.now();
+
+    @Column(name = "last_status")
+    private Integer lastStatus;
+
+    @Column(name = "last_error", length = 1000)
+    private String lastError;
+
+    private Instant createdAt = Instant.now();
+    private Instant completedAt;
+
+    public Long getId() { return id; }
+    public void setId(Long id) { this.id = id; }
+    public String getIdempotencyKey() { return idempotencyKey; }
+    public void setIdempotencyKey(String idempotencyKey) { this.idempotencyKey = idempotencyKey; }
+    public Long getNotificationId() { return notificationId; }
+    public void setNotificationId(Long notificationId) { this.notificationId = notificationId; }
+    public String getChannel() { return channel; }
+    public void setChannel(String channel) { this.channel = channel; }
+    public Long getSubscriptionId() { return subscriptionId; }
+    public void setSubscriptionId(Long subscriptionId) { this.subscriptionId = subscriptionId; }
+    public String getPayload() { return payload; }
+    public void setPayload(String payload) { this.payload = payload; }
+    public String getStatus() { return status; }
+    public void setStatus(String status) { this.status = status; }
+    public int getAttempts() { return attempts; }
+    public void setAttempts(int attempts) { this.attempts = attempts; }
+    public Instant getNextAttemptAt() { return nextAttemptAt; }
+    public void setNextAttemptAt(Instant nextAttemptAt) { this.nextAttemptAt = nextAttemptAt; }
+    public Integer getLastStatus() { return lastStatus; }
+    public void setLastStatus(Integer lastStatus) { this.lastStatus = lastStatus; }
+    public String getLastError() { return lastError; }
+    public void setLastError(String lastError) { this.lastError = lastError; }
+    public Instant getCreatedAt() { return createdAt; }
+    public void setCreatedAt(Instant createdAt) { this.createdAt = createdAt; }
+    public Instant getCompletedAt() { return completedAt; }
+    public void setCompletedAt(Instant completedAt) { this.completedAt = completedAt; }
+}
@@ -3,7 +3,7 @@ package com.traininginsights.model;
 import jakarta.persistence.*;
 
 @Entity
-@Table(name = "push_subscriptions")
+@Table(name = "push_subscriptions", indexes = @Index(name = "idx_push_subscriptions_user", columnList = "user_id"))
 public class PushSubscription {
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
@@ -0,0 +1,66 @@
+package com.traininginsights.model;
+
+import jakarta.persistence.*;
+
+import java.time.Instant;
+
+/**
+ * One numeric field of a questionnaire response, extracted at submit time so analytics can filter and aggregate
+ * on indexed double columns instead of parsing questionnaire_responses.responses. Training/user/phase/submittedAt
+ * are denormalized copies of the owning response.
+ */
+@Entity
+@Table(name = "response_metrics",
+    uniqueConstraints = @UniqueConstraint(name = "uq_response_metric", columnNames = {"response_id","metric"}),
+    indexes = {
+        @Index(name = "idx_response_metrics_metric_submitted", columnList = "metric,submitted_at"),
+        @Index(name = "idx_response_metrics_training", columnList = "training_id"),
+        @Index(name = "idx_response_metrics_submitted_id", columnList = "submitted_at,id")
+    })
+public class ResponseMetric {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "response_id", nullable = false)
+    private Long responseId;
+
+    @Column(nullable = false)
+    private String metric;
+
+    @Column(name = "value", nullable = false)
+    private double value;
+
+    @Column(name = "training_id")
+    private Long trainingId;
+
+    @Column(name = "training_time")
+    private Instant trainingTime;
+
+    @Column(name = "user_id")
+    private Long userId;
+
+    private String phase;
+
+    @Column(name = "submitted_at")
+    private Instant submittedAt;
+
+    public Long getId() { return id; }
+    public void setId(Long id) { this.id = id; }
+    public Long getResponseId() { return responseId; }
+    public void setResponseId(Long responseId) { this.responseId = responseId; }
+    public String getMetric() { return metric; }
+    public void setMetric(String metric) { this.metric = metric; }
+    public double getValue() { return value; }
+    public void setValue(double value) { this.value = value; }
+    public Long getTrainingId() { return trainingId; }
+    public void setTrainingId(Long trainingId) { this.trainingId = trainingId; }
+    public Instant getTrainingTime() { return trainingTime; }
+    public void setTrainingTime(Instant trainingTime) { this.trainingTime = trainingTime; }
+    public Long getUserId() { return userId; }
+    public void setUserId(Long userId) { this.userId = userId; }
+    public String getPhase() { return phase; }
+    public void setPhase(String phase) { this.phase = phase; }
+    public Instant getSubmittedAt() { return submittedAt; }
+    public void setSubmittedAt(Instant submittedAt) { this.submittedAt = submittedAt; }
+}
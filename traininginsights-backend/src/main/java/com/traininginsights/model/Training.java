@@ -9,7 +9,10 @@ import java.util.HashSet;
 import java.util.Set;
 
 @Entity
-@Table(name = "trainings")
+@Table(name = "trainings", indexes = {
+        @Index(name = "idx_trainings_time_id", columnList = "training_time,id"),
+        @Index(name = "idx_trainings_notification_time", columnList = "notification_time")
+})
 public class Training {
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
@@ -32,7 +35,8 @@ public class Training {
     @ManyToMany
     @JoinTable(name = "training_groups",
             joinColumns = @JoinColumn(name = "training_id"),
-            inverseJoinColumns = @JoinColumn(name = "group_id"))
+            inverseJoinColumns = @JoinColumn(name = "group_id"),
+            indexes = @Index(name = "idx_training_groups_group", columnList = "group_id"))
     private Set<Group> groups = new HashSet<>();
 
     @ManyToOne
@@ -9,7 +9,7 @@ import java.util.HashSet;
 import java.util.Set;
 
 @Entity
-@Table(name = "users")
+@Table(name = "users", indexes = @Index(name = "idx_users_group", columnList = "group_id"))
 public class User {
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
@@ -54,7 +54,8 @@ public class User {
     @ManyToMany
     @JoinTable(name = "user_clubs",
         joinColumns = @JoinColumn(name = "user_id"),
-        inverseJoinColumns = @JoinColumn(name = "club_id"))
+        inverseJoinColumns = @JoinColumn(name = "club_id"),
+        indexes = @Index(name = "idx_user_clubs_club", columnList = "club_id"))
     private Set<Club> clubs = new HashSet<>();
 
     public Long getId() { return id; }
@@ -0,0 +1,12 @@
+package com.traininginsights.repository;
+
+import com.traininginsights.model.AnalyticsRollup;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+
+public interface AnalyticsRollupRepository extends JpaRepository<AnalyticsRollup, Long> {
+    @Modifying
+    @Query("delete from AnalyticsRollup r")
+    int deleteAllCells();
+}
@@ -0,0 +1,37 @@
+package com.traininginsights.repository;
+
+import com.traininginsights.model.AnalyticsState;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.Optional;
+
+// scalar reads so a state changed by the update queries below is never served from the persistence context
+public interface AnalyticsStateRepository extends JpaRepository<AnalyticsState, String> {
+    @Query("select s.ready from AnalyticsState s where s.name = :name")
+    Optional<Boolean> findReady(@Param("name") String name);
+
+    @Query("select s.generation from AnalyticsState s where s.name = :name")
+    Optional<Long> findGeneration(@Param("name") String name);
+
+    @Modifying
+    @Query(value = "insert into analytics_state (name, ready, generation, updated_at) values (:name, false, 1, now()) " +
+            "on conflict (name) do update set ready = false, generation = analytics_state.generation + 1, updated_at = now()", nativeQuery = true)
+    int markStale(@Param("name") String name);
+
+    // no-op when the state was invalidated after generation was read
+    @Modifying
+    @Query(value = "insert into analytics_state (name, ready, generation, updated_at) values (:name, true, :generation, now()) " +
+            "on conflict (name) do update set ready = true, updated_at = now() where analytics_state.generation = :generation", nativeQuery = true)
+    int markReady(@Param("name") String name, @Param("generation") long generation);
+
+    // serializes rebuilds of one table across instances until the end of the transaction
+    @Query(value = "select cast(pg_advisory_xact_lock(hashtext(:name)) as text)", nativeQuery = true)
+    String lock(@Param("name") String name);
+
+    // taken by writers of incremental updates, which may run together but not during a rebuild
+    @Query(value = "select cast(pg_advisory_xact_lock_shared(hashtext(:name)) as text)", nativeQuery = true)
+    String lockShared(@Param("name") String name);
+}
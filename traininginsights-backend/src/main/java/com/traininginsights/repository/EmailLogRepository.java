@@ -2,7 +2,18 @@ package com.traininginsights.repository;
 
 import com.traininginsights.model.EmailLog;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
 public interface EmailLogRepository extends JpaRepository<EmailLog, Long> {
     long countByClubId(Long clubId);
+
+    // One log row per address in a single statement
+    @Transactional
+    @Modifying
+    @Query(value = "insert into email_log (sent_at, to_address, subject, club_id) "
+            + "select :sentAt, a, :subject, cast(:clubId as bigint) from unnest(cast(:addresses as text[])) as a", nativeQuery = true)
+    int insertAll(@Param("addresses") String[] addresses, @Param("subject") String subject, @Param("clubId") Long clubId, @Param("sentAt") java.time.Instant sentAt);
 }
@@ -2,9 +2,15 @@ package com.traininginsights.repository;
 
 import com.traininginsights.model.Group;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 import java.util.Optional;
+import java.util.Set;
 
 public interface GroupRepository extends JpaRepository<Group, Long> {
     Optional<Group> findByNameIgnoreCase(String name);
+
+    @Query("select g.id from Group g join g.trainers u where u.id = :userId")
+    Set<Long> findIdsByTrainerId(@Param("userId") Long userId);
 }
@@ -0,0 +1,54 @@
+package com.traininginsights.repository;
+
+import com.traininginsights.model.NotificationOutbox;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+
+public interface NotificationOutboxRepository extends JpaRepository<NotificationOutbox, Long> {
+
+    // Due rows (pending, or claimed by a sender whose lease ran out), locked for the calling transaction; rows locked elsewhere are skipped
+    @Query(value = "select * from notification_outbox where status in ('PENDING','SENDING') and next_attempt_at <= :now "
+            + "order by next_attempt_at, id limit :limit for update skip locked", nativeQuery = true)
+    List<NotificationOutbox> claimDue(@Param("now") Instant now, @Param("limit") int limit);
+
+    List<NotificationOutbox> findByIdempotencyKeyIn(Collection<String> keys);
+
+    // Results of a send: attempt is the claim's attempt number, so the result of a lease that ran out (and was claimed
+    // again) does not touch the newer attempt
+    @Transactional
+    @Modifying
+    @Query("update NotificationOutbox o set o.status = 'DONE', o.lastStatus = :status, o.lastError = null, o.completedAt = :at where o.id = :id and o.status = 'SENDING' and o.attempts = :attempt")
+    int markDone(@Param("id") Long id, @Param("attempt") int attempt, @Param("status") Integer status, @Param("at") Instant at);
+
+    @Transactional
+    @Modifying
+    @Query("update NotificationOutbox o set o.status = 'PENDING', o.lastStatus = :status, o.lastError = :error, o.nextAttemptAt = :next where o.id = :id and o.status = 'SENDING' and o.attempts = :attempt")
+    int markRetry(@Param("id") Long id, @Param("attempt") int attempt, @Param("status") Integer status, @Param("error") String error, @Param("next") Instant next);
+
+    @Transactional
+    @Modifying
+    @Query("update NotificationOutbox o set o.status = 'DEAD', o.lastStatus = :status, o.lastError = :error, o.completedAt = :at where o.id = :id and o.status = 'SENDING' and o.attempts = :attempt")
+    int markDead(@Param("id") Long id, @Param("attempt") int attempt, @Param("status") Integer status, @Param("error") String error, @Param("at") Instant at);
+
+    @Transactional
+    @Modifying
+    @Query("update NotificationOutbox o set o.status = 'PENDING', o.attempts = 0, o.nextAttemptAt = :now, o.completedAt = null where o.status = 'DEAD'")
+    int requeueDead(@Param("now") Instant now);
+
+    // completed rows past their retention, a batch at a time so one delete does not hold many row locks
+    @Transactional
+    @Modifying
+    @Query(value = "delete from notification_outbox where id in (select id from notification_outbox where status in ('DONE','DEAD') "
+            + "and completed_at < :before limit :limit)", nativeQuery = true)
+    int deleteCompletedBefore(@Param("before") Instant before, @Param("limit") int limit);
+
+    @Query("select o.status, count(o) from NotificationOutbox o group by o.status")
+    List<Object[]> countByStatus();
+}
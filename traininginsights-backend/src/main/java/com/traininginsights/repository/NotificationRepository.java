@@ -3,10 +3,38 @@ package com.traininginsights.repository;
 import com.traininginsights.model.Notification;
 import com.traininginsights.model.User;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.List;
 
 public interface NotificationRepository extends JpaRepository<Notification, Long> {
     List<Notification> findByRecipient(User recipient);
     long countByRecipientAndIsReadFalse(User recipient);
+
+    // club notifications still waiting for their email, with club and recipient loaded
+    @Query("select n from Notification n join fetch n.club join fetch n.recipient where n.dispatched = false")
+    List<Notification> findUndispatchedClubNotifications();
+
+    @Transactional
+    @Modifying
+    @Query("update Notification n set n.dispatched = true, n.sentAt = :sentAt where n.id = :id and n.dispatched = false")
+    int markDispatched(@Param("id") Long id, @Param("sentAt") java.time.Instant sentAt);
+
+    // recipients whose broadcast email chunk was sent
+    @Transactional
+    @Modifying
+    @Query("update Notification n set n.emailedAt = :emailedAt where n.id in :ids and n.emailedAt is null")
+    int markEmailed(@Param("ids") java.util.Collection<Long> ids, @Param("emailedAt") java.time.Instant emailedAt);
+
+    // email delivery of notifications the sender created; emailedAt is null until the recipient's chunk is sent
+    @Query("select n.id as id, n.emailedAt as emailedAt from Notification n where n.sender.id = :senderId and n.id in :ids")
+    List<EmailStatus> findEmailStatus(@Param("senderId") Long senderId, @Param("ids") java.util.Collection<Long> ids);
+
+    interface EmailStatus {
+        Long getId();
+        java.time.Instant getEmailedAt();
+    }
 }
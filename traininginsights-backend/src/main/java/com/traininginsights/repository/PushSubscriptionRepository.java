@@ -3,8 +3,20 @@ package com.traininginsights.repository;
 import com.traininginsights.model.PushSubscription;
 import com.traininginsights.model.User;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import java.util.List;
 
 public interface PushSubscriptionRepository extends JpaRepository<PushSubscription, Long> {
     List<PushSubscription> findByUser(User user);
+    List<PushSubscription> findByUser_IdIn(java.util.Collection<Long> userIds);
+
+    interface SubscriptionRow {
+        Long getId();
+        Long getUserId();
+    }
+
+    // subscription ids per user, without loading the subscriptions' users
+    @Query("select s.id as id, s.user.id as userId from PushSubscription s where s.user.id in :userIds")
+    List<SubscriptionRow> findIdsByUserIds(@Param("userIds") java.util.Collection<Long> userIds);
 }
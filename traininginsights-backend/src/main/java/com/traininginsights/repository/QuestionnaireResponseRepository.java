@@ -4,8 +4,10 @@ import com.traininginsights.model.Questionnaire;
 import com.traininginsights.model.QuestionnaireResponse;
 import com.traininginsights.model.Training;
 import com.traininginsights.model.User;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 
+import java.time.Instant;
 import java.util.List;
 import java.util.Optional;
 
@@ -15,4 +17,11 @@ public interface QuestionnaireResponseRepository extends JpaRepository<Questionn
     List<QuestionnaireResponse> findByTraining(Training training);
     List<QuestionnaireResponse> findByUser(User user);
     List<QuestionnaireResponse> findByQuestionnaire(Questionnaire questionnaire);
+
+    // Submission windows (used by the analytics cube for partial edge days)
+    List<QuestionnaireResponse> findBySubmittedAtGreaterThanEqualAndSubmittedAtLessThan(Instant from, Instant to);
+    List<QuestionnaireResponse> findBySubmittedAtBetween(Instant from, Instant to);
+
+    // keyset paging for full scans (cube rebuild)
+    List<QuestionnaireResponse> findByIdGreaterThanOrderByIdAsc(Long id, Pageable page);
 }
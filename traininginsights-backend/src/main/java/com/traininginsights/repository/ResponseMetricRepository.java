@@ -0,0 +1,24 @@
+package com.traininginsights.repository;
+
+import com.traininginsights.model.ResponseMetric;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.Instant;
+
+public interface ResponseMetricRepository extends JpaRepository<ResponseMetric, Long> {
+    @Modifying
+    @Query("delete from ResponseMetric m where m.responseId = :responseId")
+    int deleteByResponseId(@Param("responseId") Long responseId);
+
+    @Modifying
+    @Query("delete from ResponseMetric m")
+    int deleteAllMetrics();
+
+    // Keep the denormalized training time in step when a training is rescheduled
+    @Modifying
+    @Query("update ResponseMetric m set m.trainingTime = :trainingTime where m.trainingId = :trainingId and (m.trainingTime is null or m.trainingTime <> :trainingTime)")
+    int updateTrainingTime(@Param("trainingId") Long trainingId, @Param("trainingTime") Instant trainingTime);
+}
@@ -8,4 +8,5 @@ import java.util.List;
 
 public interface SentNotificationRepository extends JpaRepository<SentNotification, Long> {
     List<SentNotification> findByTrainingIdAndTypeAndSentAtAfter(Long trainingId, String type, Instant after);
+    List<SentNotification> findByTrainingIdInAndTypeAndSentAtAfter(java.util.Collection<Long> trainingIds, String type, Instant after);
 }
@@ -4,6 +4,8 @@ import com.traininginsights.model.Training;
 import com.traininginsights.model.TrainingAttendance;
 import com.traininginsights.model.User;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 import java.util.List;
 import java.util.Optional;
@@ -16,4 +18,15 @@ public interface TrainingAttendanceRepository extends JpaRepository<TrainingAtte
     long countByTraining(Training training);
     long countByUserAndPresentIsTrue(User user);
     long countByUser(User user);
+
+    interface PresenceRow {
+        Long getTrainingId();
+        Boolean getPresent();
+    }
+
+    @Query("select a.training.id as trainingId, a.present as present from TrainingAttendance a where a.user.id = :userId")
+    List<PresenceRow> findPresenceByUserId(@Param("userId") Long userId);
+
+    @Query("select a.training.id as trainingId, a.present as present from TrainingAttendance a where a.user.id = :userId and a.training.id in :trainingIds")
+    List<PresenceRow> findPresenceByUserIdAndTrainingIds(@Param("userId") Long userId, @Param("trainingIds") java.util.Collection<Long> trainingIds);
 }
@@ -2,7 +2,9 @@ package com.traininginsights.repository;
 
 import com.traininginsights.model.Group;
 import com.traininginsights.model.Training;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
@@ -30,4 +32,112 @@ public interface TrainingRepository extends JpaRepository<Training, Long> {
     long countBySeries_IdAndSeriesSequenceGreaterThanEqual(Long seriesId, Integer sequence);
 
     Training findFirstBySeries_IdAndSeriesSequence(Long seriesId, Integer sequence);
+
+    // Flat training list rows: scalar columns plus ids of the associations, without loading the entity graph
+    interface ListRow {
+        Long getId();
+        String getTitle();
+        String getDescription();
+        Instant getTrainingTime();
+        Instant getTrainingEndTime();
+        Boolean getVisibleToAthletes();
+        Integer getPreNotificationMinutes();
+        Integer getSeriesSequence();
+        Boolean getDetached();
+        Boolean getGroupDetached();
+        Long getPreQuestionnaireId();
+        Long getPostQuestionnaireId();
+        Long getCreatedById();
+        Long getSeriesId();
+        String getSeriesRrule();
+        String getSeriesTimezone();
+        Instant getSeriesUntil();
+        Integer getSeriesCount();
+    }
+
+    interface GroupRow {
+        Long getTrainingId();
+        Long getGroupId();
+        String getGroupName();
+    }
+
+    interface SequenceRow {
+        Long getSeriesId();
+        Integer getSeriesSequence();
+    }
+
+    String LIST_ROW = "select t.id as id, t.title as title, t.description as description, t.trainingTime as trainingTime, t.trainingEndTime as trainingEndTime, "
+            + "t.isVisibleToAthletes as visibleToAthletes, t.preNotificationMinutes as preNotificationMinutes, t.seriesSequence as seriesSequence, "
+            + "t.detached as detached, t.groupDetached as groupDetached, pq.id as preQuestionnaireId, poq.id as postQuestionnaireId, cb.id as createdById, "
+            + "s.id as seriesId, s.rrule as seriesRrule, s.timezone as seriesTimezone, s.until as seriesUntil, s.count as seriesCount "
+            + "from Training t left join t.series s left join t.preQuestionnaire pq left join t.postQuestionnaire poq left join t.createdBy cb ";
+
+    // Time window: from inclusive, to exclusive (callers pass wide bounds for an open window, so training_time stays sargable)
+    String WINDOW = "t.trainingTime >= :from and t.trainingTime < :to ";
+
+    @Query(LIST_ROW + "where " + WINDOW + "order by t.trainingTime, t.id")
+    List<ListRow> findListRows(@Param("from") Instant from, @Param("to") Instant to, Pageable pageable);
+
+    @Query(LIST_ROW + "where exists (select 1 from Training t2 join t2.groups g where t2 = t and g.id = :groupId) and " + WINDOW + "order by t.trainingTime, t.id")
+    List<ListRow> findListRowsForGroup(@Param("groupId") Long groupId, @Param("from") Instant from, @Param("to") Instant to, Pageable pageable);
+
+    // trainings of groups the user trains, plus (when includeAuthored) trainings the user authored
+    @Query(LIST_ROW + "where ((:includeAuthored = true and cb.id = :userId) or exists (select 1 from Training t2 join t2.groups g join g.trainers u where t2 = t and u.id = :userId)) and "
+            + WINDOW + "order by t.trainingTime, t.id")
+    List<ListRow> findListRowsForTrainer(@Param("userId") Long userId, @Param("includeAuthored") boolean includeAuthored, @Param("from") Instant from, @Param("to") Instant to, Pageable pageable);
+
+    @Query("select t from Training t where exists (select 1 from Training t2 join t2.groups g where t2 = t and g.id = :groupId) and " + WINDOW + "order by t.trainingTime, t.id")
+    List<Training> findForGroup(@Param("groupId") Long groupId, @Param("from") Instant from, @Param("to") Instant to, Pageable pageable);
+
+    interface CalendarRow {
+        Long getId();
+        String getTitle();
+        Instant getTrainingTime();
+        Instant getTrainingEndTime();
+        Long getSeriesId();
+        Long getPreQuestionnaireId();
+        Long getPostQuestionnaireId();
+    }
+
+    // Calendar rows in [from, to), after the (afterTime, afterId) keyset position, ordered like the (training_time, id) index
+    String CALENDAR_ROW = "select t.id as id, t.title as title, t.trainingTime as trainingTime, t.trainingEndTime as trainingEndTime, t.series.id as seriesId, "
+            + "t.preQuestionnaire.id as preQuestionnaireId, t.postQuestionnaire.id as postQuestionnaireId from Training t "
+            + "where " + WINDOW + "and (t.trainingTime > :afterTime or (t.trainingTime = :afterTime and t.id > :afterId)) ";
+
+    @Query(CALENDAR_ROW + "order by t.trainingTime, t.id")
+    List<CalendarRow> findCalendarRows(@Param("from") Instant from, @Param("to") Instant to, @Param("afterTime") Instant afterTime, @Param("afterId") Long afterId, Pageable pageable);
+
+    @Query(CALENDAR_ROW + "and exists (select 1 from Training t2 join t2.groups g where t2 = t and g.id = :groupId) order by t.trainingTime, t.id")
+    List<CalendarRow> findCalendarRowsForGroup(@Param("groupId") Long groupId, @Param("from") Instant from, @Param("to") Instant to, @Param("afterTime") Instant afterTime, @Param("afterId") Long afterId, Pageable pageable);
+
+    @Query(CALENDAR_ROW + "and (t.createdBy.id = :userId or exists (select 1 from Training t2 join t2.groups g join g.trainers u where t2 = t and u.id = :userId)) order by t.trainingTime, t.id")
+    List<CalendarRow> findCalendarRowsForTrainer(@Param("userId") Long userId, @Param("from") Instant from, @Param("to") Instant to, @Param("afterTime") Instant afterTime, @Param("afterId") Long afterId, Pageable pageable);
+
+    // Due pre-training reminders, claimed by the calling transaction; rows locked by another instance are skipped
+    @Query(value = "select id from trainings where notification_time <= :now order by notification_time, id limit :limit for update skip locked", nativeQuery = true)
+    List<Long> claimDueNotifications(@Param("now") Instant now, @Param("limit") int limit);
+
+    @Modifying
+    @Query("update Training t set t.notificationTime = null where t.id in :ids")
+    int clearNotificationTime(@Param("ids") java.util.Collection<Long> ids);
+
+    @Modifying
+    @Query("update Training t set t.notificationTime = :time where t.id in :ids")
+    int rescheduleNotification(@Param("ids") java.util.Collection<Long> ids, @Param("time") Instant time);
+
+    interface RecipientRow {
+        Long getTrainingId();
+        Long getUserId();
+    }
+
+    // Per training: athletes of its groups without a PRE response to its pre-questionnaire (eligible minus responders)
+    @Query("select distinct t.id as trainingId, a.id as userId from Training t join t.groups g join g.athletes a where t.id in :trainingIds and t.preQuestionnaire is not null "
+            + "and not exists (select 1 from QuestionnaireResponse r where r.user = a and r.training = t and r.questionnaire = t.preQuestionnaire and r.phase = 'PRE')")
+    List<RecipientRow> findPreReminderRecipients(@Param("trainingIds") java.util.Collection<Long> trainingIds);
+
+    @Query("select t.id as trainingId, g.id as groupId, g.name as groupName from Training t join t.groups g where t.id in :ids")
+    List<GroupRow> findGroupRows(@Param("ids") java.util.Collection<Long> ids);
+
+    @Query("select s.id as seriesId, t.seriesSequence as seriesSequence from Training t join t.series s where s.id in :seriesIds")
+    List<SequenceRow> findSequenceRows(@Param("seriesIds") java.util.Collection<Long> seriesIds);
 }
@@ -3,6 +3,8 @@ package com.traininginsights.repository;
 import com.traininginsights.model.Group;
 import com.traininginsights.model.User;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 import java.util.List;
 import java.util.Optional;
@@ -11,4 +13,16 @@ public interface UserRepository extends JpaRepository<User, Long> {
     Optional<User> findByEmailIgnoreCase(String email);
     List<User> findByGroupEntity(Group group);
     boolean existsByEmailIgnoreCase(String email);
+
+    // Broadcast recipients: id and email only, so a large club does not load users with their roles and group
+    interface RecipientRow {
+        Long getId();
+        String getEmail();
+    }
+
+    @Query("select u.id as id, u.email as email from User u join u.clubs c where c.id = :clubId order by u.id")
+    List<RecipientRow> findClubRecipients(@Param("clubId") Long clubId);
+
+    @Query("select u.id as id, u.email as email from User u where u.groupEntity.id = :groupId order by u.id")
+    List<RecipientRow> findGroupRecipients(@Param("groupId") Long groupId);
 }
@@ -0,0 +1,42 @@
+package com.traininginsights.scheduler;
+
+import com.traininginsights.service.AnalyticsRollupService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+@Component
+public class AnalyticsRollupScheduler {
+    private static final Logger log = LoggerFactory.getLogger(AnalyticsRollupScheduler.class);
+    private final AnalyticsRollupService rollupService;
+    public AnalyticsRollupScheduler(AnalyticsRollupService rollupService){ this.rollupService = rollupService; }
+
+    // Build the cube once when it has never been built against existing responses
+    @EventListener(ApplicationReadyEvent.class)
+    public void buildIfMissing(){
+        try {
+            if (!rollupService.isReady()) log.info("Analytics cube built: {}", rollupService.rebuild());
+        } catch (Exception e){
+            log.warn("Analytics cube build failed; aggregate falls back to the live path", e);
+        }
+    }
+
+    // Rebuild when the cube was marked stale (group clubs changed, a restore, a failed update; here or on another instance)
+    @Scheduled(fixedDelayString = "${app.analytics.repairMs:60000}", initialDelayString = "${app.analytics.repairMs:60000}")
+    public void rebuildIfStale(){
+        try {
+            if (!rollupService.refresh()) log.info("Analytics cube rebuilt: {}", rollupService.rebuild());
+        } catch (Exception e){
+            log.warn("Analytics cube rebuild failed; retrying on the next check", e);
+        }
+    }
+
+    // Nightly pass at 01:30 for drift flagged while no check ran (deleted responses or trainings mark the cube stale)
+    @Scheduled(cron = "0 30 1 * * ?")
+    public void rebuildRollups(){
+        rebuildIfStale();
+    }
+}
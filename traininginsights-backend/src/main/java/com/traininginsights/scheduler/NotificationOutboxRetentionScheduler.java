@@ -0,0 +1,30 @@
+package com.traininginsights.scheduler;
+
+import com.traininginsights.service.NotificationOutboxService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+
+@Component
+public class NotificationOutboxRetentionScheduler {
+    private static final Logger log = LoggerFactory.getLogger(NotificationOutboxRetentionScheduler.class);
+    private final NotificationOutboxService outboxService;
+    private final int retentionDays;
+    public NotificationOutboxRetentionScheduler(NotificationOutboxService outboxService, @Value("${app.push.outboxRetentionDays:14}") int retentionDays){ this.outboxService = outboxService; this.retentionDays = Math.max(1, retentionDays); }
+
+    // Run once per day at 04:00: delivered and dead-lettered outbox rows are kept retentionDays for inspection and requeueing
+    @Scheduled(cron = "0 0 4 * * ?")
+    public void purgeCompleted(){
+        try {
+            int n = outboxService.purgeCompleted(Instant.now().minus(retentionDays, ChronoUnit.DAYS));
+            if (n > 0) log.info("Notification outbox: purged {} completed row(s) older than {} days", n, retentionDays);
+        } catch (Exception e){
+            log.warn("Notification outbox purge failed; retrying tomorrow", e);
+        }
+    }
+}
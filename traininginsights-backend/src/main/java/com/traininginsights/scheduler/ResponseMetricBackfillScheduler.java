@@ -0,0 +1,36 @@
+package com.traininginsights.scheduler;
+
+import com.traininginsights.service.ResponseMetricService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+@Component
+public class ResponseMetricBackfillScheduler {
+    private static final Logger log = LoggerFactory.getLogger(ResponseMetricBackfillScheduler.class);
+    private final ResponseMetricService metricService;
+    public ResponseMetricBackfillScheduler(ResponseMetricService metricService){ this.metricService = metricService; }
+
+    // One-off migration: extract metrics for responses written before response_metrics existed
+    @EventListener(ApplicationReadyEvent.class)
+    public void backfillIfMissing(){
+        try {
+            if (!metricService.isReady()) log.info("Response metrics backfilled: {}", metricService.backfill());
+        } catch (Exception e){
+            log.warn("Response metric backfill failed; analytics keeps parsing response JSON", e);
+        }
+    }
+
+    // Backfill again when the table was marked stale (a restore, here or on another instance) and not repaired since
+    @Scheduled(fixedDelayString = "${app.analytics.repairMs:60000}", initialDelayString = "${app.analytics.repairMs:60000}")
+    public void backfillIfStale(){
+        try {
+            if (!metricService.refresh()) log.info("Response metrics backfilled: {}", metricService.backfill());
+        } catch (Exception e){
+            log.warn("Response metric backfill failed; retrying on the next check", e);
+        }
+    }
+}
@@ -1,30 +1,72 @@
 package com.traininginsights.security;
 
+import com.traininginsights.service.TtlCache;
 import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.SignatureAlgorithm;
 import io.jsonwebtoken.io.Decoders;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.security.Key;
 import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Clock;
+import java.time.Duration;
 import java.util.Date;
 import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
 
+/**
+ * Issues and verifies the HS256 bearer tokens. The signing key and parser are built once from app.jwt.secret.
+ * Verified claims are cached in a TtlCache by the SHA-256 digest of the token (the token itself is not kept) until the
+ * token expires, so the repeated requests of a session cost a digest and a map lookup instead of a signature check and
+ * a JSON parse. The cache holds at most app.jwt.claimsCacheSize tokens, least recently used first out; tokens that
+ * fail verification are never cached. Issuing, the parser and the cache all read expiry against the same clock.
+ */
 @Service
 public class JwtService {
 
-    @Value("${app.jwt.secret}")
-    private String jwtSecret;
+    // verified claims of a token and its expiry; the claims are shared and only read
+    private record Verified(Claims claims, long expiresAt) {}
 
-    @Value("${app.jwt.expirationMillis}")
-    private long jwtExpirationMillis;
+    // MessageDigest is not thread-safe; digest() resets it
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private final long jwtExpirationMillis;
+    private final Key signInKey;
+    private final JwtParser parser;
+    private final Clock clock;
+    private final TtlCache<ByteBuffer, Verified> verified;
+    // full signature checks and parses
+    private final LongAdder parses = new LongAdder();
+
+    @Autowired
+    public JwtService(@Value("${app.jwt.secret}") String jwtSecret, @Value("${app.jwt.expirationMillis}") long jwtExpirationMillis, @Value("${app.jwt.claimsCacheSize:10000}") int cacheSize) {
+        this(jwtSecret, jwtExpirationMillis, cacheSize, Clock.systemUTC());
+    }
+
+    JwtService(String jwtSecret, long jwtExpirationMillis, int cacheSize, Clock clock) {
+        this.jwtExpirationMillis = jwtExpirationMillis; this.clock = clock;
+        this.verified = cacheSize > 0 ? new TtlCache<>(cacheSize, Duration.ZERO) : null;
+        this.signInKey = signInKey(jwtSecret);
+        // immutable and thread-safe
+        this.parser = Jwts.parserBuilder().setSigningKey(signInKey).setClock(() -> Date.from(clock.instant())).build();
+    }
 
-    private Key getSignInKey() {
+    private static Key signInKey(String jwtSecret) {
         if (jwtSecret == null || jwtSecret.isBlank()) {
             throw new IllegalStateException("app.jwt.secret is empty");
         }
@@ -75,36 +117,56 @@ public class JwtService {
     }
 
     public <T> T extractClaim(String token, Function<Claims, T> claimsResolver) {
-        final Claims claims = Jwts.parserBuilder()
-                .setSigningKey(getSignInKey())
-                .build()
-                .parseClaimsJws(token)
-                .getBody();
-        return claimsResolver.apply(claims);
+        return claimsResolver.apply(claims(token));
+    }
+
+    /**
+     * The verified claims of token, from the cache while it has not expired. Throws the parser's JwtException (or
+     * IllegalArgumentException) for a token that is malformed, forged or expired, as an uncached parse does.
+     */
+    private Claims claims(String token) {
+        if (verified == null) return parse(token);
+        ByteBuffer key = digest(token);
+        Verified v = verified.get(key);
+        long now = clock.millis();
+        if (v != null && v.expiresAt() > now) return v.claims();
+        // not cached, or expired: the parser reports an expired token
+        Claims claims = parse(token);
+        // a token without expiry is not cached
+        if (claims.getExpiration() != null) {
+            long expiresAt = claims.getExpiration().getTime();
+            if (expiresAt > now) verified.put(key, new Verified(claims, expiresAt), Duration.ofMillis(expiresAt - now));
+        }
+        return claims;
+    }
+
+    private Claims parse(String token) {
+        parses.increment();
+        return parser.parseClaimsJws(token).getBody();
+    }
+
+    long parses() {
+        return parses.sum();
+    }
+
+    private static ByteBuffer digest(String token) {
+        return ByteBuffer.wrap(SHA256.get().digest(token.getBytes(StandardCharsets.UTF_8)));
     }
 
     public String generateToken(String subject, Map<String, Object> extraClaims) {
-        Date now = new Date();
+        Date now = Date.from(clock.instant());
         Date expiry = new Date(now.getTime() + jwtExpirationMillis);
         return Jwts.builder()
                 .setClaims(extraClaims)
                 .setSubject(subject)
                 .setIssuedAt(now)
                 .setExpiration(expiry)
-                .signWith(getSignInKey(), SignatureAlgorithm.HS256)
+                .signWith(signInKey, SignatureAlgorithm.HS256)
                 .compact();
     }
 
     public boolean isTokenValid(String token, String username) {
-        final String tokenUsername = extractUsername(token);
-        return (tokenUsername.equalsIgnoreCase(username) && !isTokenExpired(token));
-    }
-
-    private boolean isTokenExpired(String token) {
-        return extractExpiration(token).before(new Date());
-    }
-
-    private Date extractExpiration(String token) {
-        return extractClaim(token, Claims::getExpiration);
+        final Claims claims = claims(token);
+        return (claims.getSubject().equalsIgnoreCase(username) && !claims.getExpiration().before(Date.from(clock.instant())));
     }
-}
\ No newline at end of file
+}
@@ -1,553 +1,676 @@
 package com.traininginsights.service;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.traininginsights.dto.BackupDtos;
 import com.traininginsights.model.*;
-import com.traininginsights.repository.*;
+import jakarta.persistence.EntityManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.annotation.Isolation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.server.ResponseStatusException;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.FilterInputStream;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
+import java.time.Instant;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 import java.util.zip.ZipInputStream;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
 
 @Service
 public class AdminBackupService {
-    private final RoleRepository roleRepository;
-    private final ClubRepository clubRepository;
-    private final GroupRepository groupRepository;
-    private final SeasonRepository seasonRepository;
-    private final UserRepository userRepository;
-    private final MembershipRepository membershipRepository;
-    private final NotificationRepository notificationRepository;
-    private final QuestionnaireRepository questionnaireRepository;
-    private final TrainingRepository trainingRepository;
-    private final QuestionnaireResponseRepository questionnaireResponseRepository;
-    private final AttachmentRepository attachmentRepository;
-    private final GoalRepository goalRepository;
-    private final GoalProgressRepository goalProgressRepository;
-    private final GoalFeedbackRepository goalFeedbackRepository;
-    private final TrainingAttendanceRepository trainingAttendanceRepository;
-    private final TrainingSeriesRepository trainingSeriesRepository;
-    private final PushSubscriptionRepository pushSubscriptionRepository;
-    private final PushConfigRepository pushConfigRepository;
-    private final EmailLogRepository emailLogRepository;
-    private final SentNotificationRepository sentNotificationRepository;
-    private final UserTokenRepository userTokenRepository;
-    private final PasswordResetLogRepository passwordResetLogRepository;
+    private static final Logger log = LoggerFactory.getLogger(AdminBackupService.class);
+
+    private final BackupRestoreWriter restoreWriter;
+    private final EntityManager em;
     private final String uploadsDir;
-    private final ObjectMapper mapper = new ObjectMapper();
+    // java.time module for the Instant fields of the export DTOs (import reads with the same mapper)
+    private final ObjectMapper mapper = new ObjectMapper().findAndRegisterModules();
+    // the running restore, or the last one
+    private final AtomicReference<ImportRun> lastImport = new AtomicReference<>();
+    private final AsyncTaskExecutor backupExecutor;
+    // a table worker's transaction, which adopts the snapshot of the export it belongs to
+    private final TransactionTemplate workerTx;
+    // data.json arrays in export order, referenced tables first
+    private final Map<String, TableExport> tableExports = new LinkedHashMap<>();
+
+    public AdminBackupService(BackupRestoreWriter restoreWriter, EntityManager em, PlatformTransactionManager txManager, @Qualifier("backupExecutor") AsyncTaskExecutor backupExecutor, @org.springframework.beans.factory.annotation.Value("${app.uploadsDir:uploads}") String uploadsDir){
+        this.restoreWriter = restoreWriter; this.em = em; this.backupExecutor = backupExecutor; this.uploadsDir = uploadsDir;
+        this.workerTx = new TransactionTemplate(txManager);
+        this.workerTx.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.workerTx.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+        this.workerTx.setReadOnly(true);
+        registerTables();
+    }
 
-    public AdminBackupService(RoleRepository roleRepository, ClubRepository clubRepository, GroupRepository groupRepository, SeasonRepository seasonRepository, UserRepository userRepository, MembershipRepository membershipRepository, NotificationRepository notificationRepository, QuestionnaireRepository questionnaireRepository, TrainingRepository trainingRepository, QuestionnaireResponseRepository questionnaireResponseRepository, AttachmentRepository attachmentRepository, GoalRepository goalRepository, GoalProgressRepository goalProgressRepository, GoalFeedbackRepository goalFeedbackRepository, TrainingAttendanceRepository trainingAttendanceRepository, TrainingSeriesRepository trainingSeriesRepository, PushSubscriptionRepository pushSubscriptionRepository, PushConfigRepository pushConfigRepository, EmailLogRepository emailLogRepository, SentNotificationRepository sentNotificationRepository, UserTokenRepository userTokenRepository, PasswordResetLogRepository passwordResetLogRepository, @org.springframework.beans.factory.annotation.Value("${app.uploadsDir:uploads}") String uploadsDir){
-        this.roleRepository = roleRepository; this.clubRepository = clubRepository; this.groupRepository = groupRepository; this.seasonRepository = seasonRepository; this.userRepository = userRepository; this.membershipRepository = membershipRepository; this.notificationRepository = notificationRepository; this.questionnaireRepository = questionnaireRepository; this.trainingRepository = trainingRepository; this.questionnaireResponseRepository = questionnaireResponseRepository; this.attachmentRepository = attachmentRepository; this.goalRepository = goalRepository; this.goalProgressRepository = goalProgressRepository; this.goalFeedbackRepository = goalFeedbackRepository; this.trainingAttendanceRepository = trainingAttendanceRepository; this.trainingSeriesRepository = trainingSeriesRepository; this.pushSubscriptionRepository = pushSubscriptionRepository; this.pushConfigRepository = pushConfigRepository; this.emailLogRepository = emailLogRepository; this.sentNotificationRepository = sentNotificationRepository; this.userTokenRepository = userTokenRepository; this.passwordResetLogRepository = passwordResetLogRepository; this.uploadsDir = uploadsDir;
+    // rows per query while exporting; the persistence context is cleared between pages
+    private static final int EXPORT_PAGE = 500;
+    // ids or link pairs per query while exporting a delta's ids.json and links.json
+    private static final int KEY_PAGE = 10000;
+    // row last written by a transaction that was not yet committed for the snapshot ?2 (its low 32 bits), i.e. not
+    // included in the backup taken at that snapshot; xids compare modulo 2^32, which age() accounts for
+    private static final String CHANGED_SINCE = "age(xmin) <= age(cast(cast(?2 as text) as xid))";
+
+    /**
+     * The current database snapshot as recorded in backup manifests: the oldest transaction still running, so every
+     * transaction before it is committed (or aborted) and visible to a backup started now.
+     */
+    @Transactional(readOnly = true)
+    public long snapshot(){
+        return ((Number) em.createNativeQuery("select txid_snapshot_xmin(txid_current_snapshot())").getSingleResult()).longValue();
     }
 
-    public byte[] exportAll(){
-        try{
-            BackupDtos.ExportPackage pkg = new BackupDtos.ExportPackage();
-            pkg.roles = new ArrayList<>();
-            for (Role r : roleRepository.findAll()){ BackupDtos.RoleExport re = new BackupDtos.RoleExport(); re.id = r.getId(); re.name = r.getName().name(); pkg.roles.add(re); }
-
-            pkg.clubs = new ArrayList<>();
-            for (Club c : clubRepository.findAll()){ BackupDtos.ClubExport ce = new BackupDtos.ClubExport(); ce.id = c.getId(); ce.name = c.getName(); ce.smtpHost = c.getSmtpHost(); ce.smtpPort = c.getSmtpPort(); ce.smtpUsername = c.getSmtpUsername(); ce.smtpPassword = c.getSmtpPassword(); ce.smtpFrom = c.getSmtpFrom(); ce.smtpUseTls = c.getSmtpUseTls(); pkg.clubs.add(ce); }
-
-            pkg.groups = new ArrayList<>();
-            for (Group g : groupRepository.findAll()){ BackupDtos.GroupExport ge = new BackupDtos.GroupExport(); ge.id = g.getId(); ge.name = g.getName(); ge.clubIds = g.getClubs().stream().mapToLong(Club::getId).boxed().toArray(Long[]::new); ge.trainerIds = g.getTrainers().stream().mapToLong(User::getId).boxed().toArray(Long[]::new); ge.athleteIds = g.getAthletes().stream().mapToLong(User::getId).boxed().toArray(Long[]::new); pkg.groups.add(ge); }
-
-            pkg.seasons = new ArrayList<>();
-            for (Season s : seasonRepository.findAll()){ BackupDtos.SeasonExport se = new BackupDtos.SeasonExport(); se.id = s.getId(); se.name = s.getName(); se.startDate = s.getStartDate() != null ? s.getStartDate().toString() : null; se.endDate = s.getEndDate() != null ? s.getEndDate().toString() : null; pkg.seasons.add(se); }
-
-            pkg.users = new ArrayList<>();
-            for (User u : userRepository.findAll()){ BackupDtos.UserExport ue = new BackupDtos.UserExport(); ue.id = u.getId(); ue.firstName = u.getFirstName(); ue.lastName = u.getLastName(); ue.email = u.getEmail(); ue.passwordHash = u.getPasswordHash(); ue.roles = u.getRoles().stream().map(r->r.getName().name()).toArray(String[]::new); ue.clubIds = u.getClubs().stream().mapToLong(Club::getId).boxed().toArray(Long[]::new); ue.groupId = u.getGroupEntity() != null ? u.getGroupEntity().getId() : null; ue.active = u.isActive(); ue.activeOverride = u.getActiveOverride(); pkg.users.add(ue); }
-
-            pkg.memberships = new ArrayList<>();
-            for (Membership m : membershipRepository.findAll()){ BackupDtos.MembershipExport me = new BackupDtos.MembershipExport(); me.id = m.getId(); me.userId = m.getUser().getId(); me.clubId = m.getClub().getId(); me.seasonId = m.getSeason() != null ? m.getSeason().getId() : null; me.startDate = m.getStartDate() != null ? m.getStartDate().toString() : null; me.endDate = m.getEndDate() != null ? m.getEndDate().toString() : null; me.status = m.getStatus(); me.notified7Days = m.isNotified7Days(); me.notified1Day = m.isNotified1Day(); pkg.memberships.add(me); }
-
-            pkg.notifications = new ArrayList<>();
-            for (Notification n : notificationRepository.findAll()){ BackupDtos.NotificationExport ne = new BackupDtos.NotificationExport(); ne.id = n.getId(); ne.senderId = n.getSender()!=null? n.getSender().getId() : null; ne.recipientId = n.getRecipient()!=null? n.getRecipient().getId() : null; ne.clubId = n.getClub()!=null? n.getClub().getId() : null; ne.groupId = n.getGroup()!=null? n.getGroup().getId() : null; ne.title = n.getTitle(); ne.body = n.getBody(); ne.createdAt = n.getCreatedAt(); ne.isRead = n.isRead(); ne.dispatched = n.isDispatched(); ne.sentAt = n.getSentAt(); pkg.notifications.add(ne); }
-
-            // Questionnaires
-            pkg.questionnaires = new ArrayList<>();
-            for (Questionnaire q : questionnaireRepository.findAll()){ BackupDtos.QuestionnaireExport qe = new BackupDtos.QuestionnaireExport(); qe.id = q.getId(); qe.title = q.getTitle(); qe.structure = q.getStructure(); qe.daily = q.isDaily(); qe.creatorId = q.getCreator()!=null? q.getCreator().getId() : null; pkg.questionnaires.add(qe); }
-
-            // Trainings
-            pkg.trainings = new ArrayList<>();
-            for (Training t : trainingRepository.findAll()){ BackupDtos.TrainingExport te = new BackupDtos.TrainingExport(); te.id = t.getId(); te.title = t.getTitle(); te.description = t.getDescription(); te.trainingTime = t.getTrainingTime(); te.trainingEndTime = t.getTrainingEndTime(); te.visibleToAthletes = t.isVisibleToAthletes(); te.groupIds = t.getGroups().stream().mapToLong(g->g.getId()).boxed().toArray(Long[]::new); te.preQuestionnaireId = t.getPreQuestionnaire()!=null? t.getPreQuestionnaire().getId() : null; te.postQuestionnaireId = t.getPostQuestionnaire()!=null? t.getPostQuestionnaire().getId() : null; te.preNotificationMinutes = t.getPreNotificationMinutes(); te.notificationTime = t.getNotificationTime(); pkg.trainings.add(te); }
-
-            // Questionnaire responses
-            pkg.questionnaireResponses = new ArrayList<>();
-            for (QuestionnaireResponse qr : questionnaireResponseRepository.findAll()){ BackupDtos.QuestionnaireResponseExport qre = new BackupDtos.QuestionnaireResponseExport(); qre.id = qr.getId(); qre.userId = qr.getUser()!=null? qr.getUser().getId() : null; qre.trainingId = qr.getTraining()!=null? qr.getTraining().getId() : null; qre.questionnaireId = qr.getQuestionnaire()!=null? qr.getQuestionnaire().getId() : null; qre.submittedAt = qr.getSubmittedAt(); qre.responses = qr.getResponses(); pkg.questionnaireResponses.add(qre); }
-
-            // Goals & related
-            pkg.goals = new ArrayList<>();
-            for (Goal g : goalRepository.findAll()){ BackupDtos.GoalExport ge = new BackupDtos.GoalExport(); ge.id = g.getId(); ge.userId = g.getUser()!=null? g.getUser().getId() : null; ge.seasonId = g.getSeason()!=null? g.getSeason().getId() : null; ge.startDate = g.getStartDate(); ge.endDate = g.getEndDate(); ge.description = g.getDescription(); ge.currentProgress = g.getCurrentProgress(); ge.cumulativeProgress = g.getCumulativeProgress(); ge.completionDate = g.getCompletionDate(); pkg.goals.add(ge); }
-            pkg.goalProgresses = new ArrayList<>();
-            for (GoalProgress gp : goalProgressRepository.findAll()){ BackupDtos.GoalProgressExport gpe = new BackupDtos.GoalProgressExport(); gpe.id = gp.getId(); gpe.goalId = gp.getGoal()!=null? gp.getGoal().getId() : null; gpe.progress = gp.getProgress(); gpe.note = gp.getNote(); gpe.createdAt = gp.getCreatedAt(); pkg.goalProgresses.add(gpe); }
-            pkg.goalFeedbacks = new ArrayList<>();
-            for (GoalFeedback gf : goalFeedbackRepository.findAll()){ BackupDtos.GoalFeedbackExport gfe = new BackupDtos.GoalFeedbackExport(); gfe.id = gf.getId(); gfe.goalId = gf.getGoal()!=null? gf.getGoal().getId() : null; gfe.trainerId = gf.getTrainer()!=null? gf.getTrainer().getId() : null; gfe.comment = gf.getComment(); gfe.createdAt = gf.getCreatedAt(); pkg.goalFeedbacks.add(gfe); }
-
-            // Training attendance
-            pkg.trainingAttendances = new ArrayList<>();
-            for (TrainingAttendance ta : trainingAttendanceRepository.findAll()){ BackupDtos.TrainingAttendanceExport tae = new BackupDtos.TrainingAttendanceExport(); tae.id = ta.getId(); tae.trainingId = ta.getTraining()!=null? ta.getTraining().getId() : null; tae.userId = ta.getUser()!=null? ta.getUser().getId() : null; tae.present = ta.isPresent(); tae.updatedAt = ta.getUpdatedAt(); pkg.trainingAttendances.add(tae); }
-
-            // Training series
-            pkg.trainingSeries = new ArrayList<>();
-            for (TrainingSeries ts : trainingSeriesRepository.findAll()){ BackupDtos.TrainingSeriesExport tse = new BackupDtos.TrainingSeriesExport(); tse.id = ts.getId(); tse.rrule = ts.getRrule(); tse.timezone = ts.getTimezone(); tse.startTime = ts.getStartTime(); tse.endTime = ts.getEndTime(); tse.until = ts.getUntil(); tse.count = ts.getCount(); tse.createdAt = ts.getCreatedAt(); tse.updatedAt = ts.getUpdatedAt(); pkg.trainingSeries.add(tse); }
-
-            // Push subscriptions & config
-            pkg.pushSubscriptions = new ArrayList<>();
-            for (PushSubscription ps : pushSubscriptionRepository.findAll()){ BackupDtos.PushSubscriptionExport pse = new BackupDtos.PushSubscriptionExport(); pse.id = ps.getId(); pse.userId = ps.getUser()!=null? ps.getUser().getId() : null; pse.endpoint = ps.getEndpoint(); pse.keys = ps.getKeys(); pkg.pushSubscriptions.add(pse); }
-            pkg.pushConfigs = new ArrayList<>();
-            for (PushConfig pc : pushConfigRepository.findAll()){ BackupDtos.PushConfigExport pce = new BackupDtos.PushConfigExport(); pce.id = pc.getId(); pce.vapidPublic = pc.getVapidPublic(); pce.vapidPrivate = pc.getVapidPrivate(); pce.subject = pc.getSubject(); pkg.pushConfigs.add(pce); }
-
-            // Email logs
-            pkg.emailLogs = new ArrayList<>();
-            for (EmailLog el : emailLogRepository.findAll()){ BackupDtos.EmailLogExport ele = new BackupDtos.EmailLogExport(); ele.id = el.getId(); ele.sentAt = el.getSentAt(); ele.toAddress = el.getToAddress(); ele.subject = el.getSubject(); ele.clubId = el.getClubId(); pkg.emailLogs.add(ele); }
-
-            // Sent notifications
-            pkg.sentNotifications = new ArrayList<>();
-            for (SentNotification sn : sentNotificationRepository.findAll()){ BackupDtos.SentNotificationExport sne = new BackupDtos.SentNotificationExport(); sne.id = sn.getId(); sne.trainingId = sn.getTrainingId(); sne.type = sn.getType(); sne.sentAt = sn.getSentAt(); pkg.sentNotifications.add(sne); }
-
-            // User tokens & password reset logs
-            pkg.userTokens = new ArrayList<>();
-            for (UserToken ut : userTokenRepository.findAll()){ BackupDtos.UserTokenExport ute = new BackupDtos.UserTokenExport(); ute.id = ut.getId(); ute.userId = ut.getUser()!=null? ut.getUser().getId() : null; ute.token = ut.getToken(); ute.type = ut.getType()!=null? ut.getType().name() : null; ute.expiresAt = ut.getExpiresAt(); ute.used = ut.isUsed(); ute.createdAt = ut.getCreatedAt(); pkg.userTokens.add(ute); }
-            pkg.passwordResetLogs = new ArrayList<>();
-            for (PasswordResetLog pr : passwordResetLogRepository.findAll()){ BackupDtos.PasswordResetLogExport pre = new BackupDtos.PasswordResetLogExport(); pre.id = pr.getId(); pre.resetAt = pr.getResetAt(); pre.userId = pr.getUserId(); pkg.passwordResetLogs.add(pre); }
-
-            // Attachments metadata (stored files handled in ZIP export; here we include relative path for completeness)
-            pkg.attachments = new ArrayList<>();
-            Path base = Paths.get(uploadsDir).toAbsolutePath().normalize();
-            for (Attachment a : attachmentRepository.findAll()){
-                BackupDtos.AttachmentExport ae = new BackupDtos.AttachmentExport();
-                ae.id = a.getId();
-                ae.trainingId = a.getTraining()!=null? a.getTraining().getId() : null;
-                ae.filename = a.getFilename();
-                ae.contentType = a.getContentType();
-                try{
-                    if (a.getPath()!=null){
-                        Path p = Paths.get(a.getPath()).toAbsolutePath().normalize();
-                        if (p.startsWith(base)){
-                            ae.relativePath = base.relativize(p).toString().replace('\\','/');
-                        }
-                    }
-                }catch(Exception ignored){}
-                pkg.attachments.add(ae);
-            }
+    /** Reject a delta base the database cannot compare rows against; see checkDeltaBase(long, long). */
+    @Transactional(readOnly = true)
+    public void checkDeltaBase(long since){
+        checkDeltaBase(since, snapshot());
+    }
 
-            ByteArrayOutputStream out = new ByteArrayOutputStream();
-            mapper.writeValue(out, pkg);
-            return out.toByteArray();
-        }catch(Exception e){ throw new RuntimeException(e); }
+    // xmin holds 32 bits of the transaction id, so a base more than 2^31 transactions old can no longer be told apart
+    private static void checkDeltaBase(long since, long snapshot){
+        if (since < 0 || since > snapshot) throw new IllegalArgumentException("Unknown backup snapshot " + since);
+        if (snapshot - since >= (1L << 31)) throw new IllegalArgumentException("Backup snapshot " + since + " is too old for a delta; take a full backup");
     }
 
-    @Transactional
-    public Map<String,Object> importFromBytes(byte[] data){
-        try{
-            BackupDtos.ExportPackage pkg = mapper.readValue(new ByteArrayInputStream(data), BackupDtos.ExportPackage.class);
-            Map<String,Object> result = new HashMap<>();
-            // NOTE: This is a simple import strategy: we will insert or update entities by id where possible.
-
-            // Roles: skip (assume roles exist)
-
-            // Clubs
-            Map<Long, Club> clubMap = new HashMap<>();
-            for (BackupDtos.ClubExport ce : pkg.clubs){ Club c = ce.id!=null? clubRepository.findById(ce.id).orElse(new Club()) : new Club(); c.setName(ce.name); c.setSmtpHost(ce.smtpHost); c.setSmtpPort(ce.smtpPort); c.setSmtpUsername(ce.smtpUsername); c.setSmtpPassword(ce.smtpPassword); c.setSmtpFrom(ce.smtpFrom); c.setSmtpUseTls(ce.smtpUseTls!=null?ce.smtpUseTls:false); clubRepository.save(c); clubMap.put(c.getId(), c); }
-
-            // Seasons
-            Map<Long, Season> seasonMap = new HashMap<>();
-            for (BackupDtos.SeasonExport se : pkg.seasons){ Season s = se.id!=null? seasonRepository.findById(se.id).orElse(new Season()) : new Season(); s.setName(se.name); // parse dates omitted for brevity
-                seasonRepository.save(s); seasonMap.put(s.getId(), s); }
-
-            // Users
-            Map<Long, User> userMap = new HashMap<>();
-            for (BackupDtos.UserExport ue : pkg.users){ User u = ue.id!=null? userRepository.findById(ue.id).orElse(new User()) : new User(); u.setFirstName(ue.firstName); u.setLastName(ue.lastName); u.setEmail(ue.email); u.setPasswordHash(ue.passwordHash); u.setActive(ue.active!=null?ue.active:true); u.setActiveOverride(ue.activeOverride); userRepository.save(u); userMap.put(u.getId(), u); }
-
-            // Groups - create or update and wire clubs, trainers and athletes
-            Map<Long, Group> groupMap = new HashMap<>();
-            for (BackupDtos.GroupExport ge : pkg.groups){
-                Group g = ge.id!=null? groupRepository.findById(ge.id).orElse(new Group()) : new Group();
-                g.setName(ge.name);
-
-                // wire clubs
-                if (ge.clubIds!=null){
-                    Set<Club> cset = new HashSet<>();
-                    for (Long cid : ge.clubIds){
-                        if (clubMap.containsKey(cid)) cset.add(clubMap.get(cid)); else clubRepository.findById(cid).ifPresent(cset::add);
-                    }
-                    g.setClubs(cset);
-                }
+    private interface RowWriter<T> { void write(T row) throws IOException; }
 
-                // wire trainers
-                if (ge.trainerIds!=null){
-                    Set<User> tset = new HashSet<>();
-                    for (Long uid : ge.trainerIds){
-                        User u = userMap.get(uid);
-                        if (u == null) u = userRepository.findById(uid).orElse(null);
-                        if (u != null) tset.add(u);
-                    }
-                    g.setTrainers(tset);
-                }
+    // writes one table's rows (those changed after since, when not null) as a JSON array
+    private interface TableExport { void write(JsonGenerator g, Long since) throws IOException; }
 
-                // wire athletes (set their groupEntity and attach to group)
-                if (ge.athleteIds!=null){
-                    Set<User> aset = new HashSet<>();
-                    for (Long uid : ge.athleteIds){
-                        User u = userMap.get(uid);
-                        if (u == null) u = userRepository.findById(uid).orElse(null);
-                        if (u != null){
-                            aset.add(u);
-                            try { u.setGroupEntity(g); userRepository.save(u); } catch(Exception ex){}
-                        }
-                    }
-                    g.setAthletes(aset);
-                }
+    /**
+     * Write the JSON export (the ExportPackage layout, so importFromBytes reads it) to out. Every table is read in
+     * id-ordered pages and written row by row, so memory use does not grow with the size of the database. The tables
+     * are read in parallel (see writeData) from one repeatable-read snapshot; out is flushed but not closed.
+     */
+    @Transactional(readOnly = true, isolation = Isolation.REPEATABLE_READ)
+    public void writeJson(OutputStream out) throws IOException {
+        writeData(out, null);
+    }
 
-                groupRepository.save(g);
-                groupMap.put(g.getId(), g);
-            }
+    private void registerTables(){
 
-            // Questionnaires
-            Map<Long, Questionnaire> questionnaireMap = new HashMap<>();
-            for (BackupDtos.QuestionnaireExport qe : pkg.questionnaires){ Questionnaire q = qe.id!=null? questionnaireRepository.findById(qe.id).orElse(new Questionnaire()) : new Questionnaire(); q.setTitle(qe.title); q.setStructure(qe.structure); q.setDaily(qe.daily); if (qe.creatorId!=null && userMap.containsKey(qe.creatorId)) q.setCreator(userMap.get(qe.creatorId)); questionnaireRepository.save(q); questionnaireMap.put(q.getId(), q); }
-
-            // Trainings
-            Map<Long, Training> trainingMap = new HashMap<>();
-            for (BackupDtos.TrainingExport te : pkg.trainings){
-                try{
-                    Training t = te.id!=null? trainingRepository.findById(te.id).orElse(new Training()) : new Training();
-                    t.setTitle(te.title);
-                    t.setDescription(te.description);
-                    t.setTrainingTime(te.trainingTime);
-                    t.setTrainingEndTime(te.trainingEndTime);
-                    t.setVisibleToAthletes(te.visibleToAthletes);
-                    t.setPreNotificationMinutes(te.preNotificationMinutes!=null?te.preNotificationMinutes:0);
-                    t.setNotificationTime(te.notificationTime);
-
-                    // wire questionnaires
-                    if (te.preQuestionnaireId!=null && questionnaireMap.containsKey(te.preQuestionnaireId)) {
-                        t.setPreQuestionnaire(questionnaireMap.get(te.preQuestionnaireId));
-                    }
-                    if (te.postQuestionnaireId!=null && questionnaireMap.containsKey(te.postQuestionnaireId)) {
-                        t.setPostQuestionnaire(questionnaireMap.get(te.postQuestionnaireId));
-                    }
+        table("roles", Role.class, r -> { BackupDtos.RoleExport re = new BackupDtos.RoleExport(); re.id = r.getId(); re.name = r.getName().name(); return re; });
 
-                    // wire groups
-                    if (te.groupIds!=null){
-                        Set<Group> groupsSet = new HashSet<>();
-                        for (Long gid : te.groupIds){
-                            if (groupMap.containsKey(gid)) groupsSet.add(groupMap.get(gid)); else groupRepository.findById(gid).ifPresent(groupsSet::add);
-                        }
-                        t.setGroups(groupsSet);
-                    }
+        table("clubs", Club.class, c -> { BackupDtos.ClubExport ce = new BackupDtos.ClubExport(); ce.id = c.getId(); ce.name = c.getName(); ce.smtpHost = c.getSmtpHost(); ce.smtpPort = c.getSmtpPort(); ce.smtpUsername = c.getSmtpUsername(); ce.smtpPassword = c.getSmtpPassword(); ce.smtpFrom = c.getSmtpFrom(); ce.smtpUseTls = c.getSmtpUseTls(); return ce; });
 
-                    trainingRepository.save(t);
-                    trainingMap.put(t.getId(), t);
-                }catch(Exception ex){}
-            }
+        table("groups", Group.class, gr -> { BackupDtos.GroupExport ge = new BackupDtos.GroupExport(); ge.id = gr.getId(); ge.name = gr.getName(); ge.clubIds = gr.getClubs().stream().mapToLong(Club::getId).boxed().toArray(Long[]::new); ge.trainerIds = gr.getTrainers().stream().mapToLong(User::getId).boxed().toArray(Long[]::new); ge.athleteIds = gr.getAthletes().stream().mapToLong(User::getId).boxed().toArray(Long[]::new); return ge; });
 
-            // Questionnaire responses
-            if (pkg.questionnaireResponses != null){
-                for (BackupDtos.QuestionnaireResponseExport qre : pkg.questionnaireResponses){
-                    try{
-                        QuestionnaireResponse qr = qre.id!=null? questionnaireResponseRepository.findById(qre.id).orElse(new QuestionnaireResponse()) : new QuestionnaireResponse();
-                        if (qre.userId!=null) qr.setUser(userMap.get(qre.userId));
-                        if (qre.trainingId!=null) qr.setTraining(trainingMap.get(qre.trainingId));
-                        if (qre.questionnaireId!=null) qr.setQuestionnaire(questionnaireMap.get(qre.questionnaireId));
-                        qr.setSubmittedAt(qre.submittedAt);
-                        qr.setResponses(qre.responses);
-                        questionnaireResponseRepository.save(qr);
-                    }catch(Exception ex){}
-                }
-            }
+        table("seasons", Season.class, s -> { BackupDtos.SeasonExport se = new BackupDtos.SeasonExport(); se.id = s.getId(); se.name = s.getName(); se.startDate = s.getStartDate() != null ? s.getStartDate().toString() : null; se.endDate = s.getEndDate() != null ? s.getEndDate().toString() : null; return se; });
 
-            // Goals
-            Map<Long, Goal> goalMap = new HashMap<>();
-            if (pkg.goals != null){
-                for (BackupDtos.GoalExport ge : pkg.goals){
-                    try{
-                        Goal g = ge.id!=null? goalRepository.findById(ge.id).orElse(new Goal()) : new Goal();
-                        if (ge.userId!=null) g.setUser(userMap.get(ge.userId));
-                        if (ge.seasonId!=null) g.setSeason(seasonMap.get(ge.seasonId));
-                        g.setStartDate(ge.startDate); g.setEndDate(ge.endDate); g.setDescription(ge.description);
-                        g.setCurrentProgress(ge.currentProgress); g.setCumulativeProgress(ge.cumulativeProgress); g.setCompletionDate(ge.completionDate);
-                        goalRepository.save(g);
-                        goalMap.put(g.getId(), g);
-                    }catch(Exception ex){}
-                }
-            }
+        table("users", User.class, u -> { BackupDtos.UserExport ue = new BackupDtos.UserExport(); ue.id = u.getId(); ue.firstName = u.getFirstName(); ue.lastName = u.getLastName(); ue.email = u.getEmail(); ue.passwordHash = u.getPasswordHash(); ue.roles = u.getRoles().stream().map(r->r.getName().name()).toArray(String[]::new); ue.clubIds = u.getClubs().stream().mapToLong(Club::getId).boxed().toArray(Long[]::new); ue.groupId = u.getGroupEntity() != null ? u.getGroupEntity().getId() : null; ue.active = u.isActive(); ue.activeOverride = u.getActiveOverride(); return ue; });
 
-            // Goal progress
-            if (pkg.goalProgresses != null){
-                for (BackupDtos.GoalProgressExport gpe : pkg.goalProgresses){
-                    try{
-                        GoalProgress gp = gpe.id!=null? goalProgressRepository.findById(gpe.id).orElse(new GoalProgress()) : new GoalProgress();
-                        if (gpe.goalId!=null) gp.setGoal(goalMap.get(gpe.goalId));
-                        gp.setProgress(gpe.progress); gp.setNote(gpe.note); gp.setCreatedAt(gpe.createdAt);
-                        goalProgressRepository.save(gp);
-                    }catch(Exception ex){}
-                }
-            }
+        table("memberships", Membership.class, m -> { BackupDtos.MembershipExport me = new BackupDtos.MembershipExport(); me.id = m.getId(); me.userId = m.getUser().getId(); me.clubId = m.getClub().getId(); me.seasonId = m.getSeason() != null ? m.getSeason().getId() : null; me.startDate = m.getStartDate() != null ? m.getStartDate().toString() : null; me.endDate = m.getEndDate() != null ? m.getEndDate().toString() : null; me.status = m.getStatus(); me.notified7Days = m.isNotified7Days(); me.notified1Day = m.isNotified1Day(); return me; });
 
-            // Goal feedbacks
-            if (pkg.goalFeedbacks != null){
-                for (BackupDtos.GoalFeedbackExport gfe : pkg.goalFeedbacks){
-                    try{
-                        GoalFeedback gf = gfe.id!=null? goalFeedbackRepository.findById(gfe.id).orElse(new GoalFeedback()) : new GoalFeedback();
-                        if (gfe.goalId!=null) gf.setGoal(goalMap.get(gfe.goalId));
-                        if (gfe.trainerId!=null) gf.setTrainer(userMap.get(gfe.trainerId));
-                        gf.setComment(gfe.comment); gf.setCreatedAt(gfe.createdAt);
-                        goalFeedbackRepository.save(gf);
-                    }catch(Exception ex){}
-                }
-            }
+        table("notifications", Notification.class, n -> { BackupDtos.NotificationExport ne = new BackupDtos.NotificationExport(); ne.id = n.getId(); ne.senderId = n.getSender()!=null? n.getSender().getId() : null; ne.recipientId = n.getRecipient()!=null? n.getRecipient().getId() : null; ne.clubId = n.getClub()!=null? n.getClub().getId() : null; ne.groupId = n.getGroup()!=null? n.getGroup().getId() : null; ne.title = n.getTitle(); ne.body = n.getBody(); ne.createdAt = n.getCreatedAt(); ne.isRead = n.isRead(); ne.dispatched = n.isDispatched(); ne.sentAt = n.getSentAt(); ne.emailedAt = n.getEmailedAt(); return ne; });
 
-            // Training series
-            Map<Long, TrainingSeries> trainingSeriesMap = new HashMap<>();
-            if (pkg.trainingSeries != null){
-                for (BackupDtos.TrainingSeriesExport tse : pkg.trainingSeries){
-                    try{
-                        TrainingSeries ts = tse.id!=null? trainingSeriesRepository.findById(tse.id).orElse(new TrainingSeries()) : new TrainingSeries();
-                        ts.setRrule(tse.rrule); ts.setTimezone(tse.timezone); ts.setStartTime(tse.startTime); ts.setEndTime(tse.endTime); ts.setUntil(tse.until); ts.setCount(tse.count);
-                        trainingSeriesRepository.save(ts);
-                        trainingSeriesMap.put(ts.getId(), ts);
-                    }catch(Exception ex){}
-                }
-            }
+        // Questionnaires
+        table("questionnaires", Questionnaire.class, q -> { BackupDtos.QuestionnaireExport qe = new BackupDtos.QuestionnaireExport(); qe.id = q.getId(); qe.title = q.getTitle(); qe.structure = q.getStructure(); qe.daily = q.isDaily(); qe.creatorId = q.getCreator()!=null? q.getCreator().getId() : null; return qe; });
 
-            // Training attendance
-            if (pkg.trainingAttendances != null){
-                for (BackupDtos.TrainingAttendanceExport tae : pkg.trainingAttendances){
-                    try{
-                        TrainingAttendance ta = tae.id!=null? trainingAttendanceRepository.findById(tae.id).orElse(new TrainingAttendance()) : new TrainingAttendance();
-                        if (tae.trainingId!=null) ta.setTraining(trainingMap.get(tae.trainingId));
-                        if (tae.userId!=null) ta.setUser(userMap.get(tae.userId));
-                        ta.setPresent(tae.present); ta.setUpdatedAt(tae.updatedAt);
-                        trainingAttendanceRepository.save(ta);
-                    }catch(Exception ex){}
-                }
+        // Trainings
+        table("trainings", Training.class, t -> { BackupDtos.TrainingExport te = new BackupDtos.TrainingExport(); te.id = t.getId(); te.title = t.getTitle(); te.description = t.getDescription(); te.trainingTime = t.getTrainingTime(); te.trainingEndTime = t.getTrainingEndTime(); te.visibleToAthletes = t.isVisibleToAthletes(); te.groupIds = t.getGroups().stream().mapToLong(gr->gr.getId()).boxed().toArray(Long[]::new); te.preQuestionnaireId = t.getPreQuestionnaire()!=null? t.getPreQuestionnaire().getId() : null; te.postQuestionnaireId = t.getPostQuestionnaire()!=null? t.getPostQuestionnaire().getId() : null; te.preNotificationMinutes = t.getPreNotificationMinutes(); te.notificationTime = t.getNotificationTime(); return te; });
+
+        // Questionnaire responses
+        table("questionnaireResponses", QuestionnaireResponse.class, qr -> { BackupDtos.QuestionnaireResponseExport qre = new BackupDtos.QuestionnaireResponseExport(); qre.id = qr.getId(); qre.userId = qr.getUser()!=null? qr.getUser().getId() : null; qre.trainingId = qr.getTraining()!=null? qr.getTraining().getId() : null; qre.questionnaireId = qr.getQuestionnaire()!=null? qr.getQuestionnaire().getId() : null; qre.submittedAt = qr.getSubmittedAt(); qre.responses = qr.getResponses(); return qre; });
+
+        // Goals & related
+        table("goals", Goal.class, go -> { BackupDtos.GoalExport ge = new BackupDtos.GoalExport(); ge.id = go.getId(); ge.userId = go.getUser()!=null? go.getUser().getId() : null; ge.seasonId = go.getSeason()!=null? go.getSeason().getId() : null; ge.startDate = go.getStartDate(); ge.endDate = go.getEndDate(); ge.description = go.getDescription(); ge.currentProgress = go.getCurrentProgress(); ge.cumulativeProgress = go.getCumulativeProgress(); ge.completionDate = go.getCompletionDate(); return ge; });
+        table("goalProgresses", GoalProgress.class, gp -> { BackupDtos.GoalProgressExport gpe = new BackupDtos.GoalProgressExport(); gpe.id = gp.getId(); gpe.goalId = gp.getGoal()!=null? gp.getGoal().getId() : null; gpe.progress = gp.getProgress(); gpe.note = gp.getNote(); gpe.createdAt = gp.getCreatedAt(); return gpe; });
+        table("goalFeedbacks", GoalFeedback.class, gf -> { BackupDtos.GoalFeedbackExport gfe = new BackupDtos.GoalFeedbackExport(); gfe.id = gf.getId(); gfe.goalId = gf.getGoal()!=null? gf.getGoal().getId() : null; gfe.trainerId = gf.getTrainer()!=null? gf.getTrainer().getId() : null; gfe.comment = gf.getComment(); gfe.createdAt = gf.getCreatedAt(); return gfe; });
+
+        // Training attendance
+        table("trainingAttendances", TrainingAttendance.class, ta -> { BackupDtos.TrainingAttendanceExport tae = new BackupDtos.TrainingAttendanceExport(); tae.id = ta.getId(); tae.trainingId = ta.getTraining()!=null? ta.getTraining().getId() : null; tae.userId = ta.getUser()!=null? ta.getUser().getId() : null; tae.present = ta.isPresent(); tae.updatedAt = ta.getUpdatedAt(); return tae; });
+
+        // Training series
+        table("trainingSeries", TrainingSeries.class, ts -> { BackupDtos.TrainingSeriesExport tse = new BackupDtos.TrainingSeriesExport(); tse.id = ts.getId(); tse.rrule = ts.getRrule(); tse.timezone = ts.getTimezone(); tse.startTime = ts.getStartTime(); tse.endTime = ts.getEndTime(); tse.until = ts.getUntil(); tse.count = ts.getCount(); tse.createdAt = ts.getCreatedAt(); tse.updatedAt = ts.getUpdatedAt(); return tse; });
+
+        // Push subscriptions & config
+        table("pushSubscriptions", PushSubscription.class, ps -> { BackupDtos.PushSubscriptionExport pse = new BackupDtos.PushSubscriptionExport(); pse.id = ps.getId(); pse.userId = ps.getUser()!=null? ps.getUser().getId() : null; pse.endpoint = ps.getEndpoint(); pse.keys = ps.getKeys(); return pse; });
+        table("pushConfigs", PushConfig.class, pc -> { BackupDtos.PushConfigExport pce = new BackupDtos.PushConfigExport(); pce.id = pc.getId(); pce.vapidPublic = pc.getVapidPublic(); pce.vapidPrivate = pc.getVapidPrivate(); pce.subject = pc.getSubject(); return pce; });
+
+        // Email logs
+        table("emailLogs", EmailLog.class, el -> { BackupDtos.EmailLogExport ele = new BackupDtos.EmailLogExport(); ele.id = el.getId(); ele.sentAt = el.getSentAt(); ele.toAddress = el.getToAddress(); ele.subject = el.getSubject(); ele.clubId = el.getClubId(); return ele; });
+
+        // Sent notifications
+        table("sentNotifications", SentNotification.class, sn -> { BackupDtos.SentNotificationExport sne = new BackupDtos.SentNotificationExport(); sne.id = sn.getId(); sne.trainingId = sn.getTrainingId(); sne.type = sn.getType(); sne.sentAt = sn.getSentAt(); return sne; });
+
+        // User tokens & password reset logs
+        table("userTokens", UserToken.class, ut -> { BackupDtos.UserTokenExport ute = new BackupDtos.UserTokenExport(); ute.id = ut.getId(); ute.userId = ut.getUser()!=null? ut.getUser().getId() : null; ute.token = ut.getToken(); ute.type = ut.getType()!=null? ut.getType().name() : null; ute.expiresAt = ut.getExpiresAt(); ute.used = ut.isUsed(); ute.createdAt = ut.getCreatedAt(); return ute; });
+        table("passwordResetLogs", PasswordResetLog.class, pr -> { BackupDtos.PasswordResetLogExport pre = new BackupDtos.PasswordResetLogExport(); pre.id = pr.getId(); pre.resetAt = pr.getResetAt(); pre.userId = pr.getUserId(); return pre; });
+
+        // Attachments metadata (stored files handled in ZIP export; here we include relative path for completeness)
+        Path base = Paths.get(uploadsDir).toAbsolutePath().normalize();
+        table("attachments", Attachment.class, a -> attachmentExport(a, base));
+    }
+
+    private <T> void table(String field, Class<T> type, java.util.function.Function<T, Object> toDto){
+        String table = restoreWriter.table(field).table();
+        tableExports.put(field, (g, since) -> {
+            g.writeStartArray();
+            forEachRow(type, table, since, row -> g.writeObject(toDto.apply(row)));
+            g.writeEndArray();
+        });
+    }
+
+    /**
+     * The data.json object; with since, only rows written after that snapshot (roles are always written whole). Each
+     * table is read by a backupExecutor worker into a temporary file, in its own read-only transaction that imports the
+     * snapshot of the caller's repeatable-read transaction (pg_export_snapshot), so all tables show the database at
+     * one instant however long the export takes. The files are copied to out in export order as they complete; memory
+     * stays at one page per worker. Must be called in a repeatable-read transaction that has not written anything,
+     * since the workers cannot see uncommitted rows.
+     */
+    private void writeData(OutputStream out, Long since) throws IOException {
+        String snapshotId = (String) em.createNativeQuery("select pg_export_snapshot()").getSingleResult();
+        Map<String, Future<Path>> parts = new LinkedHashMap<>();
+        try {
+            tableExports.forEach((field, export) -> parts.put(field, backupExecutor.submit(() -> exportTable(field, export, snapshotId, since))));
+            out.write('{');
+            String separator = "";
+            for (Map.Entry<String, Future<Path>> part : parts.entrySet()){
+                Path file = await(part.getValue());
+                out.write((separator + "\"" + part.getKey() + "\":").getBytes(StandardCharsets.US_ASCII));
+                Files.copy(file, out);
+                Files.delete(file);
+                separator = ",";
             }
+            out.write('}');
+            out.flush();
+        } finally {
+            // after a failure: drop tables not started, wait for running ones and delete every file left
+            for (Future<Path> part : parts.values()){
+                if (part.cancel(false)) continue;
+                try { Files.deleteIfExists(part.get()); } catch (Exception ignored){}
+            }
+        }
+    }
 
-            // Push subscriptions
-            if (pkg.pushSubscriptions != null){
-                for (BackupDtos.PushSubscriptionExport pse : pkg.pushSubscriptions){
-                    try{
-                        PushSubscription ps = pse.id!=null? pushSubscriptionRepository.findById(pse.id).orElse(new PushSubscription()) : new PushSubscription();
-                        if (pse.userId!=null) ps.setUser(userMap.get(pse.userId));
-                        ps.setEndpoint(pse.endpoint); ps.setKeys(pse.keys);
-                        pushSubscriptionRepository.save(ps);
-                    }catch(Exception ex){}
+    // one table into a temporary file, read in the exported snapshot
+    private Path exportTable(String field, TableExport export, String snapshotId, Long since) throws IOException {
+        Path file = Files.createTempFile("ti-backup-" + field + "-", ".json");
+        try {
+            workerTx.executeWithoutResult(s -> {
+                // must be the first statement of the transaction
+                em.createNativeQuery("set transaction snapshot '" + snapshotId + "'").executeUpdate();
+                try (OutputStream fileOut = new BufferedOutputStream(Files.newOutputStream(file))){
+                    JsonGenerator g = mapper.getFactory().createGenerator(fileOut);
+                    export.write(g, since);
+                    g.flush();
+                } catch (IOException e){
+                    throw new UncheckedIOException(e);
                 }
+            });
+            return file;
+        } catch (RuntimeException e){
+            Files.deleteIfExists(file);
+            if (e instanceof UncheckedIOException io) throw io.getCause();
+            throw e;
+        }
+    }
+
+    private static Path await(Future<Path> part) throws IOException {
+        try {
+            return part.get();
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Backup export interrupted");
+        } catch (ExecutionException e){
+            if (e.getCause() instanceof IOException io) throw io;
+            if (e.getCause() instanceof RuntimeException re) throw re;
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    // Keyset walk over all rows of an entity by id, EXPORT_PAGE rows per query; loaded rows are detached after each page
+    private <T> void forEachRow(Class<T> type, RowWriter<T> writer) throws IOException {
+        forEachRow(type, null, null, writer);
+    }
+
+    // The same walk over the rows of table written after snapshot since; all rows when since or table is null
+    private <T> void forEachRow(Class<T> type, String table, Long since, RowWriter<T> writer) throws IOException {
+        if (since == null || table == null){
+            String jpql = "select e from " + type.getSimpleName() + " e where e.id > :after order by e.id";
+            long after = Long.MIN_VALUE;
+            while (true){
+                List<T> page = em.createQuery(jpql, type).setParameter("after", after).setMaxResults(EXPORT_PAGE).getResultList();
+                for (T row : page) writer.write(row);
+                if (page.size() < EXPORT_PAGE) break;
+                after = (Long) em.getEntityManagerFactory().getPersistenceUnitUtil().getIdentifier(page.get(page.size() - 1));
+                em.clear();
             }
+            em.clear();
+            return;
+        }
+        // the ids of a page are found by their xmin; the table is scanned once in id order, but only changed rows load
+        String changed = "select id from " + table + " where id > ?1 and " + CHANGED_SINCE + " order by id";
+        String jpql = "select e from " + type.getSimpleName() + " e where e.id in :ids order by e.id";
+        long after = Long.MIN_VALUE;
+        while (true){
+            List<Long> ids = longs(em.createNativeQuery(changed).setParameter(1, after).setParameter(2, since & 0xFFFFFFFFL).setMaxResults(EXPORT_PAGE).getResultList());
+            if (!ids.isEmpty()){
+                for (T row : em.createQuery(jpql, type).setParameter("ids", ids).getResultList()) writer.write(row);
+                em.clear();
+            }
+            if (ids.size() < EXPORT_PAGE) break;
+            after = ids.get(ids.size() - 1);
+        }
+    }
 
-            // Push configs
-            if (pkg.pushConfigs != null){
-                for (BackupDtos.PushConfigExport pce : pkg.pushConfigs){
-                    try{
-                        PushConfig pc = pce.id!=null? pushConfigRepository.findById(pce.id).orElse(new PushConfig()) : new PushConfig();
-                        pc.setVapidPublic(pce.vapidPublic); pc.setVapidPrivate(pce.vapidPrivate); pc.setSubject(pce.subject);
-                        pushConfigRepository.save(pc);
-                    }catch(Exception ex){}
-                }
+    private static List<Long> longs(List<?> values){
+        List<Long> result = new ArrayList<>(values.size());
+        for (Object v : values) result.add(((Number) v).longValue());
+        return result;
+    }
+
+    private static BackupDtos.AttachmentExport attachmentExport(Attachment a, Path base){
+        BackupDtos.AttachmentExport ae = new BackupDtos.AttachmentExport();
+        ae.id = a.getId();
+        ae.trainingId = a.getTraining()!=null? a.getTraining().getId() : null;
+        ae.filename = a.getFilename();
+        ae.contentType = a.getContentType();
+        ae.relativePath = relativeUpload(a, base);
+        return ae;
+    }
+
+    // path of the attachment's file relative to the uploads directory, or null when it lies elsewhere
+    private static String relativeUpload(Attachment a, Path base){
+        try{
+            if (a.getPath()!=null){
+                Path p = Paths.get(a.getPath()).toAbsolutePath().normalize();
+                if (p.startsWith(base)) return base.relativize(p).toString().replace('\\','/');
             }
+        }catch(Exception ignored){}
+        return null;
+    }
+
+    // rows per restore transaction
+    private static final int IMPORT_CHUNK = 500;
+
+    /**
+     * Restore a JSON backup (the data.json layout) read from in, table by table. Each table's array is parsed row by
+     * row and written in chunks of IMPORT_CHUNK rows, one transaction each (see BackupRestoreWriter), so memory use
+     * does not grow with the backup. size is the upload size in bytes for progress, or -1.
+     */
+    public Map<String,Object> importFromStream(InputStream in, long size){
+        ImportRun run = begin(in, size);
+        try {
+            importJson(run.in, run.rows);
+            return finish(run);
+        } catch (IOException e){ throw fail(run, e); }
+        catch (RuntimeException e){ throw fail(run, e); }
+    }
 
-            // Sent notifications
-            if (pkg.sentNotifications != null){
-                for (BackupDtos.SentNotificationExport sne : pkg.sentNotifications){
-                    try{
-                        SentNotification sn = sne.id!=null? sentNotificationRepository.findById(sne.id).orElse(new SentNotification()) : new SentNotification();
-                        sn.setTrainingId(sne.trainingId); sn.setType(sne.type); sn.setSentAt(sne.sentAt);
-                        sentNotificationRepository.save(sn);
-                    }catch(Exception ex){}
+    /**
+     * Restore a ZIP produced by writeZip, reading it entry by entry from in: data.json is restored as by
+     * importFromStream, attachments.json updates the attachment rows and uploads/* entries are copied to the uploads
+     * directory as they are read. For a delta backup, links.json replaces the link tables and the rows of each table
+     * whose id is missing from ids.json are deleted.
+     */
+    public Map<String,Object> importFromZip(InputStream in, long size){
+        ImportRun run = begin(in, size);
+        try {
+            boolean data = false;
+            long files = 0;
+            BackupDtos.Manifest manifest = null;
+            Path base = Paths.get(uploadsDir).toAbsolutePath().normalize();
+            Files.createDirectories(base);
+            ZipInputStream zis = new ZipInputStream(run.in);
+            ZipEntry e;
+            while ((e = zis.getNextEntry()) != null){
+                if (e.isDirectory()) continue;
+                String name = e.getName();
+                if ("manifest.json".equals(name)){
+                    manifest = mapper.readValue(parser(zis), BackupDtos.Manifest.class);
+                } else if ("links.json".equals(name)){
+                    importLinks(parser(zis), run.rows);
+                } else if ("ids.json".equals(name)){
+                    deleteMissing(parser(zis), run.rows);
+                } else if ("data.json".equals(name)){
+                    importJson(zis, run.rows);
+                    data = true;
+                } else if ("attachments.json".equals(name)){
+                    // attachment metadata, also part of data.json; kept for zips whose data.json lacks it
+                    JsonParser p = parser(zis);
+                    if (p.nextToken() == JsonToken.START_ARRAY) importTable(p, restoreWriter.table("attachments"), "attachmentsRestored", run.rows);
+                } else if (name.startsWith("uploads/")){
+                    Path dst = base.resolve(name.substring("uploads/".length())).normalize();
+                    if (!dst.startsWith(base)) continue; // safety
+                    Files.createDirectories(dst.getParent());
+                    Files.copy(zis, dst, StandardCopyOption.REPLACE_EXISTING);
+                    files++;
                 }
             }
+            if (!data) throw new IllegalArgumentException("ZIP missing data.json");
+            Map<String,Object> result = finish(run);
+            result.put("files", files);
+            if (manifest != null) result.put("manifest", manifest);
+            return result;
+        } catch (IOException e){ throw fail(run, e); }
+        catch (RuntimeException e){ throw fail(run, e); }
+    }
 
-            // User tokens
-            if (pkg.userTokens != null){
-                for (BackupDtos.UserTokenExport ute : pkg.userTokens){
-                    try{
-                        UserToken ut = ute.id!=null? userTokenRepository.findById(ute.id).orElse(new UserToken()) : new UserToken();
-                        if (ute.userId!=null) ut.setUser(userMap.get(ute.userId));
-                        ut.setToken(ute.token); if (ute.type!=null){ try{ ut.setType(TokenType.valueOf(ute.type)); }catch(Exception ignored){} }
-                        ut.setExpiresAt(ute.expiresAt); ut.setUsed(ute.used); ut.setCreatedAt(ute.createdAt);
-                        userTokenRepository.save(ut);
-                    }catch(Exception ex){}
-                }
+    /**
+     * Restore a full backup ZIP followed by its delta backups, oldest first. The manifests are checked before anything
+     * is written: the first backup must be full and each delta must start at the snapshot of the backup before it.
+     * The backups are then restored one after the other as by importFromZip; their results are returned in order.
+     */
+    public Map<String,Object> importChain(List<? extends InputStreamSource> backups) throws IOException {
+        if (backups.isEmpty()) throw new IllegalArgumentException("No backups to restore");
+        BackupDtos.Manifest previous = null;
+        for (int i = 0; i < backups.size(); i++){
+            BackupDtos.Manifest manifest;
+            try (InputStream in = backups.get(i).getInputStream()){ manifest = readManifest(in); }
+            if (manifest == null){
+                if (backups.size() > 1) throw new IllegalArgumentException("Backup " + (i + 1) + " has no manifest and cannot be part of a chain");
+            } else if (i == 0 && !"full".equals(manifest.type)){
+                throw new IllegalArgumentException("The first backup of a chain must be a full backup");
+            } else if (i > 0 && (!"delta".equals(manifest.type) || manifest.since == null || manifest.since != previous.snapshot)){
+                throw new IllegalArgumentException("Backup " + (i + 1) + " is not a delta of the backup before it");
             }
+            previous = manifest;
+        }
+        List<Map<String,Object>> results = new ArrayList<>();
+        for (InputStreamSource backup : backups){
+            try (InputStream in = backup.getInputStream()){ results.add(importFromZip(in, -1)); }
+        }
+        Map<String,Object> result = new LinkedHashMap<>();
+        result.put("backups", results);
+        return result;
+    }
+
+    // manifest.json when it is the first entry of the zip, as writeZip puts it; null for older backups
+    private BackupDtos.Manifest readManifest(InputStream in) throws IOException {
+        ZipInputStream zis = new ZipInputStream(in);
+        ZipEntry e = zis.getNextEntry();
+        while (e != null && e.isDirectory()) e = zis.getNextEntry();
+        return e != null && "manifest.json".equals(e.getName()) ? mapper.readValue(parser(zis), BackupDtos.Manifest.class) : null;
+    }
 
-            // (PasswordResetLogs intentionally skipped due to lack of setters for full reconstruction)
-
-            // Memberships
-            for (BackupDtos.MembershipExport me : pkg.memberships){ try{ Membership m = me.id!=null? membershipRepository.findById(me.id).orElse(new Membership()) : new Membership(); m.setUser(userMap.get(me.userId)); m.setClub(clubMap.get(me.clubId)); if (me.seasonId!=null) m.setSeason(seasonMap.get(me.seasonId)); membershipRepository.save(m);}catch(Exception ex){} }
-
-            // Notifications
-            for (BackupDtos.NotificationExport ne : pkg.notifications){ try{ Notification n = ne.id!=null? notificationRepository.findById(ne.id).orElse(new Notification()) : new Notification(); n.setSender(ne.senderId!=null? userMap.get(ne.senderId) : null); n.setRecipient(ne.recipientId!=null? userMap.get(ne.recipientId) : null); n.setClub(ne.clubId!=null? clubMap.get(ne.clubId) : null); n.setGroup(ne.groupId!=null? groupRepository.findById(ne.groupId).orElse(null) : null); n.setTitle(ne.title); n.setBody(ne.body); n.setRead(ne.isRead); n.setDispatched(ne.dispatched); n.setSentAt(ne.sentAt); notificationRepository.save(n);}catch(Exception ex){} }
-
-            // Attachments (metadata only here; actual file bytes restored only in ZIP import)
-            if (pkg.attachments != null){
-                Path base = Paths.get(uploadsDir).toAbsolutePath().normalize();
-                try { Files.createDirectories(base); } catch(Exception ignored){}
-                for (BackupDtos.AttachmentExport ae : pkg.attachments){
-                    try{
-                        Attachment a = ae.id!=null? attachmentRepository.findById(ae.id).orElse(new Attachment()) : new Attachment();
-                        if (ae.trainingId!=null) trainingRepository.findById(ae.trainingId).ifPresent(a::setTraining);
-                        a.setFilename(ae.filename);
-                        a.setContentType(ae.contentType);
-                        if (ae.relativePath != null){
-                            Path resolved = base.resolve(ae.relativePath).normalize();
-                            if (resolved.startsWith(base)) a.setPath(resolved.toString());
-                        }
-                        attachmentRepository.save(a);
-                    }catch(Exception ignored){}
+    // links.json of a delta: each link table listed is replaced by the pairs of the backup
+    private void importLinks(JsonParser p, BackupRestoreWriter.Run rows) throws IOException {
+        if (p.nextToken() != JsonToken.START_OBJECT) throw new IllegalArgumentException("links.json is not a JSON object");
+        while (p.nextToken() == JsonToken.FIELD_NAME){
+            BackupRestoreWriter.LinkTable link = restoreWriter.linkTable(p.getCurrentName());
+            JsonToken value = p.nextToken();
+            if (link == null || value != JsonToken.START_ARRAY){ p.skipChildren(); continue; }
+            restoreWriter.restoreLinks(link, write -> {
+                List<Object[]> chunk = new ArrayList<>(IMPORT_CHUNK);
+                while (p.nextToken() == JsonToken.START_ARRAY){
+                    chunk.add(mapper.readValue(p, Object[].class));
+                    if (chunk.size() == IMPORT_CHUNK){ write.accept(chunk); chunk = new ArrayList<>(IMPORT_CHUNK); }
                 }
+                if (!chunk.isEmpty()) write.accept(chunk);
+            }, rows);
+        }
+    }
+
+    // ids.json of a delta: per table every id the source held; other rows were deleted there and are deleted here
+    private void deleteMissing(JsonParser p, BackupRestoreWriter.Run rows) throws IOException {
+        if (p.nextToken() != JsonToken.START_OBJECT) throw new IllegalArgumentException("ids.json is not a JSON object");
+        while (p.nextToken() == JsonToken.FIELD_NAME){
+            BackupRestoreWriter.Table<?> table = restoreWriter.table(p.getCurrentName());
+            JsonToken value = p.nextToken();
+            if (table == null || table.table() == null || value != JsonToken.START_ARRAY){ p.skipChildren(); continue; }
+            long[] ids = new long[1024];
+            int n = 0;
+            while (p.nextToken() == JsonToken.VALUE_NUMBER_INT){
+                if (n == ids.length) ids = Arrays.copyOf(ids, n * 2);
+                ids[n++] = p.getLongValue();
             }
+            restoreWriter.deleteMissing(table, ids, n, rows);
+        }
+    }
 
-            result.put("clubs", clubMap.size());
-            result.put("users", userMap.size());
-            result.put("goals", pkg.goals!=null?pkg.goals.size():0);
-            result.put("goalProgresses", pkg.goalProgresses!=null?pkg.goalProgresses.size():0);
-            result.put("goalFeedbacks", pkg.goalFeedbacks!=null?pkg.goalFeedbacks.size():0);
-            result.put("trainingSeries", pkg.trainingSeries!=null?pkg.trainingSeries.size():0);
-            result.put("trainingAttendances", pkg.trainingAttendances!=null?pkg.trainingAttendances.size():0);
-            result.put("memberships", pkg.memberships!=null?pkg.memberships.size():0);
-            result.put("notifications", pkg.notifications!=null?pkg.notifications.size():0);
-            result.put("attachments", pkg.attachments!=null?pkg.attachments.size():0);
-            return result;
-        }catch(Exception e){ throw new RuntimeException(e); }
+    /** Progress of the running restore, or the outcome of the last one; null when there has been none. */
+    public BackupDtos.ImportProgress importProgress(){
+        ImportRun run = lastImport.get();
+        if (run == null) return null;
+        BackupDtos.ImportProgress p = new BackupDtos.ImportProgress();
+        p.running = run.finishedAt == null;
+        p.table = run.rows.current();
+        p.bytesRead = run.in.count;
+        p.totalBytes = run.size;
+        p.startedAt = run.startedAt;
+        p.finishedAt = run.finishedAt;
+        p.error = run.error;
+        p.counts = run.rows.counts();
+        return p;
+    }
+
+    private void importJson(InputStream in, BackupRestoreWriter.Run rows) throws IOException {
+        JsonParser p = parser(in);
+        if (p.nextToken() != JsonToken.START_OBJECT) throw new IllegalArgumentException("Backup is not a JSON object");
+        while (p.nextToken() == JsonToken.FIELD_NAME){
+            BackupRestoreWriter.Table<?> table = restoreWriter.table(p.getCurrentName());
+            JsonToken value = p.nextToken();
+            if (table == null || value != JsonToken.START_ARRAY){ p.skipChildren(); continue; }
+            long n = importTable(p, table, table.field(), rows);
+            log.info("Backup restore: {} rows of {} read", n, table.field());
+        }
+    }
+
+    // Rows of one array, parser positioned on its START_ARRAY; counted under key
+    private <D> long importTable(JsonParser p, BackupRestoreWriter.Table<D> table, String key, BackupRestoreWriter.Run rows) throws IOException {
+        BackupRestoreWriter.Table<D> counted = key.equals(table.field()) ? table : new BackupRestoreWriter.Table<>(key, null, table.type(), table.sql(), table.values(), table.links());
+        List<D> chunk = new ArrayList<>(IMPORT_CHUNK);
+        long n = 0;
+        while (p.nextToken() != JsonToken.END_ARRAY){
+            D row = mapper.readValue(p, table.type());
+            if (row == null) continue;
+            chunk.add(row);
+            n++;
+            if (chunk.size() == IMPORT_CHUNK){ restoreWriter.write(counted, chunk, rows); chunk = new ArrayList<>(IMPORT_CHUNK); }
+        }
+        if (!chunk.isEmpty()) restoreWriter.write(counted, chunk, rows);
+        return n;
     }
 
+    private JsonParser parser(InputStream in) throws IOException {
+        JsonParser p = mapper.getFactory().createParser(in);
+        // the zip stream continues after this entry
+        p.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+        return p;
+    }
+
+    // one restore at a time: concurrent ones would race on the same ids
+    private ImportRun begin(InputStream in, long size){
+        ImportRun run = new ImportRun(new CountingInputStream(in), size);
+        ImportRun previous = lastImport.get();
+        if ((previous != null && previous.finishedAt == null) || !lastImport.compareAndSet(previous, run)){
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "A backup restore is already running");
+        }
+        return run;
+    }
+
+    private Map<String,Object> finish(ImportRun run){
+        restoreWriter.finish(run.rows);
+        run.finishedAt = Instant.now();
+        Map<String,Object> result = run.rows.counts();
+        log.info("Backup restore finished: {}", result);
+        return result;
+    }
+
+    private RuntimeException fail(ImportRun run, Exception e){
+        run.error = e.getMessage();
+        run.finishedAt = Instant.now();
+        log.warn("Backup restore failed after {} bytes: {}", run.in.count, e.toString());
+        if (e instanceof RuntimeException re) return re;
+        return new RuntimeException(e);
+    }
+
+    private static final class ImportRun {
+        final CountingInputStream in;
+        final long size;
+        final Instant startedAt = Instant.now();
+        final BackupRestoreWriter.Run rows = new BackupRestoreWriter.Run();
+        volatile Instant finishedAt;
+        volatile String error;
+        ImportRun(CountingInputStream in, long size){ this.in = in; this.size = size; }
+    }
+
+    // bytes of the upload consumed so far, for progress
+    private static final class CountingInputStream extends FilterInputStream {
+        volatile long count;
+        CountingInputStream(InputStream in){ super(in); }
+        @Override public int read() throws IOException { int b = super.read(); if (b >= 0) count++; return b; }
+        @Override public int read(byte[] b, int off, int len) throws IOException { int n = super.read(b, off, len); if (n > 0) count += n; return n; }
+        @Override public long skip(long n) throws IOException { long s = super.skip(n); count += s; return s; }
+    }
     /**
-     * Produce a ZIP containing:
-     * - data.json: JSON export (same as exportAll())
+     * Write a ZIP to out, entry by entry, containing:
+     * - manifest.json: backup type and the snapshot a later delta backup starts from
+     * - data.json: JSON export (same as writeJson())
      * - attachments.json: metadata for attachments (id, trainingId, filename, contentType, relativePath)
      * - uploads/...: all files under the configured uploads directory that are referenced by attachments
+     * The zip is finished but out is not closed.
      */
-    public byte[] exportAllZip(){
-        try{
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            try (ZipOutputStream zos = new ZipOutputStream(baos)){
-                // 1) data.json
-                byte[] json = exportAll();
-                zos.putNextEntry(new ZipEntry("data.json"));
-                zos.write(json);
-                zos.closeEntry();
-
-                // 2) attachments.json
-                java.util.List<java.util.Map<String,Object>> meta = new java.util.ArrayList<>();
-                for (Attachment a : attachmentRepository.findAll()){
-                    java.util.Map<String,Object> m = new java.util.HashMap<>();
-                    m.put("id", a.getId());
-                    m.put("trainingId", a.getTraining()!=null ? a.getTraining().getId() : null);
-                    m.put("filename", a.getFilename());
-                    m.put("contentType", a.getContentType());
-                    // compute relative path
-                    Path base = Paths.get(uploadsDir).toAbsolutePath().normalize();
-                    String rel = null;
-                    try{
-                        Path p = a.getPath()!=null? Paths.get(a.getPath()).toAbsolutePath().normalize() : null;
-                        if (p != null && p.startsWith(base)){
-                            rel = base.relativize(p).toString().replace('\\','/');
-                        }
-                    }catch(Exception ignored){}
-                    m.put("relativePath", rel);
-                    meta.add(m);
-                }
-                byte[] metaJson = mapper.writeValueAsBytes(meta);
-                zos.putNextEntry(new ZipEntry("attachments.json"));
-                zos.write(metaJson);
-                zos.closeEntry();
-
-                // 3) files under uploads (only those referenced)
-                Path base = Paths.get(uploadsDir).toAbsolutePath().normalize();
-                for (Attachment a : attachmentRepository.findAll()){
-                    if (a.getPath() == null) continue;
-                    Path p = Paths.get(a.getPath()).toAbsolutePath().normalize();
-                    if (!p.startsWith(base) || !Files.exists(p)) continue;
-                    String rel = base.relativize(p).toString().replace('\\','/');
-                    String entryName = "uploads/" + rel;
-                    // ensure parent directories entries are created implicitly by ZipEntry paths
-                    zos.putNextEntry(new ZipEntry(entryName));
-                    try (InputStream in = Files.newInputStream(p)){
-                        in.transferTo(zos);
-                    }
-                    zos.closeEntry();
-                }
-            }
-            return baos.toByteArray();
-        }catch(IOException e){ throw new RuntimeException(e); }
+    @Transactional(readOnly = true, isolation = Isolation.REPEATABLE_READ)
+    public void writeZip(OutputStream out) throws IOException {
+        writeZip(out, null);
     }
 
-    @Transactional
-    public Map<String,Object> importFromZip(byte[] zipBytes){
-        try{
-            // Unpack zip into memory and process entries
-            byte[] dataJson = null;
-            Map<String,byte[]> files = new HashMap<>(); // entryName -> bytes
-            try (ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(zipBytes))){
-                ZipEntry e;
-                while ((e = zis.getNextEntry()) != null){
-                    if (e.isDirectory()) continue;
-                    ByteArrayOutputStream buf = new ByteArrayOutputStream();
-                    zis.transferTo(buf);
-                    byte[] content = buf.toByteArray();
-                    if ("data.json".equals(e.getName())) dataJson = content; else files.put(e.getName(), content);
+    /**
+     * Write a full backup ZIP (since null) or a delta backup holding what changed after the backup whose manifest
+     * snapshot is since. Rows are selected by the id of the transaction that last wrote them (PostgreSQL xmin); most
+     * tables have no modification time and bulk statements would bypass one anyway. Besides the changed rows and
+     * their upload files, a delta carries:
+     * - links.json: the link tables whole (group clubs and trainers, user clubs and roles, training groups), since
+     *   links change without writing their owner row
+     * - ids.json: the ids every table holds, so rows deleted since the base are deleted on restore
+     * Restoring a delta is only meaningful on top of its base and the deltas between them (see importChain).
+     * Everything is read from one repeatable-read snapshot, the tables of data.json in parallel (see writeData).
+     */
+    @Transactional(readOnly = true, isolation = Isolation.REPEATABLE_READ)
+    public void writeZip(OutputStream out, Long since) throws IOException {
+        long snapshot = snapshot();
+        if (since != null) checkDeltaBase(since, snapshot);
+        ZipOutputStream zos = new ZipOutputStream(out);
+        Path base = Paths.get(uploadsDir).toAbsolutePath().normalize();
+
+        // 0) manifest.json, first so a restore knows what it reads before the data
+        BackupDtos.Manifest manifest = new BackupDtos.Manifest();
+        manifest.type = since == null ? "full" : "delta";
+        manifest.snapshot = snapshot;
+        manifest.since = since;
+        manifest.createdAt = Instant.now();
+        zos.putNextEntry(new ZipEntry("manifest.json"));
+        JsonGenerator mg = mapper.getFactory().createGenerator(zos);
+        mg.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        mg.writeObject(manifest);
+        mg.flush();
+        zos.closeEntry();
+
+        // 1) data.json
+        zos.putNextEntry(new ZipEntry("data.json"));
+        writeData(zos, since);
+        zos.closeEntry();
+
+        // 2) attachments.json
+        zos.putNextEntry(new ZipEntry("attachments.json"));
+        JsonGenerator g = mapper.getFactory().createGenerator(zos);
+        g.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        g.writeStartArray();
+        forEachRow(Attachment.class, "attachments", since, a -> {
+            java.util.Map<String,Object> m = new java.util.HashMap<>();
+            m.put("id", a.getId());
+            m.put("trainingId", a.getTraining()!=null ? a.getTraining().getId() : null);
+            m.put("filename", a.getFilename());
+            m.put("contentType", a.getContentType());
+            m.put("relativePath", relativeUpload(a, base));
+            g.writeObject(m);
+        });
+        g.writeEndArray();
+        g.flush();
+        zos.closeEntry();
+
+        // 3) files under uploads (only those referenced); mostly video, images and PDF that deflate gains nothing on,
+        // so they are stored uncompressed and copied from disk as they are
+        zos.setLevel(Deflater.NO_COMPRESSION);
+        forEachRow(Attachment.class, "attachments", since, a -> {
+            String rel = relativeUpload(a, base);
+            if (rel == null) return;
+            Path p = base.resolve(rel);
+            if (!Files.exists(p)) return;
+            // ensure parent directories entries are created implicitly by ZipEntry paths
+            zos.putNextEntry(new ZipEntry("uploads/" + rel));
+            Files.copy(p, zos);
+            zos.closeEntry();
+        });
+        zos.setLevel(Deflater.DEFAULT_COMPRESSION);
+
+        if (since != null){
+            // 4) links.json: {"group_clubs": [[groupId, clubId], ...], ..., "user_roles": [[userId, "ROLE_..."], ...]}
+            zos.putNextEntry(new ZipEntry("links.json"));
+            JsonGenerator lg = mapper.getFactory().createGenerator(zos);
+            lg.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            lg.writeStartObject();
+            for (BackupRestoreWriter.LinkTable link : restoreWriter.linkTables()){
+                lg.writeArrayFieldStart(link.name());
+                long owner = Long.MIN_VALUE, target = Long.MIN_VALUE;
+                while (true){
+                    List<?> page = em.createNativeQuery(link.exportSql()).setParameter(1, owner).setParameter(2, target).setMaxResults(KEY_PAGE).getResultList();
+                    for (Object o : page){
+                        Object[] row = (Object[]) o;
+                        lg.writeStartArray();
+                        lg.writeObject(row[0]);
+                        lg.writeObject(row[2]);
+                        lg.writeEndArray();
+                    }
+                    if (page.size() < KEY_PAGE) break;
+                    Object[] last = (Object[]) page.get(page.size() - 1);
+                    owner = ((Number) last[0]).longValue();
+                    target = ((Number) last[1]).longValue();
                 }
+                lg.writeEndArray();
             }
-            if (dataJson == null) throw new RuntimeException("ZIP missing data.json");
-
-            // First restore database from data.json (existing logic)
-            Map<String,Object> result = importFromBytes(dataJson);
-
-            // Then restore attachment files and rows if needed
-            // attachments.json describes metadata and relative paths; uploads/* contains actual files
-            byte[] metaBytes = files.get("attachments.json");
-            List<Map<String,Object>> metas = null;
-            if (metaBytes != null){
-                @SuppressWarnings("unchecked")
-                List<Map<String,Object>> parsed = mapper.readValue(metaBytes, List.class);
-                metas = parsed;
-            } else {
-                metas = List.of();
-            }
-
-            Path base = Paths.get(uploadsDir).toAbsolutePath().normalize();
-            Files.createDirectories(base);
-
-            // Copy files from uploads/ entries
-            for (Map.Entry<String,byte[]> en : files.entrySet()){
-                String name = en.getKey();
-                if (!name.startsWith("uploads/")) continue;
-                String rel = name.substring("uploads/".length());
-                Path dst = base.resolve(rel).normalize();
-                if (!dst.startsWith(base)) continue; // safety
-                Files.createDirectories(dst.getParent());
-                Files.write(dst, en.getValue(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
-            }
-
-            // Recreate or update Attachment entities based on metas; match by trainingId+filename when id not present
-            for (Map<String,Object> m : metas){
-                Long id = m.get("id") != null ? Long.valueOf(String.valueOf(m.get("id"))) : null;
-                Long trainingId = m.get("trainingId") != null ? Long.valueOf(String.valueOf(m.get("trainingId"))) : null;
-                String filename = (String) m.get("filename");
-                String contentType = (String) m.get("contentType");
-                String relativePath = (String) m.get("relativePath");
-                try{
-                    Attachment a = id!=null? attachmentRepository.findById(id).orElse(new Attachment()) : new Attachment();
-                    if (trainingId != null) trainingRepository.findById(trainingId).ifPresent(a::setTraining);
-                    a.setFilename(filename);
-                    a.setContentType(contentType);
-                    if (relativePath != null){ a.setPath(base.resolve(relativePath).normalize().toString()); }
-                    attachmentRepository.save(a);
-                }catch(Exception ignored){}
+            lg.writeEndObject();
+            lg.flush();
+            zos.closeEntry();
+
+            // 5) ids.json: {"attachments": [ids], ...}, referencing tables first, the order deletes are applied in
+            zos.putNextEntry(new ZipEntry("ids.json"));
+            JsonGenerator ig = mapper.getFactory().createGenerator(zos);
+            ig.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            ig.writeStartObject();
+            for (BackupRestoreWriter.Table<?> table : restoreWriter.deletionOrder()){
+                ig.writeArrayFieldStart(table.field());
+                String sql = "select id from " + table.table() + " where id > ?1 order by id";
+                long after = Long.MIN_VALUE;
+                while (true){
+                    List<Long> ids = longs(em.createNativeQuery(sql).setParameter(1, after).setMaxResults(KEY_PAGE).getResultList());
+                    for (Long id : ids) ig.writeNumber(id);
+                    if (ids.size() < KEY_PAGE) break;
+                    after = ids.get(ids.size() - 1);
+                }
+                ig.writeEndArray();
             }
-
-            result.put("attachmentsRestored", metas.size());
-            return result;
-        }catch(Exception e){ throw new RuntimeException(e); }
+            ig.writeEndObject();
+            ig.flush();
+            zos.closeEntry();
+        }
+        zos.finish();
+        zos.flush();
     }
 }
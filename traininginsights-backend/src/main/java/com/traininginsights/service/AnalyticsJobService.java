@@ -0,0 +1,171 @@
+package com.traininginsights.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Background execution of heavy analytics queries. A job runs on the bounded analyticsJobExecutor and its result is
+ * kept until the job expires; finished results are also cached by query fingerprint (normalized parameters plus the
+ * ResponseMetricService version, which moves with the extracted metrics and with training groups, group clubs and
+ * athlete memberships), so a repeated query is answered by a job that is done on submission.
+ */
+@Service
+public class AnalyticsJobService {
+    private static final Logger log = LoggerFactory.getLogger(AnalyticsJobService.class);
+    private static final int MAX_JOBS = 500;
+    private static final Duration JOB_RETENTION = Duration.ofMinutes(30);
+
+    public enum Status { QUEUED, RUNNING, DONE, FAILED }
+
+    public static class Job {
+        private final String id = java.util.UUID.randomUUID().toString();
+        private final String owner;
+        private final String type;
+        private final String fingerprint;
+        private final Instant submittedAt;
+        private volatile Status status = Status.QUEUED;
+        private volatile Instant startedAt;
+        private volatile Instant finishedAt;
+        private volatile boolean cached;
+        private volatile Object result;
+        private volatile String error;
+
+        Job(String owner, String type, String fingerprint, Instant submittedAt){ this.owner = owner; this.type = type; this.fingerprint = fingerprint; this.submittedAt = submittedAt; }
+
+        public String getId(){ return id; }
+        public String getOwner(){ return owner; }
+        public Status getStatus(){ return status; }
+        public Object getResult(){ return result; }
+        public String getError(){ return error; }
+
+        boolean isFinished(){ return status == Status.DONE || status == Status.FAILED; }
+
+        public Map<String,Object> describe(){
+            Map<String,Object> m = new java.util.LinkedHashMap<>();
+            m.put("id", id);
+            m.put("type", type);
+            m.put("status", status.name());
+            m.put("submittedAt", submittedAt.toString());
+            m.put("startedAt", startedAt == null ? null : startedAt.toString());
+            m.put("finishedAt", finishedAt == null ? null : finishedAt.toString());
+            m.put("cached", cached);
+            m.put("error", error);
+            return m;
+        }
+    }
+
+    private final AsyncTaskExecutor executor;
+    private final ResponseMetricService metricService;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final java.util.concurrent.ConcurrentHashMap<String, Job> jobs = new java.util.concurrent.ConcurrentHashMap<>();
+    private final TtlCache<String, Object> results = new TtlCache<>(100, Duration.ofMinutes(10));
+    private final Clock clock;
+
+    @Autowired
+    public AnalyticsJobService(@Qualifier("analyticsJobExecutor") AsyncTaskExecutor executor, ResponseMetricService metricService) {
+        this(executor, metricService, Clock.systemUTC());
+    }
+
+    AnalyticsJobService(AsyncTaskExecutor executor, ResponseMetricService metricService, Clock clock) {
+        this.executor = executor;
+        this.metricService = metricService;
+        this.clock = clock;
+    }
+
+    /**
+     * Queue a query. params must identify the query completely, including the caller's visibility scope;
+     * an unfinished job of the same owner with the same fingerprint is returned instead of queueing a duplicate.
+     */
+    public Job submit(String owner, String type, Map<String,Object> params, Supplier<Object> work){
+        purgeExpired();
+        String fingerprint = fingerprint(type, params);
+        for (Job j : jobs.values()){
+            if (!j.isFinished() && j.fingerprint.equals(fingerprint) && j.owner.equals(owner)) return j;
+        }
+        if (jobs.size() >= MAX_JOBS) throw new ResponseStatusException(HttpStatus.TOO_MANY_REQUESTS, "Too many analytics jobs, try again later");
+
+        Job job = new Job(owner, type, fingerprint, clock.instant());
+        Object cached = results.get(fingerprint);
+        if (cached != null){
+            job.startedAt = job.submittedAt;
+            job.cached = true;
+            finish(job, cached, null);
+            jobs.put(job.id, job);
+            return job;
+        }
+        jobs.put(job.id, job);
+        try {
+            executor.execute(() -> run(job, work));
+        } catch (TaskRejectedException ex){
+            jobs.remove(job.id);
+            throw new ResponseStatusException(HttpStatus.TOO_MANY_REQUESTS, "Analytics queue is full, try again later");
+        }
+        return job;
+    }
+
+    /**
+     * Job of the given owner; unknown or foreign ids are reported as not found.
+     */
+    public Job get(String id, String owner){
+        Job job = jobs.get(id);
+        if (job == null || !job.owner.equals(owner)) throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Job not found");
+        return job;
+    }
+
+    private void run(Job job, Supplier<Object> work){
+        job.startedAt = clock.instant();
+        job.status = Status.RUNNING;
+        try {
+            Object result = work.get();
+            results.put(job.fingerprint, result);
+            finish(job, result, null);
+        } catch (Exception ex){
+            log.warn("Analytics job {} ({}) failed", job.id, job.type, ex);
+            finish(job, null, ex.getMessage() == null ? ex.getClass().getSimpleName() : ex.getMessage());
+        }
+    }
+
+    private void finish(Job job, Object result, String error){
+        job.result = result;
+        job.error = error;
+        job.finishedAt = clock.instant();
+        job.status = error == null ? Status.DONE : Status.FAILED;
+    }
+
+    private void purgeExpired(){
+        Instant cutoff = clock.instant().minus(JOB_RETENTION);
+        jobs.values().removeIf(j -> j.isFinished() && j.finishedAt.isBefore(cutoff));
+    }
+
+    // SHA-256 of the canonical parameter JSON (keys sorted, collections sorted, blanks dropped) and the data version
+    private String fingerprint(String type, Map<String,Object> params){
+        Map<String,Object> canonical = new java.util.TreeMap<>();
+        params.forEach((k, v) -> {
+            if (v == null || (v instanceof String s && s.isBlank())) return;
+            if (v instanceof java.util.Collection<?> c) v = c.stream().map(String::valueOf).sorted().toList();
+            canonical.put(k, v);
+        });
+        canonical.put("_type", type);
+        canonical.put("_version", metricService.version());
+        try {
+            byte[] digest = java.security.MessageDigest.getInstance("SHA-256").digest(objectMapper.writeValueAsBytes(canonical));
+            return java.util.HexFormat.of().formatHex(digest);
+        } catch (Exception ex){
+            throw new IllegalStateException("Could not fingerprint analytics query", ex);
+        }
+    }
+}
@@ -0,0 +1,380 @@
+package com.traininginsights.service;
+
+import com.traininginsights.model.Club;
+import com.traininginsights.model.Group;
+import com.traininginsights.model.QuestionnaireResponse;
+import com.traininginsights.model.Training;
+import com.traininginsights.repository.AnalyticsRollupRepository;
+import com.traininginsights.repository.AnalyticsStateRepository;
+import com.traininginsights.repository.GroupRepository;
+import com.traininginsights.repository.QuestionnaireResponseRepository;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.Query;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.*;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Incrementally maintained rollup ("cube") behind AnalyticsService.aggregate.
+ * Each numeric metric of a response adds value/count to one cell per dimension (athlete|group|club),
+ * granularity (day|week|month|training) and scope (all, each training group, each club of those groups).
+ * Dimension keys and periods follow AnalyticsService.aggregateOptimized (UTC, ISO week 'YYYY-WW', lowest group/club id).
+ * A response is bucketed by the time and groups of its training: rescheduling or regrouping a training moves its cells
+ * (onTrainingMoved); changes that reach many trainings (group clubs, deleted groups or clubs) mark the cube stale in
+ * analytics_state, and AnalyticsRollupScheduler rebuilds it.
+ */
+@Service
+public class AnalyticsRollupService {
+    private static final String[] DIMENSIONS = {"athlete", "group", "club"};
+    private static final String[] GRANULARITIES = {"day", "week", "month", "training"};
+    private static final int UPSERT_CHUNK = 500;
+    private static final int REBUILD_PAGE = 500;
+    private static final String STATE = "analytics_rollups";
+    // unique key order of uq_analytics_rollup_cell, so concurrent upserts lock rows in the same order
+    private static final java.util.Comparator<Cell> CELL_ORDER = java.util.Comparator.comparing(Cell::metric)
+            .thenComparing(Cell::phase).thenComparing(Cell::dimension).thenComparing(Cell::dimKey)
+            .thenComparing(Cell::granularity).thenComparing(Cell::period).thenComparing(Cell::bucketDay)
+            .thenComparing(Cell::scopeType).thenComparingLong(Cell::scopeId);
+
+    private final AnalyticsRollupRepository rollupRepository;
+    private final QuestionnaireResponseRepository responseRepository;
+    private final EntityManager em;
+    private final ResponseMetricService metricService;
+    private final AnalyticsStateRepository stateRepository;
+    private final GroupRepository groupRepository;
+    private final JdbcTemplate jdbc;
+
+    // cached analytics_state; null until first checked. The cube is only trusted once it has been built
+    private volatile Boolean ready;
+
+    public AnalyticsRollupService(AnalyticsRollupRepository rollupRepository, QuestionnaireResponseRepository responseRepository, EntityManager em, ResponseMetricService metricService, AnalyticsStateRepository stateRepository, GroupRepository groupRepository, JdbcTemplate jdbc) {
+        this.rollupRepository = rollupRepository;
+        this.responseRepository = responseRepository;
+        this.em = em;
+        this.metricService = metricService;
+        this.stateRepository = stateRepository;
+        this.groupRepository = groupRepository;
+        this.jdbc = jdbc;
+    }
+
+    private record Cell(String metric, String phase, String dimension, String dimKey, String granularity, String period, LocalDate bucketDay, String scopeType, long scopeId) {}
+
+    /** Time and groups the responses of a training are bucketed under, as stored before an edit. */
+    public record Placement(Long trainingId, Instant trainingTime, java.util.Set<Long> groupIds) {}
+
+    public boolean isReady(){
+        Boolean r = ready;
+        if (r == null){
+            // without a state row the cube was never built; that only matters once there are responses
+            r = stateRepository.findReady(STATE).orElseGet(() -> responseRepository.count() == 0);
+            ready = r;
+        }
+        return r;
+    }
+
+    // re-read the persisted state, which another instance may have changed
+    public boolean refresh(){
+        ready = null;
+        return isReady();
+    }
+
+    /**
+     * The cube no longer matches the responses: aggregate uses the live path until the next rebuild, here and, once
+     * they refresh, on other instances and after a restart. Persisted on its own so a rolled back caller still
+     * leaves the cube stale.
+     */
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public void markStale(){
+        ready = false;
+        stateRepository.markStale(STATE);
+    }
+
+    /**
+     * Apply a written response to the cube: subtracts the previous payload (when the submission replaced one)
+     * and adds the new one, in the transaction that writes the response so both commit or roll back together.
+     */
+    @Transactional
+    public void onSubmitted(QuestionnaireResponse saved, String previousResponses, Instant previousSubmittedAt){
+        if (saved == null) return;
+        stateRepository.lockShared(STATE);
+        Map<Cell, double[]> deltas = new java.util.HashMap<>();
+        if (previousResponses != null && previousSubmittedAt != null){
+            accumulate(saved.getTraining(), saved.getUser() != null ? saved.getUser().getId() : null, saved.getPhase(), previousSubmittedAt, previousResponses, -1, deltas);
+        }
+        accumulate(saved, 1, deltas);
+        upsert(deltas);
+    }
+
+    /**
+     * Where the responses of a stored training sit in the cube, read from the database so an edit of the entity that
+     * is not flushed yet does not show; null when the training has no responses and so no cells.
+     */
+    public Placement placement(Long trainingId){
+        if (trainingId == null) return null;
+        List<Instant> time = jdbc.query("select t.training_time from trainings t where t.id = ? and exists (select 1 from questionnaire_responses r where r.training_id = t.id)",
+                (rs, i) -> { java.sql.Timestamp ts = rs.getTimestamp(1); return ts == null ? null : ts.toInstant(); }, trainingId);
+        if (time.isEmpty()) return null;
+        return new Placement(trainingId, time.get(0), new java.util.HashSet<>(jdbc.queryForList("select group_id from training_groups where training_id = ?", Long.class, trainingId)));
+    }
+
+    /**
+     * Move the cells of a training's responses from where they were bucketed before an edit (see placement) to the
+     * training's current time and groups. No-op when neither changed.
+     */
+    @Transactional
+    public void onTrainingMoved(Training updated, Placement before){
+        if (before == null || updated == null) return;
+        java.util.Set<Long> groupIds = new java.util.HashSet<>();
+        if (updated.getGroups() != null) for (Group g : updated.getGroups()) groupIds.add(g.getId());
+        if (java.util.Objects.equals(before.trainingTime(), updated.getTrainingTime()) && before.groupIds().equals(groupIds)) return;
+        stateRepository.lockShared(STATE);
+        Training previous = new Training();
+        previous.setId(before.trainingId());
+        previous.setTrainingTime(before.trainingTime());
+        previous.setGroups(new java.util.HashSet<>(groupRepository.findAllById(before.groupIds())));
+        Map<Cell, double[]> deltas = new java.util.HashMap<>();
+        for (QuestionnaireResponse r : responseRepository.findByTraining(updated)){
+            Long userId = r.getUser() != null ? r.getUser().getId() : null;
+            accumulate(previous, userId, r.getPhase(), r.getSubmittedAt(), r.getResponses(), -1, deltas);
+            accumulate(updated, userId, r.getPhase(), r.getSubmittedAt(), r.getResponses(), 1, deltas);
+        }
+        upsert(deltas);
+    }
+
+    /** Club ids of a group as stored, or null when none of its trainings has responses (no cells depend on them). */
+    public java.util.Set<Long> aggregatedClubIds(Long groupId){
+        if (groupId == null) return null;
+        Boolean aggregated = jdbc.queryForObject("select exists (select 1 from training_groups tg join questionnaire_responses r on r.training_id = tg.training_id where tg.group_id = ?)", Boolean.class, groupId);
+        if (!Boolean.TRUE.equals(aggregated)) return null;
+        return new java.util.HashSet<>(jdbc.queryForList("select club_id from group_clubs where group_id = ?", Long.class, groupId));
+    }
+
+    /** Whether responses of a club's groups are in the cube. */
+    public boolean clubAggregated(Long clubId){
+        return Boolean.TRUE.equals(jdbc.queryForObject("select exists (select 1 from group_clubs gc join training_groups tg on tg.group_id = gc.group_id join questionnaire_responses r on r.training_id = tg.training_id where gc.club_id = ?)", Boolean.class, clubId));
+    }
+
+    /**
+     * Recompute the whole cube from questionnaire_responses, page by page, in a single transaction so readers
+     * never see a half-built cube. The rebuild holds the cube lock exclusively: concurrent rebuilds (other
+     * instances) run one after the other, and writers of deltas (which hold it shared) either commit before the
+     * rebuild reads the responses or wait and apply their delta to the rebuilt cube. The cube is only marked ready
+     * when it was not marked stale while the rebuild ran.
+     */
+    @Transactional
+    public Map<String,Object> rebuild(){
+        stateRepository.lock(STATE);
+        long generation = stateRepository.findGeneration(STATE).orElse(0L);
+        rollupRepository.deleteAllCells();
+        long responses = 0;
+        long last = 0;
+        List<QuestionnaireResponse> batch;
+        do {
+            // keyset by id: each page is one index range scan, without an offset or a count
+            batch = responseRepository.findByIdGreaterThanOrderByIdAsc(last, PageRequest.of(0, REBUILD_PAGE));
+            Map<Cell, double[]> cells = new java.util.HashMap<>();
+            for (QuestionnaireResponse r : batch) accumulate(r, 1, cells);
+            upsert(cells);
+            responses += batch.size();
+            if (!batch.isEmpty()) last = batch.get(batch.size() - 1).getId();
+            em.flush();
+            em.clear();
+        } while (batch.size() == REBUILD_PAGE);
+        ready = stateRepository.markReady(STATE, generation) > 0;
+        return Map.of("responses", responses, "cells", rollupRepository.count());
+    }
+
+    /**
+     * Answer an aggregate request from the cube. Returns null when the request cannot be answered exactly
+     * (cube not built yet, age dimension, or a filter combination without a matching scope) so the caller
+     * falls back to the live path. Whole UTC days inside [start, end] come from the cube; the partial first and
+     * last day are read from the raw responses of that window.
+     */
+    @Transactional(readOnly = true, noRollbackFor = Exception.class)
+    public List<Map<String,Object>> query(String metric, String dimension, String granularity, Long groupId, Long clubId, Instant start, Instant end, String phase, java.util.Set<Long> allowedGroupIds){
+        if (metric == null || !isReady()) return null;
+        if (!java.util.Arrays.asList(GRANULARITIES).contains(granularity)) return null;
+        boolean all = "all".equals(dimension);
+        if (!all && !java.util.Arrays.asList(DIMENSIONS).contains(dimension)) return null;
+
+        String scopeType; long scopeId;
+        if (groupId != null){
+            if (clubId != null) return null;
+            scopeType = "group"; scopeId = groupId;
+        } else if (allowedGroupIds != null){
+            if (allowedGroupIds.isEmpty()) return List.of();
+            // trainings shared by several allowed groups would be counted once per group
+            if (allowedGroupIds.size() > 1 || clubId != null) return null;
+            scopeType = "group"; scopeId = allowedGroupIds.iterator().next();
+        } else if (clubId != null){
+            scopeType = "club"; scopeId = clubId;
+        } else {
+            scopeType = "all"; scopeId = 0L;
+        }
+        String cellDimension = all ? "athlete" : dimension;
+        String cellPhase = AnalyticsService.phaseFilter(phase);
+
+        LocalDate firstFull = start == null ? null : (start.equals(utcDay(start).atStartOfDay(ZoneOffset.UTC).toInstant()) ? utcDay(start) : utcDay(start).plusDays(1));
+        LocalDate lastFull = end == null ? null : utcDay(end).minusDays(1);
+
+        Map<String, double[]> buckets = new java.util.LinkedHashMap<>();
+        List<QuestionnaireResponse> edge = new java.util.ArrayList<>();
+        if (firstFull != null && lastFull != null && firstFull.isAfter(lastFull)){
+            edge.addAll(responseRepository.findBySubmittedAtBetween(start, end));
+        } else {
+            StringBuilder jpql = new StringBuilder("select r.dimKey, r.period, sum(r.valueSum), sum(r.valueCount) from AnalyticsRollup r ")
+                    .append("where r.metric = :metric and r.dimension = :dimension and r.granularity = :granularity ")
+                    .append("and r.scopeType = :scopeType and r.scopeId = :scopeId ");
+            if (cellPhase != null) jpql.append("and upper(r.phase) = :phase ");
+            if (firstFull != null) jpql.append("and r.bucketDay >= :firstFull ");
+            if (lastFull != null) jpql.append("and r.bucketDay <= :lastFull ");
+            jpql.append("group by r.dimKey, r.period");
+            Query q = em.createQuery(jpql.toString());
+            q.setParameter("metric", metric);
+            q.setParameter("dimension", cellDimension);
+            q.setParameter("granularity", granularity);
+            q.setParameter("scopeType", scopeType);
+            q.setParameter("scopeId", scopeId);
+            if (cellPhase != null) q.setParameter("phase", cellPhase);
+            if (firstFull != null) q.setParameter("firstFull", firstFull);
+            if (lastFull != null) q.setParameter("lastFull", lastFull);
+            @SuppressWarnings("unchecked")
+            List<Object[]> rows = q.getResultList();
+            for (Object[] row : rows){
+                String key = all ? "all" : String.valueOf(row[0]);
+                double[] agg = buckets.computeIfAbsent(key + "|" + row[1], k -> new double[]{0, 0});
+                agg[0] += ((Number) row[2]).doubleValue();
+                agg[1] += ((Number) row[3]).doubleValue();
+            }
+            if (start != null && firstFull.atStartOfDay(ZoneOffset.UTC).toInstant().isAfter(start)){
+                edge.addAll(responseRepository.findBySubmittedAtGreaterThanEqualAndSubmittedAtLessThan(start, firstFull.atStartOfDay(ZoneOffset.UTC).toInstant()));
+            }
+            if (end != null){
+                edge.addAll(responseRepository.findBySubmittedAtBetween(lastFull.plusDays(1).atStartOfDay(ZoneOffset.UTC).toInstant(), end));
+            }
+        }
+
+        Map<Cell, double[]> edgeCells = new java.util.HashMap<>();
+        for (QuestionnaireResponse r : edge) accumulate(r, 1, edgeCells);
+        for (var e : edgeCells.entrySet()){
+            Cell c = e.getKey();
+            if (!c.metric().equals(metric) || !c.dimension().equals(cellDimension) || !c.granularity().equals(granularity)) continue;
+            if (!c.scopeType().equals(scopeType) || c.scopeId() != scopeId) continue;
+            if (!AnalyticsService.phaseMatches(c.phase(), cellPhase)) continue;
+            String key = all ? "all" : c.dimKey();
+            double[] agg = buckets.computeIfAbsent(key + "|" + c.period(), k -> new double[]{0, 0});
+            agg[0] += e.getValue()[0];
+            agg[1] += e.getValue()[1];
+        }
+
+        List<Map<String,Object>> out = new java.util.ArrayList<>();
+        for (var e : buckets.entrySet()){
+            double[] agg = e.getValue();
+            if (agg[1] <= 0) continue;
+            String[] parts = e.getKey().split("\\|", 2);
+            Map<String,Object> m = new java.util.HashMap<>();
+            m.put("key", parts[0]);
+            m.put("period", parts.length > 1 ? parts[1] : "");
+            m.put("value", agg[0] / agg[1]);
+            m.put("count", (int) Math.round(agg[1]));
+            out.add(m);
+        }
+        out.sort(java.util.Comparator.comparing((Map<String,Object> m) -> String.valueOf(m.get("period")))
+                .thenComparing(m -> String.valueOf(m.get("key"))));
+        return out;
+    }
+
+    private void accumulate(QuestionnaireResponse r, int sign, Map<Cell, double[]> cells){
+        accumulate(r.getTraining(), r.getUser() != null ? r.getUser().getId() : null, r.getPhase(), r.getSubmittedAt(), r.getResponses(), sign, cells);
+    }
+
+    private void accumulate(Training t, Long userId, String phase, Instant submittedAt, String json, int sign, Map<Cell, double[]> cells){
+        // mirrors the inner joins of the optimized SQL path: responses without training or user are not aggregated
+        if (t == null || t.getTrainingTime() == null || userId == null || submittedAt == null || json == null) return;
+        Map<String, Double> values = metricService.numericFields(json);
+        if (values.isEmpty()) return;
+
+        java.util.TreeSet<Long> groupIds = new java.util.TreeSet<>();
+        java.util.TreeSet<Long> clubIds = new java.util.TreeSet<>();
+        if (t.getGroups() != null){
+            for (Group g : t.getGroups()){
+                groupIds.add(g.getId());
+                if (g.getClubs() != null) for (Club c : g.getClubs()) clubIds.add(c.getId());
+            }
+        }
+        Map<String,String> keys = Map.of(
+                "athlete", String.valueOf(userId),
+                "group", groupIds.isEmpty() ? "" : String.valueOf(groupIds.first()),
+                "club", clubIds.isEmpty() ? "" : String.valueOf(clubIds.first()));
+        Map<String,String> periods = periods(t);
+        List<Object[]> scopes = new java.util.ArrayList<>();
+        scopes.add(new Object[]{"all", 0L});
+        for (Long gid : groupIds) scopes.add(new Object[]{"group", gid});
+        for (Long cid : clubIds) scopes.add(new Object[]{"club", cid});
+        LocalDate day = utcDay(submittedAt);
+        String cellPhase = phase == null ? "" : phase;
+
+        for (var v : values.entrySet()){
+            for (String dim : DIMENSIONS){
+                for (String gran : GRANULARITIES){
+                    for (Object[] scope : scopes){
+                        Cell cell = new Cell(v.getKey(), cellPhase, dim, keys.get(dim), gran, periods.get(gran), day, (String) scope[0], (Long) scope[1]);
+                        double[] agg = cells.computeIfAbsent(cell, k -> new double[]{0, 0});
+                        agg[0] += sign * v.getValue();
+                        agg[1] += sign;
+                    }
+                }
+            }
+        }
+    }
+
+    // Multi-row upsert; cells are unique within the map so a single statement never touches a row twice. Rows are
+    // written in unique key order: two submissions touching the same cells in different orders would deadlock
+    private void upsert(Map<Cell, double[]> cells){
+        List<Map.Entry<Cell, double[]>> entries = new java.util.ArrayList<>();
+        for (var e : cells.entrySet()) if (e.getValue()[1] != 0 || e.getValue()[0] != 0) entries.add(e);
+        entries.sort(Map.Entry.comparingByKey(CELL_ORDER));
+        for (int from = 0; from < entries.size(); from += UPSERT_CHUNK){
+            List<Map.Entry<Cell, double[]>> chunk = entries.subList(from, Math.min(from + UPSERT_CHUNK, entries.size()));
+            StringBuilder sql = new StringBuilder("insert into analytics_rollups (metric, phase, dimension, dim_key, granularity, period, bucket_day, scope_type, scope_id, value_sum, value_count) values ");
+            for (int i = 0; i < chunk.size(); i++){
+                if (i > 0) sql.append(", ");
+                sql.append("(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+            }
+            sql.append(" on conflict on constraint uq_analytics_rollup_cell do update set ")
+               .append("value_sum = analytics_rollups.value_sum + excluded.value_sum, ")
+               .append("value_count = analytics_rollups.value_count + excluded.value_count");
+            Query q = em.createNativeQuery(sql.toString());
+            int p = 1;
+            for (var e : chunk){
+                Cell c = e.getKey();
+                q.setParameter(p++, c.metric());
+                q.setParameter(p++, c.phase());
+                q.setParameter(p++, c.dimension());
+                q.setParameter(p++, c.dimKey());
+                q.setParameter(p++, c.granularity());
+                q.setParameter(p++, c.period());
+                q.setParameter(p++, c.bucketDay());
+                q.setParameter(p++, c.scopeType());
+                q.setParameter(p++, c.scopeId());
+                q.setParameter(p++, e.getValue()[0]);
+                q.setParameter(p++, (long) e.getValue()[1]);
+            }
+            q.executeUpdate();
+        }
+    }
+
+    private static Map<String,String> periods(Training t){
+        Map<String,String> periods = new java.util.HashMap<>();
+        for (String granularity : GRANULARITIES) periods.put(granularity, AnalyticsService.period(granularity, t.getTrainingTime(), t.getId()));
+        return periods;
+    }
+
+    private static LocalDate utcDay(Instant i){ return LocalDate.ofInstant(i, ZoneOffset.UTC); }
+}
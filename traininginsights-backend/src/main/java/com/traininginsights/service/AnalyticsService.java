@@ -26,8 +26,13 @@ public class AnalyticsService {
     private final ClubRepository clubRepository;
     private final EntityManager em;
     private final TrainingAttendanceRepository attendanceRepo;
+    private final AnalyticsRollupService rollupService;
+    private final ResponseMetricService metricService;
+    private final MetricCatalogService catalogService;
+    private final org.springframework.core.task.AsyncTaskExecutor analyticsExecutor;
+    private final org.springframework.transaction.support.TransactionTemplate readOnlyTx;
 
-    public AnalyticsService(TrainingRepository trainingRepository, GroupRepository groupRepository, QuestionnaireResponseService responseService, UserRepository userRepository, ClubRepository clubRepository, EntityManager em, TrainingAttendanceRepository attendanceRepo) {
+    public AnalyticsService(TrainingRepository trainingRepository, GroupRepository groupRepository, QuestionnaireResponseService responseService, UserRepository userRepository, ClubRepository clubRepository, EntityManager em, TrainingAttendanceRepository attendanceRepo, AnalyticsRollupService rollupService, ResponseMetricService metricService, MetricCatalogService catalogService, @org.springframework.beans.factory.annotation.Qualifier("analyticsExecutor") org.springframework.core.task.AsyncTaskExecutor analyticsExecutor, org.springframework.transaction.PlatformTransactionManager txManager) {
         this.trainingRepository = trainingRepository;
         this.groupRepository = groupRepository;
         this.responseService = responseService;
@@ -35,6 +40,12 @@ public class AnalyticsService {
         this.clubRepository = clubRepository;
         this.em = em;
         this.attendanceRepo = attendanceRepo;
+        this.rollupService = rollupService;
+        this.metricService = metricService;
+        this.catalogService = catalogService;
+        this.analyticsExecutor = analyticsExecutor;
+        this.readOnlyTx = new org.springframework.transaction.support.TransactionTemplate(txManager);
+        this.readOnlyTx.setReadOnly(true);
     }
 
     /**
@@ -67,6 +78,8 @@ public class AnalyticsService {
     /**
      * Presence aggregation: compute presence rates (0..1) aggregated by dimension (athlete|group|club|all)
      * and by period (day|week|month|training) based on trainings and attendance records.
+     * Eligible athletes of a training are the athletes of its groups; numerator and denominator are counted in one
+     * grouped query. Group/club keys use the training's lowest group id (and that group's lowest club id).
      * Returns rows: { key, period, value, numerator, denominator }
      */
     @Transactional(readOnly = true)
@@ -76,115 +89,59 @@ public class AnalyticsService {
         String safeGranularity = switch (String.valueOf(granularity)) {
             case "day", "week", "month", "training" -> granularity; default -> "day"; };
 
-        java.time.Instant start = null, end = null;
-        try { if (startIso != null && !startIso.isBlank()) start = java.time.Instant.parse(startIso); } catch (Exception ignored) {}
-        try { if (endIso != null && !endIso.isBlank()) end = java.time.Instant.parse(endIso); } catch (Exception ignored) {}
+        java.time.Instant start = parseBound(startIso, "start"), end = parseBound(endIso, "end");
 
         // If trainer and allowed groups are explicitly empty, short-circuit
         if (groupId == null && allowedGroupIds != null && allowedGroupIds.isEmpty()) return java.util.List.of();
 
-        // bucket: (key|period) -> { num, den }
-        java.util.Map<String, long[]> buckets = new java.util.HashMap<>();
-
-        for (com.traininginsights.model.Training t : trainingRepository.findAll()) {
-            if (t.getTrainingTime() == null) continue;
-            if (start != null && t.getTrainingTime().isBefore(start)) continue;
-            if (end != null && t.getTrainingTime().isAfter(end)) continue;
-            // group filter
-            if (groupId != null) {
-                boolean inGroup = t.getGroups() != null && t.getGroups().stream().anyMatch(g -> g.getId().equals(groupId));
-                if (!inGroup) continue;
-            }
-            // allowed groups filter (for trainers without an explicit groupId)
-            if (groupId == null && allowedGroupIds != null) {
-                boolean intersects = t.getGroups() != null && t.getGroups().stream().anyMatch(g -> allowedGroupIds.contains(g.getId()));
-                if (!intersects) continue;
-            }
-            // club filter
-            if (clubId != null) {
-                boolean inClub = t.getGroups() != null && t.getGroups().stream().anyMatch(g -> g.getClubs() != null && g.getClubs().stream().anyMatch(c -> c.getId().equals(clubId)));
-                if (!inClub) continue;
-            }
-
-            // derive eligible athletes for the training (union of training groups' athletes)
-            java.util.Set<Long> eligible = new java.util.HashSet<>();
-            if (t.getGroups() != null) {
-                for (var g : t.getGroups()) {
-                    if (g.getAthletes() != null) for (var a : g.getAthletes()) eligible.add(a.getId());
-                }
-            }
-            if (eligible.isEmpty()) continue; // no denominator -> skip
-
-            // map attendance for quick lookup
-            java.util.List<com.traininginsights.model.TrainingAttendance> atts = attendanceRepo.findByTraining(t);
-            java.util.Set<Long> present = new java.util.HashSet<>();
-            for (var ta : atts) if (ta.isPresent()) present.add(ta.getUser().getId());
-
-            // build period string
-            java.time.ZonedDateTime z = java.time.ZonedDateTime.ofInstant(t.getTrainingTime(), java.time.ZoneId.systemDefault());
-            String period;
-            switch (safeGranularity) {
-                case "day": period = z.toLocalDate().toString(); break;
-                case "week": {
-                    int week = z.get(java.time.temporal.IsoFields.WEEK_OF_WEEK_BASED_YEAR);
-                    int year = z.get(java.time.temporal.IsoFields.WEEK_BASED_YEAR);
-                    period = year + "-" + String.format("%02d", week); break; }
-                case "month": period = z.getYear() + "-" + String.format("%02d", z.getMonthValue()); break;
-                case "training": period = String.valueOf(t.getId()); break;
-                default: period = z.toLocalDate().toString();
-            }
-
-            switch (safeDimension) {
-                case "athlete":
-                    for (Long uid : eligible) {
-                        String key = String.valueOf(uid);
-                        String composite = key + "|" + period;
-                        long[] agg = buckets.computeIfAbsent(composite, k -> new long[]{0L,0L});
-                        agg[1] += 1; // denominator: one expected opportunity for this athlete
-                        if (present.contains(uid)) agg[0] += 1; // numerator
-                    }
-                    break;
-                case "group": {
-                    String key = (t.getGroups()!=null && !t.getGroups().isEmpty()) ? String.valueOf(t.getGroups().iterator().next().getId()) : "nogroup";
-                    String composite = key + "|" + period;
-                    long[] agg = buckets.computeIfAbsent(composite, k -> new long[]{0L,0L});
-                    agg[1] += eligible.size();
-                    long num = present.stream().filter(eligible::contains).count();
-                    agg[0] += num;
-                    break;
-                }
-                case "club": {
-                    String key = (t.getGroups()!=null && !t.getGroups().isEmpty() && t.getGroups().iterator().next().getClubs()!=null && !t.getGroups().iterator().next().getClubs().isEmpty())
-                            ? String.valueOf(t.getGroups().iterator().next().getClubs().iterator().next().getId())
-                            : "noclub";
-                    String composite = key + "|" + period;
-                    long[] agg = buckets.computeIfAbsent(composite, k -> new long[]{0L,0L});
-                    agg[1] += eligible.size();
-                    long num = present.stream().filter(eligible::contains).count();
-                    agg[0] += num;
-                    break;
-                }
-                default: { // all
-                    String composite = "all|" + period;
-                    long[] agg = buckets.computeIfAbsent(composite, k -> new long[]{0L,0L});
-                    agg[1] += eligible.size();
-                    long num = present.stream().filter(eligible::contains).count();
-                    agg[0] += num;
-                }
-            }
+        StringBuilder sql = new StringBuilder();
+        sql.append("with tr as (select t.id, t.training_time, ")
+           .append("(select min(tg.group_id) from training_groups tg where tg.training_id = t.id) as primary_group ")
+           .append("from trainings t where t.training_time is not null ");
+        if (start != null) sql.append(" and t.training_time >= :start ");
+        if (end != null) sql.append(" and t.training_time <= :end ");
+        if (groupId != null) sql.append(" and exists (select 1 from training_groups tg where tg.training_id = t.id and tg.group_id = :gid) ");
+        if (groupId == null && allowedGroupIds != null) sql.append(" and exists (select 1 from training_groups tg where tg.training_id = t.id and tg.group_id in (:agids)) ");
+        if (clubId != null) sql.append(" and exists (select 1 from group_clubs gc join training_groups tg on gc.group_id = tg.group_id where tg.training_id = t.id and gc.club_id = :cid) ");
+        sql.append("), elig as (select distinct tr.id as training_id, tr.training_time, tr.primary_group, u.id as user_id ")
+           .append("from tr join training_groups tg on tg.training_id = tr.id join users u on u.group_id = tg.group_id) ");
+        sql.append("select ");
+        switch (safeDimension) {
+            case "athlete" -> sql.append("e.user_id::text");
+            case "group" -> sql.append("e.primary_group::text");
+            case "club" -> sql.append("coalesce((select min(gc.club_id) from group_clubs gc where gc.group_id = e.primary_group)::text, 'noclub')");
+            default -> sql.append("'all'");
         }
+        sql.append(" as key, ");
+        switch (safeGranularity) {
+            case "week" -> sql.append("to_char(e.training_time at time zone :tz, 'IYYY-IW')");
+            case "month" -> sql.append("to_char(e.training_time at time zone :tz, 'YYYY-MM')");
+            case "training" -> sql.append("e.training_id::text");
+            default -> sql.append("to_char(e.training_time at time zone :tz, 'YYYY-MM-DD')");
+        }
+        sql.append(" as period, count(ta.id) as num, count(*) as den ")
+           .append("from elig e left join training_attendance ta on ta.training_id = e.training_id and ta.user_id = e.user_id and ta.present = true ")
+           .append("group by key, period");
+
+        Query q = em.createNativeQuery(sql.toString());
+        // periods follow the server zone, as the previous per-training loop did
+        if (!"training".equals(safeGranularity)) q.setParameter("tz", java.time.ZoneId.systemDefault().getId());
+        if (start != null) q.setParameter("start", java.sql.Timestamp.from(start));
+        if (end != null) q.setParameter("end", java.sql.Timestamp.from(end));
+        if (groupId != null) q.setParameter("gid", groupId);
+        if (groupId == null && allowedGroupIds != null) q.setParameter("agids", allowedGroupIds);
+        if (clubId != null) q.setParameter("cid", clubId);
 
+        @SuppressWarnings("unchecked")
+        List<Object[]> rows = q.getResultList();
         java.util.List<java.util.Map<String,Object>> out = new java.util.ArrayList<>();
-        for (var e : buckets.entrySet()) {
-            String[] parts = e.getKey().split("\\|", 2);
-            String key = parts[0]; String period = parts.length>1?parts[1]:"";
-            long[] agg = e.getValue();
-            long num = agg[0]; long den = agg[1];
-            double val = den>0 ? ((double) num)/((double) den) : 0.0;
+        for (Object[] row : rows) {
+            long num = ((Number) row[2]).longValue();
+            long den = ((Number) row[3]).longValue();
             java.util.Map<String,Object> m = new java.util.HashMap<>();
-            m.put("key", key);
-            m.put("period", period);
-            m.put("value", val);
+            m.put("key", row[0] == null ? "" : row[0].toString());
+            m.put("period", row[1] == null ? "" : row[1].toString());
+            m.put("value", den > 0 ? ((double) num) / ((double) den) : 0.0);
             m.put("numerator", num);
             m.put("denominator", den);
             out.add(m);
@@ -202,12 +159,36 @@ public class AnalyticsService {
      */
     @Transactional(readOnly = true)
     public java.util.List<java.util.Map<String,Object>> aggregate(String metric, String dimension, String granularity, Long groupId, Long clubId, String startIso, String endIso, String phase, java.util.Set<Long> allowedGroupIds){
+        String safeDimension = switch(String.valueOf(dimension)){
+            case "athlete", "group", "club", "age", "all" -> dimension; default -> "all"; };
+        String safeGranularity = switch(String.valueOf(granularity)){
+            case "day", "week", "month", "training" -> granularity; default -> "day"; };
+
+        java.time.Instant start = parseBound(startIso, "start"), end = parseBound(endIso, "end");
+        // answer from the pre-aggregated cube when it covers this request exactly (null = not answerable)
+        try {
+            var cube = rollupService.query(metric, safeDimension, safeGranularity, groupId, clubId, start, end, phase, allowedGroupIds);
+            if (cube != null) return cube;
+        } catch (Exception ex) {
+            // fall through to the live path
+        }
+        return aggregateLive(metric, dimension, granularity, groupId, clubId, startIso, endIso, phase, allowedGroupIds);
+    }
+
+    /**
+     * Live aggregation straight from questionnaire_responses (optimized SQL, then in-memory fallback), bypassing the cube.
+     */
+    @Transactional(readOnly = true)
+    public java.util.List<java.util.Map<String,Object>> aggregateLive(String metric, String dimension, String granularity, Long groupId, Long clubId, String startIso, String endIso, String phase, java.util.Set<Long> allowedGroupIds){
         // sanitize inputs: allow only whitelisted values to avoid SQL errors/injection in optimized path
         String safeMetric = metric != null && metric.matches("[A-Za-z0-9_]+") ? metric : null;
         String safeDimension = switch(String.valueOf(dimension)){
             case "athlete", "group", "club", "age", "all" -> dimension; default -> "all"; };
         String safeGranularity = switch(String.valueOf(granularity)){
             case "day", "week", "month", "training" -> granularity; default -> "day"; };
+        // a bad bound is the caller's error, not a reason to fall back
+        parseBound(startIso, "start");
+        parseBound(endIso, "end");
 
         // try optimized DB-side aggregation using Postgres JSON functions; if failure, fall back to in-memory aggregation
         try {
@@ -221,17 +202,21 @@ public class AnalyticsService {
         }
         // fallback to original implementation
         if (groupId == null && allowedGroupIds != null && allowedGroupIds.isEmpty()) return java.util.List.of();
+        return aggregateInMemory(java.util.List.of(String.valueOf(metric)), safeDimension, safeGranularity, groupId, clubId, startIso, endIso, phase, allowedGroupIds).get(String.valueOf(metric));
+    }
+
+    // In-memory aggregation over all responses; each response is filtered, keyed and parsed once for all metrics
+    private java.util.Map<String, java.util.List<java.util.Map<String,Object>>> aggregateInMemory(java.util.Collection<String> metrics, String dimension, String granularity, Long groupId, Long clubId, String startIso, String endIso, String phase, java.util.Set<Long> allowedGroupIds){
         java.util.List<com.traininginsights.model.QuestionnaireResponse> all = new java.util.ArrayList<>();
         // naive: load all responses and filter in-memory
         for (com.traininginsights.model.Training t : trainingRepository.findAll()){
             all.addAll(responseService.byTraining(t));
         }
-        java.time.Instant start = null, end = null;
-        try { if (startIso != null) start = java.time.Instant.parse(startIso); } catch (Exception ignored){}
-        try { if (endIso != null) end = java.time.Instant.parse(endIso); } catch (Exception ignored){}
+        java.time.Instant start = parseBound(startIso, "start"), end = parseBound(endIso, "end");
 
-        // map: compositeKey -> list of numeric values
-        java.util.Map<String, java.util.List<Double>> buckets = new java.util.HashMap<>();
+        // map: metric -> compositeKey -> list of numeric values
+        java.util.Map<String, java.util.Map<String, java.util.List<Double>>> buckets = new java.util.HashMap<>();
+        for (String metric : metrics) buckets.put(metric, new java.util.HashMap<>());
         for (com.traininginsights.model.QuestionnaireResponse r : all){
             if (r.getSubmittedAt() == null) continue;
             if (start != null && r.getSubmittedAt().isBefore(start)) continue;
@@ -249,20 +234,15 @@ public class AnalyticsService {
                 boolean inClub = r.getTraining() != null && r.getTraining().getGroups() != null && r.getTraining().getGroups().stream().anyMatch(g -> g.getClubs() != null && g.getClubs().stream().anyMatch(c -> c.getId().equals(clubId)));
                 if (!inClub) continue;
             }
-            if (phase != null && !phase.isBlank()){
-                if (r.getPhase() == null || !r.getPhase().equalsIgnoreCase(phase)) continue;
-            }
-            // extract numeric metric
-            Double val = null;
-            try {
-                var node = responseService.getObjectMapper().readTree(r.getResponses());
-                if (node.has(metric) && node.get(metric).isNumber()) val = node.get(metric).asDouble();
-            } catch (Exception ignored){}
-            if (val == null) continue;
+            if (!phaseMatches(r.getPhase(), phase)) continue;
+            // parse once, then pick every requested numeric metric
+            com.fasterxml.jackson.databind.JsonNode node;
+            try { node = responseService.getObjectMapper().readTree(r.getResponses()); } catch (Exception ignored){ continue; }
+            if (node == null || metrics.stream().noneMatch(m -> node.has(m) && node.get(m).isNumber())) continue;
 
             // determine bucket key based on dimension and granularity
             String key = "unknown";
-            String period = "";
+            String period;
             // dimension key
             switch(dimension){
                 case "athlete": key = r.getUser() != null ? String.valueOf(r.getUser().getId()) : "unknown"; break;
@@ -275,49 +255,202 @@ public class AnalyticsService {
             java.time.Instant inst = (r.getTraining()!=null && r.getTraining().getTrainingTime()!=null)
                     ? r.getTraining().getTrainingTime()
                     : r.getSubmittedAt();
-            java.time.ZoneId zid = java.time.ZoneId.systemDefault();
-            java.time.ZonedDateTime z = java.time.ZonedDateTime.ofInstant(inst, zid);
-            switch(granularity){
-                case "day": period = z.toLocalDate().toString(); break;
-                case "week": period = String.valueOf(z.get(java.time.temporal.IsoFields.WEEK_OF_WEEK_BASED_YEAR)); break;
-                case "month": period = z.getYear() + "-" + String.format("%02d", z.getMonthValue()); break;
-                case "training": period = r.getTraining() != null ? String.valueOf(r.getTraining().getId()) : "notraining"; break;
-                default: period = z.toLocalDate().toString();
-            }
+            period = period(granularity, inst, r.getTraining() != null ? r.getTraining().getId() : null);
             String composite = key + "|" + period;
-            buckets.computeIfAbsent(composite, k->new java.util.ArrayList<>()).add(val);
+            for (String metric : metrics){
+                if (node.has(metric) && node.get(metric).isNumber()){
+                    buckets.get(metric).computeIfAbsent(composite, k->new java.util.ArrayList<>()).add(node.get(metric).asDouble());
+                }
+            }
         }
 
-        java.util.List<java.util.Map<String,Object>> out = new java.util.ArrayList<>();
-        for (var e : buckets.entrySet()){
-            var list = e.getValue();
-            double sum = 0; for (Double d : list) sum += d; double avg = list.isEmpty() ? 0.0 : sum / list.size();
-            String[] parts = e.getKey().split("\\|",2);
-            java.util.Map<String,Object> m = new java.util.HashMap<>();
-            m.put("key", parts[0]); m.put("period", parts.length>1?parts[1]:""); m.put("value", avg); m.put("count", list.size());
-            out.add(m);
+        java.util.Map<String, java.util.List<java.util.Map<String,Object>>> result = new java.util.HashMap<>();
+        for (var metricBuckets : buckets.entrySet()){
+            java.util.List<java.util.Map<String,Object>> out = new java.util.ArrayList<>();
+            for (var e : metricBuckets.getValue().entrySet()){
+                var list = e.getValue();
+                double sum = 0; for (Double d : list) sum += d; double avg = list.isEmpty() ? 0.0 : sum / list.size();
+                String[] parts = e.getKey().split("\\|",2);
+                java.util.Map<String,Object> m = new java.util.HashMap<>();
+                m.put("key", parts[0]); m.put("period", parts.length>1?parts[1]:""); m.put("value", avg); m.put("count", list.size());
+                out.add(m);
+            }
+            result.put(metricBuckets.getKey(), out);
         }
+        return result;
+    }
+
+    /**
+     * Consistency check: compare the cube answer with the live path for the same request.
+     * Returns { answerable, consistent, cubeRows, liveRows, differences[] }.
+     */
+    @Transactional(readOnly = true)
+    public java.util.Map<String,Object> rollupConsistency(String metric, String dimension, String granularity, Long groupId, Long clubId, String startIso, String endIso, String phase, java.util.Set<Long> allowedGroupIds){
+        var cube = rollupService.query(metric, dimension, granularity, groupId, clubId, parseBound(startIso, "start"), parseBound(endIso, "end"), phase, allowedGroupIds);
+        var live = aggregateLive(metric, dimension, granularity, groupId, clubId, startIso, endIso, phase, allowedGroupIds);
+        java.util.Map<String,Object> out = new java.util.HashMap<>();
+        out.put("answerable", cube != null);
+        out.put("liveRows", live.size());
+        if (cube == null){
+            out.put("consistent", false);
+            out.put("cubeRows", 0);
+            out.put("differences", java.util.List.of());
+            return out;
+        }
+        java.util.Map<String, java.util.Map<String,Object>> liveByCell = new java.util.HashMap<>();
+        for (var row : live) liveByCell.put(row.get("key") + "|" + row.get("period"), row);
+        java.util.List<java.util.Map<String,Object>> differences = new java.util.ArrayList<>();
+        for (var row : cube){
+            String cell = row.get("key") + "|" + row.get("period");
+            var other = liveByCell.remove(cell);
+            double cv = ((Number) row.get("value")).doubleValue();
+            double lv = other == null ? Double.NaN : ((Number) other.get("value")).doubleValue();
+            long cc = ((Number) row.get("count")).longValue();
+            long lc = other == null ? 0 : ((Number) other.get("count")).longValue();
+            if (other == null || cc != lc || Math.abs(cv - lv) > 1e-6){
+                java.util.Map<String,Object> d = new java.util.HashMap<>();
+                d.put("cell", cell); d.put("cubeValue", cv); d.put("cubeCount", cc);
+                d.put("liveValue", other == null ? null : lv); d.put("liveCount", lc);
+                differences.add(d);
+            }
+        }
+        for (var e : liveByCell.entrySet()){
+            java.util.Map<String,Object> d = new java.util.HashMap<>();
+            d.put("cell", e.getKey()); d.put("cubeValue", null); d.put("cubeCount", 0);
+            d.put("liveValue", e.getValue().get("value")); d.put("liveCount", e.getValue().get("count"));
+            differences.add(d);
+        }
+        out.put("consistent", differences.isEmpty());
+        out.put("cubeRows", cube.size());
+        out.put("differences", differences);
         return out;
     }
 
+    /**
+     * The phase filter as every path compares it: trimmed and upper-cased, null when absent. Stored phases are
+     * compared upper-cased (upper() in SQL), so phase filters are case-insensitive on the cube, SQL and in-memory paths.
+     */
+    static String phaseFilter(String phase){
+        return phase == null || phase.isBlank() ? null : phase.trim().toUpperCase(java.util.Locale.ROOT);
+    }
+
+    static boolean phaseMatches(String storedPhase, String phase){
+        String filter = phaseFilter(phase);
+        return filter == null || (storedPhase != null && storedPhase.toUpperCase(java.util.Locale.ROOT).equals(filter));
+    }
+
+    /**
+     * A request bound: null when absent, otherwise an ISO-8601 instant; anything else is an IllegalArgumentException.
+     */
+    public static java.time.Instant parseBound(String iso, String name){
+        if (iso == null || iso.isBlank()) return null;
+        try {
+            return java.time.Instant.parse(iso);
+        } catch (java.time.format.DateTimeParseException ex) {
+            throw new IllegalArgumentException("Invalid " + name + " '" + iso + "': expected an ISO-8601 instant such as 2024-03-01T00:00:00Z");
+        }
+    }
+
+    /**
+     * Period key of a point in time, in the formats of the analytics cube and periodExpr: UTC day, ISO week-based
+     * year and week (YYYY-WW), month, or the training id. Used by the in-memory paths so every path keys alike.
+     */
+    static String period(String granularity, java.time.Instant at, Long trainingId){
+        java.time.ZonedDateTime z = at.atZone(java.time.ZoneOffset.UTC);
+        return switch (String.valueOf(granularity)) {
+            case "week" -> z.get(java.time.temporal.IsoFields.WEEK_BASED_YEAR) + "-" + String.format("%02d", z.get(java.time.temporal.IsoFields.WEEK_OF_WEEK_BASED_YEAR));
+            case "month" -> z.getYear() + "-" + String.format("%02d", z.getMonthValue());
+            case "training" -> trainingId != null ? String.valueOf(trainingId) : "notraining";
+            default -> z.toLocalDate().toString();
+        };
+    }
+
     /**
      * Aggregate multiple metrics at once. Returns a map: metric -> list of {key, period, value, count}
+     * Cube lookups run side by side on the analytics executor; metrics the cube cannot answer are read in one
+     * response_metrics scan (or one JSON query per metric in parallel, then one shared in-memory pass).
+     * Not transactional itself: every unit of work takes its own read-only transaction, so the request thread does not
+     * hold a connection while it waits for the workers. Bounds that are not ISO-8601 instants are rejected with
+     * IllegalArgumentException instead of being dropped, so no path answers for a wider window than was asked.
      */
-    @Transactional(readOnly = true)
     public java.util.Map<String, java.util.List<java.util.Map<String,Object>>> aggregateMulti(java.util.List<String> metrics, String dimension, String granularity, Long groupId, Long clubId, String startIso, String endIso, String phase, java.util.Set<Long> allowedGroupIds){
         java.util.Map<String, java.util.List<java.util.Map<String,Object>>> result = new java.util.HashMap<>();
         if (metrics == null || metrics.isEmpty()) return result;
-        for (String m : metrics){
-            if (m == null || m.isBlank()) continue;
-            var data = aggregate(m, dimension, granularity, groupId, clubId, startIso, endIso, phase, allowedGroupIds);
-            result.put(m, data);
+        java.util.Set<String> wanted = new java.util.LinkedHashSet<>();
+        for (String m : metrics) if (m != null && !m.isBlank()) wanted.add(m);
+        if (wanted.isEmpty()) return result;
+        String safeDimension = switch(String.valueOf(dimension)){
+            case "athlete", "group", "club", "age", "all" -> dimension; default -> "all"; };
+        String safeGranularity = switch(String.valueOf(granularity)){
+            case "day", "week", "month", "training" -> granularity; default -> "day"; };
+        java.time.Instant start = parseBound(startIso, "start"), end = parseBound(endIso, "end");
+        String from = start == null ? null : startIso, to = end == null ? null : endIso;
+
+        result.putAll(fanOut(wanted, m -> {
+            try { return rollupService.query(m, safeDimension, safeGranularity, groupId, clubId, start, end, phase, allowedGroupIds); }
+            catch (Exception ex) { return null; }
+        }));
+        java.util.List<String> remaining = wanted.stream().filter(m -> !result.containsKey(m)).toList();
+        if (remaining.isEmpty()) return result;
+        if (groupId == null && allowedGroupIds != null && allowedGroupIds.isEmpty()){
+            for (String m : remaining) result.put(m, java.util.List.of());
+            return result;
+        }
+
+        if (metricService.isReady()){
+            try {
+                var typed = readOnlyTx.execute(s -> aggregateTyped(remaining, safeDimension, safeGranularity, groupId, clubId, start, end, phase, allowedGroupIds));
+                for (String m : remaining) result.put(m, typed.getOrDefault(m, java.util.List.of()));
+                return result;
+            } catch (Exception ex) {
+                // fall through to the JSON path
+            }
+        }
+        result.putAll(fanOut(remaining.stream().filter(m -> m.matches("[A-Za-z0-9_]+")).toList(), m -> {
+            try {
+                var rows = aggregateOptimized(m, safeDimension, safeGranularity, groupId, clubId, from, to, phase, allowedGroupIds);
+                return rows == null || rows.isEmpty() ? null : rows;
+            } catch (Exception ex) { return null; }
+        }));
+        java.util.List<String> leftover = remaining.stream().filter(m -> !result.containsKey(m)).toList();
+        if (!leftover.isEmpty()){
+            result.putAll(readOnlyTx.execute(s -> aggregateInMemory(leftover, safeDimension, safeGranularity, groupId, clubId, from, to, phase, allowedGroupIds)));
         }
         return result;
     }
 
+    // Run one task per metric on the analytics executor, each in its own read-only transaction; null results are dropped
+    private java.util.Map<String, java.util.List<java.util.Map<String,Object>>> fanOut(java.util.Collection<String> metrics, java.util.function.Function<String, java.util.List<java.util.Map<String,Object>>> task){
+        java.util.Map<String, java.util.List<java.util.Map<String,Object>>> out = new java.util.HashMap<>();
+        java.util.Map<String, java.util.concurrent.Future<java.util.List<java.util.Map<String,Object>>>> futures = new java.util.LinkedHashMap<>();
+        for (String m : metrics){
+            if (metrics.size() == 1){
+                var rows = readOnlyTx.execute(s -> task.apply(m));
+                if (rows != null) out.put(m, rows);
+                return out;
+            }
+            futures.put(m, analyticsExecutor.submit(() -> readOnlyTx.execute(s -> task.apply(m))));
+        }
+        for (var e : futures.entrySet()){
+            try {
+                var rows = e.getValue().get();
+                if (rows != null) out.put(e.getKey(), rows);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                futures.values().forEach(f -> f.cancel(true));
+                throw new IllegalStateException("Interrupted while aggregating metrics", ex);
+            } catch (java.util.concurrent.ExecutionException ex) {
+                // leave the metric to the next path
+            }
+        }
+        return out;
+    }
+
     /**
      * Drilldown: return raw rows for given filters. Each row contains metric, value, key, period, submittedAt, trainingId, userId, phase.
      * If metrics is null/empty, include all numeric fields found in response JSON (one row per metric field).
+     * With a cursor (empty for the first page) rows are keyset-paginated on (submittedAt, id) in the sort direction,
+     * total is not computed and nextCursor continues after the last returned row (null on the last page).
      */
     public static class DrilldownResult {
         public java.util.List<java.util.Map<String,Object>> rows;
@@ -325,20 +458,26 @@ public class AnalyticsService {
         public int page;
         public int size;
         public String sort;
+        public String nextCursor;
     }
 
     @Transactional(readOnly = true)
-    public DrilldownResult drilldown(java.util.List<String> metrics, String dimension, String granularity, Long groupId, Long clubId, String startIso, String endIso, String phase, String filterKey, String period, int page, int size, String sort, java.util.Set<Long> allowedGroupIds){
-        java.time.Instant start = null, end = null;
-        try { if (startIso != null) start = java.time.Instant.parse(startIso); } catch (Exception ignored) {}
-        try { if (endIso != null) end = java.time.Instant.parse(endIso); } catch (Exception ignored) {}
+    public DrilldownResult drilldown(java.util.List<String> metrics, String dimension, String granularity, Long groupId, Long clubId, String startIso, String endIso, String phase, String filterKey, String period, int page, int size, String sort, String cursor, java.util.Set<Long> allowedGroupIds){
+        java.time.Instant start = parseBound(startIso, "start"), end = parseBound(endIso, "end");
 
         if (groupId == null && allowedGroupIds != null && allowedGroupIds.isEmpty()){
             DrilldownResult empty = new DrilldownResult();
             empty.rows = java.util.List.of();
-            empty.total = 0; empty.page = Math.max(page,0); empty.size = Math.min(Math.max(size,1),1000); empty.sort = sort==null?"submittedAt,desc":sort;
+            empty.total = cursor != null ? -1 : 0; empty.page = Math.max(page,0); empty.size = Math.min(Math.max(size,1),1000); empty.sort = sort==null?"submittedAt,desc":sort;
             return empty;
         }
+        if (metricService.isReady()){
+            return drilldownTyped(metrics, dimension, granularity, groupId, clubId, start, end, phase, filterKey, period, page, size, sort, cursor, allowedGroupIds);
+        }
+        if (cursor != null){
+            // the in-memory path has no stable row ids to continue from
+            throw new org.springframework.web.server.ResponseStatusException(org.springframework.http.HttpStatus.SERVICE_UNAVAILABLE, "Metric index is being rebuilt, cursor paging is temporarily unavailable");
+        }
 
         java.util.List<com.traininginsights.model.QuestionnaireResponse> all = new java.util.ArrayList<>();
         for (com.traininginsights.model.Training t : trainingRepository.findAll()){
@@ -365,9 +504,7 @@ public class AnalyticsService {
                 boolean inClub = r.getTraining() != null && r.getTraining().getGroups() != null && r.getTraining().getGroups().stream().anyMatch(g -> g.getClubs() != null && g.getClubs().stream().anyMatch(c -> c.getId().equals(clubId)));
                 if (!inClub) continue;
             }
-            if (phase != null && !phase.isBlank()){
-                if (r.getPhase() == null || !r.getPhase().equalsIgnoreCase(phase)) continue;
-            }
+            if (!phaseMatches(r.getPhase(), phase)) continue;
 
             // derive key and period
             String key;
@@ -381,15 +518,7 @@ public class AnalyticsService {
             java.time.Instant inst = (r.getTraining()!=null && r.getTraining().getTrainingTime()!=null)
                     ? r.getTraining().getTrainingTime()
                     : r.getSubmittedAt();
-            java.time.ZonedDateTime z = java.time.ZonedDateTime.ofInstant(inst, java.time.ZoneId.systemDefault());
-            String per;
-            switch (String.valueOf(granularity)){
-                case "day": per = z.toLocalDate().toString(); break;
-                case "week": per = String.valueOf(z.get(java.time.temporal.IsoFields.WEEK_OF_WEEK_BASED_YEAR)); break;
-                case "month": per = z.getYear() + "-" + String.format("%02d", z.getMonthValue()); break;
-                case "training": per = r.getTraining() != null ? String.valueOf(r.getTraining().getId()) : "notraining"; break;
-                default: per = z.toLocalDate().toString();
-            }
+            String per = period(granularity, inst, r.getTraining() != null ? r.getTraining().getId() : null);
             if (filterKey != null && !filterKey.equals(key)) continue;
             if (period != null && !period.equals(per)) continue;
 
@@ -452,6 +581,154 @@ public class AnalyticsService {
         return res;
     }
 
+    // Drilldown over response_metrics: filtering, sorting and paging happen in the database
+    private DrilldownResult drilldownTyped(java.util.List<String> metrics, String dimension, String granularity, Long groupId, Long clubId, java.time.Instant start, java.time.Instant end, String phase, String filterKey, String period, int page, int size, String sort, String cursor, java.util.Set<Long> allowedGroupIds){
+        String keyExpr;
+        switch (String.valueOf(dimension)){
+            case "athlete": keyExpr = "coalesce(rm.user_id::text, 'unknown')"; break;
+            case "group": keyExpr = "coalesce((select min(tg.group_id)::text from training_groups tg where tg.training_id = rm.training_id), 'nogroup')"; break;
+            case "club": keyExpr = "coalesce((select min(gc.club_id)::text from group_clubs gc join training_groups tg on gc.group_id = tg.group_id where tg.training_id = rm.training_id), 'noclub')"; break;
+            case "age": keyExpr = "coalesce((extract(year from age(u.birth_date))::int)::text, 'unknown')"; break;
+            default: keyExpr = "'all'";
+        }
+        String periodExpr = "training".equals(granularity)
+                ? "coalesce(rm.training_id::text, 'notraining')"
+                : periodExpr(granularity, "coalesce(rm.training_time, rm.submitted_at)", "rm.training_id", "rm.submitted_at");
+
+        StringBuilder inner = new StringBuilder("select rm.id as id, rm.metric as metric, rm.value as value, ")
+                .append(keyExpr).append(" as key, ").append(periodExpr).append(" as period, ")
+                .append("rm.submitted_at as submitted_at, rm.user_id as user_id, rm.training_id as training_id, rm.phase as phase ")
+                .append("from response_metrics rm left join users u on rm.user_id = u.id where rm.submitted_at is not null ");
+        boolean filterMetrics = metrics != null && !metrics.isEmpty();
+        if (filterMetrics) inner.append(" and rm.metric in (:metrics) ");
+        if (start != null) inner.append(" and rm.submitted_at >= :start ");
+        if (end != null) inner.append(" and rm.submitted_at <= :end ");
+        if (groupId != null) inner.append(" and exists (select 1 from training_groups tg where tg.training_id = rm.training_id and tg.group_id = :gid) ");
+        if (groupId == null && allowedGroupIds != null) inner.append(" and exists (select 1 from training_groups tg where tg.training_id = rm.training_id and tg.group_id in (:agids)) ");
+        if (clubId != null) inner.append(" and exists (select 1 from group_clubs gc join training_groups tg on gc.group_id = tg.group_id where tg.training_id = rm.training_id and gc.club_id = :cid) ");
+        if (phaseFilter(phase) != null) inner.append(" and upper(rm.phase) = :phase ");
+        StringBuilder where = new StringBuilder(" where 1=1 ");
+        if (filterKey != null) where.append(" and d.key = :fkey ");
+        if (period != null) where.append(" and d.period = :period ");
+
+        String[] sortParts = (sort == null || sort.isBlank() ? "submittedAt,desc" : sort).split(",", 2);
+        boolean keyset = cursor != null;
+        String sortField = keyset ? "submittedAt" : sortParts[0];
+        String sortDir = sortParts.length > 1 && "asc".equalsIgnoreCase(sortParts[1]) ? "asc" : "desc";
+        Object[] after = keyset && !cursor.isBlank() ? decodeCursor(cursor) : null;
+        // row-value comparison on the inner columns so the (submitted_at, id) index drives the scan
+        if (after != null) inner.append(" and (rm.submitted_at, rm.id) ").append("asc".equals(sortDir) ? ">" : "<").append(" (:after_ts, :after_id) ");
+        String sortCol = switch (sortField){
+            case "metric" -> "d.metric";
+            case "value" -> "d.value";
+            case "key" -> "d.key";
+            case "period" -> "d.period";
+            case "trainingId" -> "d.training_id";
+            case "userId" -> "d.user_id";
+            case "phase" -> "d.phase";
+            default -> "d.submitted_at";
+        };
+        int maxSize = Math.min(Math.max(size, 1), 1000); // cap at 1000
+        int safePage = Math.max(page, 0);
+
+        Query countQ = keyset ? null : em.createNativeQuery("select count(*) from (" + inner + ") d" + where);
+        Query rowsQ = em.createNativeQuery("select d.metric, d.value, d.key, d.period, d.submitted_at, d.user_id, d.training_id, d.phase, d.id from (" + inner + ") d" + where
+                + " order by " + sortCol + " " + sortDir + ", d.id " + sortDir);
+        for (Query q : keyset ? java.util.List.of(rowsQ) : java.util.List.of(countQ, rowsQ)){
+            if (filterMetrics) q.setParameter("metrics", metrics);
+            if (start != null) q.setParameter("start", java.sql.Timestamp.from(start));
+            if (end != null) q.setParameter("end", java.sql.Timestamp.from(end));
+            if (groupId != null) q.setParameter("gid", groupId);
+            if (groupId == null && allowedGroupIds != null) q.setParameter("agids", allowedGroupIds);
+            if (clubId != null) q.setParameter("cid", clubId);
+            if (phaseFilter(phase) != null) q.setParameter("phase", phaseFilter(phase));
+            if (filterKey != null) q.setParameter("fkey", filterKey);
+            if (period != null) q.setParameter("period", period);
+            if (after != null){ q.setParameter("after_ts", java.sql.Timestamp.from((java.time.Instant) after[0])); q.setParameter("after_id", after[1]); }
+        }
+        if (keyset){
+            rowsQ.setMaxResults(maxSize + 1); // one extra row tells whether another page follows
+        } else {
+            rowsQ.setFirstResult(safePage * maxSize);
+            rowsQ.setMaxResults(maxSize);
+        }
+
+        @SuppressWarnings("unchecked")
+        List<Object[]> rows = rowsQ.getResultList();
+        String nextCursor = null;
+        if (keyset && rows.size() > maxSize){
+            rows = rows.subList(0, maxSize);
+            Object[] last = rows.get(maxSize - 1);
+            nextCursor = encodeCursor(toInstant(last[4]), ((Number) last[8]).longValue());
+        }
+        java.util.List<java.util.Map<String,Object>> out = new java.util.ArrayList<>();
+        for (Object[] row : rows){
+            java.util.Map<String,Object> m = new java.util.HashMap<>();
+            m.put("metric", row[0]);
+            m.put("value", ((Number) row[1]).doubleValue());
+            m.put("key", row[2]);
+            m.put("period", row[3]);
+            m.put("submittedAt", String.valueOf(toInstant(row[4])));
+            m.put("userId", row[5] == null ? null : ((Number) row[5]).longValue());
+            m.put("trainingId", row[6] == null ? null : ((Number) row[6]).longValue());
+            m.put("phase", row[7]);
+            out.add(m);
+        }
+        DrilldownResult res = new DrilldownResult();
+        res.rows = out;
+        res.total = keyset ? -1 : ((Number) countQ.getSingleResult()).longValue();
+        res.page = safePage;
+        res.size = maxSize;
+        res.sort = sortField + "," + sortDir;
+        res.nextCursor = nextCursor;
+        return res;
+    }
+
+    // Opaque continuation token: base64url of "<submittedAt>|<response_metrics id>"
+    private static String encodeCursor(java.time.Instant submittedAt, long id){
+        String raw = submittedAt + "|" + id;
+        return java.util.Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(java.nio.charset.StandardCharsets.UTF_8));
+    }
+
+    private static Object[] decodeCursor(String cursor){
+        try {
+            String raw = new String(java.util.Base64.getUrlDecoder().decode(cursor), java.nio.charset.StandardCharsets.UTF_8);
+            String[] parts = raw.split("\\|", 2);
+            return new Object[]{ java.time.Instant.parse(parts[0]), Long.valueOf(parts[1]) };
+        } catch (Exception e){
+            throw new IllegalArgumentException("Invalid drilldown cursor");
+        }
+    }
+
+    private static java.time.Instant toInstant(Object v){
+        if (v == null) return null;
+        if (v instanceof java.time.Instant i) return i;
+        if (v instanceof java.sql.Timestamp ts) return ts.toInstant();
+        if (v instanceof java.time.OffsetDateTime odt) return odt.toInstant();
+        if (v instanceof java.time.LocalDateTime ldt) return ldt.toInstant(java.time.ZoneOffset.UTC);
+        return java.time.Instant.parse(v.toString());
+    }
+
+    private java.util.Set<String> distinctMetrics(Long groupId, Long clubId, java.time.Instant start, java.time.Instant end, String phase, java.util.Set<Long> allowedGroupIds){
+        java.util.Set<String> metrics = new java.util.HashSet<>();
+        StringBuilder sql = new StringBuilder("select distinct rm.metric from response_metrics rm where rm.submitted_at is not null ");
+        if (start != null) sql.append(" and rm.submitted_at >= :start ");
+        if (end != null) sql.append(" and rm.submitted_at <= :end ");
+        if (groupId != null) sql.append(" and exists (select 1 from training_groups tg where tg.training_id = rm.training_id and tg.group_id = :gid) ");
+        if (groupId == null && allowedGroupIds != null) sql.append(" and exists (select 1 from training_groups tg where tg.training_id = rm.training_id and tg.group_id in (:agids)) ");
+        if (clubId != null) sql.append(" and exists (select 1 from group_clubs gc join training_groups tg on gc.group_id = tg.group_id where tg.training_id = rm.training_id and gc.club_id = :cid) ");
+        if (phaseFilter(phase) != null) sql.append(" and upper(rm.phase) = :phase ");
+        Query q = em.createNativeQuery(sql.toString());
+        if (start != null) q.setParameter("start", java.sql.Timestamp.from(start));
+        if (end != null) q.setParameter("end", java.sql.Timestamp.from(end));
+        if (groupId != null) q.setParameter("gid", groupId);
+        if (groupId == null && allowedGroupIds != null) q.setParameter("agids", allowedGroupIds);
+        if (clubId != null) q.setParameter("cid", clubId);
+        if (phaseFilter(phase) != null) q.setParameter("phase", phaseFilter(phase));
+        for (Object m : q.getResultList()) metrics.add(String.valueOf(m));
+        return metrics;
+    }
+
     /**
      * Resolve display labels for dimension keys (athlete/group/club names, etc.).
      */
@@ -489,14 +766,18 @@ public class AnalyticsService {
 
     /**
      * Inspect questionnaire responses (filtered) to list unique numeric metric fields available.
+     * Served from the metric catalog, which loads each filter scope once and then folds in new submissions.
      */
     @Transactional(readOnly = true)
     public java.util.Set<String> availableMetrics(Long groupId, Long clubId, String startIso, String endIso, String phase, java.util.Set<Long> allowedGroupIds){
-        java.time.Instant start = null, end = null;
-        try { if (startIso != null) start = java.time.Instant.parse(startIso); } catch (Exception ignored){}
-        try { if (endIso != null) end = java.time.Instant.parse(endIso); } catch (Exception ignored){}
+        java.time.Instant start = parseBound(startIso, "start"), end = parseBound(endIso, "end");
         java.util.Set<String> metrics = new java.util.HashSet<>();
         if (groupId == null && allowedGroupIds != null && allowedGroupIds.isEmpty()) return metrics;
+        if (metricService.isReady()){
+            final java.time.Instant from = start, to = end;
+            return catalogService.forScope(MetricCatalogService.Scope.of(groupId, clubId, start, end, phase, allowedGroupIds),
+                    () -> distinctMetrics(groupId, clubId, from, to, phase, allowedGroupIds));
+        }
         // sample across trainings; for simplicity iterate all responses
         for (com.traininginsights.model.Training t : trainingRepository.findAll()){
             for (com.traininginsights.model.QuestionnaireResponse r : responseService.byTraining(t)){
@@ -515,9 +796,7 @@ public class AnalyticsService {
                     boolean inClub = r.getTraining() != null && r.getTraining().getGroups() != null && r.getTraining().getGroups().stream().anyMatch(g -> g.getClubs() != null && g.getClubs().stream().anyMatch(c -> c.getId().equals(clubId)));
                     if (!inClub) continue;
                 }
-                if (phase != null && !phase.isBlank()){
-                    if (r.getPhase() == null || !r.getPhase().equalsIgnoreCase(phase)) continue;
-                }
+                if (!phaseMatches(r.getPhase(), phase)) continue;
                 try {
                     var node = responseService.getObjectMapper().readTree(r.getResponses());
                     java.util.Iterator<String> fieldNames = node.fieldNames();
@@ -534,58 +813,107 @@ public class AnalyticsService {
 
     @Transactional(readOnly = true)
     public List<Map<String,Object>> aggregateOptimized(String metric, String dimension, String granularity, Long groupId, Long clubId, String startIso, String endIso, String phase, java.util.Set<Long> allowedGroupIds){
-        // This uses Postgres JSON functions to extract numeric values from the responses TEXT column which is stored as JSON.
+        // Preferred source is response_metrics (typed, indexed value column). Until it has been backfilled we fall back to
+        // Postgres JSON functions on the responses TEXT column.
+        if (metricService.isReady()){
+            return aggregateTyped(java.util.List.of(metric), dimension, granularity, groupId, clubId,
+                    parseBound(startIso, "start"), parseBound(endIso, "end"), phase, allowedGroupIds)
+                    .getOrDefault(metric, java.util.List.of());
+        }
         // The query returns key, period, avg(value)::double precision, count
-        // Build native SQL - note: uses ->> to extract text and cast to numeric
         StringBuilder sql = new StringBuilder();
         sql.append("select ");
-        // dimension key
-        switch(dimension){
-            case "athlete": sql.append("qr.user_id::text as key, "); break;
-            case "group": sql.append("(select tg.group_id::text from training_groups tg where tg.training_id = t.id limit 1) as key, "); break;
-            case "club": sql.append("(select gc.club_id::text from group_clubs gc join training_groups tg on gc.group_id = tg.group_id where tg.training_id = t.id limit 1) as key, "); break;
-            case "age": sql.append("(extract(year from age(u.birth_date))::int)::text as key, "); break;
-            default: sql.append("'all' as key, ");
-        }
-        // period
-        switch(granularity){
-            case "day": sql.append("to_char(t.training_time at time zone 'UTC', 'YYYY-MM-DD') as period, "); break;
-            case "week": sql.append("to_char(t.training_time at time zone 'UTC', 'IYYY-IW') as period, "); break;
-            case "month": sql.append("to_char(t.training_time at time zone 'UTC', 'YYYY-MM') as period, "); break;
-            case "training": sql.append("t.id::text as period, "); break;
-            default: sql.append("to_char(qr.submitted_at at time zone 'UTC', 'YYYY-MM-DD') as period, ");
-        }
+        sql.append(keyExpr(dimension, "qr.user_id", "t.id")).append(" as key, ");
+        sql.append(periodExpr(granularity, "t.training_time", "t.id", "qr.submitted_at")).append(" as period, ");
+        // Build native SQL - note: uses ->> to extract text and cast to numeric
         sql.append("avg((qr.responses::json->> '"+metric+"')::double precision) as value, count(*) as count ");
-    sql.append("from questionnaire_responses qr join trainings t on qr.training_id = t.id join users u on qr.user_id = u.id ");
+        sql.append("from questionnaire_responses qr join trainings t on qr.training_id = t.id join users u on qr.user_id = u.id ");
+        // match numeric-looking values (integers or decimals) using a digit character class
+        sql.append("where (qr.responses::json->> '"+metric+"') ~ '^[+-]?[0-9]+(\\.[0-9]+)?$' ");
         // apply filters
-    // match numeric-looking values (integers or decimals) using a digit character class
-    sql.append("where (qr.responses::json->> '"+metric+"') ~ '^[+-]?[0-9]+(\\.[0-9]+)?$' ");
-    if (startIso != null) sql.append(" and qr.submitted_at >= :start ");
-    if (endIso != null) sql.append(" and qr.submitted_at <= :end ");
-    if (groupId != null) sql.append(" and exists (select 1 from training_groups tg where tg.training_id = t.id and tg.group_id = :gid) ");
-    if (groupId == null && allowedGroupIds != null) sql.append(" and exists (select 1 from training_groups tg where tg.training_id = t.id and tg.group_id in (:agids)) ");
-    if (clubId != null) sql.append(" and exists (select 1 from group_clubs gc join training_groups tg on gc.group_id = tg.group_id where tg.training_id = t.id and gc.club_id = :cid) ");
-    if (phase != null && !phase.isBlank()) sql.append(" and qr.phase = :phase ");
+        appendFilters(sql, "qr.submitted_at", "t.id", "qr.phase", startIso != null, endIso != null, groupId, clubId, phase, allowedGroupIds);
         sql.append(" group by key, period order by period, key");
 
-    Query q = em.createNativeQuery(sql.toString());
-    if (startIso != null) q.setParameter("start", java.sql.Timestamp.from(java.time.Instant.parse(startIso)));
-    if (endIso != null) q.setParameter("end", java.sql.Timestamp.from(java.time.Instant.parse(endIso)));
-    if (groupId != null) q.setParameter("gid", groupId);
-    if (groupId == null && allowedGroupIds != null && !allowedGroupIds.isEmpty()) q.setParameter("agids", allowedGroupIds);
-    if (clubId != null) q.setParameter("cid", clubId);
-    if (phase != null && !phase.isBlank()) q.setParameter("phase", phase);
+        Query q = em.createNativeQuery(sql.toString());
+        bindFilters(q, parseBound(startIso, "start"), parseBound(endIso, "end"), groupId, clubId, phase, allowedGroupIds);
         @SuppressWarnings("unchecked")
         List<Object[]> rows = q.getResultList();
         java.util.List<java.util.Map<String,Object>> out = new java.util.ArrayList<>();
+        for (Object[] row : rows) out.add(aggregateRow(row, 0));
+        return out;
+    }
+
+    /**
+     * Aggregate several metrics in one scan of response_metrics, grouped by metric, key and period.
+     */
+    private java.util.Map<String, java.util.List<java.util.Map<String,Object>>> aggregateTyped(java.util.Collection<String> metrics, String dimension, String granularity, Long groupId, Long clubId, java.time.Instant start, java.time.Instant end, String phase, java.util.Set<Long> allowedGroupIds){
+        StringBuilder sql = new StringBuilder();
+        sql.append("select rm.metric, ");
+        sql.append(keyExpr(dimension, "rm.user_id", "rm.training_id")).append(" as key, ");
+        sql.append(periodExpr(granularity, "rm.training_time", "rm.training_id", "rm.submitted_at")).append(" as period, ");
+        sql.append("avg(rm.value) as value, count(*) as count ");
+        sql.append("from response_metrics rm join users u on rm.user_id = u.id ");
+        sql.append("where rm.metric in (:metrics) and rm.training_id is not null ");
+        appendFilters(sql, "rm.submitted_at", "rm.training_id", "rm.phase", start != null, end != null, groupId, clubId, phase, allowedGroupIds);
+        sql.append(" group by rm.metric, key, period order by period, key");
+
+        Query q = em.createNativeQuery(sql.toString());
+        q.setParameter("metrics", metrics);
+        bindFilters(q, start, end, groupId, clubId, phase, allowedGroupIds);
+        @SuppressWarnings("unchecked")
+        List<Object[]> rows = q.getResultList();
+        java.util.Map<String, java.util.List<java.util.Map<String,Object>>> out = new java.util.HashMap<>();
         for (Object[] row : rows){
-            java.util.Map<String,Object> m = new java.util.HashMap<>();
-            m.put("key", row[0]==null?"":row[0].toString());
-            m.put("period", row[1]==null?"":row[1].toString());
-            m.put("value", row[2]==null?0.0:Double.parseDouble(row[2].toString()));
-            m.put("count", row[3]==null?0:Integer.parseInt(row[3].toString()));
-            out.add(m);
+            out.computeIfAbsent(String.valueOf(row[0]), k -> new java.util.ArrayList<>()).add(aggregateRow(row, 1));
         }
         return out;
     }
+
+    private static String keyExpr(String dimension, String userCol, String trainingCol){
+        switch(String.valueOf(dimension)){
+            case "athlete": return userCol + "::text";
+            case "group": return "(select min(tg.group_id)::text from training_groups tg where tg.training_id = " + trainingCol + ")";
+            case "club": return "(select min(gc.club_id)::text from group_clubs gc join training_groups tg on gc.group_id = tg.group_id where tg.training_id = " + trainingCol + ")";
+            case "age": return "(extract(year from age(u.birth_date))::int)::text";
+            default: return "'all'";
+        }
+    }
+
+    private static void appendFilters(StringBuilder sql, String submittedCol, String trainingCol, String phaseCol, boolean hasStart, boolean hasEnd, Long groupId, Long clubId, String phase, java.util.Set<Long> allowedGroupIds){
+        if (hasStart) sql.append(" and ").append(submittedCol).append(" >= :start ");
+        if (hasEnd) sql.append(" and ").append(submittedCol).append(" <= :end ");
+        if (groupId != null) sql.append(" and exists (select 1 from training_groups tg where tg.training_id = ").append(trainingCol).append(" and tg.group_id = :gid) ");
+        if (groupId == null && allowedGroupIds != null) sql.append(" and exists (select 1 from training_groups tg where tg.training_id = ").append(trainingCol).append(" and tg.group_id in (:agids)) ");
+        if (clubId != null) sql.append(" and exists (select 1 from group_clubs gc join training_groups tg on gc.group_id = tg.group_id where tg.training_id = ").append(trainingCol).append(" and gc.club_id = :cid) ");
+        if (phaseFilter(phase) != null) sql.append(" and upper(").append(phaseCol).append(") = :phase ");
+    }
+
+    private static void bindFilters(Query q, java.time.Instant start, java.time.Instant end, Long groupId, Long clubId, String phase, java.util.Set<Long> allowedGroupIds){
+        if (start != null) q.setParameter("start", java.sql.Timestamp.from(start));
+        if (end != null) q.setParameter("end", java.sql.Timestamp.from(end));
+        if (groupId != null) q.setParameter("gid", groupId);
+        if (groupId == null && allowedGroupIds != null && !allowedGroupIds.isEmpty()) q.setParameter("agids", allowedGroupIds);
+        if (clubId != null) q.setParameter("cid", clubId);
+        if (phaseFilter(phase) != null) q.setParameter("phase", phaseFilter(phase));
+    }
+
+    private static java.util.Map<String,Object> aggregateRow(Object[] row, int offset){
+        java.util.Map<String,Object> m = new java.util.HashMap<>();
+        m.put("key", row[offset]==null?"":row[offset].toString());
+        m.put("period", row[offset+1]==null?"":row[offset+1].toString());
+        m.put("value", row[offset+2]==null?0.0:Double.parseDouble(row[offset+2].toString()));
+        m.put("count", row[offset+3]==null?0:Integer.parseInt(row[offset+3].toString()));
+        return m;
+    }
+
+    // SQL period expression; same formats as the analytics cube (UTC day, ISO week 'IYYY-IW', month, training id)
+    private static String periodExpr(String granularity, String timeCol, String trainingCol, String submittedCol){
+        switch(String.valueOf(granularity)){
+            case "day": return "to_char(" + timeCol + " at time zone 'UTC', 'YYYY-MM-DD')";
+            case "week": return "to_char(" + timeCol + " at time zone 'UTC', 'IYYY-IW')";
+            case "month": return "to_char(" + timeCol + " at time zone 'UTC', 'YYYY-MM')";
+            case "training": return trainingCol + "::text";
+            default: return "to_char(" + submittedCol + " at time zone 'UTC', 'YYYY-MM-DD')";
+        }
+    }
 }
@@ -0,0 +1,91 @@
+package com.traininginsights.service;
+
+import jakarta.mail.MessagingException;
+import jakarta.mail.internet.ContentDisposition;
+import jakarta.mail.internet.ContentType;
+import jakarta.mail.internet.InternetHeaders;
+import jakarta.mail.internet.MimeBodyPart;
+import jakarta.mail.internet.MimeUtility;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Base64-encoded attachment bodies, so a broadcast sent in many BCC chunks reads and encodes each file once instead
+ * of once per message. Entries are keyed by path, size and modification time (a replaced file is encoded again) and
+ * the cache holds at most maxMb of encoded data, least recently used first out. Files larger than a quarter of the
+ * cache are not cached; callers attach those from disk as before.
+ */
+@Component
+public class AttachmentPartCache {
+    private record Key(String path, long length, long lastModified) {}
+
+    // encoded body plus the part headers; immutable and shared by every message built from it
+    private record Encoded(String contentType, String disposition, byte[] body) {}
+
+    private final long maxBytes;
+    private long bytes;
+    private final LinkedHashMap<Key, Encoded> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    public AttachmentPartCache(@Value("${app.mail.attachmentCacheMb:64}") long maxMb){
+        this.maxBytes = maxMb * 1024L * 1024L;
+    }
+
+    /**
+     * A new body part for the file backed by the cached encoding, or null when the file is too large to cache (or
+     * cannot be read); each message needs its own part instance, the encoded bytes are shared.
+     */
+    public MimeBodyPart part(File file) throws MessagingException {
+        // base64 grows the data by a third
+        long encodedSize = file.length() / 3 * 4 + 4;
+        if (encodedSize > maxBytes / 4) return null;
+        Key key = new Key(file.getAbsolutePath(), file.length(), file.lastModified());
+        Encoded e = get(key);
+        if (e == null){
+            // encoded outside the lock; concurrent misses for one file may encode it twice, the last one wins
+            try {
+                e = encode(file);
+            } catch (IOException ex){
+                return null;
+            }
+            put(key, e);
+        }
+        InternetHeaders headers = new InternetHeaders();
+        headers.setHeader("Content-Type", e.contentType());
+        headers.setHeader("Content-Transfer-Encoding", "base64");
+        headers.setHeader("Content-Disposition", e.disposition());
+        return new MimeBodyPart(headers, e.body());
+    }
+
+    private static Encoded encode(File file) throws IOException, MessagingException {
+        String name = MimeUtility.encodeText(file.getName(), "UTF-8", null);
+        ContentType type = new ContentType(jakarta.activation.FileTypeMap.getDefaultFileTypeMap().getContentType(file));
+        type.setParameter("name", name);
+        ContentDisposition disposition = new ContentDisposition("attachment");
+        disposition.setParameter("filename", name);
+        byte[] body = java.util.Base64.getMimeEncoder().encode(Files.readAllBytes(file.toPath()));
+        return new Encoded(type.toString(), disposition.toString(), body);
+    }
+
+    private synchronized Encoded get(Key key){
+        return entries.get(key);
+    }
+
+    private synchronized void put(Key key, Encoded e){
+        Encoded previous = entries.put(key, e);
+        if (previous != null) bytes -= previous.body().length;
+        bytes += e.body().length;
+        Iterator<Map.Entry<Key, Encoded>> it = entries.entrySet().iterator();
+        while (bytes > maxBytes && it.hasNext()){
+            Map.Entry<Key, Encoded> eldest = it.next();
+            bytes -= eldest.getValue().body().length;
+            it.remove();
+        }
+    }
+}
@@ -0,0 +1,436 @@
+package com.traininginsights.service;
+
+import com.traininginsights.dto.BackupDtos;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionException;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Writes backup rows (the tables of BackupDtos.ExportPackage) with JDBC batch upserts that keep the backed-up ids,
+ * one transaction per chunk. A chunk the database rejects is written again row by row and the failing rows are
+ * skipped and counted, like the per-row catch of the old entity-based restore. References to rows that exist
+ * neither in the backup nor in the database are restored as null.
+ *
+ * Tables are expected in export order (referenced tables first). The one reference that points forward, group
+ * trainers to users, is collected while reading groups and written by finish.
+ */
+@Component
+public class BackupRestoreWriter {
+    private static final Logger log = LoggerFactory.getLogger(BackupRestoreWriter.class);
+    // tables (and link tables of delta backups) response_metrics and analytics_rollups are derived from
+    private static final Set<String> ANALYTICS_SOURCES = Set.of("questionnaireResponses", "trainings", "questionnaires", "groups", "clubs", "training_groups", "group_clubs");
+
+    /**
+     * One table of the export: its JSON field, the database table whose identity sequence follows the restored ids
+     * (null when ids are not restored), row type, upsert statement, parameters of a row and link-table writes.
+     */
+    public record Table<D>(String field, String table, Class<D> type, String sql, Function<D, Object[]> values, BiConsumer<List<D>, Run> links) {}
+
+    /**
+     * A link table as carried whole by delta backups: exportSql selects (owner id, target id, value) pairs after the
+     * key (?1, ?2) in key order, insertSql adds one (owner id, value) pair when both rows exist. The value is the
+     * target id, or the role name for user_roles.
+     */
+    public record LinkTable(String name, String exportSql, String insertSql) {}
+
+    /** The (owner id, value) pairs of one link table, handed over chunk by chunk as they are read. */
+    @FunctionalInterface
+    public interface LinkPairs {
+        void forEachChunk(Consumer<List<Object[]>> chunk) throws IOException;
+    }
+
+    /** Counters and deferred links of one restore; read concurrently for progress. */
+    public static final class Run {
+        private final Map<String, long[]> counts = new LinkedHashMap<>();
+        private final Map<String, Long> deleted = new LinkedHashMap<>();
+        private final Map<String, Long> deleteFailed = new LinkedHashMap<>();
+        private final List<long[]> trainerLinks = new ArrayList<>();
+        private boolean analyticsStale;
+        private volatile String current;
+
+        private synchronized void count(String field, long rows, long failed){
+            long[] c = counts.computeIfAbsent(field, k -> new long[2]);
+            c[0] += rows;
+            c[1] += failed;
+        }
+
+        private synchronized void countDeleted(String field, long rows, long failed){
+            if (rows > 0) deleted.merge(field, rows, Long::sum);
+            if (failed > 0) deleteFailed.merge(field, failed, Long::sum);
+        }
+
+        // rows of the table were written or deleted
+        private synchronized boolean wrote(String field){
+            long[] c = counts.get(field);
+            return (c != null && c[0] > 0) || deleted.containsKey(field);
+        }
+
+        // true the first time the restore touches rows analytics is derived from
+        private synchronized boolean staleAnalytics(){
+            if (analyticsStale) return false;
+            analyticsStale = true;
+            return true;
+        }
+
+        private synchronized boolean analyticsStale(){ return analyticsStale; }
+
+        public String current(){ return current; }
+
+        /**
+         * Rows written per table field, and rows skipped per table under "failed"; a delta restore adds the rows it
+         * deleted under "deleted" and deletes it could not apply under "failedDeletes".
+         */
+        public synchronized Map<String,Object> counts(){
+            Map<String,Object> result = new LinkedHashMap<>();
+            Map<String,Long> failed = new LinkedHashMap<>();
+            counts.forEach((field, c) -> { result.put(field, c[0]); if (c[1] > 0) failed.put(field, c[1]); });
+            result.put("failed", failed);
+            if (!deleted.isEmpty() || !deleteFailed.isEmpty()){
+                result.put("deleted", new LinkedHashMap<>(deleted));
+                result.put("failedDeletes", new LinkedHashMap<>(deleteFailed));
+            }
+            return result;
+        }
+    }
+
+    private final JdbcTemplate jdbc;
+    private final TransactionTemplate tx;
+    private final PushService pushService;
+    private final ResponseMetricService metricService;
+    private final AnalyticsRollupService rollupService;
+    private final MetricCatalogService catalogService;
+    private final Path uploadsBase;
+    private final Map<String, Table<?>> tables = new LinkedHashMap<>();
+    private final Map<String, LinkTable> links = new LinkedHashMap<>();
+
+    public BackupRestoreWriter(JdbcTemplate jdbc, PlatformTransactionManager txManager, PushService pushService, ResponseMetricService metricService, AnalyticsRollupService rollupService, MetricCatalogService catalogService, @Value("${app.uploadsDir:uploads}") String uploadsDir){
+        this.jdbc = jdbc; this.tx = new TransactionTemplate(txManager); this.pushService = pushService; this.metricService = metricService; this.rollupService = rollupService; this.catalogService = catalogService;
+        this.uploadsBase = Paths.get(uploadsDir).toAbsolutePath().normalize();
+
+        // roles are matched by name; their ids stay those of the target database
+        add(new Table<>("roles", null, BackupDtos.RoleExport.class, "insert into roles (name) values (?) on conflict (name) do nothing", r -> new Object[]{r.name}, null));
+        add(new Table<>("clubs", "clubs", BackupDtos.ClubExport.class, upsert("clubs", "name", "smtp_host", "smtp_port", "smtp_username", "smtp_password", "smtp_from", "smtp_use_tls"),
+                c -> new Object[]{c.id, c.name, c.smtpHost, c.smtpPort, c.smtpUsername, c.smtpPassword, c.smtpFrom, c.smtpUseTls != null ? c.smtpUseTls : false}, null));
+        // athletes are restored from users.group_id, trainers once the users exist
+        add(new Table<>("groups", "groups", BackupDtos.GroupExport.class, upsert("groups", "name"), g -> new Object[]{g.id, g.name}, (rows, run) -> {
+            Long[] ids = ids(rows, g -> g.id);
+            replaceLinks("group_clubs", "group_id", "club_id", "clubs", ids, rows, g -> g.id, g -> g.clubIds);
+            jdbc.update("delete from group_trainers where group_id = any(?)", new Object[]{ids});
+            synchronized (run){
+                for (BackupDtos.GroupExport g : rows){
+                    if (g.id != null && g.trainerIds != null) for (Long u : g.trainerIds) if (u != null) run.trainerLinks.add(new long[]{g.id, u});
+                }
+            }
+        }));
+        add(new Table<>("seasons", "season", BackupDtos.SeasonExport.class, upsert("season", "name", "start_date", "end_date"),
+                s -> new Object[]{s.id, s.name, instant(s.startDate), instant(s.endDate)}, null));
+        add(new Table<>("users", "users", BackupDtos.UserExport.class, upsert("users", "first_name", "last_name", "email", "password_hash", "is_active", "active_override", "group_id->groups"),
+                u -> new Object[]{u.id, u.firstName, u.lastName, u.email, u.passwordHash, u.active != null ? u.active : true, u.activeOverride, u.groupId}, (rows, run) -> {
+            Long[] ids = ids(rows, u -> u.id);
+            replaceLinks("user_clubs", "user_id", "club_id", "clubs", ids, rows, u -> u.id, u -> u.clubIds);
+            jdbc.update("delete from user_roles where user_id = any(?)", new Object[]{ids});
+            List<Object[]> roles = new ArrayList<>();
+            for (BackupDtos.UserExport u : rows) if (u.id != null && u.roles != null) for (String r : u.roles) roles.add(new Object[]{u.id, r});
+            if (!roles.isEmpty()) jdbc.batchUpdate("insert into user_roles (user_id, role_id) select ?, id from roles where name = ? on conflict do nothing", roles);
+        }));
+        add(new Table<>("memberships", "membership", BackupDtos.MembershipExport.class,
+                upsert("membership", "user_id->users", "club_id->clubs", "season_id->season", "start_date", "end_date", "status", "notified7days", "notified1day"),
+                m -> new Object[]{m.id, m.userId, m.clubId, m.seasonId, instant(m.startDate), instant(m.endDate), m.status, m.notified7Days, m.notified1Day}, null));
+        add(new Table<>("notifications", "notification", BackupDtos.NotificationExport.class,
+                upsert("notification", "sender_id->users", "recipient_id->users", "club_id->clubs", "group_id->groups", "title", "body", "created_at", "is_read", "dispatched", "sent_at", "emailed_at"),
+                n -> new Object[]{n.id, n.senderId, n.recipientId, n.clubId, n.groupId, n.title, n.body, n.createdAt, n.isRead, n.dispatched, n.sentAt, n.emailedAt}, null));
+        add(new Table<>("questionnaires", "questionnaires", BackupDtos.QuestionnaireExport.class, upsert("questionnaires", "title", "structure", "daily", "creator_id->users"),
+                q -> new Object[]{q.id, q.title, q.structure, q.daily, q.creatorId}, null));
+        add(new Table<>("trainings", "trainings", BackupDtos.TrainingExport.class,
+                upsert("trainings", "title", "description", "training_time", "training_end_time", "is_visible_to_athletes", "pre_questionnaire_id->questionnaires",
+                        "post_questionnaire_id->questionnaires", "pre_notification_minutes", "notification_time", "detached=false", "group_detached=false"),
+                t -> new Object[]{t.id, t.title, t.description, t.trainingTime, t.trainingEndTime, t.visibleToAthletes, t.preQuestionnaireId, t.postQuestionnaireId,
+                        t.preNotificationMinutes != null ? t.preNotificationMinutes : 0, t.notificationTime},
+                (rows, run) -> replaceLinks("training_groups", "training_id", "group_id", "groups", ids(rows, t -> t.id), rows, t -> t.id, t -> t.groupIds)));
+        add(new Table<>("questionnaireResponses", "questionnaire_responses", BackupDtos.QuestionnaireResponseExport.class,
+                upsert("questionnaire_responses", "user_id->users", "training_id->trainings", "questionnaire_id->questionnaires", "submitted_at", "responses"),
+                r -> new Object[]{r.id, r.userId, r.trainingId, r.questionnaireId, r.submittedAt, r.responses}, null));
+        add(new Table<>("goals", "goals", BackupDtos.GoalExport.class,
+                upsert("goals", "user_id->users", "season_id->season", "start_date", "end_date", "description", "current_progress", "cumulative_progress", "completion_date"),
+                g -> new Object[]{g.id, g.userId, g.seasonId, g.startDate, g.endDate, g.description, g.currentProgress, g.cumulativeProgress, g.completionDate}, null));
+        add(new Table<>("goalProgresses", "goal_progress", BackupDtos.GoalProgressExport.class, upsert("goal_progress", "goal_id->goals", "progress", "note", "created_at"),
+                p -> new Object[]{p.id, p.goalId, p.progress, p.note, p.createdAt}, null));
+        add(new Table<>("goalFeedbacks", "goal_feedbacks", BackupDtos.GoalFeedbackExport.class, upsert("goal_feedbacks", "goal_id->goals", "trainer_id->users", "comment", "created_at"),
+                f -> new Object[]{f.id, f.goalId, f.trainerId, f.comment, f.createdAt}, null));
+        add(new Table<>("trainingAttendances", "training_attendance", BackupDtos.TrainingAttendanceExport.class,
+                upsert("training_attendance", "training_id->trainings", "user_id->users", "present", "updated_at"),
+                a -> new Object[]{a.id, a.trainingId, a.userId, a.present, a.updatedAt}, null));
+        add(new Table<>("trainingSeries", "training_series", BackupDtos.TrainingSeriesExport.class,
+                upsert("training_series", "rrule", "timezone", "start_time", "end_time", "until", "count", "created_at", "updated_at"),
+                s -> new Object[]{s.id, s.rrule, s.timezone != null ? s.timezone : "UTC", s.startTime, s.endTime, s.until, s.count, s.createdAt, s.updatedAt}, null));
+        add(new Table<>("pushSubscriptions", "push_subscriptions", BackupDtos.PushSubscriptionExport.class, upsert("push_subscriptions", "user_id->users", "endpoint", "keys"),
+                p -> new Object[]{p.id, p.userId, p.endpoint, p.keys}, null));
+        add(new Table<>("pushConfigs", "push_config", BackupDtos.PushConfigExport.class, upsert("push_config", "vapid_public", "vapid_private", "subject"),
+                p -> new Object[]{p.id, p.vapidPublic, p.vapidPrivate, p.subject}, null));
+        add(new Table<>("emailLogs", "email_log", BackupDtos.EmailLogExport.class, upsert("email_log", "sent_at", "to_address", "subject", "club_id"),
+                e -> new Object[]{e.id, e.sentAt, e.toAddress, e.subject, e.clubId}, null));
+        add(new Table<>("sentNotifications", "sent_notifications", BackupDtos.SentNotificationExport.class, upsert("sent_notifications", "training_id", "type", "sent_at"),
+                s -> new Object[]{s.id, s.trainingId, s.type, s.sentAt}, null));
+        add(new Table<>("userTokens", "user_tokens", BackupDtos.UserTokenExport.class, upsert("user_tokens", "user_id->users", "token", "type", "expires_at", "used", "created_at"),
+                t -> new Object[]{t.id, t.userId, t.token, t.type, t.expiresAt, t.used, t.createdAt}, null));
+        add(new Table<>("passwordResetLogs", "password_reset_log", BackupDtos.PasswordResetLogExport.class, upsert("password_reset_log", "reset_at", "user_id"),
+                p -> new Object[]{p.id, p.resetAt, p.userId}, null));
+        // a path outside the uploads directory is not restored; an existing row then keeps its path
+        add(new Table<>("attachments", "attachments", BackupDtos.AttachmentExport.class,
+                "insert into attachments (id, training_id, filename, content_type, path) values (?, (select id from trainings where id = ?), ?, ?, ?) "
+                        + "on conflict (id) do update set training_id = excluded.training_id, filename = excluded.filename, content_type = excluded.content_type, "
+                        + "path = coalesce(excluded.path, attachments.path)",
+                a -> new Object[]{a.id, a.trainingId, a.filename, a.contentType, uploadPath(a.relativePath)}, null));
+
+        // link rows change without touching their owner row, so delta backups carry the link tables whole
+        link("group_clubs", "group_id", "groups", "club_id", "clubs");
+        link("group_trainers", "group_id", "groups", "user_id", "users");
+        link("user_clubs", "user_id", "users", "club_id", "clubs");
+        link("training_groups", "training_id", "trainings", "group_id", "groups");
+        links.put("user_roles", new LinkTable("user_roles",
+                "select l.user_id, l.role_id, r.name from user_roles l join roles r on r.id = l.role_id where (l.user_id, l.role_id) > (?1, ?2) order by l.user_id, l.role_id",
+                "insert into user_roles (user_id, role_id) select o.id, r.id from users o, roles r where o.id = ? and r.name = ? on conflict do nothing"));
+    }
+
+    private void add(Table<?> table){ tables.put(table.field(), table); }
+
+    private void link(String name, String ownerColumn, String ownerTable, String targetColumn, String targetTable){
+        links.put(name, new LinkTable(name,
+                "select " + ownerColumn + ", " + targetColumn + ", " + targetColumn + " from " + name + " where (" + ownerColumn + ", " + targetColumn + ") > (?1, ?2) order by " + ownerColumn + ", " + targetColumn,
+                "insert into " + name + " (" + ownerColumn + ", " + targetColumn + ") select o.id, t.id from " + ownerTable + " o, " + targetTable + " t where o.id = ? and t.id = ? on conflict do nothing"));
+    }
+
+    /** The table stored under the given export field, or null for fields the restore does not know. */
+    public Table<?> table(String field){ return tables.get(field); }
+
+    /** Tables whose ids are restored, in export order. */
+    public List<Table<?>> tables(){
+        return tables.values().stream().filter(t -> t.table() != null).toList();
+    }
+
+    /**
+     * Tables whose ids are restored, referencing tables before the tables they reference, the order in which rows
+     * missing from a delta backup are deleted.
+     */
+    public List<Table<?>> deletionOrder(){
+        List<Table<?>> order = new ArrayList<>(tables());
+        Collections.reverse(order);
+        // the one table exported after a table that references it
+        Table<?> series = tables.get("trainingSeries");
+        order.remove(series);
+        order.add(order.indexOf(tables.get("trainings")) + 1, series);
+        return order;
+    }
+
+    public Collection<LinkTable> linkTables(){ return links.values(); }
+
+    /** The link table of the given name, or null. */
+    public LinkTable linkTable(String name){ return links.get(name); }
+
+    /**
+     * Upsert by id. A column is written as "name", as "name->table" for a reference that becomes null when the
+     * referenced row does not exist, or as "name=literal" for a not-null column the export does not carry: set on
+     * insert, left alone on update. Parameters are the id followed by the non-literal columns.
+     */
+    static String upsert(String table, String... columns){
+        StringJoiner names = new StringJoiner(", ", "(id, ", ")");
+        StringJoiner values = new StringJoiner(", ", "(?, ", ")");
+        StringJoiner updates = new StringJoiner(", ");
+        for (String column : columns){
+            int ref = column.indexOf("->"), literal = column.indexOf('=');
+            String name = ref > 0 ? column.substring(0, ref) : literal > 0 ? column.substring(0, literal) : column;
+            names.add(name);
+            if (literal > 0){ values.add(column.substring(literal + 1)); continue; }
+            values.add(ref > 0 ? "(select id from " + column.substring(ref + 2) + " where id = ?)" : "?");
+            updates.add(name + " = excluded." + name);
+        }
+        return "insert into " + table + " " + names + " values " + values + " on conflict (id) do update set " + updates;
+    }
+
+    /**
+     * Write one chunk of a table in its own transaction. When the batch fails the rows are written one by one, so a
+     * single bad row only loses itself.
+     */
+    public <D> void write(Table<D> table, List<D> rows, Run run){
+        run.current = table.field();
+        staleAnalytics(table.field(), run);
+        try {
+            tx.executeWithoutResult(s -> apply(table, rows, run));
+            run.count(table.field(), rows.size(), 0);
+        } catch (DataAccessException | TransactionException ex){
+            log.debug("Backup restore: chunk of {} rejected, retrying row by row: {}", table.field(), ex.getMessage());
+            int written = 0;
+            for (D row : rows){
+                try {
+                    tx.executeWithoutResult(s -> apply(table, List.of(row), run));
+                    written++;
+                } catch (DataAccessException | TransactionException rowEx){
+                    log.warn("Backup restore: skipped a {} row: {}", table.field(), rowEx.getMessage());
+                }
+            }
+            run.count(table.field(), written, rows.size() - written);
+        }
+    }
+
+    private <D> void apply(Table<D> table, List<D> rows, Run run){
+        List<Object[]> params = new ArrayList<>(rows.size());
+        for (D row : rows) params.add(jdbcValues(table.values().apply(row)));
+        jdbc.batchUpdate(table.sql(), params);
+        if (table.links() != null) table.links().accept(rows, run);
+    }
+
+    /**
+     * Complete a restore: write the deferred group trainer links, move each identity sequence past the restored ids
+     * drop state derived from restored rows (push config, metric catalogs), re-extract the response metrics and
+     * rebuild the analytics cube.
+     */
+    public void finish(Run run){
+        List<long[]> links;
+        synchronized (run){ links = new ArrayList<>(run.trainerLinks); run.trainerLinks.clear(); }
+        for (int i = 0; i < links.size(); i += 500){
+            List<Object[]> chunk = new ArrayList<>();
+            for (long[] l : links.subList(i, Math.min(links.size(), i + 500))) chunk.add(new Object[]{l[0], l[1]});
+            tx.executeWithoutResult(s -> jdbc.batchUpdate("insert into group_trainers (group_id, user_id) select g.id, u.id from groups g, users u where g.id = ? and u.id = ? on conflict do nothing", chunk));
+        }
+        for (Table<?> table : tables.values()){
+            if (table.table() == null || !run.wrote(table.field())) continue;
+            jdbc.queryForObject("select setval(pg_get_serial_sequence('" + table.table() + "', 'id'), coalesce(max(id), 0) + 1, false) from " + table.table(), Long.class);
+        }
+        if (run.wrote("pushConfigs")) pushService.invalidate();
+        if (run.wrote("questionnaireResponses") || run.wrote("trainings") || run.wrote("questionnaires")) catalogService.invalidateAll();
+        if (run.analyticsStale()){
+            run.current = "responseMetrics";
+            try {
+                log.info("Backup restore: response metrics backfilled: {}", metricService.backfill());
+            } catch (RuntimeException ex){
+                log.warn("Backup restore: response metric backfill failed; ResponseMetricBackfillScheduler retries it", ex);
+            }
+            run.current = "analyticsRollups";
+            try {
+                log.info("Backup restore: analytics cube rebuilt: {}", rollupService.rebuild());
+            } catch (RuntimeException ex){
+                log.warn("Backup restore: analytics cube rebuild failed; AnalyticsRollupScheduler retries it", ex);
+            }
+        }
+        run.current = null;
+    }
+
+    // Persist that the analytics tables no longer cover every response before the first restored row commits, so an
+    // interrupted restore is not trusted after a restart either
+    private void staleAnalytics(String field, Run run){
+        if (!ANALYTICS_SOURCES.contains(field) || !run.staleAnalytics()) return;
+        metricService.markStale();
+        rollupService.markStale();
+    }
+
+    /**
+     * Replace the rows of a link table with the pairs of a delta backup in one transaction: until it commits readers
+     * keep the old links (user_roles included), and a restore that fails part way leaves them as they were. Pairs
+     * whose rows do not exist are dropped.
+     */
+    public void restoreLinks(LinkTable link, LinkPairs pairs, Run run) throws IOException {
+        run.current = link.name();
+        staleAnalytics(link.name(), run);
+        long[] written = new long[1];
+        try {
+            tx.executeWithoutResult(s -> {
+                jdbc.update("delete from " + link.name());
+                try {
+                    pairs.forEachChunk(chunk -> {
+                        jdbc.batchUpdate(link.insertSql(), chunk);
+                        written[0] += chunk.size();
+                    });
+                } catch (IOException e){
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e){
+            throw e.getCause();
+        }
+        run.count(link.name(), written[0], 0);
+    }
+
+    /**
+     * Delete the rows of table whose ids are not among the first n of ids (every id the table held when the delta
+     * backup was taken). When the set delete fails, typically because a row outside the backup still references a
+     * deleted one, rows are deleted one by one and those still referenced are kept and counted.
+     */
+    public void deleteMissing(Table<?> table, long[] ids, int n, Run run){
+        run.current = table.field();
+        staleAnalytics(table.field(), run);
+        long[] keep = Arrays.copyOf(ids, n);
+        String missing = " from " + table.table() + " t where not exists (select 1 from unnest(cast(? as bigint[])) k(id) where k.id = t.id)";
+        try {
+            Integer deleted = tx.execute(s -> jdbc.update("delete" + missing, new Object[]{keep}));
+            run.countDeleted(table.field(), deleted != null ? deleted : 0, 0);
+        } catch (DataAccessException | TransactionException ex){
+            log.debug("Backup restore: deleting from {} rejected, retrying row by row: {}", table.field(), ex.getMessage());
+            List<Long> gone = jdbc.queryForList("select t.id" + missing, Long.class, new Object[]{keep});
+            int deleted = 0;
+            for (Long id : gone){
+                try {
+                    tx.executeWithoutResult(s -> jdbc.update("delete from " + table.table() + " where id = ?", id));
+                    deleted++;
+                } catch (DataAccessException | TransactionException rowEx){
+                    log.warn("Backup restore: kept a {} row missing from the backup: {}", table.field(), rowEx.getMessage());
+                }
+            }
+            run.countDeleted(table.field(), deleted, gone.size() - deleted);
+        }
+    }
+
+    // Replace the link rows of the chunk's owners; links to rows that do not exist are dropped
+    private <D> void replaceLinks(String linkTable, String ownerColumn, String targetColumn, String targetTable, Long[] owners, List<D> rows, Function<D, Long> owner, Function<D, Long[]> targets){
+        jdbc.update("delete from " + linkTable + " where " + ownerColumn + " = any(?)", new Object[]{owners});
+        List<Object[]> links = new ArrayList<>();
+        for (D row : rows){
+            Long[] ts = targets.apply(row);
+            if (owner.apply(row) == null || ts == null) continue;
+            for (Long t : ts) if (t != null) links.add(new Object[]{owner.apply(row), t});
+        }
+        if (!links.isEmpty()){
+            jdbc.batchUpdate("insert into " + linkTable + " (" + ownerColumn + ", " + targetColumn + ") select ?, id from " + targetTable + " where id = ? on conflict do nothing", links);
+        }
+    }
+
+    private static <D> Long[] ids(List<D> rows, Function<D, Long> id){
+        return rows.stream().map(id).filter(Objects::nonNull).toArray(Long[]::new);
+    }
+
+    // the driver binds OffsetDateTime, not Instant
+    private static Object[] jdbcValues(Object[] values){
+        for (int i = 0; i < values.length; i++){
+            if (values[i] instanceof Instant instant) values[i] = OffsetDateTime.ofInstant(instant, ZoneOffset.UTC);
+        }
+        return values;
+    }
+
+    // season and membership dates are exported as Instant strings
+    private static Instant instant(String value){
+        return value == null || value.isBlank() ? null : Instant.parse(value);
+    }
+
+    private String uploadPath(String relativePath){
+        if (relativePath == null) return null;
+        Path resolved = uploadsBase.resolve(relativePath).normalize();
+        return resolved.startsWith(uploadsBase) ? resolved.toString() : null;
+    }
+}
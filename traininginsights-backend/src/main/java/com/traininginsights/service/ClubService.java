@@ -10,10 +10,25 @@ import java.util.Optional;
 @Service
 public class ClubService {
     private final ClubRepository repo;
-    public ClubService(ClubRepository repo) { this.repo = repo; }
+    private final SmtpTransportPool smtpTransports;
+    private final AnalyticsRollupService rollupService;
+    private final ResponseMetricService metricService;
+    public ClubService(ClubRepository repo, SmtpTransportPool smtpTransports, AnalyticsRollupService rollupService, ResponseMetricService metricService) { this.repo = repo; this.smtpTransports = smtpTransports; this.rollupService = rollupService; this.metricService = metricService; }
 
     public List<Club> findAll(){ return repo.findAll(); }
     public Optional<Club> findById(Long id){ return repo.findById(id); }
-    public Club save(Club c){ return repo.save(c); }
-    public void delete(Long id){ repo.deleteById(id); }
+    // pooled SMTP connections use the old settings; drop them (the pool also rebuilds itself on a settings mismatch)
+    public Club save(Club c){
+        Club saved = repo.save(c);
+        smtpTransports.invalidate(saved.getId());
+        return saved;
+    }
+    // responses of the club's groups lose their club cells
+    public void delete(Long id){
+        boolean aggregated = rollupService.clubAggregated(id);
+        repo.deleteById(id);
+        smtpTransports.invalidate(id);
+        if (aggregated) rollupService.markStale();
+        metricService.onMembershipChanged();
+    }
 }
@@ -3,38 +3,27 @@ package com.traininginsights.service;
 import com.traininginsights.model.Club;
 import com.traininginsights.model.EmailLog;
 import com.traininginsights.repository.EmailLogRepository;
-import org.springframework.mail.SimpleMailMessage;
-import org.springframework.mail.javamail.JavaMailSenderImpl;
 import org.springframework.mail.javamail.MimeMessageHelper;
 import jakarta.mail.internet.MimeMessage;
 import org.springframework.stereotype.Service;
 
 import java.util.List;
-import java.util.Properties;
 
 @Service
 public class EmailService {
     private final EmailLogRepository emailLogRepository;
+    private final SmtpTransportPool transports;
+    private final AttachmentPartCache attachmentParts;
 
-    public EmailService(EmailLogRepository emailLogRepository){
+    public EmailService(EmailLogRepository emailLogRepository, SmtpTransportPool transports, AttachmentPartCache attachmentParts){
         this.emailLogRepository = emailLogRepository;
+        this.transports = transports;
+        this.attachmentParts = attachmentParts;
     }
 
-    // Build a JavaMailSenderImpl based on club SMTP settings
-    private JavaMailSenderImpl buildSender(Club c){
-        if (c == null) return null; // defensively handle null
-        JavaMailSenderImpl sender = new JavaMailSenderImpl();
-        if (c.getSmtpHost() == null) return null;
-        sender.setHost(c.getSmtpHost());
-        if (c.getSmtpPort() != null) sender.setPort(c.getSmtpPort());
-        if (c.getSmtpUsername() != null) sender.setUsername(c.getSmtpUsername());
-        if (c.getSmtpPassword() != null) sender.setPassword(c.getSmtpPassword());
-        Properties props = sender.getJavaMailProperties();
-        props.put("mail.transport.protocol", "smtp");
-        props.put("mail.smtp.auth", c.getSmtpUsername() != null ? "true" : "false");
-        props.put("mail.smtp.starttls.enable", c.getSmtpUseTls() == null ? "true" : c.getSmtpUseTls().toString());
-        props.put("mail.debug", "false");
-        return sender;
+    // Clubs without SMTP settings cannot send
+    private static boolean canSend(Club c){
+        return c != null && c.getSmtpHost() != null;
     }
 
     private void logEmail(String to, String subject, Club club){
@@ -45,16 +34,25 @@ public class EmailService {
         }
     }
 
+    // one row per recipient, written in a single insert
+    private void logEmails(List<String> to, String subject, Club club){
+        try {
+            emailLogRepository.insertAll(to.toArray(new String[0]), subject, club != null ? club.getId() : null, java.time.Instant.now());
+        } catch (Exception ignore){
+            // Avoid impacting mail sending if logging fails
+        }
+    }
+
     public boolean sendSimpleMail(Club club, String to, String subject, String body){
-        JavaMailSenderImpl sender = buildSender(club);
-        if (sender == null) return false;
+        if (!canSend(club)) return false;
         try {
-            SimpleMailMessage msg = new SimpleMailMessage();
-            msg.setTo(to);
-            msg.setSubject(subject);
-            msg.setText(body);
-            if (club.getSmtpFrom() != null) msg.setFrom(club.getSmtpFrom());
-            sender.send(msg);
+            MimeMessage mime = transports.createMimeMessage(club);
+            MimeMessageHelper helper = new MimeMessageHelper(mime, false, "UTF-8");
+            helper.setTo(to);
+            helper.setSubject(subject);
+            helper.setText(body, false);
+            if (club.getSmtpFrom() != null) helper.setFrom(club.getSmtpFrom());
+            transports.send(club, mime);
             logEmail(to, subject, club);
             return true;
         } catch (Exception e){
@@ -63,20 +61,20 @@ public class EmailService {
         }
     }
 
+    // One message to all of bcc; broadcasts go through MailQueue, which keeps bcc to one chunk
     public boolean sendBccMail(Club club, List<String> bcc, String subject, String body){
         if (bcc == null || bcc.isEmpty()) return false;
-        JavaMailSenderImpl sender = buildSender(club);
-        if (sender == null) return false;
+        if (!canSend(club)) return false;
         try {
-            MimeMessage mime = sender.createMimeMessage();
+            MimeMessage mime = transports.createMimeMessage(club);
             MimeMessageHelper helper = new MimeMessageHelper(mime, false, "UTF-8");
             if (club.getSmtpFrom() != null) helper.setFrom(club.getSmtpFrom());
             helper.setSubject(subject);
             helper.setText(body, false);
             for (String addr : bcc){ helper.addBcc(addr); }
-            sender.send(mime);
-            // Log individually so counts reflect recipients reached
-            bcc.forEach(addr -> logEmail(addr, subject, club));
+            transports.send(club, mime);
+            // one row per recipient so counts reflect recipients reached
+            logEmails(bcc, subject, club);
             return true;
         } catch (Exception e){
             System.err.println("Failed to send BCC email: " + e.getMessage());
@@ -86,10 +84,9 @@ public class EmailService {
 
     public boolean sendBccMailWithAttachments(Club club, List<String> bcc, String subject, String body, List<java.io.File> attachments){
         if (bcc == null || bcc.isEmpty()) return false;
-        JavaMailSenderImpl sender = buildSender(club);
-        if (sender == null) return false;
+        if (!canSend(club)) return false;
         try {
-            MimeMessage mime = sender.createMimeMessage();
+            MimeMessage mime = transports.createMimeMessage(club);
             MimeMessageHelper helper = new MimeMessageHelper(mime, true, "UTF-8");
             if (club.getSmtpFrom() != null) helper.setFrom(club.getSmtpFrom());
             helper.setSubject(subject);
@@ -98,12 +95,15 @@ public class EmailService {
             if (attachments != null){
                 for (java.io.File f : attachments){
                     if (f != null && f.exists()){
-                        helper.addAttachment(f.getName(), f);
+                        // encoded once and shared by every chunk of a broadcast; very large files stream from disk
+                        jakarta.mail.internet.MimeBodyPart part = attachmentParts.part(f);
+                        if (part != null) helper.getRootMimeMultipart().addBodyPart(part);
+                        else helper.addAttachment(f.getName(), f);
                     }
                 }
             }
-            sender.send(mime);
-            bcc.forEach(addr -> logEmail(addr, subject, club));
+            transports.send(club, mime);
+            logEmails(bcc, subject, club);
             return true;
         } catch (Exception e){
             System.err.println("Failed to send BCC email with attachments: " + e.getMessage());
@@ -112,16 +112,15 @@ public class EmailService {
     }
 
     public boolean sendHtmlMail(Club club, String to, String subject, String htmlBody, String textFallback){
-        JavaMailSenderImpl sender = buildSender(club);
-        if (sender == null) return false;
+        if (!canSend(club)) return false;
         try {
-            MimeMessage mime = sender.createMimeMessage();
+            MimeMessage mime = transports.createMimeMessage(club);
             MimeMessageHelper helper = new MimeMessageHelper(mime, true, "UTF-8");
             if (club.getSmtpFrom() != null) helper.setFrom(club.getSmtpFrom());
             helper.setTo(to);
             helper.setSubject(subject);
             helper.setText(textFallback != null ? textFallback : htmlBody.replaceAll("<[^>]+>", ""), htmlBody);
-            sender.send(mime);
+            transports.send(club, mime);
             logEmail(to, subject, club);
             return true;
         } catch (Exception e){
@@ -10,9 +10,26 @@ import java.util.Optional;
 @Service
 public class GroupService {
     private final GroupRepository repo;
-    public GroupService(GroupRepository repo) { this.repo = repo; }
+    private final AnalyticsRollupService rollupService;
+    private final ResponseMetricService metricService;
+    public GroupService(GroupRepository repo, AnalyticsRollupService rollupService, ResponseMetricService metricService) { this.repo = repo; this.rollupService = rollupService; this.metricService = metricService; }
     public List<Group> all(){ return repo.findAll(); }
     public Optional<Group> get(Long id){ return repo.findById(id); }
-    public Group save(Group g){ return repo.save(g); }
-    public void delete(Long id){ repo.deleteById(id); }
+    // the analytics cube scopes responses by the clubs of their training groups: a changed club set reaches every
+    // training of the group, so the cube is rebuilt rather than patched; cached analytics results are dropped either way
+    public Group save(Group g){
+        java.util.Set<Long> clubsBefore = rollupService.aggregatedClubIds(g.getId());
+        Group saved = repo.save(g);
+        java.util.Set<Long> clubs = new java.util.HashSet<>();
+        if (saved.getClubs() != null) saved.getClubs().forEach(c -> clubs.add(c.getId()));
+        if (clubsBefore != null && !clubsBefore.equals(clubs)) rollupService.markStale();
+        metricService.onMembershipChanged();
+        return saved;
+    }
+    public void delete(Long id){
+        boolean aggregated = rollupService.aggregatedClubIds(id) != null;
+        repo.deleteById(id);
+        if (aggregated) rollupService.markStale();
+        metricService.onMembershipChanged();
+    }
 }
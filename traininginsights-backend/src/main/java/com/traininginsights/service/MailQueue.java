@@ -0,0 +1,105 @@
+package com.traininginsights.service;
+
+import com.traininginsights.model.Club;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Broadcast mail pipeline. A BCC list is split into chunks of bccChunk recipients (providers reject messages with
+ * too many recipients), each chunk is one message sent by the mailExecutor workers, and messages of one club are
+ * spaced to at most perClubPerMinute. Every chunk has its own future, completed with the chunk's addresses when it
+ * was sent or with an empty list when it failed, so callers can report delivery per recipient.
+ */
+@Service
+public class MailQueue {
+    private static final Logger log = LoggerFactory.getLogger(MailQueue.class);
+
+    private final EmailService emailService;
+    private final AsyncTaskExecutor executor;
+    private final int chunkSize;
+    private final long intervalNanos;
+    // next free send slot per club (System.nanoTime based)
+    private final ConcurrentHashMap<Long, AtomicLong> nextSlot = new ConcurrentHashMap<>();
+    // delays only; sending happens on the executor
+    private final ScheduledExecutorService delays = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "mail-delay");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public MailQueue(EmailService emailService, @Qualifier("mailExecutor") AsyncTaskExecutor executor,
+                     @Value("${app.mail.bccChunk:50}") int chunkSize, @Value("${app.mail.perClubPerMinute:120}") int perClubPerMinute){
+        this.emailService = emailService;
+        this.executor = executor;
+        this.chunkSize = Math.max(1, chunkSize);
+        this.intervalNanos = TimeUnit.MINUTES.toNanos(1) / Math.max(1, perClubPerMinute);
+    }
+
+    /** Queue one message per chunk of (deduplicated) recipients; attachments may be null or empty. */
+    public List<CompletableFuture<List<String>>> submitBcc(Club club, List<String> bcc, String subject, String body, List<File> attachments){
+        List<String> recipients = new ArrayList<>(new java.util.LinkedHashSet<>(bcc));
+        List<CompletableFuture<List<String>>> futures = new ArrayList<>();
+        for (int from = 0; from < recipients.size(); from += chunkSize){
+            List<String> chunk = List.copyOf(recipients.subList(from, Math.min(from + chunkSize, recipients.size())));
+            CompletableFuture<List<String>> done = new CompletableFuture<>();
+            futures.add(done);
+            Runnable send = () -> submit(() -> {
+                boolean sent = attachments == null || attachments.isEmpty()
+                        ? emailService.sendBccMail(club, chunk, subject, body)
+                        : emailService.sendBccMailWithAttachments(club, chunk, subject, body, attachments);
+                done.complete(sent ? chunk : List.of());
+            }, done);
+            long delay = reserve(club.getId());
+            if (delay <= 0) send.run();
+            else {
+                try { delays.schedule(send, delay, TimeUnit.NANOSECONDS); }
+                catch (java.util.concurrent.RejectedExecutionException ex){ done.complete(List.of()); }
+            }
+        }
+        return futures;
+    }
+
+    private void submit(Runnable task, CompletableFuture<List<String>> done){
+        try {
+            executor.execute(() -> {
+                try { task.run(); }
+                catch (Exception ex){ log.warn("Mail chunk failed: {}", ex.getMessage()); done.complete(List.of()); }
+            });
+        } catch (TaskRejectedException ex){
+            log.warn("Mail queue is full, dropping a chunk");
+            done.complete(List.of());
+        }
+    }
+
+    // Reserve the club's next send slot; returns how long to wait for it (0 when it is free now)
+    private long reserve(Long clubId){
+        AtomicLong next = nextSlot.computeIfAbsent(clubId == null ? -1L : clubId, k -> new AtomicLong(System.nanoTime()));
+        while (true){
+            long now = System.nanoTime();
+            long current = next.get();
+            long slot = Math.max(current, now);
+            if (next.compareAndSet(current, slot + intervalNanos)) return slot - now;
+        }
+    }
+
+    @PreDestroy
+    void shutdown(){
+        delays.shutdownNow();
+    }
+}
@@ -0,0 +1,152 @@
+package com.traininginsights.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.traininginsights.model.Group;
+import com.traininginsights.model.Questionnaire;
+import com.traininginsights.model.QuestionnaireResponse;
+import com.traininginsights.repository.QuestionnaireRepository;
+import jakarta.persistence.EntityManager;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * Catalog of numeric metric names for the analytics metric picker.
+ * Per questionnaire: numeric fields declared in its structure plus fields observed in its responses.
+ * Per filter scope (group, club, trainer groups, time window, phase): the observed metric names, as loaded by
+ * AnalyticsService.availableMetrics. Both live in bounded TTL caches; a submitted response adds its fields to every
+ * cached scope it falls in, questionnaire edits drop the cached entries.
+ */
+@Service
+public class MetricCatalogService {
+    private static final Set<String> NUMERIC_TYPES = Set.of("number", "slider");
+
+    /** Normalized availableMetrics filter. allowedGroupIds is null for admins, sorted otherwise. */
+    public record Scope(Long groupId, Long clubId, Instant start, Instant end, String phase, java.util.SortedSet<Long> allowedGroupIds) {
+        public static Scope of(Long groupId, Long clubId, Instant start, Instant end, String phase, Set<Long> allowedGroupIds){
+            String p = AnalyticsService.phaseFilter(phase);
+            java.util.SortedSet<Long> allowed = groupId == null && allowedGroupIds != null ? java.util.Collections.unmodifiableSortedSet(new java.util.TreeSet<>(allowedGroupIds)) : null;
+            return new Scope(groupId, clubId, start, end, p, allowed);
+        }
+
+        // Same predicate as the availableMetrics query
+        boolean matches(Instant at, String responsePhase, Set<Long> groupIds, Set<Long> clubIds){
+            if (at == null) return false;
+            if (start != null && at.isBefore(start)) return false;
+            if (end != null && at.isAfter(end)) return false;
+            if (!AnalyticsService.phaseMatches(responsePhase, phase)) return false;
+            if (groupId != null && !groupIds.contains(groupId)) return false;
+            if (allowedGroupIds != null && java.util.Collections.disjoint(allowedGroupIds, groupIds)) return false;
+            if (clubId != null && !clubIds.contains(clubId)) return false;
+            return true;
+        }
+    }
+
+    private final QuestionnaireRepository questionnaireRepository;
+    private final EntityManager em;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    // cached sets are immutable; updates replace them
+    private final TtlCache<Scope, Set<String>> scopes = new TtlCache<>(500, Duration.ofMinutes(10));
+    private final TtlCache<Long, Set<String>> questionnaires = new TtlCache<>(200, Duration.ofMinutes(30));
+
+    public MetricCatalogService(QuestionnaireRepository questionnaireRepository, EntityManager em) {
+        this.questionnaireRepository = questionnaireRepository;
+        this.em = em;
+    }
+
+    public Set<String> forScope(Scope scope, Supplier<Set<String>> loader){
+        return scopes.computeIfAbsent(scope, s -> Set.copyOf(loader.get()));
+    }
+
+    @Transactional(readOnly = true)
+    public Set<String> forQuestionnaire(Long questionnaireId){
+        return questionnaires.computeIfAbsent(questionnaireId, id -> {
+            Questionnaire q = questionnaireRepository.findById(id).orElse(null);
+            if (q == null) return null;
+            Set<String> out = new java.util.TreeSet<>(declaredNumericFields(q.getStructure()));
+            for (Object m : em.createNativeQuery("select distinct rm.metric from response_metrics rm join questionnaire_responses qr on qr.id = rm.response_id where qr.questionnaire_id = :qid")
+                    .setParameter("qid", id).getResultList()) out.add(String.valueOf(m));
+            return java.util.Collections.unmodifiableSet(out);
+        });
+    }
+
+    /**
+     * Fold a saved response into the cached catalogs. fields are its numeric field names; previousFields those of the
+     * payload it replaced (null for a new response). Dropping a field can only be answered by reloading, so that clears the caches.
+     */
+    public void onResponseSaved(QuestionnaireResponse saved, Set<String> fields, Set<String> previousFields){
+        if (previousFields != null && !fields.containsAll(previousFields)){
+            invalidateAll();
+            return;
+        }
+        if (fields.isEmpty()) return;
+        // resolve the training's groups and clubs before taking the cache lock
+        Set<Long> groupIds = new java.util.HashSet<>(), clubIds = new java.util.HashSet<>();
+        if (saved.getTraining() != null && saved.getTraining().getGroups() != null){
+            for (Group g : saved.getTraining().getGroups()){
+                groupIds.add(g.getId());
+                if (g.getClubs() != null) g.getClubs().forEach(c -> clubIds.add(c.getId()));
+            }
+        }
+        Instant at = saved.getSubmittedAt();
+        String phase = saved.getPhase();
+        Long qid = saved.getQuestionnaire() != null ? saved.getQuestionnaire().getId() : null;
+        afterCommit(() -> {
+            scopes.updateAll((scope, metrics) -> metrics.containsAll(fields) || !scope.matches(at, phase, groupIds, clubIds) ? metrics : union(metrics, fields));
+            if (qid != null){
+                Set<String> current = questionnaires.get(qid);
+                if (current != null && !current.containsAll(fields)) questionnaires.put(qid, union(current, fields));
+            }
+        });
+    }
+
+    public void onQuestionnaireChanged(Long questionnaireId){
+        questionnaires.invalidate(questionnaireId);
+        // deleting a questionnaire removes its responses
+        scopes.invalidateAll();
+    }
+
+    public void invalidateAll(){
+        scopes.invalidateAll();
+        questionnaires.invalidateAll();
+    }
+
+    /**
+     * Names of number/slider fields declared in a questionnaire structure ({"fields":[{"name":..,"type":..}]}).
+     */
+    public Set<String> declaredNumericFields(String structure){
+        Set<String> out = new java.util.LinkedHashSet<>();
+        if (structure == null) return out;
+        try {
+            JsonNode fields = objectMapper.readTree(structure).path("fields");
+            for (JsonNode f : fields){
+                String name = f.path("name").asText(null);
+                if (name != null && !name.isBlank() && NUMERIC_TYPES.contains(f.path("type").asText(""))) out.add(name);
+            }
+        } catch (Exception ignored) {}
+        return out;
+    }
+
+    // a rolled back submission must not leave its fields in the catalog
+    private static void afterCommit(Runnable action){
+        if (!org.springframework.transaction.support.TransactionSynchronizationManager.isSynchronizationActive()){
+            action.run();
+            return;
+        }
+        org.springframework.transaction.support.TransactionSynchronizationManager.registerSynchronization(new org.springframework.transaction.support.TransactionSynchronization(){
+            @Override
+            public void afterCommit(){ action.run(); }
+        });
+    }
+
+    private static Set<String> union(Set<String> a, Set<String> b){
+        Set<String> out = new java.util.HashSet<>(a);
+        out.addAll(b);
+        return Set.copyOf(out);
+    }
+}
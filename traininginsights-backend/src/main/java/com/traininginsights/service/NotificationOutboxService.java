@@ -0,0 +1,255 @@
+package com.traininginsights.service;
+
+import com.traininginsights.model.NotificationOutbox;
+import com.traininginsights.model.PushSubscription;
+import com.traininginsights.repository.NotificationOutboxRepository;
+import com.traininginsights.repository.NotificationRepository;
+import com.traininginsights.repository.PushSubscriptionRepository;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Transactional outbox for notification delivery. enqueuePush writes one notification_outbox row per push
+ * subscription in the caller's transaction, so a notification and its pending deliveries commit (or roll back)
+ * together. A single drain thread claims due rows in batches with FOR UPDATE SKIP LOCKED, leases them (SENDING until
+ * nextAttemptAt) and hands them to the PushDispatcher; each result marks the row DONE, schedules a retry with
+ * backoff, or moves it to DEAD after maxAttempts or a permanent failure. The drain claims no more rows than the
+ * dispatcher has in-flight capacity for, so claimed rows are sent well within their lease; leases that run out anyway
+ * (instance crashed mid-send) make the row due again, and a result only applies to the attempt it belongs to. The
+ * drain is woken after each enqueueing commit, when the dispatcher has room for a batch again, and polled as a
+ * safety net.
+ */
+@Service
+public class NotificationOutboxService {
+    private static final Logger log = LoggerFactory.getLogger(NotificationOutboxService.class);
+    private static final int BATCH_SIZE = 100;
+    private static final int PURGE_BATCH = 1000;
+    // how long a claimed row stays with the claiming instance before it becomes due again
+    private static final Duration LEASE = Duration.ofMinutes(5);
+    private static final Duration BASE_BACKOFF = Duration.ofSeconds(2);
+    private static final Duration MAX_BACKOFF = Duration.ofMinutes(10);
+
+    // a claimed row, copied out of the claiming transaction
+    private record Claim(Long id, Long notificationId, int attempt, PushDispatcher.Message message) {}
+
+    private final NotificationOutboxRepository outboxRepo;
+    private final NotificationRepository notificationRepository;
+    private final PushSubscriptionRepository pushRepo;
+    private final PushService pushService;
+    private final PushDispatcher pushDispatcher;
+    private final TransactionTemplate tx;
+    private final jakarta.persistence.EntityManager em;
+    private final int maxAttempts;
+    private final AtomicBoolean wakePending = new AtomicBoolean();
+    // the last drain stopped at the dispatcher's in-flight limit with rows possibly still due
+    private final AtomicBoolean capacityBound = new AtomicBoolean();
+    // one drain at a time per instance; other instances are kept apart by SKIP LOCKED
+    private final ExecutorService drainer = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "outbox-drain");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public NotificationOutboxService(NotificationOutboxRepository outboxRepo, NotificationRepository notificationRepository, PushSubscriptionRepository pushRepo,
+                                     PushService pushService, PushDispatcher pushDispatcher, PlatformTransactionManager txManager, jakarta.persistence.EntityManager em,
+                                     @Value("${app.push.maxAttempts:8}") int maxAttempts){
+        this.outboxRepo = outboxRepo; this.notificationRepository = notificationRepository; this.pushRepo = pushRepo;
+        this.pushService = pushService; this.pushDispatcher = pushDispatcher;
+        this.tx = new TransactionTemplate(txManager);
+        this.em = em;
+        this.maxAttempts = Math.max(1, maxAttempts);
+    }
+
+    public boolean enqueuePush(Long notificationId, Collection<PushSubscription> subscriptions, String title, String body, String url){
+        if (subscriptions == null || subscriptions.isEmpty()) return false;
+        return !enqueuePush(Map.of(notificationId, subscriptions.stream().map(PushSubscription::getId).toList()), title, body, url).isEmpty();
+    }
+
+    /**
+     * Queue the same push for several notifications (notificationId -> ids of the recipient's subscriptions) in the
+     * current transaction, with one insert. Deliveries already in the outbox (same idempotency key) are not
+     * queued twice. Returns the ids of notifications with at least one delivery queued.
+     */
+    public java.util.Set<Long> enqueuePush(Map<Long, ? extends Collection<Long>> subscriptionIdsByNotification, String title, String body, String url){
+        java.util.Set<Long> queued = new java.util.HashSet<>();
+        List<Long> notificationIds = new ArrayList<>(), subscriptionIds = new ArrayList<>();
+        for (var e : subscriptionIdsByNotification.entrySet()){
+            if (e.getValue() == null) continue;
+            for (Long subscriptionId : e.getValue()){ notificationIds.add(e.getKey()); subscriptionIds.add(subscriptionId); }
+        }
+        if (notificationIds.isEmpty()) return queued;
+        Instant now = Instant.now();
+        // one statement for all deliveries; existing keys are skipped and only the rows actually written come back
+        var q = em.createNativeQuery("insert into notification_outbox (idempotency_key, notification_id, channel, subscription_id, payload, status, attempts, next_attempt_at, created_at) "
+                + "select 'push:' || x.n || ':' || x.s, x.n, 'PUSH', x.s, :payload, 'PENDING', 0, :now, :now "
+                + "from unnest(cast(:notifications as bigint[]), cast(:subscriptions as bigint[])) as x(n, s) "
+                + "on conflict (idempotency_key) do nothing returning notification_id");
+        q.setParameter("payload", pushService.payload(title, body, url));
+        q.setParameter("now", now);
+        q.setParameter("notifications", notificationIds.toArray(new Long[0]));
+        q.setParameter("subscriptions", subscriptionIds.toArray(new Long[0]));
+        for (Object id : q.getResultList()) queued.add(((Number) id).longValue());
+        if (!queued.isEmpty()) afterCommit(this::wake);
+        return queued;
+    }
+
+    /** Ask the drain thread for a pass; coalesces with a pass that is already waiting. */
+    public void wake(){
+        if (!wakePending.compareAndSet(false, true)) return;
+        try {
+            drainer.execute(() -> {
+                wakePending.set(false);
+                drain();
+            });
+        } catch (java.util.concurrent.RejectedExecutionException ex){
+            wakePending.set(false);
+        }
+    }
+
+    // safety net for wake-ups lost to a restart, and for retries coming due
+    @Scheduled(fixedDelayString = "${app.push.outboxPollMs:10000}", initialDelayString = "${app.push.outboxPollMs:10000}")
+    public void poll(){
+        wake();
+    }
+
+    // claim and hand out due rows until a batch comes back short or the dispatcher is full; returns the number of claimed rows
+    int drain(){
+        int total = 0;
+        List<Claim> claims;
+        int limit;
+        do {
+            limit = Math.min(BATCH_SIZE, pushDispatcher.capacity());
+            if (limit == 0){
+                capacityBound.set(true);
+                return total;
+            }
+            Instant now = Instant.now();
+            int batch = limit;
+            try {
+                claims = tx.execute(status -> claimBatch(now, batch));
+            } catch (Exception e){
+                log.warn("Notification outbox claim failed", e);
+                return total;
+            }
+            if (claims == null) return total;
+            for (Claim c : claims) pushDispatcher.send(c.message(), result -> complete(c, result));
+            total += claims.size();
+        } while (claims.size() == limit);
+        return total;
+    }
+
+    private List<Claim> claimBatch(Instant now, int limit){
+        List<NotificationOutbox> rows = outboxRepo.claimDue(now, limit);
+        List<Claim> claims = new ArrayList<>();
+        if (rows.isEmpty()) return claims;
+        java.util.Map<Long, PushSubscription> subs = new java.util.HashMap<>();
+        for (PushSubscription s : pushRepo.findAllById(rows.stream().map(NotificationOutbox::getSubscriptionId).filter(java.util.Objects::nonNull).toList())) subs.put(s.getId(), s);
+        for (NotificationOutbox o : rows){
+            PushSubscription s = subs.get(o.getSubscriptionId());
+            if (s == null){
+                // the user unsubscribed since the row was written
+                o.setStatus(NotificationOutbox.DEAD);
+                o.setLastError("subscription removed");
+                o.setCompletedAt(now);
+                continue;
+            }
+            o.setStatus(NotificationOutbox.SENDING);
+            o.setAttempts(o.getAttempts() + 1);
+            o.setNextAttemptAt(now.plus(LEASE));
+            claims.add(new Claim(o.getId(), o.getNotificationId(), o.getAttempts(), new PushDispatcher.Message(s.getId(), s.getEndpoint(), s.getKeys(), o.getPayload())));
+        }
+        return claims;
+    }
+
+    // runs on a push worker with the delivery result
+    private void complete(Claim c, PushService.Delivery result){
+        try {
+            record(c, result);
+        } finally {
+            // room for a batch again: drain what was left behind
+            if (capacityBound.get() && pushDispatcher.capacity() >= Math.min(BATCH_SIZE, pushDispatcher.maxInFlight()) && capacityBound.compareAndSet(true, false)) wake();
+        }
+    }
+
+    // updates only match the attempt the result belongs to: a row re-claimed after its lease ran out is not overwritten
+    private void record(Claim c, PushService.Delivery result){
+        Instant now = Instant.now();
+        if (result.delivered()){
+            if (outboxRepo.markDone(c.id(), c.attempt(), result.status(), now) == 0) return;
+            // the first delivered subscription marks the notification dispatched
+            if (c.notificationId() != null) notificationRepository.markDispatched(c.notificationId(), now);
+            return;
+        }
+        String error = "push status " + result.status();
+        if (result.retryable() && c.attempt() < maxAttempts){
+            outboxRepo.markRetry(c.id(), c.attempt(), result.status(), error, now.plus(backoff(c.attempt(), result.retryAfter())));
+            return;
+        }
+        if (outboxRepo.markDead(c.id(), c.attempt(), result.status(), error, now) == 0) return;
+        log.info("Push outbox row {} (notification {}) dead after {} attempt(s), status {}", c.id(), c.notificationId(), c.attempt(), result.status());
+    }
+
+    /** Put dead rows back in the queue with a fresh attempt budget. */
+    public int requeueDead(){
+        int n = outboxRepo.requeueDead(Instant.now());
+        if (n > 0) wake();
+        return n;
+    }
+
+    /** Delete DONE and DEAD rows completed before the given time, in batches; returns the number of rows deleted. */
+    public int purgeCompleted(Instant before){
+        int total = 0, n;
+        do {
+            n = outboxRepo.deleteCompletedBefore(before, PURGE_BATCH);
+            total += n;
+        } while (n == PURGE_BATCH);
+        return total;
+    }
+
+    /** Row count per status. */
+    public java.util.Map<String, Long> stats(){
+        java.util.Map<String, Long> out = new java.util.TreeMap<>();
+        for (Object[] row : outboxRepo.countByStatus()) out.put((String) row[0], (Long) row[1]);
+        return out;
+    }
+
+    // Retry-After wins when given; otherwise 2s, 4s, 8s, ... with up to 20% jitter, capped
+    static Duration backoff(int attempt, Duration retryAfter){
+        if (retryAfter != null) return retryAfter.compareTo(MAX_BACKOFF) > 0 ? MAX_BACKOFF : retryAfter;
+        long millis = BASE_BACKOFF.toMillis() << Math.min(attempt - 1, 20);
+        millis = Math.min(millis, MAX_BACKOFF.toMillis());
+        return Duration.ofMillis(millis + java.util.concurrent.ThreadLocalRandom.current().nextLong(millis / 5 + 1));
+    }
+
+    private static void afterCommit(Runnable action){
+        if (!org.springframework.transaction.support.TransactionSynchronizationManager.isSynchronizationActive()){
+            action.run();
+            return;
+        }
+        org.springframework.transaction.support.TransactionSynchronizationManager.registerSynchronization(new org.springframework.transaction.support.TransactionSynchronization(){
+            @Override
+            public void afterCommit(){ action.run(); }
+        });
+    }
+
+    @PreDestroy
+    void shutdown(){
+        drainer.shutdownNow();
+    }
+}
@@ -4,70 +4,112 @@ import com.traininginsights.model.SentNotification;
 import com.traininginsights.model.Training;
 import com.traininginsights.repository.SentNotificationRepository;
 import com.traininginsights.repository.TrainingRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
 
+/**
+ * Sends pre-questionnaire reminders. trainings.notification_time is the queue: each tick claims due rows in small
+ * batches with FOR UPDATE SKIP LOCKED and leases them by moving their notification_time RETRY_SECONDS ahead, so
+ * several instances can run the scheduler without double-sending and a tick only touches due trainings. Each training
+ * is then reminded in its own transaction, together with its SentNotification row and its removal from the queue; a
+ * training that fails keeps the lease as its retry time and does not hold up the others. Once the training has
+ * started a failed reminder is dropped.
+ */
 @Component
 public class NotificationScheduler {
+    private static final Logger log = LoggerFactory.getLogger(NotificationScheduler.class);
+    private static final int BATCH_SIZE = 20;
+    // lease of a claimed training, and the delay before a failed reminder is tried again
+    private static final long RETRY_SECONDS = 300;
+
+    // what a claimed training needs for its reminder, read in the claim transaction
+    private record Reminder(Long trainingId, String title, Long preQuestionnaireId, Instant trainingTime, List<Long> athleteIds) {}
+
+    private record Claim(int claimed, List<Reminder> reminders) {}
+
     private final TrainingRepository trainingRepo;
-    private final com.traininginsights.repository.PushSubscriptionRepository pushRepo;
-    private final PushService pushService;
     private final com.traininginsights.service.NotificationService notificationService;
     private final SentNotificationRepository sentRepo;
-    private final QuestionnaireResponseService responseService;
+    private final TransactionTemplate tx;
 
     public NotificationScheduler(TrainingRepository trainingRepo,
-                                 com.traininginsights.repository.PushSubscriptionRepository pushRepo,
-                                 PushService pushService,
                                  SentNotificationRepository sentRepo,
                                  com.traininginsights.service.NotificationService notificationService,
-                                 QuestionnaireResponseService responseService){
-        this.trainingRepo = trainingRepo; this.pushRepo = pushRepo; this.pushService = pushService; this.sentRepo = sentRepo; this.notificationService = notificationService; this.responseService = responseService;
+                                 PlatformTransactionManager txManager){
+        this.trainingRepo = trainingRepo; this.sentRepo = sentRepo; this.notificationService = notificationService;
+        this.tx = new TransactionTemplate(txManager);
     }
 
     @Scheduled(cron = "0 * * * * *") // every minute at 0s
-    @Transactional
     public void run() {
         Instant now = Instant.now();
-        List<Training> due = trainingRepo.findAll().stream().filter(t -> t.getNotificationTime() != null && !t.getNotificationTime().isAfter(now)).toList();
-        for (Training t : due) {
-            // check if already sent
-            var already = sentRepo.findByTrainingIdAndTypeAndSentAtAfter(t.getId(), "PRE_QUESTIONNAIRE", now.minusSeconds(3600));
-            if (already != null && !already.isEmpty()) continue;
-            // only if a pre-questionnaire is configured
-            if (t.getPreQuestionnaire() == null) continue;
-            // send to athletes in groups
-            java.util.concurrent.atomic.AtomicBoolean anySent = new java.util.concurrent.atomic.AtomicBoolean(false);
-            t.getGroups().forEach(g -> g.getAthletes().forEach(a -> {
+        Claim claim;
+        do {
+            try {
+                claim = tx.execute(status -> claimBatch(now));
+            } catch (Exception e){
+                // the claim rolled back and the batch stays due; retry on the next tick
+                log.warn("Claiming pre-questionnaire reminders failed", e);
+                return;
+            }
+            for (Reminder r : claim.reminders()) remind(r, now);
+        } while (claim.claimed() == BATCH_SIZE);
+    }
+
+    // one short transaction per batch: claim, lease, and resolve the recipients of the whole batch in one query
+    private Claim claimBatch(Instant now){
+        List<Long> ids = trainingRepo.claimDueNotifications(now, BATCH_SIZE);
+        if (ids.isEmpty()) return new Claim(0, List.of());
+        trainingRepo.rescheduleNotification(ids, now.plusSeconds(RETRY_SECONDS));
+        // check if already sent
+        java.util.Set<Long> alreadySent = new java.util.HashSet<>();
+        for (SentNotification sn : sentRepo.findByTrainingIdInAndTypeAndSentAtAfter(ids, "PRE_QUESTIONNAIRE", now.minusSeconds(3600))) alreadySent.add(sn.getTrainingId());
+        // athletes of the training groups who did not fill PRE yet, for the whole batch in one query
+        java.util.Map<Long, List<Long>> recipients = new java.util.HashMap<>();
+        for (var row : trainingRepo.findPreReminderRecipients(ids)) recipients.computeIfAbsent(row.getTrainingId(), k -> new ArrayList<>()).add(row.getUserId());
+        List<Reminder> reminders = new ArrayList<>();
+        for (Training t : trainingRepo.findAllById(recipients.keySet())) {
+            if (alreadySent.contains(t.getId())) continue;
+            reminders.add(new Reminder(t.getId(), t.getTitle(), t.getPreQuestionnaire() != null ? t.getPreQuestionnaire().getId() : null, t.getTrainingTime(), recipients.get(t.getId())));
+        }
+        // nothing to send: take those out of the queue now
+        List<Long> done = new ArrayList<>(ids);
+        for (Reminder r : reminders) done.remove(r.trainingId());
+        if (!done.isEmpty()) trainingRepo.clearNotificationTime(done);
+        return new Claim(ids.size(), reminders);
+    }
+
+    // notifications (with their queued pushes), sent marker and dequeue commit together or not at all
+    private void remind(Reminder r, Instant now){
+        String title = "Reminder: pre-training questionnaire — " + r.title();
+        try {
+            tx.executeWithoutResult(status -> {
+                notificationService.createSystemNotificationsForUsers(r.athleteIds(),
+                        title,
+                        "Please complete the pre-training questionnaire for: " + r.title(),
+                        r.trainingId(),
+                        r.preQuestionnaireId());
+                SentNotification sn = new SentNotification(); sn.setTrainingId(r.trainingId()); sn.setType("PRE_QUESTIONNAIRE"); sn.setSentAt(Instant.now()); sentRepo.save(sn);
+                trainingRepo.clearNotificationTime(List.of(r.trainingId()));
+            });
+        } catch (Exception e){
+            if (r.trainingTime() != null && r.trainingTime().isBefore(now)){
+                log.warn("Pre-questionnaire reminder for training {} failed; the training has started, dropping it", r.trainingId(), e);
                 try {
-                    // skip if athlete already filled PRE
-                    boolean filled = false;
-                    try {
-                        filled = responseService.find(a, t, t.getPreQuestionnaire(), "PRE").isPresent();
-                    } catch (Exception ignored) {}
-                    if (filled) return;
-            notificationService.createSystemNotificationForUser(a.getId(),
-                "Reminder: pre-training questionnaire — " + t.getTitle(),
-                "Please complete the pre-training questionnaire for: " + t.getTitle(),
-                t.getId(),
-                t.getPreQuestionnaire() != null ? t.getPreQuestionnaire().getId() : null);
-                    anySent.set(true);
-                } catch (Exception e){
-                    // fallback: directly send push
-                    try {
-                        pushRepo.findByUser(a).forEach(s -> { try { pushService.sendNotification(s, "Reminder: pre-training questionnaire — " + t.getTitle()); anySent.set(true);} catch (Exception ignored){} });
-                    } catch (Exception ignored) {}
+                    tx.executeWithoutResult(status -> trainingRepo.clearNotificationTime(List.of(r.trainingId())));
+                } catch (Exception ignored){
+                    // still leased; dropped on the next attempt
                 }
-            }));
-            if (anySent.get()){
-                SentNotification sn = new SentNotification(); sn.setTrainingId(t.getId()); sn.setType("PRE_QUESTIONNAIRE"); sn.setSentAt(Instant.now()); sentRepo.save(sn);
-                // clear notification_time so it won't be reprocessed (optional)
-                t.setNotificationTime(null);
-                trainingRepo.save(t);
+            } else {
+                log.warn("Pre-questionnaire reminder for training {} failed; retrying after {}s", r.trainingId(), RETRY_SECONDS, e);
             }
         }
     }
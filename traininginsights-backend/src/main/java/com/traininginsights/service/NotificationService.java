@@ -8,6 +8,9 @@ import com.traininginsights.repository.ClubRepository;
 import com.traininginsights.repository.PushSubscriptionRepository;
 import java.time.Instant;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -22,79 +25,79 @@ public class NotificationService {
     private final GroupRepository groupRepository;
     private final ClubRepository clubRepository;
     private final EmailService emailService;
+    private final MailQueue mailQueue;
     private final PushSubscriptionRepository pushRepo;
-    private final PushService pushService;
+    private final NotificationOutboxService outbox;
+    private final TransactionTemplate tx;
+    private final jakarta.persistence.EntityManager em;
     private final com.traininginsights.repository.AttachmentRepository attachmentRepository;
     @org.springframework.beans.factory.annotation.Value("${app.attachments.maxMb:25}")
     private int maxAttachmentMb;
     private long maxBytes(){ return (long)maxAttachmentMb * 1024L * 1024L; }
 
-    public NotificationService(NotificationRepository notificationRepository, UserRepository userRepository, GroupRepository groupRepository, ClubRepository clubRepository, EmailService emailService, PushSubscriptionRepository pushRepo, PushService pushService, com.traininginsights.repository.AttachmentRepository attachmentRepository){
+    public NotificationService(NotificationRepository notificationRepository, UserRepository userRepository, GroupRepository groupRepository, ClubRepository clubRepository, EmailService emailService, MailQueue mailQueue, PushSubscriptionRepository pushRepo, NotificationOutboxService outbox, com.traininginsights.repository.AttachmentRepository attachmentRepository, PlatformTransactionManager txManager, jakarta.persistence.EntityManager em){
         this.notificationRepository = notificationRepository;
         this.userRepository = userRepository;
         this.groupRepository = groupRepository;
         this.clubRepository = clubRepository;
         this.emailService = emailService;
+        this.mailQueue = mailQueue;
         this.pushRepo = pushRepo;
-        this.pushService = pushService;
+        this.outbox = outbox;
+        this.tx = new TransactionTemplate(txManager);
+        this.em = em;
         this.attachmentRepository = attachmentRepository;
     }
 
+    @Transactional
     public Notification createNotificationToUser(Long senderId, Long recipientId, String title, String body){
         User s = userRepository.findById(senderId).orElseThrow();
         User r = userRepository.findById(recipientId).orElseThrow();
         Notification n = new Notification(); n.setSender(s); n.setRecipient(r); n.setTitle(title); n.setBody(body);
         Notification saved = notificationRepository.save(n);
-        // attempt to send web-push to user's subscriptions
-        try {
-            var subs = pushRepo.findByUser(r);
-            for (var sub : subs){
-                try {
-                    pushService.sendNotification(sub, title, body, "/dashboard/notifications");
-                    saved.setDispatched(true);
-                    saved.setSentAt(Instant.now());
-                    notificationRepository.save(saved);
-                } catch (Exception ignored) { }
-            }
-        } catch (Exception ignored) {}
+        // pending pushes commit with the notification; the outbox worker delivers them and marks it dispatched
+        outbox.enqueuePush(saved.getId(), pushRepo.findByUser(r), title, body, "/dashboard/notifications");
         return saved;
     }
 
     // create a system notification (no sender) and attempt push
+    @Transactional
     public Notification createSystemNotificationForUser(Long recipientId, String title, String body){
         User r = userRepository.findById(recipientId).orElseThrow();
         Notification n = new Notification(); n.setRecipient(r); n.setTitle(title); n.setBody(body);
         Notification saved = notificationRepository.save(n);
-        try {
-            var subs = pushRepo.findByUser(r);
-            for (var sub : subs){
-                try {
-                    pushService.sendNotification(sub, title, body, "/dashboard/notifications");
-                    saved.setDispatched(true);
-                    saved.setSentAt(Instant.now());
-                    notificationRepository.save(saved);
-                } catch (Exception ignored) { }
-            }
-        } catch (Exception ignored) {}
+        // pending pushes commit with the notification; the outbox worker delivers them and marks it dispatched
+        outbox.enqueuePush(saved.getId(), pushRepo.findByUser(r), title, body, "/dashboard/notifications");
         return saved;
     }
 
     // convenience for training/questionnaire-context notifications
+    @Transactional
     public Notification createSystemNotificationForUser(Long recipientId, String title, String body, Long trainingId, Long questionnaireId){
         User r = userRepository.findById(recipientId).orElseThrow();
         Notification n = new Notification(); n.setRecipient(r); n.setTitle(title); n.setBody(body); n.setTrainingId(trainingId); n.setQuestionnaireId(questionnaireId);
         Notification saved = notificationRepository.save(n);
-        try {
-            var subs = pushRepo.findByUser(r);
-            for (var sub : subs){
-                try {
-                    pushService.sendNotification(sub, title, body, "/dashboard/notifications");
-                    saved.setDispatched(true);
-                    saved.setSentAt(Instant.now());
-                    notificationRepository.save(saved);
-                } catch (Exception ignored) { }
-            }
-        } catch (Exception ignored) {}
+        // pending pushes commit with the notification; the outbox worker delivers them and marks it dispatched
+        outbox.enqueuePush(saved.getId(), pushRepo.findByUser(r), title, body, "/dashboard/notifications");
+        return saved;
+    }
+
+    /**
+     * Same as createSystemNotificationForUser for many recipients: users and push subscriptions are loaded in one
+     * query each and the notifications are saved together with their outbox rows.
+     */
+    @Transactional
+    public List<Notification> createSystemNotificationsForUsers(java.util.Collection<Long> recipientIds, String title, String body, Long trainingId, Long questionnaireId){
+        if (recipientIds.isEmpty()) return List.of();
+        List<Notification> created = new ArrayList<>();
+        for (User r : userRepository.findAllById(recipientIds)){
+            Notification n = new Notification(); n.setRecipient(r); n.setTitle(title); n.setBody(body); n.setTrainingId(trainingId); n.setQuestionnaireId(questionnaireId);
+            created.add(n);
+        }
+        List<Notification> saved = notificationRepository.saveAll(created);
+        java.util.Map<Long, Long> notificationByUser = new java.util.HashMap<>();
+        for (Notification n : saved) notificationByUser.put(n.getRecipient().getId(), n.getId());
+        outbox.enqueuePush(subscriptionsByNotification(notificationByUser), title, body, "/dashboard/notifications");
         return saved;
     }
 
@@ -102,13 +105,13 @@ public class NotificationService {
         public Long recipientId;
         public String email;
         public Long notificationId;
-        public boolean dispatched;
+        public boolean dispatched; // push queued in the outbox for at least one of the recipient's subscriptions
         public String error;
         // additional context
         public Long targetId;
         public String targetType; // "club" or "group"
         public boolean emailAttempted; // whether this recipient was part of an email batch attempt
-        public boolean emailSent; // set true if batch email send succeeded
+        public boolean emailQueued; // set true once the recipient's BCC chunk is queued; delivery is stamped on the notification (emailedAt)
 
         public SendResult(Long recipientId, String email, Long notificationId, boolean dispatched, String error, Long targetId, String targetType){
             this.recipientId = recipientId; this.email = email; this.notificationId = notificationId; this.dispatched = dispatched; this.error = error;
@@ -120,81 +123,27 @@ public class NotificationService {
         String mode = (channel == null || channel.isBlank()) ? "notification" : channel.toLowerCase();
         Club c = clubRepository.findById(clubId).orElseThrow();
         User sender = userRepository.findById(senderId).orElseThrow();
-        List<SendResult> results = new ArrayList<>();
-    // Collect emails for potential BCC batch send if mode includes email
+        boolean wantsEmail = mode.equals("email") || mode.equals("both");
+        boolean wantsNotification = mode.equals("notification") || mode.equals("both");
+        // members, notifications and queued pushes in one transaction: the broadcast is stored completely or not at all
+        List<SendResult> results = tx.execute(st -> broadcast(sender, userRepository.findClubRecipients(clubId), c, null, title, body, wantsNotification, clubId, "club"));
+        // Collect emails for the BCC chunks if mode includes email
         List<String> bccEmails = new ArrayList<>();
-        // For each user in the club, persist a notification and optionally send email
-        for (User u : userRepository.findAll()){
-            boolean member = u.getClubs().stream().anyMatch(cl->cl.getId().equals(clubId));
-            if (!member) continue;
-            Notification n = new Notification(); n.setSender(sender); n.setRecipient(u); n.setClub(c); n.setTitle(title); n.setBody(body);
-            try{
-                boolean anyDispatched = false;
-                boolean wantsEmail = mode.equals("email") || mode.equals("both");
-                boolean wantsNotification = mode.equals("notification") || mode.equals("both");
-                boolean emailEligible = wantsEmail && c.getSmtpHost() != null && u.getEmail() != null;
-                if (emailEligible) { bccEmails.add(u.getEmail()); }
-                Notification saved = notificationRepository.save(n);
-                if (wantsNotification){
-                    // attempt web-push for notification mode
-                    try {
-                        var subs = pushRepo.findByUser(u);
-                        for (var sub : subs){
-                            try { pushService.sendNotification(sub, title, body, "/dashboard/notifications"); anyDispatched = true; } catch (Exception ignored) {}
-                        }
-                    } catch (Exception ignored) {}
-                }
-                if (anyDispatched){ saved.setDispatched(true); saved.setSentAt(java.time.Instant.now()); notificationRepository.save(saved); }
-                SendResult sr = new SendResult(u.getId(), u.getEmail(), saved.getId(), saved.isDispatched(), null, clubId, "club");
-                sr.emailAttempted = emailEligible; // mark intent, will set emailSent after batch
-                results.add(sr);
-            }catch(Exception ex){
-                // save failure as notification with error (do not throw, continue)
-                Notification saved = notificationRepository.save(n);
-                SendResult sr = new SendResult(u.getId(), u.getEmail(), saved.getId(), saved.isDispatched(), ex.getMessage(), clubId, "club");
-                results.add(sr);
-                log.warn("Failed creating notification for club recipient {}: {}", u.getId(), ex.getMessage());
-            }
+        for (SendResult r : results){
+            r.emailAttempted = wantsEmail && c.getSmtpHost() != null && r.email != null; // mark intent, will set emailQueued once queued
+            if (r.emailAttempted) bccEmails.add(r.email);
         }
-        // Perform single BCC send if emails collected
+        // Queue the BCC chunks if emails collected; the sender's summary follows once they are done
         if (!bccEmails.isEmpty()) {
-            try {
-                // Gather attachments (same for all notifications created in this batch: choose those attached to first notification)
-                List<java.io.File> attachFiles = new ArrayList<>();
-                var first = results.stream().findFirst();
-                if (first.isPresent()) {
-                    Notification firstNotif = notificationRepository.findById(first.get().notificationId).orElse(null);
-                    if (firstNotif != null) {
-                        var atts = attachmentRepository.findByNotification(firstNotif);
-                        long total = 0L;
-                        final long MAX_TOTAL = maxBytes(); // configurable total cap
-                        final long MAX_SINGLE = maxBytes(); // configurable per-file cap
-                        for (var a : atts){
-                            if (a.getPath()==null) continue;
-                            java.io.File f = new java.io.File(a.getPath());
-                            if (!f.exists()) continue;
-                            long len = f.length();
-                            if (len > MAX_SINGLE) { log.warn("Skipping attachment {} (>{}MB)", a.getId(), maxAttachmentMb); continue; }
-                            if (total + len > MAX_TOTAL) { log.warn("Skipping attachment {} due to total cap {}MB", a.getId(), maxAttachmentMb); continue; }
-                            attachFiles.add(f); total += len;
-                        }
-                    }
-                }
-                boolean sent;
-                if (attachFiles.isEmpty()) {
-                    sent = emailService.sendBccMail(c, bccEmails, title, body);
-                } else {
-                    sent = emailService.sendBccMailWithAttachments(c, bccEmails, title, body, attachFiles);
-                }
-                if (sent){ for (SendResult r : results){ if (r.emailAttempted) r.emailSent = true; } }
-            } catch (Exception ex){ log.warn("Club batch email send failed: {}", ex.getMessage()); }
-            // Sender summary email (only if sender has an email and club SMTP configured)
-            if (sender.getEmail() != null && c.getSmtpHost() != null){
+            String senderEmail = sender.getEmail();
+            sendBroadcastEmail(c, results, bccEmails, title, body, "Club " + clubId, delivered -> {
+                // Sender summary email (only if sender has an email and club SMTP configured)
+                if (senderEmail == null || c.getSmtpHost() == null) return;
                 try {
-                    String summary = buildSummaryBody(title, body, results, bccEmails, "Club: " + c.getName(), mode);
-                    emailService.sendSimpleMail(c, sender.getEmail(), "Summary: notification email to club " + c.getName(), summary);
-                } catch (Exception ex) { log.warn("Failed sending summary email to sender {}: {}", sender.getId(), ex.getMessage()); }
-            }
+                    String summary = buildSummaryBody(title, body, results, bccEmails, delivered, "Club: " + c.getName(), mode);
+                    emailService.sendSimpleMail(c, senderEmail, "Summary: notification email to club " + c.getName(), summary);
+                } catch (Exception ex) { log.warn("Failed sending summary email to sender {}: {}", senderId, ex.getMessage()); }
+            });
         } else if (mode.contains("email")) {
             log.info("Notification send requested with email channel for club {} but no eligible email recipients (SMTP host present? {} )", clubId, c.getSmtpHost()!=null);
         }
@@ -205,85 +154,145 @@ public class NotificationService {
         String mode = (channel == null || channel.isBlank()) ? "notification" : channel.toLowerCase();
         Group g = groupRepository.findById(groupId).orElseThrow();
         User sender = userRepository.findById(senderId).orElseThrow();
-        List<SendResult> results = new ArrayList<>();
-    List<String> bccEmails = new ArrayList<>();
-        for (User u : g.getAthletes()){
-            Notification n = new Notification(); n.setSender(sender); n.setRecipient(u); n.setGroup(g); n.setTitle(title); n.setBody(body);
-            Club smtpClub = g.getClubs().stream().filter(cl->cl.getSmtpHost()!=null).findFirst().orElse(null);
-            try{
-                boolean anyDispatched = false;
-                boolean wantsEmail = mode.equals("email") || mode.equals("both");
-                boolean wantsNotification = mode.equals("notification") || mode.equals("both");
-                boolean emailEligible = wantsEmail && smtpClub != null && u.getEmail() != null;
-                if (emailEligible){ bccEmails.add(u.getEmail()); }
-                Notification saved = notificationRepository.save(n);
-                if (wantsNotification){
-                    try {
-                        var subs = pushRepo.findByUser(u);
-                        for (var sub : subs){ try { pushService.sendNotification(sub, title, body, "/dashboard/notifications"); anyDispatched = true; } catch (Exception ignored){} }
-                    } catch (Exception ignored) {}
-                }
-                if (anyDispatched){ saved.setDispatched(true); saved.setSentAt(java.time.Instant.now()); notificationRepository.save(saved); }
-                SendResult sr = new SendResult(u.getId(), u.getEmail(), saved.getId(), saved.isDispatched(), null, groupId, "group");
-                sr.emailAttempted = emailEligible;
-                results.add(sr);
-            }catch(Exception ex){
-                Notification saved = notificationRepository.save(n);
-                SendResult sr = new SendResult(u.getId(), u.getEmail(), saved.getId(), saved.isDispatched(), ex.getMessage(), groupId, "group");
-                results.add(sr);
-                log.warn("Failed creating notification for group recipient {}: {}", u.getId(), ex.getMessage());
-            }
+        boolean wantsEmail = mode.equals("email") || mode.equals("both");
+        boolean wantsNotification = mode.equals("notification") || mode.equals("both");
+        Club emailClub = g.getClubs().stream().filter(cl->cl.getSmtpHost()!=null).findFirst().orElse(null);
+        List<SendResult> results = tx.execute(st -> broadcast(sender, userRepository.findGroupRecipients(groupId), null, g, title, body, wantsNotification, groupId, "group"));
+        List<String> bccEmails = new ArrayList<>();
+        for (SendResult r : results){
+            r.emailAttempted = wantsEmail && emailClub != null && r.email != null;
+            if (r.emailAttempted) bccEmails.add(r.email);
         }
         if (!bccEmails.isEmpty()) {
-            try {
-                Club smtpClub = g.getClubs().stream().filter(cl->cl.getSmtpHost()!=null).findFirst().orElse(null);
-                List<java.io.File> attachFiles = new ArrayList<>();
-                var first = results.stream().findFirst();
-                if (first.isPresent()) {
-                    Notification firstNotif = notificationRepository.findById(first.get().notificationId).orElse(null);
-                    if (firstNotif != null) {
-                        var atts = attachmentRepository.findByNotification(firstNotif);
-                        long total = 0L;
-                        final long MAX_TOTAL = maxBytes();
-                        final long MAX_SINGLE = maxBytes();
-                        for (var a : atts){
-                            if (a.getPath()==null) continue;
-                            java.io.File f = new java.io.File(a.getPath());
-                            if (!f.exists()) continue;
-                            long len = f.length();
-                            if (len > MAX_SINGLE) { log.warn("Skipping attachment {} (>{}MB)", a.getId(), maxAttachmentMb); continue; }
-                            if (total + len > MAX_TOTAL) { log.warn("Skipping attachment {} due to total cap {}MB", a.getId(), maxAttachmentMb); continue; }
-                            attachFiles.add(f); total += len;
-                        }
-                    }
-                }
-                boolean sent;
-                if (attachFiles.isEmpty()) {
-                    sent = emailService.sendBccMail(smtpClub, bccEmails, title, body);
-                } else {
-                    sent = emailService.sendBccMailWithAttachments(smtpClub, bccEmails, title, body, attachFiles);
-                }
-                if (sent){ for (SendResult r : results){ if (r.emailAttempted) r.emailSent = true; } }
-            } catch(Exception ex){ log.warn("Group batch email send failed: {}", ex.getMessage()); }
-            Club smtpClub = g.getClubs().stream().filter(cl->cl.getSmtpHost()!=null).findFirst().orElse(null);
-            if (smtpClub != null && sender.getEmail() != null){
+            String senderEmail = sender.getEmail();
+            String groupName = g.getName();
+            sendBroadcastEmail(emailClub, results, bccEmails, title, body, "Group " + groupId, delivered -> {
+                if (emailClub == null || senderEmail == null) return;
                 try {
-                    String summary = buildSummaryBody(title, body, results, bccEmails, "Group: " + g.getName(), mode);
-                    emailService.sendSimpleMail(smtpClub, sender.getEmail(), "Summary: notification email to group " + g.getName(), summary);
-                } catch (Exception ex){ log.warn("Failed sending summary email to sender {}: {}", sender.getId(), ex.getMessage()); }
-            }
+                    String summary = buildSummaryBody(title, body, results, bccEmails, delivered, "Group: " + groupName, mode);
+                    emailService.sendSimpleMail(emailClub, senderEmail, "Summary: notification email to group " + groupName, summary);
+                } catch (Exception ex){ log.warn("Failed sending summary email to sender {}: {}", senderId, ex.getMessage()); }
+            });
         } else if (mode.contains("email")) {
             log.info("Notification send requested with email channel for group {} but no eligible email recipients (group SMTP club present?).", groupId);
         }
         return results;
     }
 
+    /**
+     * Queue the broadcast email on the MailQueue (BCC chunks, per-club rate limit) and return; recipients of queued
+     * chunks get emailQueued. EmailService records every sent chunk in the email log, and the notifications of its
+     * recipients get emailedAt, which the sender reads through /api/notifications/email-status. Once all chunks are
+     * done the outcome is logged and onDone gets the delivered addresses, on the mail worker that finished last.
+     */
+    private void sendBroadcastEmail(Club smtpClub, List<SendResult> results, List<String> bccEmails, String title, String body, String scope, java.util.function.Consumer<java.util.Set<String>> onDone){
+        List<java.util.concurrent.CompletableFuture<List<String>>> chunks;
+        try {
+            chunks = mailQueue.submitBcc(smtpClub, bccEmails, title, body, broadcastAttachments(results));
+        } catch (Exception ex){ log.warn("{} batch email send failed: {}", scope, ex.getMessage()); return; }
+        for (SendResult r : results){ if (r.emailAttempted) r.emailQueued = true; }
+        for (var chunk : chunks) chunk.thenAccept(sent -> markEmailed(results, sent, scope));
+        java.util.concurrent.CompletableFuture.allOf(chunks.toArray(new java.util.concurrent.CompletableFuture<?>[0])).whenComplete((done, error) -> {
+            java.util.Set<String> delivered = new java.util.HashSet<>();
+            int failed = 0;
+            // chunk futures complete with an empty list on failure, never exceptionally
+            for (var chunk : chunks){
+                List<String> sent = chunk.getNow(List.of());
+                if (sent.isEmpty()) failed++;
+                delivered.addAll(sent);
+            }
+            if (failed > 0) log.warn("{} email: {} of {} chunks failed", scope, failed, chunks.size());
+            else log.info("{} email: {} chunk(s) sent to {} recipient(s)", scope, chunks.size(), delivered.size());
+            try {
+                onDone.accept(delivered);
+            } catch (Exception ex){ log.warn("{} email: completion handler failed: {}", scope, ex.getMessage()); }
+        });
+    }
+
+    // stamp the notifications of a sent chunk's recipients
+    private void markEmailed(List<SendResult> results, List<String> sent, String scope){
+        if (sent.isEmpty()) return;
+        java.util.Set<String> addresses = new java.util.HashSet<>(sent);
+        List<Long> ids = results.stream().filter(r -> r.emailAttempted && r.notificationId != null && addresses.contains(r.email)).map(r -> r.notificationId).toList();
+        try {
+            if (!ids.isEmpty()) notificationRepository.markEmailed(ids, Instant.now());
+        } catch (Exception ex){ log.warn("{} email: recording delivery of {} recipient(s) failed: {}", scope, ids.size(), ex.getMessage()); }
+    }
+
+    /** Email delivery of the given notifications, limited to those the sender created (ids of other senders are left out). */
+    public List<NotificationRepository.EmailStatus> emailStatus(Long senderId, java.util.Collection<Long> notificationIds){
+        if (notificationIds == null || notificationIds.isEmpty()) return List.of();
+        return notificationRepository.findEmailStatus(senderId, notificationIds);
+    }
+
+    // Attachments of the first notification of the batch (all notifications of a broadcast share them), within the size caps
+    private List<java.io.File> broadcastAttachments(List<SendResult> results){
+        List<java.io.File> attachFiles = new ArrayList<>();
+        var first = results.stream().findFirst();
+        if (first.isEmpty()) return attachFiles;
+        Notification firstNotif = notificationRepository.findById(first.get().notificationId).orElse(null);
+        if (firstNotif == null) return attachFiles;
+        var atts = attachmentRepository.findByNotification(firstNotif);
+        long total = 0L;
+        final long MAX_TOTAL = maxBytes(); // configurable total cap
+        final long MAX_SINGLE = maxBytes(); // configurable per-file cap
+        for (var a : atts){
+            if (a.getPath()==null) continue;
+            java.io.File f = new java.io.File(a.getPath());
+            if (!f.exists()) continue;
+            long len = f.length();
+            if (len > MAX_SINGLE) { log.warn("Skipping attachment {} (>{}MB)", a.getId(), maxAttachmentMb); continue; }
+            if (total + len > MAX_TOTAL) { log.warn("Skipping attachment {} due to total cap {}MB", a.getId(), maxAttachmentMb); continue; }
+            attachFiles.add(f); total += len;
+        }
+        return attachFiles;
+    }
+
+    /**
+     * One notification per recipient, written by a single insert ... select from unnest(recipient ids) (IDENTITY ids
+     * rule out Hibernate batching), plus their outbox rows when push is wanted. Runs in the caller's transaction.
+     */
+    private List<SendResult> broadcast(User sender, List<UserRepository.RecipientRow> recipients, Club club, Group group, String title, String body, boolean wantsPush, Long targetId, String targetType){
+        List<SendResult> results = new ArrayList<>();
+        if (recipients.isEmpty()) return results;
+        java.util.Map<Long, Long> notificationByUser = new java.util.HashMap<>();
+        List<Long> recipientIds = recipients.stream().map(UserRepository.RecipientRow::getId).toList();
+        Instant now = Instant.now();
+        // one statement for all recipients: the recipient ids travel as a single array parameter
+        var q = em.createNativeQuery("insert into notification (sender_id, recipient_id, club_id, group_id, title, body, created_at, is_read, dispatched) "
+                + "select :sender, r, :club, :group, :title, :body, :now, false, false from unnest(cast(:recipients as bigint[])) as r returning recipient_id, id");
+        q.setParameter("sender", sender.getId());
+        q.setParameter("club", club != null ? club.getId() : null);
+        q.setParameter("group", group != null ? group.getId() : null);
+        q.setParameter("title", title);
+        q.setParameter("body", body);
+        q.setParameter("now", now);
+        q.setParameter("recipients", recipientIds.toArray(new Long[0]));
+        for (Object o : q.getResultList()){ Object[] row = (Object[]) o; notificationByUser.put(((Number) row[0]).longValue(), ((Number) row[1]).longValue()); }
+        java.util.Set<Long> queued = wantsPush
+                ? outbox.enqueuePush(subscriptionsByNotification(notificationByUser), title, body, "/dashboard/notifications")
+                : java.util.Set.of();
+        for (UserRepository.RecipientRow r : recipients){
+            Long notificationId = notificationByUser.get(r.getId());
+            results.add(new SendResult(r.getId(), r.getEmail(), notificationId, queued.contains(notificationId), null, targetId, targetType));
+        }
+        return results;
+    }
+
+    // notificationId -> push subscription ids of its recipient, from recipientId -> notificationId
+    private java.util.Map<Long, List<Long>> subscriptionsByNotification(java.util.Map<Long, Long> notificationByUser){
+        java.util.Map<Long, List<Long>> out = new java.util.HashMap<>();
+        if (notificationByUser.isEmpty()) return out;
+        for (var s : pushRepo.findIdsByUserIds(notificationByUser.keySet())){
+            out.computeIfAbsent(notificationByUser.get(s.getUserId()), k -> new ArrayList<>()).add(s.getId());
+        }
+        return out;
+    }
+
     // Dispatch stored notifications (optional): send emails for notifications linked to a club if SMTP is configured
     public void dispatchStoredNotifications(){
-        List<Notification> all = notificationRepository.findAll();
-        for (Notification n : all){
-            if (n.isDispatched()) continue; // already sent
-            if (n.getClub() != null && n.getRecipient() != null && n.getRecipient().getEmail() != null){
+        for (Notification n : notificationRepository.findUndispatchedClubNotifications()){
+            if (n.getRecipient().getEmail() != null){
                 boolean sent = emailService.sendSimpleMail(n.getClub(), n.getRecipient().getEmail(), n.getTitle(), n.getBody());
                 if (sent){ n.setDispatched(true); n.setSentAt(java.time.Instant.now()); notificationRepository.save(n); }
             }
@@ -305,7 +314,7 @@ public class NotificationService {
     }
 
     // Build a textual summary for sender
-    private String buildSummaryBody(String title, String body, List<SendResult> results, List<String> bccEmails, String scopeLabel, String mode){
+    private String buildSummaryBody(String title, String body, List<SendResult> results, List<String> bccEmails, java.util.Set<String> delivered, String scopeLabel, String mode){
         StringBuilder sb = new StringBuilder();
         sb.append(scopeLabel).append("\n");
         sb.append("Channel: ").append(mode).append("\n");
@@ -315,7 +324,8 @@ public class NotificationService {
         long pushCount = results.stream().filter(r->r.dispatched).count();
         sb.append("Total recipients: ").append(results.size()).append("\n");
         sb.append("Email recipients: ").append(bccEmails.size()).append("\n");
-        sb.append("Push dispatched (at least one subscription succeeded): ").append(pushCount).append("\n\n");
+        sb.append("Email delivered: ").append(delivered.size()).append(" of ").append(new java.util.HashSet<>(bccEmails).size()).append("\n");
+        sb.append("Push queued (recipients with at least one subscription): ").append(pushCount).append("\n\n");
         sb.append("Email recipient list:\n");
         java.util.LinkedHashSet<String> uniq = new java.util.LinkedHashSet<>(bccEmails);
         int limit = 500; // safety
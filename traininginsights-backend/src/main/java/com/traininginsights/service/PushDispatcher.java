@@ -0,0 +1,134 @@
+package com.traininginsights.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Outbound web-push transport. Messages are delivered by the pushExecutor workers, with at most perHost concurrent
+ * sends to one push service host (fcm.googleapis.com, updates.push.services.mozilla.com, ...); further messages for a
+ * busy host wait in its FIFO queue and the next one starts when a send to that host finishes. Every message ends in
+ * exactly one callback with the delivery result; retries and bookkeeping belong to the caller (NotificationOutboxService).
+ * Messages between send and their callback are in flight; callers keep that under maxInFlight with capacity(), so a
+ * message does not wait behind thousands of others for a busy host.
+ */
+@Service
+public class PushDispatcher {
+    private static final Logger log = LoggerFactory.getLogger(PushDispatcher.class);
+    // reported when the message could not be handed to a worker; retryable like a network error
+    private static final PushService.Delivery NOT_SENT = new PushService.Delivery(-1, null);
+
+    // subscription fields copied out of the persistence context, so workers do not touch managed entities
+    public record Message(Long subscriptionId, String endpoint, String keys, String payload) {
+        String host(){
+            try {
+                String h = java.net.URI.create(endpoint).getHost();
+                return h == null ? "" : h;
+            } catch (Exception e){
+                return "";
+            }
+        }
+    }
+
+    private final PushService pushService;
+    private final AsyncTaskExecutor executor;
+    private final int perHost;
+    private final int maxInFlight;
+    private final java.util.concurrent.atomic.AtomicInteger inFlight = new java.util.concurrent.atomic.AtomicInteger();
+    private final ConcurrentHashMap<String, Host> hosts = new ConcurrentHashMap<>();
+
+    private record Pending(Message message, Consumer<PushService.Delivery> onResult) {}
+
+    // sends running against one host and the messages waiting for it, in arrival order; guarded by the instance
+    private static final class Host {
+        int running;
+        final java.util.ArrayDeque<Pending> waiting = new java.util.ArrayDeque<>();
+    }
+
+    public PushDispatcher(PushService pushService, @Qualifier("pushExecutor") AsyncTaskExecutor executor, @Value("${app.push.perHost:2}") int perHost, @Value("${app.push.maxInFlight:500}") int maxInFlight){
+        this.pushService = pushService;
+        this.executor = executor;
+        this.perHost = Math.max(1, perHost);
+        this.maxInFlight = Math.max(1, maxInFlight);
+    }
+
+    /** Messages that can be sent before maxInFlight is reached. */
+    public int capacity(){
+        return Math.max(0, maxInFlight - inFlight.get());
+    }
+
+    public int maxInFlight(){ return maxInFlight; }
+
+    /** Send one message on a worker; onResult runs on the worker (or inline when the queue is full). */
+    public void send(Message m, Consumer<PushService.Delivery> onResult){
+        inFlight.incrementAndGet();
+        Host host = hosts.computeIfAbsent(m.host(), h -> new Host());
+        Pending p = new Pending(m, onResult);
+        synchronized (host){
+            if (host.running >= perHost){
+                host.waiting.add(p);
+                return;
+            }
+            host.running++;
+        }
+        start(host, p);
+    }
+
+    // hand a message that holds one of its host's slots to a worker
+    private void start(Host host, Pending first){
+        for (Pending p = first; p != null; ){
+            Pending started = p;
+            try {
+                executor.execute(() -> attempt(host, started));
+                return;
+            } catch (TaskRejectedException ex){
+                log.warn("Push queue is full, deferring push to subscription {}", p.message().subscriptionId());
+                complete(p, NOT_SENT);
+                p = release(host);
+            }
+        }
+    }
+
+    private void attempt(Host host, Pending p){
+        Message m = p.message();
+        PushService.Delivery result = NOT_SENT;
+        try {
+            com.traininginsights.model.PushSubscription s = new com.traininginsights.model.PushSubscription();
+            s.setId(m.subscriptionId());
+            s.setEndpoint(m.endpoint());
+            s.setKeys(m.keys());
+            result = pushService.deliver(s, m.payload());
+        } catch (Exception ex){
+            // reported as NOT_SENT
+        } finally {
+            Pending next = release(host);
+            complete(p, result);
+            start(host, next);
+        }
+    }
+
+    // a send to the host finished: its slot passes to the longest waiting message, if any
+    private Pending release(Host host){
+        synchronized (host){
+            Pending next = host.waiting.poll();
+            if (next == null) host.running--;
+            return next;
+        }
+    }
+
+    private void complete(Pending p, PushService.Delivery result){
+        inFlight.decrementAndGet();
+        try {
+            p.onResult().accept(result);
+        } catch (Exception ex){
+            log.warn("Push result handler failed for subscription {}: {}", p.message().subscriptionId(), ex.getMessage());
+        }
+    }
+}
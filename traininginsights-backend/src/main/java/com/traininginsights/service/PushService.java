@@ -14,15 +14,27 @@ import org.springframework.stereotype.Service;
 
 import java.security.Security;
 
+/**
+ * Web-push sending. The VAPID keys (latest push_configs row, else the vapid.* properties) and the web-push client
+ * built from them are held in an immutable snapshot that is loaded once and replaced only through invalidate(),
+ * which PushConfigController and the backup restore call after changing the stored config.
+ */
 @Service
 public class PushService {
     private final PushSubscriptionRepository repo;
-    private String vapidPublic;
-    private String vapidPrivate;
-    private String vapidSubject;
+    private final String envPublic;
+    private final String envPrivate;
+    private final String envSubject;
     private final PushConfigRepository configRepo;
     private final ObjectMapper mapper = new ObjectMapper();
 
+    // client is null when keys are missing or cannot be parsed (sends are then logged only)
+    private record Vapid(long version, String publicKey, String privateKey, String subject, nl.martijndwars.webpush.PushService client) {
+        boolean configured(){ return client != null; }
+    }
+    private final java.util.concurrent.atomic.AtomicLong version = new java.util.concurrent.atomic.AtomicLong();
+    private volatile Vapid vapid;
+
     public PushService(PushSubscriptionRepository repo,
                        PushConfigRepository configRepo,
                        @Value("${vapid.public:}") String vapidPublic,
@@ -30,44 +42,96 @@ public class PushService {
                        @Value("${vapid.subject:mailto:admin@localhost}") String vapidSubject){
         this.repo = repo;
         this.configRepo = configRepo;
-        this.vapidPublic = vapidPublic;
-        this.vapidPrivate = vapidPrivate;
-        this.vapidSubject = vapidSubject;
+        this.envPublic = vapidPublic;
+        this.envPrivate = vapidPrivate;
+        this.envSubject = vapidSubject;
         // Ensure BouncyCastle provider is registered for EC crypto used by web-push (safe to call multiple times)
         if (Security.getProvider(BouncyCastleProvider.PROVIDER_NAME) == null) {
             Security.addProvider(new BouncyCastleProvider());
         }
-        // If env not set, attempt an initial read from DB
-        refreshFromDbIfMissing();
     }
 
-    private void refreshFromDbIfMissing(){
-        // Prefer DB as the single source of truth when present
-        try {
-            var opt = configRepo.findTopByOrderByIdDesc();
-            if (opt.isPresent()){
-                PushConfig c = opt.get();
-                this.vapidPublic = c.getVapidPublic();
-                this.vapidPrivate = c.getVapidPrivate();
-                this.vapidSubject = (c.getSubject()==null || c.getSubject().isBlank()) ? this.vapidSubject : c.getSubject();
+    /**
+     * Drop the VAPID snapshot; the next send or key lookup reloads it from the database. Inside a transaction the
+     * snapshot is dropped again after commit, so a load that ran before the commit is not kept.
+     */
+    public void invalidate(){
+        version.incrementAndGet();
+        vapid = null;
+        if (org.springframework.transaction.support.TransactionSynchronizationManager.isSynchronizationActive()){
+            org.springframework.transaction.support.TransactionSynchronizationManager.registerSynchronization(new org.springframework.transaction.support.TransactionSynchronization(){
+                @Override
+                public void afterCommit(){
+                    version.incrementAndGet();
+                    vapid = null;
+                }
+            });
+        }
+    }
+
+    private Vapid vapid(){
+        Vapid v = vapid;
+        if (v != null) return v;
+        synchronized (this){
+            if (vapid != null) return vapid;
+            long loading = version.get();
+            String pub = envPublic, priv = envPrivate, subject = envSubject;
+            boolean loaded = true;
+            // Prefer DB as the single source of truth when present
+            try {
+                var opt = configRepo.findTopByOrderByIdDesc();
+                if (opt.isPresent()){
+                    PushConfig c = opt.get();
+                    pub = c.getVapidPublic();
+                    priv = c.getVapidPrivate();
+                    subject = (c.getSubject()==null || c.getSubject().isBlank()) ? envSubject : c.getSubject();
+                }
+            } catch (Exception e){
+                // database unavailable: use the properties for now and try again on the next call
+                loaded = false;
             }
-        } catch (Exception ignored){}
+            nl.martijndwars.webpush.PushService client = null;
+            if (pub != null && !pub.isBlank() && priv != null && !priv.isBlank()){
+                try {
+                    // parses the EC keys once for all sends with this snapshot
+                    client = new nl.martijndwars.webpush.PushService(pub.trim(), priv.trim(), subject);
+                } catch (Exception e){
+                    System.out.println("[PushService] Invalid VAPID keys: " + e.getMessage());
+                }
+            }
+            v = new Vapid(loading, pub, priv, subject, client);
+            // an invalidate() during the load means the config changed under us; do not keep the stale snapshot
+            if (loaded && version.get() == loading) vapid = v;
+            return v;
+        }
     }
 
     public PushSubscription save(PushSubscription s){ return repo.save(s); }
     public void delete(Long id){ repo.deleteById(id); }
 
+    /**
+     * Outcome of one push: status as described for sendNotificationWithStatus, and the delay the push service asked
+     * for with Retry-After (null when absent).
+     */
+    public record Delivery(Integer status, java.time.Duration retryAfter) {
+        public boolean delivered(){ return status == null || status == 0 || (status >= 200 && status < 300); }
+        public boolean retryable(){ return status != null && (status == -1 || status == 429 || status >= 500); }
+    }
+
     /**
      * Core sender that returns an HTTP-like status code for diagnostics.
      * Returns null if VAPID keys are missing (logged-only), -1 on exception, or the provider's status code when available.
      */
     public Integer sendNotificationWithStatus(PushSubscription s, String payload){
+        return deliver(s, payload).status();
+    }
+
+    public Delivery deliver(PushSubscription s, String payload){
         try {
-            // attempt to lazily load keys if missing
-            refreshFromDbIfMissing();
-            if (vapidPublic == null || vapidPublic.isBlank() || vapidPrivate == null || vapidPrivate.isBlank()){
+            Vapid keysSnapshot = vapid();
+            if (!keysSnapshot.configured()){
                 System.out.println("[PushService] VAPID keys not configured; logging notification instead. endpoint="+s.getEndpoint()+" payload="+payload);
-                return null; // indicates log-only
+                return new Delivery(null, null); // indicates log-only
             }
 
             // parse keys JSON (expects {"p256dh":"...","auth":"..."})
@@ -76,25 +140,22 @@ public class PushService {
             String auth = node.has("auth") ? node.get("auth").asText() : null;
             if (p256dh == null || auth == null) {
                 System.out.println("[PushService] Invalid subscription keys for subscription id="+s.getId());
-                return -1;
+                // not retryable: the subscription itself is broken
+                return new Delivery(400, null);
             }
 
             Subscription.Keys keys = new Subscription.Keys(p256dh, auth);
             Subscription sub = new Subscription(s.getEndpoint(), keys);
 
-            nl.martijndwars.webpush.PushService webPush = new nl.martijndwars.webpush.PushService();
-            webPush.setSubject(vapidSubject);
-            webPush.setPublicKey(vapidPublic);
-            webPush.setPrivateKey(vapidPrivate);
-
             Notification notification = new Notification(sub, payload == null ? "" : payload);
-            var resp = webPush.send(notification);
+            var resp = keysSnapshot.client().send(notification);
             String host = null;
             try {
                 java.net.URI endpointUri = java.net.URI.create(s.getEndpoint());
                 host = endpointUri.getHost();
             } catch (Exception ignored) {}
             Integer code = null;
+            java.time.Duration retryAfterDelay = null;
             if (resp != null) {
                 code = resp.getStatusLine().getStatusCode();
                 if (code == 404 || code == 410) {
@@ -115,6 +176,7 @@ public class PushService {
                             else if ("content-type".equalsIgnoreCase(name)) contentType = h.getValue();
                         }
                     } catch (Exception ignored){}
+                    retryAfterDelay = parseRetryAfter(retryAfter);
                     String bodyStr = null;
                     try {
                         org.apache.http.HttpEntity entity = resp.getEntity();
@@ -128,13 +190,27 @@ public class PushService {
                 }
             }
             System.out.println("[PushService] Push result subId="+s.getId()+" host="+host+" status="+(code==null?"(none)":code));
-            return code == null ? 0 : code;
+            return new Delivery(code == null ? 0 : code, retryAfterDelay);
         } catch (Exception e){
             System.out.println("[PushService] Error sending push notification to subscription id="+s.getId()+" : " + e.getMessage());
-            return -1;
+            return new Delivery(-1, null);
         }
     }
 
+    // Retry-After is either delay-seconds or an HTTP-date
+    static java.time.Duration parseRetryAfter(String value){
+        if (value == null || value.isBlank()) return null;
+        try {
+            return java.time.Duration.ofSeconds(Math.max(0, Long.parseLong(value.trim())));
+        } catch (NumberFormatException ignored) {}
+        try {
+            java.time.Instant at = java.time.ZonedDateTime.parse(value.trim(), java.time.format.DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+            java.time.Duration d = java.time.Duration.between(java.time.Instant.now(), at);
+            return d.isNegative() ? java.time.Duration.ZERO : d;
+        } catch (Exception ignored) {}
+        return null;
+    }
+
     /** Compatibility wrapper without status reporting */
     public void sendNotification(PushSubscription s, String payload){
         sendNotificationWithStatus(s, payload);
@@ -144,16 +220,20 @@ public class PushService {
      * Structured payload variant: send JSON with title/body/url so the service worker can render a richer notification.
      */
     public Integer sendNotificationStatus(PushSubscription s, String title, String body, String url){
+        return sendNotificationWithStatus(s, payload(title, body, url));
+    }
+
+    /** JSON payload {title, body, url} understood by the service worker; plain text if it cannot be serialized. */
+    public String payload(String title, String body, String url){
         try {
             var obj = new java.util.LinkedHashMap<String, Object>();
             if (title != null) obj.put("title", title);
             if (body != null) obj.put("body", body);
             if (url != null && !url.isBlank()) obj.put("url", url);
-            String json = mapper.writeValueAsString(obj);
-            return sendNotificationWithStatus(s, json);
+            return mapper.writeValueAsString(obj);
         } catch (Exception e){
             // fallback to text
-            return sendNotificationWithStatus(s, (title == null ? "" : title) + "\n" + (body == null ? "" : body));
+            return (title == null ? "" : title) + "\n" + (body == null ? "" : body);
         }
     }
 
@@ -163,17 +243,20 @@ public class PushService {
     }
 
     public String getVapidPublic(){
-        refreshFromDbIfMissing();
-        return vapidPublic == null ? null : vapidPublic.trim();
+        String pub = vapid().publicKey();
+        return pub == null ? null : pub.trim();
     }
 
     public String getVapidSubject(){
-        refreshFromDbIfMissing();
-        return vapidSubject == null ? null : vapidSubject.trim();
+        String subject = vapid().subject();
+        return subject == null ? null : subject.trim();
     }
 
+    /** Version of the VAPID snapshot in use; changes after each invalidate(). */
+    public long getConfigVersion(){ return vapid().version(); }
+
     public boolean hasVapidPrivate(){
-        refreshFromDbIfMissing();
-        return vapidPrivate != null && !vapidPrivate.isBlank();
+        String priv = vapid().privateKey();
+        return priv != null && !priv.isBlank();
     }
 }
@@ -5,6 +5,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.traininginsights.model.*;
 import com.traininginsights.repository.QuestionnaireResponseRepository;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.time.Instant;
 import java.util.List;
@@ -13,9 +14,12 @@ import java.util.Optional;
 @Service
 public class QuestionnaireResponseService {
     private final QuestionnaireResponseRepository repo;
+    private final AnalyticsRollupService rollupService;
+    private final ResponseMetricService metricService;
+    private final MetricCatalogService catalogService;
     private final ObjectMapper objectMapper = new ObjectMapper();
 
-    public QuestionnaireResponseService(QuestionnaireResponseRepository repo) { this.repo = repo; }
+    public QuestionnaireResponseService(QuestionnaireResponseRepository repo, AnalyticsRollupService rollupService, ResponseMetricService metricService, MetricCatalogService catalogService) { this.repo = repo; this.rollupService = rollupService; this.metricService = metricService; this.catalogService = catalogService; }
 
     public Optional<QuestionnaireResponse> find(User user, Training training, Questionnaire questionnaire){
         return repo.findByUserAndTrainingAndQuestionnaire(user, training, questionnaire);
@@ -25,6 +29,7 @@ public class QuestionnaireResponseService {
         return repo.findByUserAndTrainingAndQuestionnaireAndPhase(user, training, questionnaire, phase);
     }
 
+    @Transactional
     public QuestionnaireResponse submit(User user, Training training, Questionnaire questionnaire, String phase, String responsesJson){
         if (phase == null) phase = "DEFAULT";
 
@@ -37,9 +42,11 @@ public class QuestionnaireResponseService {
                 java.time.LocalDate existingDate = existing.getSubmittedAt() == null ? null : java.time.LocalDate.ofInstant(existing.getSubmittedAt(), java.time.ZoneId.systemDefault());
                 java.time.LocalDate today = java.time.LocalDate.now();
                 if (existingDate != null && existingDate.equals(today)){
+                    String previousResponses = existing.getResponses();
+                    Instant previousSubmittedAt = existing.getSubmittedAt();
                     existing.setResponses(responsesJson);
                     existing.setSubmittedAt(Instant.now());
-                    return repo.save(existing);
+                    return recordRollup(repo.save(existing), previousResponses, previousSubmittedAt);
                 } else {
                     // previous submission exists but not today -> create a new one (unique constraint prevents duplicates only for same training/questionnaire/user)
                     QuestionnaireResponse qr = new QuestionnaireResponse();
@@ -49,7 +56,7 @@ public class QuestionnaireResponseService {
                     qr.setPhase(phase);
                     qr.setResponses(responsesJson);
                     qr.setSubmittedAt(Instant.now());
-                    return repo.save(qr);
+                    return recordRollup(repo.save(qr), null, null);
                 }
             } else {
                 QuestionnaireResponse qr = new QuestionnaireResponse();
@@ -59,18 +66,30 @@ public class QuestionnaireResponseService {
                 qr.setPhase(phase);
                 qr.setResponses(responsesJson);
                 qr.setSubmittedAt(Instant.now());
-                return repo.save(qr);
+                return recordRollup(repo.save(qr), null, null);
             }
         }
         // Non-daily: default behavior (upsert)
         QuestionnaireResponse qr = existingOpt.orElseGet(QuestionnaireResponse::new);
+        String previousResponses = qr.getResponses();
+        Instant previousSubmittedAt = qr.getSubmittedAt();
         qr.setUser(user);
         qr.setTraining(training);
         qr.setQuestionnaire(questionnaire);
         qr.setPhase(phase);
         qr.setResponses(responsesJson);
         qr.setSubmittedAt(Instant.now());
-        return repo.save(qr);
+        return recordRollup(repo.save(qr), previousResponses, previousSubmittedAt);
+    }
+
+    // Keep derived analytics tables in step with the written response; they commit with it (a failed statement aborts
+    // the transaction anyway, there is no savepoint to fall back to)
+    private QuestionnaireResponse recordRollup(QuestionnaireResponse saved, String previousResponses, Instant previousSubmittedAt){
+        metricService.replace(saved);
+        rollupService.onSubmitted(saved, previousResponses, previousSubmittedAt);
+        catalogService.onResponseSaved(saved, metricService.numericFields(saved.getResponses()).keySet(),
+                previousResponses == null ? null : metricService.numericFields(previousResponses).keySet());
+        return saved;
     }
 
     public double extractNumericFieldAverage(List<QuestionnaireResponse> responses, String fieldName){
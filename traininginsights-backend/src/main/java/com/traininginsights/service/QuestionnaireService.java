@@ -9,9 +9,17 @@ import java.util.List;
 @Service
 public class QuestionnaireService {
     private final QuestionnaireRepository repo;
-    public QuestionnaireService(QuestionnaireRepository repo){ this.repo = repo; }
+    private final MetricCatalogService catalogService;
+    public QuestionnaireService(QuestionnaireRepository repo, MetricCatalogService catalogService){ this.repo = repo; this.catalogService = catalogService; }
     public List<Questionnaire> all(){ return repo.findAll(); }
     public Questionnaire get(Long id){ return repo.findById(id).orElseThrow(); }
-    public Questionnaire save(Questionnaire q){ return repo.save(q); }
-    public void delete(Long id){ repo.deleteById(id); }
+    public Questionnaire save(Questionnaire q){
+        Questionnaire saved = repo.save(q);
+        catalogService.onQuestionnaireChanged(saved.getId());
+        return saved;
+    }
+    public void delete(Long id){
+        repo.deleteById(id);
+        catalogService.onQuestionnaireChanged(id);
+    }
 }
@@ -0,0 +1,204 @@
+package com.traininginsights.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.traininginsights.model.QuestionnaireResponse;
+import com.traininginsights.repository.AnalyticsStateRepository;
+import com.traininginsights.repository.QuestionnaireResponseRepository;
+import com.traininginsights.repository.ResponseMetricRepository;
+import jakarta.persistence.EntityManager;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maintains response_metrics: one typed row per numeric top-level field of each questionnaire response.
+ * Written on submit in the transaction of the response, backfilled by ResponseMetricBackfillScheduler while the
+ * persisted analytics_state says the table does not cover every response (before the first backfill, after a restore).
+ */
+@Service
+public class ResponseMetricService {
+    private static final java.util.regex.Pattern NUMERIC_TEXT = java.util.regex.Pattern.compile("^[+-]?[0-9]+(\\.[0-9]+)?$");
+    private static final int INSERT_CHUNK = 500;
+    private static final int BACKFILL_PAGE = 500;
+    private static final String STATE = "response_metrics";
+    private static final Class<?>[] COLUMN_TYPES = {Long.class, String.class, Double.class, Long.class, Instant.class, Long.class, String.class, Instant.class};
+
+    private final ResponseMetricRepository metricRepository;
+    private final QuestionnaireResponseRepository responseRepository;
+    private final AnalyticsStateRepository stateRepository;
+    private final EntityManager em;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    // cached analytics_state; null until first checked. Analytics only reads the table once it covers every response
+    private volatile Boolean ready;
+    // bumped on every change to the extracted data or to the group links analytics scopes and keys by; part of cached
+    // analytics result keys
+    private final java.util.concurrent.atomic.AtomicLong version = new java.util.concurrent.atomic.AtomicLong();
+
+    public ResponseMetricService(ResponseMetricRepository metricRepository, QuestionnaireResponseRepository responseRepository, AnalyticsStateRepository stateRepository, EntityManager em) {
+        this.metricRepository = metricRepository;
+        this.responseRepository = responseRepository;
+        this.stateRepository = stateRepository;
+        this.em = em;
+    }
+
+    public boolean isReady(){
+        Boolean r = ready;
+        if (r == null){
+            // without a state row the table was never backfilled; that only matters once there are responses
+            r = stateRepository.findReady(STATE).orElseGet(() -> responseRepository.count() == 0);
+            ready = r;
+        }
+        return r;
+    }
+
+    // re-read the persisted state, which another instance may have changed
+    public boolean refresh(){
+        ready = null;
+        return isReady();
+    }
+
+    /**
+     * The table no longer covers every response: analytics falls back to the response JSON until the next backfill,
+     * here and, once they refresh, on other instances and after a restart.
+     */
+    @Transactional
+    public void markStale(){
+        ready = false;
+        version.incrementAndGet();
+        stateRepository.markStale(STATE);
+    }
+
+    public long version(){ return version.get(); }
+
+    /**
+     * A training's groups, a group's clubs or an athlete's group, clubs or birth date changed: the rows stay valid,
+     * but analytics results that were scoped or keyed by them are not, so they are not served from the cache again.
+     */
+    public void onMembershipChanged(){
+        bumpVersionAfterCommit();
+    }
+
+    /**
+     * Replace the extracted metrics of a response, in the transaction that writes the response so both commit or
+     * roll back together.
+     */
+    @Transactional
+    public void replace(QuestionnaireResponse r){
+        if (r == null || r.getId() == null) return;
+        bumpVersionAfterCommit();
+        metricRepository.deleteByResponseId(r.getId());
+        List<Object[]> rows = new java.util.ArrayList<>();
+        collect(r, rows);
+        insert(rows);
+    }
+
+    /**
+     * Re-extract metrics for every response. Runs in one transaction so readers never see a partial table; concurrent
+     * backfills (other instances) run one after the other. The table is only marked ready when it was not marked
+     * stale while the backfill ran.
+     */
+    @Transactional
+    public Map<String,Object> backfill(){
+        stateRepository.lock(STATE);
+        long generation = stateRepository.findGeneration(STATE).orElse(0L);
+        metricRepository.deleteAllMetrics();
+        long responses = 0, metrics = 0;
+        int page = 0;
+        Page<QuestionnaireResponse> batch;
+        do {
+            batch = responseRepository.findAll(PageRequest.of(page++, BACKFILL_PAGE, Sort.by("id")));
+            List<Object[]> rows = new java.util.ArrayList<>();
+            for (QuestionnaireResponse r : batch.getContent()) collect(r, rows);
+            insert(rows);
+            responses += batch.getNumberOfElements();
+            metrics += rows.size();
+            em.flush();
+            em.clear();
+        } while (batch.hasNext());
+        ready = stateRepository.markReady(STATE, generation) > 0;
+        bumpVersionAfterCommit();
+        return Map.of("responses", responses, "metrics", metrics);
+    }
+
+    @Transactional
+    public void onTrainingTimeChanged(Long trainingId, Instant trainingTime){
+        if (trainingId == null || trainingTime == null) return;
+        bumpVersionAfterCommit();
+        metricRepository.updateTrainingTime(trainingId, trainingTime);
+    }
+
+    // readers that look at the version before the commit may cache the old data under the old version only
+    private void bumpVersionAfterCommit(){
+        if (!org.springframework.transaction.support.TransactionSynchronizationManager.isSynchronizationActive()){
+            version.incrementAndGet();
+            return;
+        }
+        org.springframework.transaction.support.TransactionSynchronizationManager.registerSynchronization(new org.springframework.transaction.support.TransactionSynchronization(){
+            @Override
+            public void afterCompletion(int status){ version.incrementAndGet(); }
+        });
+    }
+
+    /**
+     * Numeric top-level fields of a response payload. Accepts JSON numbers and text that looks like a plain decimal,
+     * matching the regex the JSON-based SQL aggregation used.
+     */
+    public Map<String, Double> numericFields(String json){
+        Map<String, Double> out = new java.util.LinkedHashMap<>();
+        if (json == null) return out;
+        try {
+            JsonNode node = objectMapper.readTree(json);
+            if (node == null || !node.isObject()) return out;
+            var it = node.fields();
+            while (it.hasNext()){
+                var f = it.next();
+                JsonNode v = f.getValue();
+                if (v.isNumber()) out.put(f.getKey(), v.asDouble());
+                else if (v.isTextual() && NUMERIC_TEXT.matcher(v.asText()).matches()) out.put(f.getKey(), Double.parseDouble(v.asText()));
+            }
+        } catch (Exception ignored) {}
+        return out;
+    }
+
+    private void collect(QuestionnaireResponse r, List<Object[]> rows){
+        Long trainingId = r.getTraining() != null ? r.getTraining().getId() : null;
+        Instant trainingTime = r.getTraining() != null ? r.getTraining().getTrainingTime() : null;
+        Long userId = r.getUser() != null ? r.getUser().getId() : null;
+        for (var e : numericFields(r.getResponses()).entrySet()){
+            rows.add(new Object[]{r.getId(), e.getKey(), e.getValue(), trainingId, trainingTime, userId, r.getPhase(), r.getSubmittedAt()});
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> void bind(org.hibernate.query.NativeQuery<Object> q, int position, Object value, Class<T> type){
+        q.setParameter(position, (T) value, type);
+    }
+
+    // Multi-row insert: IDENTITY ids rule out Hibernate batching, so rows are written in chunks of INSERT_CHUNK
+    private void insert(List<Object[]> rows){
+        for (int from = 0; from < rows.size(); from += INSERT_CHUNK){
+            List<Object[]> chunk = rows.subList(from, Math.min(from + INSERT_CHUNK, rows.size()));
+            StringBuilder sql = new StringBuilder("insert into response_metrics (response_id, metric, value, training_id, training_time, user_id, phase, submitted_at) values ");
+            for (int i = 0; i < chunk.size(); i++){
+                if (i > 0) sql.append(", ");
+                sql.append("(?, ?, ?, ?, ?, ?, ?, ?)");
+            }
+            // typed binding so null training/user/phase values are sent with their column type
+            @SuppressWarnings("unchecked")
+            org.hibernate.query.NativeQuery<Object> q = em.createNativeQuery(sql.toString()).unwrap(org.hibernate.query.NativeQuery.class);
+            int p = 1;
+            for (Object[] row : chunk){
+                for (int i = 0; i < row.length; i++) bind(q, p++, row[i], COLUMN_TYPES[i]);
+            }
+            q.executeUpdate();
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.traininginsights.service;
+
+import com.traininginsights.model.Club;
+import jakarta.annotation.PreDestroy;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Session;
+import jakarta.mail.Transport;
+import jakarta.mail.internet.MimeMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+
+/**
+ * Connected SMTP transports per club, so consecutive mails reuse one connection (and its TLS handshake and AUTH)
+ * instead of opening a new one per message. A transport is borrowed for one send and returned; at most maxIdle
+ * transports per club are kept, and transports unused for idleSeconds are closed. A club's pool is rebuilt when its
+ * SMTP settings differ from the ones the pool was built with, and dropped by invalidate (ClubService).
+ */
+@Component
+public class SmtpTransportPool {
+    private static final Logger log = LoggerFactory.getLogger(SmtpTransportPool.class);
+
+    private record Idle(Transport transport, long since) {}
+
+    // one club's session and idle connections, valid for exactly one set of SMTP settings
+    private static final class Pool {
+        final Settings settings;
+        final Session session;
+        final ConcurrentLinkedDeque<Idle> idle = new ConcurrentLinkedDeque<>();
+        Pool(Settings settings){ this.settings = settings; this.session = Session.getInstance(settings.properties()); }
+    }
+
+    private record Settings(String host, Integer port, String username, String password, Boolean useTls) {
+        static Settings of(Club c){ return new Settings(c.getSmtpHost(), c.getSmtpPort(), c.getSmtpUsername(), c.getSmtpPassword(), c.getSmtpUseTls()); }
+
+        Properties properties(){
+            Properties props = new Properties();
+            props.put("mail.transport.protocol", "smtp");
+            props.put("mail.smtp.host", host);
+            if (port != null) props.put("mail.smtp.port", port.toString());
+            props.put("mail.smtp.auth", username != null ? "true" : "false");
+            props.put("mail.smtp.starttls.enable", useTls == null ? "true" : useTls.toString());
+            // a pooled connection must not hang a sender forever on a dead server
+            props.put("mail.smtp.connectiontimeout", "10000");
+            props.put("mail.smtp.timeout", "30000");
+            props.put("mail.smtp.writetimeout", "30000");
+            props.put("mail.debug", "false");
+            return props;
+        }
+    }
+
+    private final ConcurrentHashMap<Long, Pool> pools = new ConcurrentHashMap<>();
+    private final long idleMillis;
+    private final int maxIdle;
+
+    public SmtpTransportPool(@Value("${app.mail.idleSeconds:60}") long idleSeconds, @Value("${app.mail.maxIdlePerClub:2}") int maxIdle){
+        this.idleMillis = idleSeconds * 1000L;
+        this.maxIdle = Math.max(0, maxIdle);
+    }
+
+    /** Empty message bound to the club's mail session. */
+    public MimeMessage createMimeMessage(Club club){
+        return new MimeMessage(pool(club).session);
+    }
+
+    /**
+     * Send on a pooled connection of the club. A reused connection that fails (the server may have closed it while
+     * idle) is discarded and the message is sent once more on a fresh one.
+     */
+    public void send(Club club, MimeMessage message) throws MessagingException {
+        Pool pool = pool(club);
+        if (message.getSentDate() == null) message.setSentDate(new java.util.Date());
+        message.saveChanges();
+        Idle reused = borrow(pool);
+        if (reused != null){
+            try {
+                reused.transport().sendMessage(message, message.getAllRecipients());
+                giveBack(club.getId(), pool, reused.transport());
+                return;
+            } catch (jakarta.mail.SendFailedException ex){
+                // recipients rejected by a working connection: resending could duplicate mail to the accepted ones
+                giveBack(club.getId(), pool, reused.transport());
+                throw ex;
+            } catch (MessagingException ex){
+                close(reused.transport());
+                log.debug("Pooled SMTP connection for club {} failed, reconnecting: {}", club.getId(), ex.getMessage());
+            }
+        }
+        Transport transport = connect(pool);
+        try {
+            transport.sendMessage(message, message.getAllRecipients());
+        } catch (MessagingException ex){
+            close(transport);
+            throw ex;
+        }
+        giveBack(club.getId(), pool, transport);
+    }
+
+    /** Close and forget the club's connections; the next send builds a new pool from the current settings. */
+    public void invalidate(Long clubId){
+        if (clubId == null) return;
+        Pool pool = pools.remove(clubId);
+        if (pool != null) closeAll(pool);
+    }
+
+    private Pool pool(Club club){
+        Settings settings = Settings.of(club);
+        if (club.getId() == null) return new Pool(settings);
+        return pools.compute(club.getId(), (id, current) -> current != null && current.settings.equals(settings) ? current : new Pool(settings));
+    }
+
+    private Idle borrow(Pool pool){
+        long now = System.currentTimeMillis();
+        Idle idle;
+        while ((idle = pool.idle.pollFirst()) != null){
+            // no NOOP probe: a stale connection shows up as a failed send, which is retried on a fresh one
+            if (now - idle.since() < idleMillis) return idle;
+            close(idle.transport());
+        }
+        return null;
+    }
+
+    private void giveBack(Long clubId, Pool pool, Transport transport){
+        // settings changed while sending, or the pool is full: do not keep the connection
+        if (clubId == null || pools.get(clubId) != pool || pool.idle.size() >= maxIdle){
+            close(transport);
+            return;
+        }
+        pool.idle.offerFirst(new Idle(transport, System.currentTimeMillis()));
+    }
+
+    private static Transport connect(Pool pool) throws MessagingException {
+        Settings s = pool.settings;
+        Transport transport = pool.session.getTransport("smtp");
+        transport.connect(s.host(), s.port() != null ? s.port() : -1, s.username(), s.password());
+        return transport;
+    }
+
+    @Scheduled(fixedDelayString = "${app.mail.evictMs:30000}")
+    public void evictIdle(){
+        long now = System.currentTimeMillis();
+        for (Pool pool : pools.values()){
+            for (Idle idle : pool.idle){
+                if (now - idle.since() >= idleMillis && pool.idle.remove(idle)) close(idle.transport());
+            }
+        }
+    }
+
+    private static void closeAll(Pool pool){
+        Idle idle;
+        while ((idle = pool.idle.pollFirst()) != null) close(idle.transport());
+    }
+
+    private static void close(Transport transport){
+        try { transport.close(); } catch (Exception ignored) {}
+    }
+
+    @PreDestroy
+    void shutdown(){
+        pools.values().forEach(SmtpTransportPool::closeAll);
+        pools.clear();
+    }
+}
@@ -35,6 +35,21 @@ public class TrainingAttendanceService {
     @Transactional(readOnly = true)
     public List<TrainingAttendance> byUser(User u){ return repo.findByUser(u); }
 
+    // trainingId -> present for one athlete, without loading the trainings
+    public java.util.Map<Long, Boolean> presenceByTraining(User u){
+        java.util.Map<Long, Boolean> out = new java.util.HashMap<>();
+        for (var row : repo.findPresenceByUserId(u.getId())) out.put(row.getTrainingId(), Boolean.TRUE.equals(row.getPresent()));
+        return out;
+    }
+
+    // Same, limited to the given trainings (one calendar page)
+    public java.util.Map<Long, Boolean> presenceByTraining(User u, java.util.Collection<Long> trainingIds){
+        java.util.Map<Long, Boolean> out = new java.util.HashMap<>();
+        if (trainingIds.isEmpty()) return out;
+        for (var row : repo.findPresenceByUserIdAndTrainingIds(u.getId(), trainingIds)) out.put(row.getTrainingId(), Boolean.TRUE.equals(row.getPresent()));
+        return out;
+    }
+
     // Presence rate per training over eligible athletes (athletes in the training's groups)
     @Transactional(readOnly = true)
     public double trainingPresenceRate(Training t){
@@ -17,20 +17,162 @@ import java.util.Set;
 
 @Service
 public class TrainingService {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(TrainingService.class);
     private final TrainingRepository repo;
     private final GroupRepository groupRepo;
     private final TrainingSeriesRepository seriesRepo;
     private final QuestionnaireRepository qRepo;
     private final com.traininginsights.repository.AttachmentRepository attachmentRepo;
+    private final ResponseMetricService metricService;
+    private final AnalyticsRollupService rollupService;
     private final String uploadsDir;
 
-    public TrainingService(TrainingRepository repo, GroupRepository groupRepo, QuestionnaireRepository qRepo, TrainingSeriesRepository seriesRepo, com.traininginsights.repository.AttachmentRepository attachmentRepo, @org.springframework.beans.factory.annotation.Value("${app.uploadsDir:uploads}") String uploadsDir) {
-        this.repo = repo; this.groupRepo = groupRepo; this.qRepo = qRepo; this.seriesRepo = seriesRepo; this.attachmentRepo = attachmentRepo; this.uploadsDir = uploadsDir;
+    // bounds used for an open time window
+    private static final Instant OPEN_START = Instant.parse("1900-01-01T00:00:00Z");
+    private static final Instant OPEN_END = Instant.parse("9999-01-01T00:00:00Z");
+
+    public TrainingService(TrainingRepository repo, GroupRepository groupRepo, QuestionnaireRepository qRepo, TrainingSeriesRepository seriesRepo, com.traininginsights.repository.AttachmentRepository attachmentRepo, ResponseMetricService metricService, AnalyticsRollupService rollupService, @org.springframework.beans.factory.annotation.Value("${app.uploadsDir:uploads}") String uploadsDir) {
+        this.repo = repo; this.groupRepo = groupRepo; this.qRepo = qRepo; this.seriesRepo = seriesRepo; this.attachmentRepo = attachmentRepo; this.metricService = metricService; this.rollupService = rollupService; this.uploadsDir = uploadsDir;
     }
 
     public List<Training> all(){ return repo.findAll(); }
+
+    /**
+     * Training list read model. Loads flat rows, then group ids/names and series sequences for all of them in bulk,
+     * so the number of queries does not grow with the number of trainings (group rows are fetched per 1000 trainings).
+     * groupId limits the list to trainings of that group; trainerId to trainings of groups the user trains or authored.
+     */
+    @org.springframework.transaction.annotation.Transactional(readOnly = true)
+    public List<com.traininginsights.dto.TrainingDtos.TrainingDTO> listView(Long groupId, Long trainerId){
+        return listView(groupId, trainerId, true, null, null, org.springframework.data.domain.Pageable.unpaged());
+    }
+
+    /**
+     * Same read model with the visibility rules, time window (from inclusive, to exclusive, null = open) and page
+     * applied by the database; rows are ordered by training time. includeAuthored adds the trainer's own trainings.
+     */
+    @org.springframework.transaction.annotation.Transactional(readOnly = true)
+    public List<com.traininginsights.dto.TrainingDtos.TrainingDTO> listView(Long groupId, Long trainerId, boolean includeAuthored, Instant from, Instant to, org.springframework.data.domain.Pageable pageable){
+        if (from == null) from = OPEN_START;
+        if (to == null) to = OPEN_END;
+        List<TrainingRepository.ListRow> rows = groupId != null ? repo.findListRowsForGroup(groupId, from, to, pageable)
+                : trainerId != null ? repo.findListRowsForTrainer(trainerId, includeAuthored, from, to, pageable)
+                : repo.findListRows(from, to, pageable);
+        if (rows.isEmpty()) return List.of();
+
+        java.util.Map<Long, Set<com.traininginsights.dto.TrainingDtos.GroupLite>> groupsByTraining = new java.util.HashMap<>();
+        List<Long> ids = rows.stream().map(TrainingRepository.ListRow::getId).toList();
+        for (int chunk = 0; chunk < ids.size(); chunk += 1000){
+            for (var g : repo.findGroupRows(ids.subList(chunk, Math.min(chunk + 1000, ids.size())))){
+                com.traininginsights.dto.TrainingDtos.GroupLite gl = new com.traininginsights.dto.TrainingDtos.GroupLite();
+                gl.id = g.getGroupId();
+                gl.name = g.getGroupName();
+                groupsByTraining.computeIfAbsent(g.getTrainingId(), k -> new HashSet<>()).add(gl);
+            }
+        }
+
+        // sequences of every occurrence per series, for total/remaining counts
+        Set<Long> seriesIds = new HashSet<>();
+        for (var r : rows) if (r.getSeriesId() != null) seriesIds.add(r.getSeriesId());
+        java.util.Map<Long, List<Integer>> sequences = new java.util.HashMap<>();
+        if (!seriesIds.isEmpty()){
+            for (var sr : repo.findSequenceRows(seriesIds)) sequences.computeIfAbsent(sr.getSeriesId(), k -> new java.util.ArrayList<>()).add(sr.getSeriesSequence());
+        }
+
+        List<com.traininginsights.dto.TrainingDtos.TrainingDTO> out = new java.util.ArrayList<>(rows.size());
+        for (var r : rows){
+            com.traininginsights.dto.TrainingDtos.TrainingDTO dto = new com.traininginsights.dto.TrainingDtos.TrainingDTO();
+            dto.id = r.getId();
+            dto.title = r.getTitle();
+            dto.description = r.getDescription();
+            dto.trainingTime = r.getTrainingTime();
+            dto.trainingEndTime = r.getTrainingEndTime();
+            dto.visibleToAthletes = Boolean.TRUE.equals(r.getVisibleToAthletes());
+            dto.preNotificationMinutes = r.getPreNotificationMinutes();
+            dto.seriesId = r.getSeriesId();
+            dto.seriesSequence = r.getSeriesSequence();
+            dto.detached = Boolean.TRUE.equals(r.getDetached());
+            dto.groupDetached = Boolean.TRUE.equals(r.getGroupDetached());
+            Set<com.traininginsights.dto.TrainingDtos.GroupLite> groups = groupsByTraining.getOrDefault(r.getId(), new HashSet<>());
+            dto.groups = groups;
+            dto.groupIds = groups.stream().map(g -> g.id).collect(java.util.stream.Collectors.toSet());
+            dto.preQuestionnaireId = r.getPreQuestionnaireId();
+            dto.postQuestionnaireId = r.getPostQuestionnaireId();
+            dto.createdById = r.getCreatedById();
+            if (r.getSeriesId() != null){
+                List<Integer> seqs = sequences.getOrDefault(r.getSeriesId(), List.of());
+                int fromSeq = r.getSeriesSequence() != null ? r.getSeriesSequence() : 1;
+                long remaining = seqs.stream().filter(q -> q != null && q >= fromSeq).count();
+                dto.recurrenceSummary = buildSummary(r.getSeriesRrule(), r.getSeriesUntil(), r.getSeriesCount(), seqs.size(), remaining);
+                com.traininginsights.dto.TrainingDtos.RecurrenceCreateRequest rec = new com.traininginsights.dto.TrainingDtos.RecurrenceCreateRequest();
+                rec.rrule = r.getSeriesRrule();
+                rec.timezone = r.getSeriesTimezone();
+                rec.until = r.getSeriesUntil();
+                rec.count = r.getSeriesCount();
+                dto.recurrence = rec;
+            }
+            out.add(dto);
+        }
+        return out;
+    }
+    /**
+     * One page of the training calendar in [from, to), keyset-paginated on (trainingTime, id): cursor is null or empty
+     * for the first page, otherwise the nextCursor of the previous page. Visibility follows listView.
+     */
+    @org.springframework.transaction.annotation.Transactional(readOnly = true)
+    public com.traininginsights.dto.TrainingDtos.CalendarPage calendar(Long groupId, Long trainerId, Instant from, Instant to, String cursor, int size){
+        if (from == null || to == null || !from.isBefore(to)) throw new IllegalArgumentException("from and to are required and from must be before to");
+        Instant afterTime = from;
+        Long afterId = 0L;
+        if (cursor != null && !cursor.isBlank()){
+            try {
+                String[] parts = new String(java.util.Base64.getUrlDecoder().decode(cursor), java.nio.charset.StandardCharsets.UTF_8).split("\\|", 2);
+                afterTime = Instant.parse(parts[0]);
+                afterId = Long.valueOf(parts[1]);
+            } catch (Exception e){
+                throw new IllegalArgumentException("Invalid calendar cursor");
+            }
+        }
+        // one extra row tells whether there is a next page
+        org.springframework.data.domain.Pageable limit = org.springframework.data.domain.PageRequest.of(0, size + 1);
+        List<TrainingRepository.CalendarRow> rows = groupId != null ? repo.findCalendarRowsForGroup(groupId, from, to, afterTime, afterId, limit)
+                : trainerId != null ? repo.findCalendarRowsForTrainer(trainerId, from, to, afterTime, afterId, limit)
+                : repo.findCalendarRows(from, to, afterTime, afterId, limit);
+
+        com.traininginsights.dto.TrainingDtos.CalendarPage page = new com.traininginsights.dto.TrainingDtos.CalendarPage();
+        if (rows.size() > size){
+            rows = rows.subList(0, size);
+            TrainingRepository.CalendarRow last = rows.get(size - 1);
+            String raw = last.getTrainingTime() + "|" + last.getId();
+            page.nextCursor = java.util.Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(java.nio.charset.StandardCharsets.UTF_8));
+        }
+        java.util.Map<Long, Set<Long>> groupIds = new java.util.HashMap<>();
+        if (!rows.isEmpty()){
+            for (var g : repo.findGroupRows(rows.stream().map(TrainingRepository.CalendarRow::getId).toList())){
+                groupIds.computeIfAbsent(g.getTrainingId(), k -> new HashSet<>()).add(g.getGroupId());
+            }
+        }
+        page.entries = new java.util.ArrayList<>(rows.size());
+        for (var r : rows){
+            com.traininginsights.dto.TrainingDtos.CalendarEntry e = new com.traininginsights.dto.TrainingDtos.CalendarEntry();
+            e.id = r.getId();
+            e.title = r.getTitle();
+            e.start = r.getTrainingTime();
+            e.end = r.getTrainingEndTime();
+            e.groupIds = groupIds.getOrDefault(r.getId(), new HashSet<>());
+            e.seriesId = r.getSeriesId();
+            e.hasPreQuestionnaire = r.getPreQuestionnaireId() != null;
+            e.hasPostQuestionnaire = r.getPostQuestionnaireId() != null;
+            page.entries.add(e);
+        }
+        return page;
+    }
+
     public Training get(Long id){ return repo.findById(id).orElseThrow(); }
     public List<Training> findByGroupId(Long groupId){ return repo.findByGroups_Id(groupId); }
+    public List<Training> findByGroupId(Long groupId, Instant from, Instant to, org.springframework.data.domain.Pageable pageable){
+        return repo.findForGroup(groupId, from != null ? from : OPEN_START, to != null ? to : OPEN_END, pageable);
+    }
     public boolean existsByIdAndGroupId(Long id, Long groupId){ return repo.existsByIdAndGroups_Id(id, groupId); }
     public Training save(Training t){
         // compute notificationTime if preNotificationMinutes and trainingTime provided
@@ -39,9 +181,25 @@ public class TrainingService {
         } else {
             t.setNotificationTime(null);
         }
+        // the analytics cube buckets responses by training time and groups; read where they sit before the edit lands
+        AnalyticsRollupService.Placement before = rollupService.placement(t.getId());
         Training saved = repo.save(t);
+        // response_metrics carries a copy of the training time for period bucketing
+        if (saved.getId() != null) metricService.onTrainingTimeChanged(saved.getId(), saved.getTrainingTime());
+        moveRollup(saved, before);
         return saved;
     }
+
+    // a cube left behind the training is repaired by the next rebuild; the edit itself stands
+    private void moveRollup(Training saved, AnalyticsRollupService.Placement before){
+        if (before == null) return;
+        try {
+            rollupService.onTrainingMoved(saved, before);
+        } catch (RuntimeException e){
+            log.warn("Analytics cube update failed for training {}; cube marked stale until next rebuild", saved.getId(), e);
+            rollupService.markStale();
+        }
+    }
     public void delete(Long id){
         var opt = repo.findById(id);
         if (opt.isEmpty()) return;
@@ -59,7 +217,10 @@ public class TrainingService {
                 } catch (Exception ignored) {}
             }
         } catch (Exception ignored) {}
+        boolean aggregated = rollupService.placement(id) != null;
         repo.delete(t); // cascades remove attachments
+        // the cube still counts the training's responses until the next rebuild
+        if (aggregated) rollupService.markStale();
     }
 
     public List<Training> upcomingForGroup(Group group){
@@ -77,13 +238,19 @@ public class TrainingService {
             Long seriesId = t.getSeries().getId();
             for (Training occ : repo.findBySeries_Id(seriesId)){
                 if (occ.isGroupDetached()) continue; // skip detached occurrences
+                AnalyticsRollupService.Placement before = rollupService.placement(occ.getId());
                 occ.setGroups(gs);
-                repo.save(occ);
+                moveRollup(repo.save(occ), before);
             }
+            metricService.onMembershipChanged();
             return get(trainingId);
         } else {
+            AnalyticsRollupService.Placement before = rollupService.placement(t.getId());
             t.setGroups(gs);
-            return repo.save(t);
+            Training saved = repo.save(t);
+            moveRollup(saved, before);
+            metricService.onMembershipChanged();
+            return saved;
         }
     }
 
@@ -143,14 +310,19 @@ public class TrainingService {
 
     public void deleteFutureOccurrences(Training pivot){
         if (pivot.getSeries() == null || pivot.getSeriesSequence()==null){
+            boolean aggregated = rollupService.placement(pivot.getId()) != null;
             repo.deleteById(pivot.getId());
+            if (aggregated) rollupService.markStale();
             return;
         }
         Long seriesId = pivot.getSeries().getId();
         Integer seq = pivot.getSeriesSequence();
+        boolean aggregated = false;
         for (Training t : repo.findBySeries_IdAndSeriesSequenceGreaterThanEqual(seriesId, seq)){
+            aggregated |= rollupService.placement(t.getId()) != null;
             repo.delete(t);
         }
+        if (aggregated) rollupService.markStale();
     }
 
     public List<Training> futureAndCurrentFrom(Training pivot){
@@ -180,16 +352,20 @@ public class TrainingService {
             return null;
         }
         var s = t.getSeries();
-        com.traininginsights.dto.TrainingDtos.RecurrenceSummary rs = new com.traininginsights.dto.TrainingDtos.RecurrenceSummary();
-        rs.rrule = s.getRrule();
         long totalL = repo.countBySeries_Id(s.getId());
-        rs.totalOccurrences = (int)Math.min(Integer.MAX_VALUE, totalL);
         long remainingL = repo.countBySeries_IdAndSeriesSequenceGreaterThanEqual(s.getId(), t.getSeriesSequence()!=null? t.getSeriesSequence():1);
+        return buildSummary(s.getRrule(), s.getUntil(), s.getCount(), totalL, remainingL);
+    }
+
+    private com.traininginsights.dto.TrainingDtos.RecurrenceSummary buildSummary(String rrule, Instant until, Integer count, long totalL, long remainingL){
+        com.traininginsights.dto.TrainingDtos.RecurrenceSummary rs = new com.traininginsights.dto.TrainingDtos.RecurrenceSummary();
+        rs.rrule = rrule;
+        rs.totalOccurrences = (int)Math.min(Integer.MAX_VALUE, totalL);
         rs.remainingOccurrences = (int)Math.min(Integer.MAX_VALUE, remainingL);
         rs.hasFuture = remainingL > 1; // more than current occurrence
         // Build a human-readable description
         try {
-            RecurrenceUtil.RRule rule = RecurrenceUtil.parse(s.getRrule(), s.getUntil(), s.getCount());
+            RecurrenceUtil.RRule rule = RecurrenceUtil.parse(rrule, until, count);
             StringBuilder sb = new StringBuilder();
             String freq = rule.freq();
             int interval = rule.interval();
@@ -0,0 +1,76 @@
+package com.traininginsights.service;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Small in-memory cache with a size bound (least recently used entry evicted first) and a time-to-live per entry,
+ * the cache's default or one given with the entry.
+ * Loaders run outside the lock, so concurrent misses for the same key may load twice; the last value wins.
+ */
+public class TtlCache<K, V> {
+    private record Entry<V>(V value, long expiresAt) {}
+
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final LinkedHashMap<K, Entry<V>> map;
+
+    public TtlCache(int maxEntries, Duration ttl){
+        this.maxEntries = maxEntries;
+        this.ttlNanos = ttl.toNanos();
+        this.map = new LinkedHashMap<>(16, 0.75f, true){
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest){ return size() > TtlCache.this.maxEntries; }
+        };
+    }
+
+    public synchronized V get(K key){
+        Entry<V> e = map.get(key);
+        if (e == null) return null;
+        if (e.expiresAt() - System.nanoTime() <= 0){
+            map.remove(key);
+            return null;
+        }
+        return e.value();
+    }
+
+    public synchronized void put(K key, V value){
+        map.put(key, new Entry<>(value, System.nanoTime() + ttlNanos));
+    }
+
+    public synchronized void put(K key, V value, Duration ttl){
+        map.put(key, new Entry<>(value, System.nanoTime() + ttl.toNanos()));
+    }
+
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> loader){
+        V v = get(key);
+        if (v != null) return v;
+        v = loader.apply(key);
+        if (v != null) put(key, v);
+        return v;
+    }
+
+    /**
+     * Replace live values in place (keeping their expiry); returning null from the function removes the entry.
+     */
+    public synchronized void updateAll(BiFunction<? super K, ? super V, ? extends V> fn){
+        long now = System.nanoTime();
+        Iterator<Map.Entry<K, Entry<V>>> it = map.entrySet().iterator();
+        while (it.hasNext()){
+            Map.Entry<K, Entry<V>> e = it.next();
+            V next = e.getValue().expiresAt() - now <= 0 ? null : fn.apply(e.getKey(), e.getValue().value());
+            if (next == null) it.remove();
+            else if (next != e.getValue().value()) e.setValue(new Entry<>(next, e.getValue().expiresAt()));
+        }
+    }
+
+    public synchronized void invalidate(K key){ map.remove(key); }
+
+    public synchronized void invalidateAll(){ map.clear(); }
+
+    public synchronized int size(){ return map.size(); }
+}
@@ -23,9 +23,10 @@ public class UserService {
     private final GroupRepository groupRepo;
     private final ClubRepository clubRepo;
     private final PasswordEncoder encoder;
+    private final ResponseMetricService metricService;
 
-    public UserService(UserRepository userRepo, RoleRepository roleRepo, GroupRepository groupRepo, ClubRepository clubRepo, PasswordEncoder encoder) {
-        this.userRepo = userRepo; this.roleRepo = roleRepo; this.groupRepo = groupRepo; this.clubRepo = clubRepo; this.encoder = encoder;
+    public UserService(UserRepository userRepo, RoleRepository roleRepo, GroupRepository groupRepo, ClubRepository clubRepo, PasswordEncoder encoder, ResponseMetricService metricService) {
+        this.userRepo = userRepo; this.roleRepo = roleRepo; this.groupRepo = groupRepo; this.clubRepo = clubRepo; this.encoder = encoder; this.metricService = metricService;
     }
 
     public Optional<User> findByEmail(String email){ return userRepo.findByEmailIgnoreCase(email); }
@@ -158,6 +159,8 @@ public class UserService {
         if (patch.containsKey("dailyReminderTime")) {
             u.setDailyReminderTime((String) patch.get("dailyReminderTime"));
         }
+        // analytics scopes and keys responses by these
+        if (patch.containsKey("groupId") || patch.containsKey("clubIds") || patch.containsKey("birthDate")) metricService.onMembershipChanged();
         return userRepo.save(u);
     }
 
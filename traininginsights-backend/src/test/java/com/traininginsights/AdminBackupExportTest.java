@@ -0,0 +1,242 @@
+package com.traininginsights;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.traininginsights.model.Attachment;
+import com.traininginsights.model.Club;
+import com.traininginsights.model.EmailLog;
+import com.traininginsights.model.Group;
+import com.traininginsights.model.User;
+import com.traininginsights.repository.AttachmentRepository;
+import com.traininginsights.repository.ClubRepository;
+import com.traininginsights.repository.EmailLogRepository;
+import com.traininginsights.repository.GroupRepository;
+import com.traininginsights.repository.UserRepository;
+import com.traininginsights.service.AdminBackupService;
+import com.traininginsights.service.BackupRestoreWriter;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The streamed export pages through each table; every row must come out once, across page boundaries, and the
+ * zip must carry the referenced upload files. Restoring that zip puts rows back under their own ids. A link table
+ * carried by a delta is replaced all at once or not at all.
+ */
+@SpringBootTest(properties = "app.uploadsDir=target/backup-test-uploads")
+public class AdminBackupExportTest {
+    @Autowired AdminBackupService backupService;
+    @Autowired EmailLogRepository emailLogRepository;
+    @Autowired UserRepository userRepository;
+    @Autowired AttachmentRepository attachmentRepository;
+    @Autowired ClubRepository clubRepository;
+    @Autowired GroupRepository groupRepository;
+    @Autowired JdbcTemplate jdbc;
+    @Autowired PlatformTransactionManager txManager;
+    @Autowired BackupRestoreWriter restoreWriter;
+
+    // the export reads committed rows only (its table workers share a snapshot), so these tests commit and clean up
+    @Test
+    void zipExportStreamsEveryRowAndFile() throws Exception {
+        String subject = "backup-" + UUID.randomUUID();
+        String[] addresses = new String[1234];
+        for (int i = 0; i < addresses.length; i++) addresses[i] = "backup-" + i + "@example.com";
+        new TransactionTemplate(txManager).executeWithoutResult(s -> emailLogRepository.insertAll(addresses, subject, null, Instant.now()));
+        User u = new User();
+        u.setEmail("backup-" + UUID.randomUUID() + "@example.com");
+        u.setPasswordHash("x");
+        u = userRepository.save(u);
+        Path uploads = Path.of("target/backup-test-uploads").toAbsolutePath();
+        Files.createDirectories(uploads);
+        Path file = Files.writeString(uploads.resolve(subject + ".txt"), "attachment body");
+        Attachment a = new Attachment();
+        a.setFilename("notes.txt");
+        a.setContentType("text/plain");
+        a.setPath(file.toString());
+        a = attachmentRepository.save(a);
+        try {
+            exportAndCheck(subject, addresses.length, u.getId());
+        } finally {
+            jdbc.update("delete from email_log where subject = ?", subject);
+            jdbc.update("delete from attachments where id = ?", a.getId());
+            jdbc.update("delete from users where id = ?", u.getId());
+        }
+    }
+
+    private void exportAndCheck(String subject, int logCount, Long userId) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        backupService.writeZip(out);
+
+        Map<String, byte[]> entries = zipEntries(out);
+        JsonNode data = new ObjectMapper().readTree(entries.get("data.json"));
+        long logs = 0;
+        Set<Long> ids = new HashSet<>();
+        for (JsonNode log : data.get("emailLogs")) {
+            assertTrue(ids.add(log.get("id").asLong()), "duplicate email log " + log.get("id"));
+            if (subject.equals(log.get("subject").asText())) logs++;
+        }
+        assertEquals(logCount, logs);
+        assertTrue(streamOf(data.get("users")).anyMatch(n -> n.get("id").asLong() == userId));
+        assertTrue(streamOf(data.get("attachments")).anyMatch(n -> (subject + ".txt").equals(n.get("relativePath").asText())));
+        assertTrue(new String(entries.get("attachments.json")).contains(subject + ".txt"));
+        assertEquals("attachment body", new String(entries.get("uploads/" + subject + ".txt")));
+    }
+
+    @Test
+    void zipRestoreWritesRowsBackUnderTheirIds() throws Exception {
+        Club club = new Club();
+        club.setName("restore-" + UUID.randomUUID());
+        club = clubRepository.save(club);
+        User trainer = new User();
+        trainer.setEmail("restore-" + UUID.randomUUID() + "@example.com");
+        trainer.setPasswordHash("x");
+        trainer.setFirstName("Before");
+        trainer.setClubs(new HashSet<>(Set.of(club)));
+        trainer = userRepository.save(trainer);
+        Group group = new Group();
+        group.setName("restore-" + UUID.randomUUID());
+        group.setClubs(new HashSet<>(Set.of(club)));
+        group.setTrainers(new HashSet<>(Set.of(trainer)));
+        group = groupRepository.save(group);
+        EmailLog log = emailLogRepository.save(new EmailLog(trainer.getEmail(), "restore", null));
+        EmailLog after = null;
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            backupService.writeZip(out);
+
+            // change and delete rows the backup holds
+            jdbc.update("update users set first_name = 'After' where id = ?", trainer.getId());
+            jdbc.update("delete from group_trainers where group_id = ?", group.getId());
+            jdbc.update("delete from email_log where id = ?", log.getId());
+
+            Map<String, Object> result = backupService.importFromZip(new ByteArrayInputStream(out.toByteArray()), out.size());
+
+            assertEquals(Map.of(), result.get("failed"));
+            assertEquals("Before", userRepository.findById(trainer.getId()).orElseThrow().getFirstName());
+            assertEquals(List.of(trainer.getId()), jdbc.queryForList("select user_id from group_trainers where group_id = ?", Long.class, group.getId()));
+            assertEquals(List.of(club.getId()), jdbc.queryForList("select club_id from group_clubs where group_id = ?", Long.class, group.getId()));
+            assertEquals("restore", emailLogRepository.findById(log.getId()).orElseThrow().getSubject());
+            // the identity sequence was moved past the restored ids
+            after = emailLogRepository.saveAndFlush(new EmailLog(null, "after-restore", null));
+            assertTrue(after.getId() > log.getId());
+            assertFalse(backupService.importProgress().running);
+        } finally {
+            jdbc.update("delete from email_log where id in (?, ?)", log.getId(), after != null ? after.getId() : log.getId());
+            jdbc.update("delete from group_trainers where group_id = ?", group.getId());
+            jdbc.update("delete from group_clubs where group_id = ?", group.getId());
+            jdbc.update("delete from groups where id = ?", group.getId());
+            jdbc.update("delete from user_clubs where user_id = ?", trainer.getId());
+            jdbc.update("delete from users where id = ?", trainer.getId());
+            jdbc.update("delete from clubs where id = ?", club.getId());
+        }
+    }
+
+    @Test
+    void deltaCarriesChangesSinceItsBaseAndReplaysOnIt() throws Exception {
+        String tag = UUID.randomUUID().toString();
+        Club club = new Club();
+        club.setName("delta-" + tag);
+        club = clubRepository.save(club);
+        User kept = deltaUser("kept-" + tag, club), gone = deltaUser("gone-" + tag, club), linked = deltaUser("linked-" + tag, club);
+        User added = null;
+        try {
+            ByteArrayOutputStream full = new ByteArrayOutputStream();
+            backupService.writeZip(full);
+            long snapshot = new ObjectMapper().readTree(zipEntries(full).get("manifest.json")).get("snapshot").asLong();
+
+            // after the base: a changed row, a deleted row, a new row and a link-only change
+            jdbc.update("update users set first_name = 'After' where id = ?", kept.getId());
+            jdbc.update("delete from user_clubs where user_id = ?", gone.getId());
+            jdbc.update("delete from users where id = ?", gone.getId());
+            added = deltaUser("added-" + tag, null);
+            jdbc.update("delete from user_clubs where user_id = ?", linked.getId());
+
+            ByteArrayOutputStream delta = new ByteArrayOutputStream();
+            backupService.writeZip(delta, snapshot);
+            Map<String, byte[]> entries = zipEntries(delta);
+            ObjectMapper mapper = new ObjectMapper();
+            JsonNode manifest = mapper.readTree(entries.get("manifest.json"));
+            assertEquals("delta", manifest.get("type").asText());
+            assertEquals(snapshot, manifest.get("since").asLong());
+            Set<Long> users = new HashSet<>();
+            mapper.readTree(entries.get("data.json")).get("users").forEach(n -> users.add(n.get("id").asLong()));
+            assertTrue(users.containsAll(Set.of(kept.getId(), added.getId())));
+            assertFalse(users.contains(linked.getId()), "unchanged user in the delta");
+            long clubId = club.getId();
+            assertTrue(streamOf(mapper.readTree(entries.get("data.json")).get("clubs")).noneMatch(n -> n.get("id").asLong() == clubId), "unchanged club in the delta");
+            Set<Long> ids = new HashSet<>();
+            mapper.readTree(entries.get("ids.json")).get("users").forEach(n -> ids.add(n.asLong()));
+            assertTrue(ids.containsAll(Set.of(kept.getId(), added.getId(), linked.getId())));
+            assertFalse(ids.contains(gone.getId()));
+
+            // a delta only applies on top of its base
+            assertThrows(IllegalArgumentException.class, () -> backupService.importChain(List.of(new ByteArrayResource(delta.toByteArray()))));
+
+            // the base puts back the deleted user and the old state; the delta then replays the changes
+            Map<String, Object> result = backupService.importChain(List.of(new ByteArrayResource(full.toByteArray()), new ByteArrayResource(delta.toByteArray())));
+            assertEquals(2, ((List<?>) result.get("backups")).size());
+            assertEquals("After", userRepository.findById(kept.getId()).orElseThrow().getFirstName());
+            assertFalse(userRepository.existsById(gone.getId()));
+            assertTrue(userRepository.existsById(added.getId()));
+            assertEquals(0, jdbc.queryForObject("select count(*) from user_clubs where user_id = ?", Long.class, linked.getId()));
+            assertEquals(1, jdbc.queryForObject("select count(*) from user_clubs where user_id = ?", Long.class, kept.getId()));
+        } finally {
+            List<Long> userIds = new ArrayList<>(List.of(kept.getId(), gone.getId(), linked.getId()));
+            if (added != null) userIds.add(added.getId());
+            for (Long id : userIds){
+                jdbc.update("delete from user_clubs where user_id = ?", id);
+                jdbc.update("delete from users where id = ?", id);
+            }
+            jdbc.update("delete from clubs where id = ?", club.getId());
+        }
+    }
+
+    private User deltaUser(String name, Club club) {
+        User u = new User();
+        u.setEmail(name + "@example.com");
+        u.setPasswordHash("x");
+        u.setFirstName("Before");
+        if (club != null) u.setClubs(new HashSet<>(Set.of(club)));
+        return userRepository.save(u);
+    }
+
+    private static Map<String, byte[]> zipEntries(ByteArrayOutputStream zip) throws java.io.IOException {
+        Map<String, byte[]> entries = new HashMap<>();
+        try (ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(zip.toByteArray()))) {
+            ZipEntry e;
+            while ((e = zis.getNextEntry()) != null) entries.put(e.getName(), zis.readAllBytes());
+        }
+        return entries;
+    }
+
+    private static java.util.stream.Stream<JsonNode> streamOf(JsonNode array) {
+        return java.util.stream.StreamSupport.stream(array.spliterator(), false);
+    }
+
+    @Test
+    void failedLinkRestoreKeepsTheOldLinks() {
+        List<String> before = jdbc.queryForList("select user_id || ':' || role_id from user_roles order by 1", String.class);
+        BackupRestoreWriter.LinkTable roles = restoreWriter.linkTable("user_roles");
+        // the upload breaks off after the first chunk of pairs
+        assertThrows(java.io.IOException.class, () -> restoreWriter.restoreLinks(roles, write -> {
+            write.accept(List.<Object[]>of(new Object[]{-1L, "ROLE_ATHLETE"}));
+            throw new java.io.EOFException("truncated links.json");
+        }, new BackupRestoreWriter.Run()));
+        assertEquals(before, jdbc.queryForList("select user_id || ':' || role_id from user_roles order by 1", String.class));
+    }
+}
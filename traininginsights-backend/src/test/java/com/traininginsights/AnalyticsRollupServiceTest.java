@@ -0,0 +1,109 @@
+package com.traininginsights;
+
+import com.traininginsights.model.*;
+import com.traininginsights.repository.*;
+import com.traininginsights.service.AnalyticsRollupService;
+import com.traininginsights.service.QuestionnaireResponseService;
+import com.traininginsights.service.TrainingService;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The incrementally maintained cube holds the same cells as a rebuild from the responses after submissions,
+ * resubmissions, and rescheduling or regrouping a training that has responses.
+ */
+@SpringBootTest
+public class AnalyticsRollupServiceTest {
+    @Autowired AnalyticsRollupService rollupService;
+    @Autowired QuestionnaireResponseService responseService;
+    @Autowired TrainingService trainingService;
+    @Autowired TrainingRepository trainingRepository;
+    @Autowired GroupRepository groupRepository;
+    @Autowired ClubRepository clubRepository;
+    @Autowired UserRepository userRepository;
+    @Autowired QuestionnaireRepository questionnaireRepository;
+    @Autowired EntityManager em;
+    @Autowired JdbcTemplate jdbc;
+
+    @Test
+    @Transactional
+    void incrementalCubeMatchesRebuild() {
+        rollupService.rebuild();
+        Group first = group(club("rollup-a"));
+        Group second = group(club("rollup-b"));
+        User a = athlete();
+        User b = athlete();
+        Questionnaire post = new Questionnaire();
+        post.setTitle("post");
+        post.setStructure("{\"fields\":[{\"name\":\"rpe\",\"type\":\"slider\"}]}");
+        post = questionnaireRepository.save(post);
+        Training training = new Training();
+        training.setTitle("rollup");
+        training.setTrainingTime(Instant.parse("2024-03-03T18:00:00Z"));
+        training.setGroups(new HashSet<>(Set.of(first)));
+        training = trainingRepository.save(training);
+
+        responseService.submit(a, training, post, "POST", "{\"rpe\":5}");
+        responseService.submit(b, training, post, "POST", "{\"rpe\":7,\"load\":300}");
+        responseService.submit(a, training, post, "POST", "{\"rpe\":3,\"load\":200}");
+        em.flush();
+        assertEquals(cells(), rebuilt());
+
+        trainingService.assignGroups(training.getId(), Set.of(second.getId()));
+        em.flush();
+        assertEquals(cells(), rebuilt());
+
+        // into the next ISO week and month
+        Training moved = trainingRepository.findById(training.getId()).orElseThrow();
+        moved.setTrainingTime(moved.getTrainingTime().plus(30, ChronoUnit.DAYS));
+        trainingService.save(moved);
+        em.flush();
+        responseService.submit(b, moved, post, "POST", "{\"rpe\":6}");
+        em.flush();
+        assertEquals(cells(), rebuilt());
+        assertTrue(rollupService.isReady());
+    }
+
+    // non-empty cells, with sums rounded so the order of additions does not matter
+    private List<String> cells() {
+        return jdbc.query("select metric, phase, dimension, dim_key, granularity, period, bucket_day, scope_type, scope_id, value_sum, value_count from analytics_rollups where value_count <> 0 " +
+                        "order by metric, phase, dimension, dim_key, granularity, period, bucket_day, scope_type, scope_id",
+                (rs, i) -> String.join("|", rs.getString(1), rs.getString(2), rs.getString(3), rs.getString(4), rs.getString(5), rs.getString(6),
+                        rs.getString(7), rs.getString(8), rs.getString(9), String.format(Locale.ROOT, "%.6f", rs.getDouble(10)), rs.getString(11)));
+    }
+
+    private List<String> rebuilt() {
+        rollupService.rebuild();
+        return cells();
+    }
+
+    private Club club(String name) {
+        Club c = new Club();
+        c.setName(name + "-" + UUID.randomUUID());
+        return clubRepository.save(c);
+    }
+
+    private Group group(Club club) {
+        Group g = new Group();
+        g.setName("rollup-" + UUID.randomUUID());
+        g.setClubs(new HashSet<>(Set.of(club)));
+        return groupRepository.save(g);
+    }
+
+    private User athlete() {
+        User u = new User();
+        u.setEmail("rollup-" + UUID.randomUUID() + "@example.com");
+        u.setPasswordHash("x");
+        return userRepository.save(u);
+    }
+}
@@ -0,0 +1,84 @@
+package com.traininginsights;
+
+import com.traininginsights.controller.TrainingController;
+import com.traininginsights.model.Attachment;
+import com.traininginsights.model.Training;
+import com.traininginsights.model.User;
+import com.traininginsights.repository.AttachmentRepository;
+import com.traininginsights.repository.TrainingRepository;
+import com.traininginsights.repository.UserRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+
+/**
+ * Attachment downloads are served from the file with length, range and revalidation support.
+ */
+@SpringBootTest(properties = "app.uploadsDir=target/download-test-uploads")
+public class AttachmentDownloadTest {
+    @Autowired TrainingController trainingController;
+    @Autowired TrainingRepository trainingRepository;
+    @Autowired AttachmentRepository attachmentRepository;
+    @Autowired UserRepository userRepository;
+
+    @Test
+    @Transactional
+    void downloadSupportsRangesAndConditionalRequests() throws Exception {
+        User owner = new User();
+        owner.setEmail("download-" + UUID.randomUUID() + "@example.com");
+        owner.setPasswordHash("x");
+        owner = userRepository.save(owner);
+        Training training = new Training();
+        training.setTitle("download");
+        training.setTrainingTime(Instant.parse("2034-01-01T10:00:00Z"));
+        training.setCreatedBy(owner);
+        training = trainingRepository.save(training);
+        Path dir = Path.of("target/download-test-uploads").toAbsolutePath();
+        Files.createDirectories(dir);
+        Path file = Files.writeString(dir.resolve(UUID.randomUUID() + ".txt"), "0123456789abcdefghij");
+        Attachment a = new Attachment();
+        a.setTraining(training);
+        a.setFilename("résumé notes.txt");
+        a.setContentType("text/plain");
+        a.setPath(file.toString());
+        a = attachmentRepository.save(a);
+
+        MockMvc mvc = MockMvcBuilders.standaloneSetup(trainingController).build();
+        var auth = new UsernamePasswordAuthenticationToken(owner.getEmail(), null, List.of());
+        String url = "/api/trainings/attachments/" + a.getId();
+
+        MvcResult full = mvc.perform(get(url).principal(auth)).andReturn();
+        assertEquals(200, full.getResponse().getStatus());
+        assertEquals("0123456789abcdefghij", full.getResponse().getContentAsString());
+        assertEquals(20, full.getResponse().getContentLength());
+        assertEquals("bytes", full.getResponse().getHeader("Accept-Ranges"));
+        assertTrue(full.getResponse().getHeader("Content-Disposition").contains("filename*=UTF-8''r%C3%A9sum%C3%A9%20notes.txt"));
+        String etag = full.getResponse().getHeader("ETag");
+        assertNotNull(etag);
+
+        MvcResult part = mvc.perform(get(url).principal(auth).header("Range", "bytes=10-14")).andReturn();
+        assertEquals(206, part.getResponse().getStatus());
+        assertEquals("abcde", new String(part.getResponse().getContentAsByteArray(), StandardCharsets.UTF_8));
+        assertEquals("bytes 10-14/20", part.getResponse().getHeader("Content-Range"));
+        assertEquals(5, part.getResponse().getContentLength());
+
+        MvcResult unchanged = mvc.perform(get(url).principal(auth).header("If-None-Match", etag)).andReturn();
+        assertEquals(304, unchanged.getResponse().getStatus());
+        assertEquals(0, unchanged.getResponse().getContentAsByteArray().length);
+    }
+}
@@ -0,0 +1,123 @@
+package com.traininginsights;
+
+import com.traininginsights.controller.AnalyticsController;
+import com.traininginsights.controller.RestExceptionHandler;
+import com.traininginsights.model.*;
+import com.traininginsights.repository.*;
+import com.traininginsights.service.AnalyticsService;
+import com.traininginsights.service.QuestionnaireResponseService;
+import com.traininginsights.service.ResponseMetricService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+
+/**
+ * Cursor paging of the drilldown walks every row exactly once in (submittedAt, id) order, also across rows that share
+ * a submission time, and a cursor that does not decode is a 400.
+ */
+@SpringBootTest
+public class DrilldownCursorTest {
+    @Autowired AnalyticsService analyticsService;
+    @Autowired AnalyticsController analyticsController;
+    @Autowired ResponseMetricService metricService;
+    @Autowired QuestionnaireResponseService responseService;
+    @Autowired GroupRepository groupRepository;
+    @Autowired TrainingRepository trainingRepository;
+    @Autowired UserRepository userRepository;
+    @Autowired QuestionnaireRepository questionnaireRepository;
+    @Autowired JdbcTemplate jdbc;
+
+    @AfterEach
+    void clearAuthentication() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    @Transactional
+    void cursorWalksEveryRowOnceAcrossTiedSubmissionTimes() {
+        if (!metricService.refresh()) metricService.backfill();
+        Group group = new Group();
+        group.setName("cursor-" + UUID.randomUUID());
+        group = groupRepository.save(group);
+        Questionnaire post = new Questionnaire();
+        post.setTitle("post");
+        post.setStructure("{\"fields\":[{\"name\":\"rpe\",\"type\":\"slider\"},{\"name\":\"load\",\"type\":\"number\"}]}");
+        post = questionnaireRepository.save(post);
+        Training training = new Training();
+        training.setTitle("cursor");
+        training.setTrainingTime(Instant.parse("2024-03-03T18:00:00Z"));
+        training.setGroups(new HashSet<>(Set.of(group)));
+        training = trainingRepository.save(training);
+        for (int i = 0; i < 7; i++) {
+            User athlete = new User();
+            athlete.setEmail("cursor-" + UUID.randomUUID() + "@example.com");
+            athlete.setPasswordHash("x");
+            athlete = userRepository.save(athlete);
+            responseService.submit(athlete, training, post, "POST", "{\"rpe\":" + i + ",\"load\":" + (100 + i) + "}");
+        }
+        // two metrics per response, and most responses at one of two instants: page boundaries fall inside ties
+        jdbc.update("update response_metrics set submitted_at = case when user_id % 3 = 0 then ?::timestamptz else ?::timestamptz end where training_id = ? and user_id % 3 <> 1",
+                "2024-03-03T20:00:00Z", "2024-03-03T21:00:00Z", training.getId());
+
+        for (String sort : List.of("submittedAt,desc", "submittedAt,asc")) {
+            List<Map<String,Object>> all = analyticsService.drilldown(null, "athlete", "day", group.getId(), null, null, null, null, null, null, 0, 100, sort, null, null).rows;
+            assertEquals(14, all.size());
+
+            List<Map<String,Object>> walked = new ArrayList<>();
+            String cursor = "";
+            int pages = 0;
+            do {
+                AnalyticsService.DrilldownResult page = analyticsService.drilldown(null, "athlete", "day", group.getId(), null, null, null, null, null, null, 0, 3, sort, cursor, null);
+                assertTrue(page.rows.size() <= 3);
+                assertEquals(-1, page.total);
+                walked.addAll(page.rows);
+                cursor = page.nextCursor;
+                pages++;
+            } while (cursor != null && pages < 20);
+
+            assertEquals(5, pages, sort);
+            // no gaps, no duplicates, and the offset path's order
+            assertEquals(rowKeys(all), rowKeys(walked), sort);
+            assertEquals(14, new HashSet<>(rowKeys(walked)).size(), sort);
+        }
+    }
+
+    @Test
+    @Transactional
+    void malformedCursorIsABadRequest() throws Exception {
+        if (!metricService.refresh()) metricService.backfill();
+        var auth = new UsernamePasswordAuthenticationToken("cursor-admin@example.com", null, List.of(new SimpleGrantedAuthority("ROLE_ADMIN")));
+        SecurityContextHolder.getContext().setAuthentication(auth);
+        MockMvc mvc = MockMvcBuilders.standaloneSetup(analyticsController).setControllerAdvice(new RestExceptionHandler()).build();
+        String notBase64 = "%%%";
+        String noSeparator = Base64.getUrlEncoder().encodeToString("2024-03-03T20:00:00Z".getBytes());
+        String badInstant = Base64.getUrlEncoder().encodeToString("yesterday|12".getBytes());
+        for (String cursor : List.of(notBase64, noSeparator, badInstant)) {
+            int status = mvc.perform(get("/api/analytics/drilldown").principal(auth)
+                    .param("dimension", "athlete").param("granularity", "day").param("cursor", cursor)).andReturn().getResponse().getStatus();
+            assertEquals(400, status, cursor);
+        }
+        assertEquals(200, mvc.perform(get("/api/analytics/drilldown").principal(auth)
+                .param("dimension", "athlete").param("granularity", "day").param("cursor", "").param("size", "1")).andReturn().getResponse().getStatus());
+    }
+
+    private static List<String> rowKeys(List<Map<String,Object>> rows) {
+        List<String> keys = new ArrayList<>();
+        for (Map<String,Object> r : rows) keys.add(r.get("userId") + "|" + r.get("metric") + "|" + r.get("submittedAt"));
+        return keys;
+    }
+}
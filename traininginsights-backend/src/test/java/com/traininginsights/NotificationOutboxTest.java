@@ -0,0 +1,162 @@
+package com.traininginsights;
+
+import com.traininginsights.model.*;
+import com.traininginsights.repository.*;
+import com.traininginsights.service.NotificationOutboxService;
+import com.traininginsights.service.NotificationService;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * A notification's pushes are written to the outbox in the same transaction, one row per subscription, and the same
+ * delivery is never queued twice. Broadcasts write notifications and outbox rows with multi-row inserts. A send result
+ * only applies to the attempt it was claimed for. Completed rows are purged once past their retention.
+ */
+// statement counts are global: keep the outbox poll from running during the test
+@SpringBootTest(properties = {"spring.jpa.properties.hibernate.generate_statistics=true", "app.push.outboxPollMs=3600000", "app.analytics.repairMs=3600000"})
+public class NotificationOutboxTest {
+    @Autowired NotificationService notificationService;
+    @Autowired NotificationOutboxService outboxService;
+    @Autowired NotificationOutboxRepository outboxRepository;
+    @Autowired PushSubscriptionRepository pushRepository;
+    @Autowired UserRepository userRepository;
+    @Autowired ClubRepository clubRepository;
+    @Autowired EntityManager em;
+    @Autowired EntityManagerFactory emf;
+
+    @Test
+    @Transactional
+    void notificationAndOutboxRowsAreWrittenTogether() {
+        User u = new User();
+        u.setEmail("outbox-" + UUID.randomUUID() + "@example.com");
+        u.setPasswordHash("x");
+        u = userRepository.save(u);
+        List<PushSubscription> subs = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            PushSubscription s = new PushSubscription();
+            s.setUser(u);
+            s.setEndpoint("https://push.example.com/" + UUID.randomUUID());
+            s.setKeys("{}");
+            subs.add(pushRepository.save(s));
+        }
+
+        Notification n = notificationService.createSystemNotificationForUser(u.getId(), "hello", "body");
+        List<String> keys = subs.stream().map(s -> "push:" + n.getId() + ":" + s.getId()).toList();
+        List<NotificationOutbox> rows = outboxRepository.findByIdempotencyKeyIn(keys);
+        assertEquals(2, rows.size());
+        for (NotificationOutbox o : rows) {
+            assertEquals(NotificationOutbox.PENDING, o.getStatus());
+            assertEquals(0, o.getAttempts());
+            assertTrue(o.getPayload().contains("hello"));
+        }
+
+        // the same deliveries again: nothing new is queued
+        assertFalse(outboxService.enqueuePush(n.getId(), subs, "hello", "body", "/dashboard/notifications"));
+        assertEquals(2, outboxRepository.findByIdempotencyKeyIn(keys).size());
+    }
+
+    @Test
+    @Transactional
+    void clubBroadcastUsesBulkStatements() {
+        Club club = new Club();
+        club.setName("broadcast-" + UUID.randomUUID());
+        club = clubRepository.save(club);
+        User sender = new User();
+        sender.setEmail("sender-" + UUID.randomUUID() + "@example.com");
+        sender.setPasswordHash("x");
+        sender = userRepository.save(sender);
+        List<User> members = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            User u = new User();
+            u.setEmail("member-" + UUID.randomUUID() + "@example.com");
+            u.setPasswordHash("x");
+            u.setClubs(new HashSet<>(Set.of(club)));
+            members.add(u);
+        }
+        userRepository.saveAll(members);
+        // every other member has a push subscription
+        for (int i = 0; i < members.size(); i += 2) {
+            PushSubscription s = new PushSubscription();
+            s.setUser(members.get(i));
+            s.setEndpoint("https://push.example.com/" + UUID.randomUUID());
+            s.setKeys("{}");
+            pushRepository.save(s);
+        }
+        em.flush();
+        em.clear();
+
+        Statistics stats = emf.unwrap(SessionFactory.class).getStatistics();
+        stats.clear();
+        var results = notificationService.sendNotificationToClubMembers(sender.getId(), club.getId(), "news", "body", "notification");
+        long statements = stats.getPrepareStatementCount();
+
+        assertEquals(2000, results.size());
+        assertEquals(1000, results.stream().filter(r -> r.dispatched).count());
+        assertEquals(2000, results.stream().map(r -> r.notificationId).distinct().count());
+        // club, sender, members, notifications, subscription ids, outbox rows
+        assertTrue(statements <= 6, "expected at most 6 statements, got " + statements);
+    }
+
+    @Test
+    @Transactional
+    void resultOfAnExpiredLeaseDoesNotTouchTheNewAttempt() {
+        NotificationOutbox o = new NotificationOutbox();
+        o.setIdempotencyKey("push:test:" + UUID.randomUUID());
+        o.setChannel("PUSH");
+        o.setPayload("{}");
+        // claimed again after the first lease ran out
+        o.setStatus(NotificationOutbox.SENDING);
+        o.setAttempts(2);
+        o.setNextAttemptAt(java.time.Instant.now().plusSeconds(300));
+        o.setCreatedAt(java.time.Instant.now());
+        Long id = outboxRepository.saveAndFlush(o).getId();
+
+        java.time.Instant now = java.time.Instant.now();
+        assertEquals(0, outboxRepository.markDone(id, 1, 201, now));
+        assertEquals(0, outboxRepository.markDead(id, 1, 410, "gone", now));
+        assertEquals(0, outboxRepository.markRetry(id, 1, 503, "busy", now));
+        assertEquals(1, outboxRepository.markDone(id, 2, 201, now));
+        em.clear();
+        assertEquals(NotificationOutbox.DONE, outboxRepository.findById(id).orElseThrow().getStatus());
+    }
+
+    @Test
+    @Transactional
+    void purgeDeletesOnlyCompletedRowsPastRetention() {
+        java.time.Instant now = java.time.Instant.now(), before = now.minus(java.time.Duration.ofDays(14));
+        Long oldDone = outboxRow(NotificationOutbox.DONE, now.minus(java.time.Duration.ofDays(30)));
+        Long oldDead = outboxRow(NotificationOutbox.DEAD, now.minus(java.time.Duration.ofDays(15)));
+        Long recentDone = outboxRow(NotificationOutbox.DONE, now.minus(java.time.Duration.ofDays(1)));
+        Long pending = outboxRow(NotificationOutbox.PENDING, null);
+
+        assertTrue(outboxService.purgeCompleted(before) >= 2);
+        em.clear();
+        assertFalse(outboxRepository.existsById(oldDone));
+        assertFalse(outboxRepository.existsById(oldDead));
+        assertTrue(outboxRepository.existsById(recentDone));
+        assertTrue(outboxRepository.existsById(pending));
+    }
+
+    private Long outboxRow(String status, java.time.Instant completedAt) {
+        NotificationOutbox o = new NotificationOutbox();
+        o.setIdempotencyKey("push:test:" + UUID.randomUUID());
+        o.setChannel("PUSH");
+        o.setPayload("{}");
+        o.setStatus(status);
+        o.setAttempts(1);
+        o.setNextAttemptAt(java.time.Instant.now().minus(java.time.Duration.ofDays(30)));
+        o.setCreatedAt(java.time.Instant.now().minus(java.time.Duration.ofDays(30)));
+        o.setCompletedAt(completedAt);
+        return outboxRepository.saveAndFlush(o).getId();
+    }
+}
@@ -0,0 +1,143 @@
+package com.traininginsights;
+
+import com.traininginsights.model.*;
+import com.traininginsights.repository.*;
+import com.traininginsights.service.NotificationScheduler;
+import com.traininginsights.service.NotificationService;
+import com.traininginsights.service.QuestionnaireResponseService;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.doThrow;
+
+/**
+ * Due reminders are claimed from trainings.notification_time, sent to athletes without a PRE response and dequeued,
+ * with a number of queries that does not depend on the number of athletes. A training whose reminder fails is retried
+ * later without holding up the rest of its batch.
+ */
+// statement counts are global: keep the outbox poll from running during the test
+@SpringBootTest(properties = {"spring.jpa.properties.hibernate.generate_statistics=true", "app.push.outboxPollMs=3600000", "app.analytics.repairMs=3600000"})
+public class NotificationSchedulerTest {
+    @Autowired NotificationScheduler scheduler;
+    @Autowired QuestionnaireResponseService responseService;
+    @Autowired TrainingRepository trainingRepository;
+    @Autowired GroupRepository groupRepository;
+    @Autowired UserRepository userRepository;
+    @Autowired QuestionnaireRepository questionnaireRepository;
+    @Autowired NotificationRepository notificationRepository;
+    @Autowired EntityManager em;
+    @Autowired EntityManagerFactory emf;
+    @Autowired JdbcTemplate jdbc;
+    @SpyBean NotificationService notificationService;
+
+    @Test
+    @Transactional
+    void remindsOnlyMissingAthletesAndDequeues() {
+        Group group = new Group();
+        group.setName("reminder-" + UUID.randomUUID());
+        group = groupRepository.save(group);
+        User filled = athlete(group);
+        Set<Long> missing = new HashSet<>();
+        for (int a = 0; a < 200; a++) missing.add(athlete(group).getId());
+        Questionnaire pre = new Questionnaire();
+        pre.setTitle("pre");
+        pre.setStructure("{\"fields\":[{\"name\":\"rpe\",\"type\":\"slider\"}]}");
+        pre = questionnaireRepository.save(pre);
+        Training training = new Training();
+        training.setTitle("reminder");
+        training.setTrainingTime(Instant.now().plus(1, ChronoUnit.HOURS));
+        training.setNotificationTime(Instant.now().minus(1, ChronoUnit.MINUTES));
+        training.setGroups(new HashSet<>(Set.of(group)));
+        training.setPreQuestionnaire(pre);
+        Long trainingId = trainingRepository.save(training).getId();
+        responseService.submit(filled, training, pre, "PRE", "{\"rpe\":5}");
+        em.flush();
+        em.clear();
+
+        Statistics stats = emf.unwrap(SessionFactory.class).getStatistics();
+        stats.clear();
+        scheduler.run();
+        em.flush();
+        em.clear();
+
+        // claim, sent check, recipients, trainings, users, push subscriptions, dequeue, and a second claim
+        assertTrue(stats.getQueryExecutionCount() <= 10, "expected a bounded number of queries, got " + stats.getQueryExecutionCount());
+
+        var notified = notificationRepository.findAll().stream()
+                .filter(n -> trainingId.equals(n.getTrainingId()))
+                .map(n -> n.getRecipient().getId())
+                .toList();
+        assertEquals(missing, new HashSet<>(notified));
+        assertEquals(missing.size(), notified.size());
+        assertNull(trainingRepository.findById(trainingId).orElseThrow().getNotificationTime());
+    }
+
+    @Test
+    void failingTrainingDoesNotBlockTheBatch() {
+        Group group = new Group();
+        group.setName("reminder-" + UUID.randomUUID());
+        group = groupRepository.save(group);
+        List<Long> athletes = List.of(athlete(group).getId(), athlete(group).getId());
+        Questionnaire pre = new Questionnaire();
+        pre.setTitle("pre");
+        pre.setStructure("{\"fields\":[{\"name\":\"rpe\",\"type\":\"slider\"}]}");
+        pre = questionnaireRepository.save(pre);
+        List<Long> trainings = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Training training = new Training();
+            training.setTitle("reminder-" + i);
+            training.setTrainingTime(Instant.now().plus(1, ChronoUnit.HOURS));
+            // the failing one is claimed first
+            training.setNotificationTime(Instant.now().minus(10 - i, ChronoUnit.MINUTES));
+            training.setGroups(new HashSet<>(Set.of(group)));
+            training.setPreQuestionnaire(pre);
+            trainings.add(trainingRepository.save(training).getId());
+        }
+        Long failing = trainings.get(0);
+        doThrow(new IllegalStateException("notification store down")).when(notificationService)
+                .createSystemNotificationsForUsers(anyCollection(), anyString(), anyString(), eq(failing), any());
+        try {
+            scheduler.run();
+
+            for (Long id : trainings.subList(1, 3)) {
+                assertEquals(new HashSet<>(athletes), new HashSet<>(jdbc.queryForList("select recipient_id from notification where training_id = ?", Long.class, id)));
+                assertNull(trainingRepository.findById(id).orElseThrow().getNotificationTime());
+            }
+            // the failed one sent nothing and waits for its retry instead of blocking the queue
+            assertEquals(0, jdbc.queryForObject("select count(*) from notification where training_id = ?", Long.class, failing));
+            assertTrue(trainingRepository.findById(failing).orElseThrow().getNotificationTime().isAfter(Instant.now()));
+        } finally {
+            for (Long id : trainings) {
+                jdbc.update("delete from notification where training_id = ?", id);
+                jdbc.update("delete from sent_notifications where training_id = ?", id);
+                jdbc.update("delete from training_groups where training_id = ?", id);
+                jdbc.update("delete from trainings where id = ?", id);
+            }
+            for (Long id : athletes) jdbc.update("delete from users where id = ?", id);
+            jdbc.update("delete from groups where id = ?", group.getId());
+            jdbc.update("delete from questionnaires where id = ?", pre.getId());
+        }
+    }
+
+    private User athlete(Group group) {
+        User u = new User();
+        u.setEmail("reminder-" + UUID.randomUUID() + "@example.com");
+        u.setPasswordHash("x");
+        u.setGroupEntity(group);
+        return userRepository.save(u);
+    }
+}
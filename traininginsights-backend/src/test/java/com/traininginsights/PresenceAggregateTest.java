@@ -0,0 +1,164 @@
+package com.traininginsights;
+
+import com.traininginsights.model.*;
+import com.traininginsights.repository.*;
+import com.traininginsights.service.AnalyticsService;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The grouped SQL presence aggregation returns what the per-training loop it replaced did, in one statement. An
+ * unparseable bound is rejected by every aggregate entry point rather than read as an open window.
+ */
+@SpringBootTest(properties = {"spring.jpa.properties.hibernate.generate_statistics=true", "app.push.outboxPollMs=3600000", "app.analytics.repairMs=3600000"})
+public class PresenceAggregateTest {
+    @Autowired AnalyticsService analyticsService;
+    @Autowired ClubRepository clubRepository;
+    @Autowired GroupRepository groupRepository;
+    @Autowired UserRepository userRepository;
+    @Autowired TrainingRepository trainingRepository;
+    @Autowired TrainingAttendanceRepository attendanceRepository;
+    @Autowired EntityManager em;
+    @Autowired EntityManagerFactory emf;
+
+    @Test
+    @Transactional
+    void setBasedAggregateMatchesLoop() {
+        Instant base = Instant.parse("2030-01-06T18:00:00Z");
+        Club club = new Club();
+        club.setName("bench-club-" + UUID.randomUUID());
+        club = clubRepository.save(club);
+        List<Group> groups = new ArrayList<>();
+        for (int g = 0; g < 3; g++) {
+            Group group = new Group();
+            group.setName("bench-group-" + g + "-" + UUID.randomUUID());
+            group.setClubs(new HashSet<>(Set.of(club)));
+            groups.add(groupRepository.save(group));
+        }
+        List<User> athletes = new ArrayList<>();
+        for (int a = 0; a < 30; a++) {
+            User u = new User();
+            u.setEmail("bench-" + a + "-" + UUID.randomUUID() + "@example.com");
+            u.setPasswordHash("x");
+            u.setGroupEntity(groups.get(a % groups.size()));
+            athletes.add(userRepository.save(u));
+        }
+        Random random = new Random(42);
+        for (int t = 0; t < 60; t++) {
+            Training training = new Training();
+            training.setTitle("bench-" + t);
+            training.setTrainingTime(base.plus(t * 2L, ChronoUnit.DAYS));
+            Set<Group> tg = new HashSet<>(Set.of(groups.get(t % groups.size())));
+            if (t % 5 == 0) tg.add(groups.get((t + 1) % groups.size()));
+            training.setGroups(tg);
+            training = trainingRepository.save(training);
+            for (User u : athletes) {
+                if (!tg.contains(u.getGroupEntity()) || random.nextInt(3) == 0) continue;
+                TrainingAttendance ta = new TrainingAttendance();
+                ta.setTraining(training);
+                ta.setUser(u);
+                ta.setPresent(random.nextInt(4) != 0);
+                attendanceRepository.save(ta);
+            }
+        }
+        em.flush();
+        em.clear();
+
+        String start = base.minus(1, ChronoUnit.DAYS).toString();
+        String end = base.plus(200, ChronoUnit.DAYS).toString();
+        Statistics stats = emf.unwrap(SessionFactory.class).getStatistics();
+        for (String dimension : List.of("athlete", "group", "club", "all")) {
+            for (String granularity : List.of("day", "week", "month", "training")) {
+                em.clear();
+                var expected = loopAggregate(dimension, granularity, club.getId(), Instant.parse(start), Instant.parse(end));
+                em.clear();
+                stats.clear();
+                var actual = analyticsService.presenceAggregate(dimension, granularity, null, club.getId(), start, end, null);
+                assertEquals(1, stats.getPrepareStatementCount(), dimension + "/" + granularity + " statements");
+                assertEquals(expected, actual, dimension + "/" + granularity);
+            }
+        }
+    }
+
+    @Test
+    void unparseableBoundIsRejected() {
+        String end = "2024-03-31T00:00:00Z";
+        assertThrows(IllegalArgumentException.class, () -> analyticsService.presenceAggregate("all", "day", null, null, "yesterday", end, null));
+        assertThrows(IllegalArgumentException.class, () -> analyticsService.aggregate("rpe", "all", "day", null, null, "2024-03-01", end, null, null));
+        assertThrows(IllegalArgumentException.class, () -> analyticsService.aggregateLive("rpe", "all", "day", null, null, end, "soon", null, null));
+        assertThrows(IllegalArgumentException.class, () -> analyticsService.rollupConsistency("rpe", "all", "day", null, null, "2024-03-01", end, null, null));
+        assertThrows(IllegalArgumentException.class, () -> analyticsService.availableMetrics(null, null, "2024-03-01", end, null, null));
+        // absent bounds stay open
+        assertNotNull(analyticsService.presenceAggregate("all", "day", null, null, null, "", null));
+    }
+
+    // The previous implementation: one attendance query per training, eligible athletes walked in memory.
+    // Group/club keys use the lowest id, which is what the SQL version guarantees.
+    private List<Map<String,Object>> loopAggregate(String dimension, String granularity, Long clubId, Instant start, Instant end) {
+        Map<String, long[]> buckets = new HashMap<>();
+        for (Training t : trainingRepository.findAll()) {
+            if (t.getTrainingTime() == null || t.getTrainingTime().isBefore(start) || t.getTrainingTime().isAfter(end)) continue;
+            if (t.getGroups().stream().noneMatch(g -> g.getClubs().stream().anyMatch(c -> c.getId().equals(clubId)))) continue;
+            Set<Long> eligible = new HashSet<>();
+            for (Group g : t.getGroups()) for (User a : g.getAthletes()) eligible.add(a.getId());
+            if (eligible.isEmpty()) continue;
+            Set<Long> present = new HashSet<>();
+            for (TrainingAttendance ta : attendanceRepository.findByTraining(t)) if (ta.isPresent()) present.add(ta.getUser().getId());
+            present.retainAll(eligible);
+
+            java.time.ZonedDateTime z = java.time.ZonedDateTime.ofInstant(t.getTrainingTime(), java.time.ZoneId.systemDefault());
+            String period = switch (granularity) {
+                case "week" -> z.get(java.time.temporal.IsoFields.WEEK_BASED_YEAR) + "-" + String.format("%02d", z.get(java.time.temporal.IsoFields.WEEK_OF_WEEK_BASED_YEAR));
+                case "month" -> z.getYear() + "-" + String.format("%02d", z.getMonthValue());
+                case "training" -> String.valueOf(t.getId());
+                default -> z.toLocalDate().toString();
+            };
+            Group first = t.getGroups().stream().min(Comparator.comparing(Group::getId)).orElseThrow();
+            switch (dimension) {
+                case "athlete" -> {
+                    for (Long uid : eligible) {
+                        long[] agg = buckets.computeIfAbsent(uid + "|" + period, k -> new long[2]);
+                        agg[1] += 1;
+                        if (present.contains(uid)) agg[0] += 1;
+                    }
+                }
+                default -> {
+                    String key = switch (dimension) {
+                        case "group" -> String.valueOf(first.getId());
+                        case "club" -> first.getClubs().stream().map(Club::getId).min(Long::compare).map(String::valueOf).orElse("noclub");
+                        default -> "all";
+                    };
+                    long[] agg = buckets.computeIfAbsent(key + "|" + period, k -> new long[2]);
+                    agg[1] += eligible.size();
+                    agg[0] += present.size();
+                }
+            }
+        }
+        List<Map<String,Object>> out = new ArrayList<>();
+        for (var e : buckets.entrySet()) {
+            String[] parts = e.getKey().split("\\|", 2);
+            long num = e.getValue()[0], den = e.getValue()[1];
+            Map<String,Object> m = new HashMap<>();
+            m.put("key", parts[0]);
+            m.put("period", parts[1]);
+            m.put("value", den > 0 ? ((double) num) / ((double) den) : 0.0);
+            m.put("numerator", num);
+            m.put("denominator", den);
+            out.add(m);
+        }
+        out.sort(Comparator.comparing((Map<String,Object> m) -> String.valueOf(m.get("period"))).thenComparing(m -> String.valueOf(m.get("key"))));
+        return out;
+    }
+}
@@ -0,0 +1,95 @@
+package com.traininginsights;
+
+import com.traininginsights.model.*;
+import com.traininginsights.repository.*;
+import com.traininginsights.service.AnalyticsService;
+import com.traininginsights.service.QuestionnaireResponseService;
+import com.traininginsights.service.ResponseMetricService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Metrics are written with the response they come from, and a stale response_metrics table stays stale in the
+ * database (not only in memory) until a backfill has covered every response again. Phase filters ignore case on the
+ * typed and the JSON paths alike.
+ */
+@SpringBootTest
+public class ResponseMetricServiceTest {
+    @Autowired ResponseMetricService metricService;
+    @Autowired QuestionnaireResponseService responseService;
+    @Autowired AnalyticsService analyticsService;
+    @Autowired GroupRepository groupRepository;
+    @Autowired TrainingRepository trainingRepository;
+    @Autowired UserRepository userRepository;
+    @Autowired QuestionnaireRepository questionnaireRepository;
+    @Autowired JdbcTemplate jdbc;
+
+    @Test
+    @Transactional
+    void submitWritesMetricsAndStaleStateIsPersistedUntilBackfill() {
+        User athlete = new User();
+        athlete.setEmail("metrics-" + UUID.randomUUID() + "@example.com");
+        athlete.setPasswordHash("x");
+        athlete = userRepository.save(athlete);
+        Questionnaire post = new Questionnaire();
+        post.setTitle("post");
+        post.setStructure("{\"fields\":[{\"name\":\"rpe\",\"type\":\"slider\"}]}");
+        post = questionnaireRepository.save(post);
+        Training training = new Training();
+        training.setTitle("metrics");
+        training.setTrainingTime(Instant.now());
+        training = trainingRepository.save(training);
+
+        Long id = responseService.submit(athlete, training, post, "POST", "{\"rpe\":7,\"note\":\"ok\"}").getId();
+        assertEquals(List.of(7.0), jdbc.queryForList("select value from response_metrics where response_id = ?", Double.class, id));
+        id = responseService.submit(athlete, training, post, "POST", "{\"rpe\":4}").getId();
+        assertEquals(List.of(4.0), jdbc.queryForList("select value from response_metrics where response_id = ?", Double.class, id));
+
+        metricService.markStale();
+        // what a restarted instance reads
+        assertFalse(metricService.refresh());
+        metricService.backfill();
+        assertTrue(metricService.refresh());
+        assertEquals(List.of(4.0), jdbc.queryForList("select value from response_metrics where response_id = ?", Double.class, id));
+    }
+
+    @Test
+    @Transactional
+    void phaseFilterIgnoresCase() {
+        Group group = new Group();
+        group.setName("metrics-" + UUID.randomUUID());
+        group = groupRepository.save(group);
+        User athlete = new User();
+        athlete.setEmail("metrics-" + UUID.randomUUID() + "@example.com");
+        athlete.setPasswordHash("x");
+        athlete = userRepository.save(athlete);
+        Questionnaire post = new Questionnaire();
+        post.setTitle("post");
+        post.setStructure("{\"fields\":[{\"name\":\"rpe\",\"type\":\"slider\"}]}");
+        post = questionnaireRepository.save(post);
+        Training training = new Training();
+        training.setTitle("metrics");
+        training.setTrainingTime(Instant.now());
+        training.setGroups(new HashSet<>(Set.of(group)));
+        training = trainingRepository.save(training);
+        responseService.submit(athlete, training, post, "post", "{\"rpe\":7}");
+
+        for (String phase : List.of("POST", "Post", " post ")) {
+            var live = analyticsService.aggregateOptimized("rpe", "all", "day", group.getId(), null, null, null, phase, null);
+            assertEquals(1, live.size(), phase);
+            assertEquals(7.0, ((Number) live.get(0).get("value")).doubleValue(), phase);
+            var rows = analyticsService.drilldown(List.of("rpe"), "all", "day", group.getId(), null, null, null, phase, null, null, 0, 10, null, null, null).rows;
+            assertEquals(1, rows.size(), phase);
+            assertEquals(Set.of("rpe"), analyticsService.availableMetrics(group.getId(), null, null, null, phase, null), phase);
+        }
+        assertTrue(analyticsService.aggregateOptimized("rpe", "all", "day", group.getId(), null, null, null, "PRE", null).isEmpty());
+    }
+}
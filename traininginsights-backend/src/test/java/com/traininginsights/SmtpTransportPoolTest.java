@@ -0,0 +1,202 @@
+package com.traininginsights;
+
+import com.traininginsights.model.Club;
+import com.traininginsights.service.AttachmentPartCache;
+import com.traininginsights.service.EmailService;
+import com.traininginsights.service.MailQueue;
+import com.traininginsights.service.SmtpTransportPool;
+import jakarta.mail.internet.InternetAddress;
+import jakarta.mail.internet.MimeMessage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Mails for one club reuse a pooled SMTP connection, and broadcasts are split into BCC chunks, measured against an
+ * in-process stand-in SMTP server that counts connections, recipients and accepted messages.
+ */
+public class SmtpTransportPoolTest {
+    private final FakeSmtpServer server = new FakeSmtpServer();
+    private final FakeSmtpServer other = new FakeSmtpServer();
+
+    @AfterEach
+    void stop() throws IOException {
+        server.close();
+        other.close();
+    }
+
+    @Test
+    void reusesConnectionsAndRebuildsOnSettingsChange() throws Exception {
+        Club club = club(1L, server.port());
+        SmtpTransportPool pool = new SmtpTransportPool(60, 2);
+        for (int i = 0; i < 50; i++) pool.send(club, message(pool, club, i));
+        assertEquals(50, server.messages.get());
+        assertEquals(1, server.connections.get());
+
+        // without pooling every mail opens its own connection
+        SmtpTransportPool unpooled = new SmtpTransportPool(60, 0);
+        Club second = club(2L, server.port());
+        for (int i = 1; i < 50; i++) unpooled.send(second, message(unpooled, second, i));
+        assertEquals(99, server.messages.get());
+        assertEquals(50, server.connections.get());
+
+        // explicit invalidation drops the pooled connection
+        pool.invalidate(1L);
+        pool.send(club, message(pool, club, 50));
+        assertEquals(51, server.connections.get());
+
+        // changed SMTP settings never reuse a connection to the old server
+        club.setSmtpPort(other.port());
+        pool.send(club, message(pool, club, 51));
+        assertEquals(51, server.connections.get());
+        assertEquals(1, other.connections.get());
+        assertEquals(1, other.messages.get());
+    }
+
+    @Test
+    void broadcastIsSentInRateLimitedChunks() throws Exception {
+        Club club = club(3L, server.port());
+        org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor executor = new org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(2);
+        executor.initialize();
+        try {
+            // no EmailLog repository here: logging failures never affect sending
+            MailQueue queue = new MailQueue(new EmailService(null, new SmtpTransportPool(60, 2), new AttachmentPartCache(8)), executor, 50, 600);
+            List<String> bcc = new ArrayList<>();
+            for (int i = 0; i < 120; i++) bcc.add("athlete" + i + "@example.com");
+            bcc.add("athlete0@example.com");
+            long t0 = System.nanoTime();
+            List<CompletableFuture<List<String>>> chunks = queue.submitBcc(club, bcc, "news", "body", null);
+            List<String> delivered = new ArrayList<>();
+            for (var chunk : chunks) delivered.addAll(chunk.get(10, TimeUnit.SECONDS));
+            long elapsedMs = (System.nanoTime() - t0) / 1_000_000;
+
+            assertEquals(3, chunks.size());
+            assertEquals(120, delivered.size());
+            assertEquals(3, server.messages.get());
+            assertEquals(120, server.recipients.get());
+            // 600 per minute: the third chunk waits for its slot, 200 ms after the first
+            assertTrue(elapsedMs >= 180, "chunks were not spaced: " + elapsedMs + " ms");
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void cachedAttachmentPartsArriveIntact() throws Exception {
+        Club club = club(4L, server.port());
+        File file = File.createTempFile("attachment", ".bin");
+        file.deleteOnExit();
+        byte[] data = new byte[100_000];
+        new java.util.Random(7).nextBytes(data);
+        java.nio.file.Files.write(file.toPath(), data);
+        AttachmentPartCache parts = new AttachmentPartCache(8);
+        EmailService email = new EmailService(null, new SmtpTransportPool(60, 2), parts);
+
+        assertTrue(email.sendBccMailWithAttachments(club, List.of("a@example.com"), "one", "body", List.of(file)));
+        assertTrue(email.sendBccMailWithAttachments(club, List.of("b@example.com"), "two", "body", List.of(file)));
+        assertEquals(2, server.data.size());
+        // both messages carry the same encoded body, and it decodes to the file
+        for (String raw : server.data){
+            MimeMessage m = new MimeMessage(jakarta.mail.Session.getInstance(new java.util.Properties()), new ByteArrayInputStream(raw.getBytes(StandardCharsets.US_ASCII)));
+            jakarta.mail.Multipart mp = (jakarta.mail.Multipart) m.getContent();
+            jakarta.mail.BodyPart attachment = mp.getBodyPart(mp.getCount() - 1);
+            assertEquals(file.getName(), attachment.getFileName());
+            assertArrayEquals(data, attachment.getInputStream().readAllBytes());
+        }
+        // a file over a quarter of the cache is attached from disk instead
+        assertNull(new AttachmentPartCache(0).part(file));
+    }
+
+    private static Club club(Long id, int port){
+        Club c = new Club();
+        c.setId(id);
+        c.setName("smtp-" + id);
+        c.setSmtpHost("127.0.0.1");
+        c.setSmtpPort(port);
+        c.setSmtpUseTls(false);
+        c.setSmtpFrom("club@example.com");
+        return c;
+    }
+
+    private static MimeMessage message(SmtpTransportPool pool, Club club, int i) throws Exception {
+        MimeMessage m = pool.createMimeMessage(club);
+        m.setFrom(new InternetAddress(club.getSmtpFrom()));
+        m.setRecipient(jakarta.mail.Message.RecipientType.TO, new InternetAddress("athlete" + i + "@example.com"));
+        m.setSubject("mail " + i);
+        m.setText("body " + i);
+        return m;
+    }
+
+    // Just enough SMTP for JavaMail: greeting, EHLO, MAIL/RCPT/RSET/NOOP, DATA and QUIT
+    private static class FakeSmtpServer implements Closeable {
+        final AtomicInteger connections = new AtomicInteger();
+        final AtomicInteger messages = new AtomicInteger();
+        final AtomicInteger recipients = new AtomicInteger();
+        final List<String> data = java.util.Collections.synchronizedList(new ArrayList<>());
+        private final ServerSocket socket;
+
+        FakeSmtpServer(){
+            try { socket = new ServerSocket(0); } catch (IOException e){ throw new UncheckedIOException(e); }
+            Thread t = new Thread(() -> {
+                while (!socket.isClosed()){
+                    try {
+                        Socket s = socket.accept();
+                        connections.incrementAndGet();
+                        Thread session = new Thread(() -> serve(s));
+                        session.setDaemon(true);
+                        session.start();
+                    } catch (IOException ignored){ }
+                }
+            });
+            t.setDaemon(true);
+            t.start();
+        }
+
+        int port(){ return socket.getLocalPort(); }
+
+        private void serve(Socket s){
+            try (s; BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.US_ASCII));
+                 Writer out = new OutputStreamWriter(s.getOutputStream(), StandardCharsets.US_ASCII)){
+                reply(out, "220 localhost ESMTP");
+                String line;
+                while ((line = in.readLine()) != null){
+                    String cmd = line.length() >= 4 ? line.substring(0, 4).toUpperCase() : line.toUpperCase();
+                    switch (cmd){
+                        case "EHLO" -> reply(out, "250-localhost\r\n250 8BITMIME");
+                        case "RCPT" -> { recipients.incrementAndGet(); reply(out, "250 OK"); }
+                        case "DATA" -> {
+                            reply(out, "354 end with .");
+                            StringBuilder message = new StringBuilder();
+                            while ((line = in.readLine()) != null && !line.equals(".")) message.append(line.startsWith("..") ? line.substring(1) : line).append("\r\n");
+                            data.add(message.toString());
+                            messages.incrementAndGet();
+                            reply(out, "250 queued");
+                        }
+                        case "QUIT" -> { reply(out, "221 bye"); return; }
+                        default -> reply(out, "250 OK");
+                    }
+                }
+            } catch (IOException ignored){ }
+        }
+
+        private static void reply(Writer out, String text) throws IOException {
+            out.write(text + "\r\n");
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException { socket.close(); }
+    }
+}
@@ -0,0 +1,175 @@
+package com.traininginsights;
+
+import com.traininginsights.model.*;
+import com.traininginsights.repository.*;
+import com.traininginsights.service.TrainingService;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The training list must load in a fixed number of SQL statements, however many trainings, groups, trainers
+ * and series occurrences there are.
+ */
+// statement counts are global: keep the outbox poll from running during the test
+@SpringBootTest(properties = {"spring.jpa.properties.hibernate.generate_statistics=true", "app.push.outboxPollMs=3600000", "app.analytics.repairMs=3600000"})
+public class TrainingListQueryCountTest {
+    @Autowired TrainingService trainingService;
+    @Autowired TrainingRepository trainingRepository;
+    @Autowired TrainingSeriesRepository seriesRepository;
+    @Autowired GroupRepository groupRepository;
+    @Autowired UserRepository userRepository;
+    @Autowired QuestionnaireRepository questionnaireRepository;
+    @Autowired EntityManager em;
+    @Autowired EntityManagerFactory emf;
+
+    @Test
+    @Transactional
+    void trainerListUsesBoundedStatements() {
+        User trainer = user("trainer");
+        User other = user("other-trainer");
+        List<Group> groups = new ArrayList<>();
+        for (int g = 0; g < 4; g++) {
+            Group group = new Group();
+            group.setName("count-group-" + g + "-" + UUID.randomUUID());
+            group.setTrainers(new HashSet<>(Set.of(g % 2 == 0 ? trainer : other)));
+            groups.add(groupRepository.save(group));
+        }
+        Questionnaire pre = questionnaire("pre"), post = questionnaire("post");
+        TrainingSeries series = new TrainingSeries();
+        series.setRrule("FREQ=WEEKLY;INTERVAL=1;BYDAY=MO");
+        series.setStartTime(Instant.parse("2031-01-06T18:00:00Z"));
+        series.setEndTime(Instant.parse("2031-01-06T19:30:00Z"));
+        series.setCount(40);
+        series = seriesRepository.save(series);
+        for (int t = 0; t < 40; t++) {
+            Training training = new Training();
+            training.setTitle("count-" + t);
+            training.setTrainingTime(series.getStartTime().plus(7L * t, ChronoUnit.DAYS));
+            training.setGroups(new HashSet<>(Set.of(groups.get(t % groups.size()), groups.get((t + 1) % groups.size()))));
+            training.setPreQuestionnaire(pre);
+            training.setPostQuestionnaire(post);
+            training.setSeries(series);
+            training.setSeriesSequence(t + 1);
+            training.setCreatedBy(other);
+            trainingRepository.save(training);
+        }
+        em.flush();
+        em.clear();
+
+        Statistics stats = emf.unwrap(SessionFactory.class).getStatistics();
+        stats.clear();
+        var dtos = trainingService.listView(null, trainer.getId());
+        long statements = stats.getPrepareStatementCount();
+
+        // list rows, group rows, series sequences
+        assertTrue(statements <= 3, "expected at most 3 statements, got " + statements);
+        var mine = dtos.stream().filter(d -> d.title.startsWith("count-")).toList();
+        assertEquals(40, mine.size());
+        for (var dto : mine) {
+            assertEquals(2, dto.groupIds.size());
+            assertEquals(pre.getId(), dto.preQuestionnaireId);
+            assertEquals(post.getId(), dto.postQuestionnaireId);
+            assertEquals(40, dto.recurrenceSummary.totalOccurrences);
+            assertEquals(41 - dto.seriesSequence, dto.recurrenceSummary.remainingOccurrences);
+        }
+    }
+
+    @Test
+    @Transactional
+    void trainerVisibilityWindowAndPageAreAppliedInSql() {
+        User trainer = user("window-trainer");
+        User author = user("window-author");
+        Group mine = new Group();
+        mine.setName("window-mine-" + UUID.randomUUID());
+        mine.setTrainers(new HashSet<>(Set.of(trainer)));
+        mine = groupRepository.save(mine);
+        Group foreign = new Group();
+        foreign.setName("window-foreign-" + UUID.randomUUID());
+        foreign = groupRepository.save(foreign);
+        Instant base = Instant.parse("2032-03-01T18:00:00Z");
+        for (int t = 0; t < 10; t++) {
+            Training training = new Training();
+            training.setTitle("window-" + t);
+            training.setTrainingTime(base.plus(t, ChronoUnit.DAYS));
+            // even days in the trainer's group, odd days elsewhere; day 9 authored by the trainer
+            training.setGroups(new HashSet<>(Set.of(t % 2 == 0 ? mine : foreign)));
+            training.setCreatedBy(t == 9 ? trainer : author);
+            trainingRepository.save(training);
+        }
+        em.flush();
+        em.clear();
+
+        var from = base.plus(2, ChronoUnit.DAYS);
+        var to = base.plus(10, ChronoUnit.DAYS);
+        var visible = trainingService.listView(null, trainer.getId(), true, from, to, org.springframework.data.domain.Pageable.unpaged());
+        assertEquals(List.of("window-2", "window-4", "window-6", "window-8", "window-9"), visible.stream().map(d -> d.title).toList());
+
+        var assignedOnly = trainingService.listView(null, trainer.getId(), false, from, to, org.springframework.data.domain.Pageable.unpaged());
+        assertEquals(List.of("window-2", "window-4", "window-6", "window-8"), assignedOnly.stream().map(d -> d.title).toList());
+
+        var secondPage = trainingService.listView(null, trainer.getId(), true, from, to, org.springframework.data.domain.PageRequest.of(1, 2));
+        assertEquals(List.of("window-6", "window-8"), secondPage.stream().map(d -> d.title).toList());
+
+        var groupPage = trainingService.findByGroupId(foreign.getId(), null, base.plus(5, ChronoUnit.DAYS), org.springframework.data.domain.Pageable.unpaged());
+        assertEquals(List.of("window-1", "window-3"), groupPage.stream().map(Training::getTitle).toList());
+    }
+
+    @Test
+    @Transactional
+    void calendarWalksTheWindowWithACursor() {
+        Group group = new Group();
+        group.setName("calendar-" + UUID.randomUUID());
+        group = groupRepository.save(group);
+        Instant base = Instant.parse("2033-05-01T18:00:00Z");
+        for (int t = 0; t < 7; t++) {
+            Training training = new Training();
+            training.setTitle("calendar-" + t);
+            // two trainings share each start time, so the cursor has to break ties on id
+            training.setTrainingTime(base.plus(t / 2, ChronoUnit.DAYS));
+            training.setGroups(new HashSet<>(Set.of(group)));
+            trainingRepository.save(training);
+        }
+        em.flush();
+        em.clear();
+
+        List<String> titles = new ArrayList<>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            var page = trainingService.calendar(group.getId(), null, base, base.plus(3, ChronoUnit.DAYS), cursor, 2);
+            page.entries.forEach(e -> titles.add(e.title));
+            page.entries.forEach(e -> assertEquals(Set.of(e.groupIds.iterator().next()), e.groupIds));
+            cursor = page.nextCursor;
+            pages++;
+        } while (cursor != null);
+        // the training on day 3 is outside the window
+        assertEquals(List.of("calendar-0", "calendar-1", "calendar-2", "calendar-3", "calendar-4", "calendar-5"), titles);
+        assertEquals(3, pages);
+    }
+
+    private User user(String prefix) {
+        User u = new User();
+        u.setEmail(prefix + "-" + UUID.randomUUID() + "@example.com");
+        u.setPasswordHash("x");
+        return userRepository.save(u);
+    }
+
+    private Questionnaire questionnaire(String title) {
+        Questionnaire q = new Questionnaire();
+        q.setTitle(title);
+        q.setStructure("{\"fields\":[{\"name\":\"rpe\",\"type\":\"slider\"}]}");
+        return questionnaireRepository.save(q);
+    }
+}
@@ -0,0 +1,88 @@
+package com.traininginsights.security;
+
+import io.jsonwebtoken.ExpiredJwtException;
+import io.jsonwebtoken.JwtException;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * A cached token is verified once and then served without parsing, until it expires or is evicted; a cached token is
+ * still rejected once it is expired, and a forged one is never accepted or cached.
+ */
+public class JwtServiceTest {
+    private static final String SECRET = "test-secret-that-is-not-base64!";
+
+    @Test
+    void cachedVerificationSkipsTheParse() {
+        JwtService uncached = new JwtService(SECRET, 3_600_000, 0);
+        JwtService cached = new JwtService(SECRET, 3_600_000, 1000);
+        List<String> tokens = new ArrayList<>();
+        for (int i = 0; i < 200; i++) tokens.add(uncached.generateToken("athlete-" + i + "@example.com", Map.of("roles", List.of("ROLE_ATHLETE"))));
+
+        // the filter's per-request calls: extractUsername, then isTokenValid
+        verify(uncached, tokens, 3);
+        assertEquals(2 * 3 * tokens.size(), uncached.parses());
+        verify(cached, tokens, 3);
+        assertEquals(tokens.size(), cached.parses());
+
+        // a token of another key is rejected whether or not its look-alike is cached, and is not cached
+        String forged = new JwtService("another-secret-entirely-not-base64!", 3_600_000, 0).generateToken("athlete-0@example.com", Map.of());
+        assertThrows(JwtException.class, () -> cached.extractUsername(forged));
+        assertThrows(JwtException.class, () -> cached.extractUsername(forged));
+        assertEquals(tokens.size() + 2, cached.parses());
+
+        // a small cache evicts old entries: each token is parsed again, then served from the cache once
+        JwtService tiny = new JwtService(SECRET, 3_600_000, 2);
+        verify(tiny, tokens, 2);
+        assertEquals(2 * tokens.size(), tiny.parses());
+    }
+
+    @Test
+    void expiredTokenIsRejectedAfterCaching() {
+        MutableClock clock = new MutableClock(Instant.parse("2024-03-03T18:00:00Z"));
+        JwtService cached = new JwtService(SECRET, 60_000, 1000, clock);
+        String token = cached.generateToken("expiring@example.com", Map.of());
+        assertTrue(cached.isTokenValid(token, "expiring@example.com"));
+        clock.advance(Duration.ofSeconds(59));
+        assertEquals("expiring@example.com", cached.extractUsername(token));
+        assertEquals(1, cached.parses());
+
+        clock.advance(Duration.ofSeconds(2));
+        assertThrows(ExpiredJwtException.class, () -> cached.extractUsername(token));
+        assertEquals(2, cached.parses());
+    }
+
+    private static void verify(JwtService service, List<String> tokens, int rounds) {
+        for (int r = 0; r < rounds; r++) {
+            for (int i = 0; i < tokens.size(); i++) {
+                String username = service.extractUsername(tokens.get(i));
+                assertEquals("athlete-" + i + "@example.com", username);
+                assertTrue(service.isTokenValid(tokens.get(i), username));
+            }
+        }
+    }
+
+    private static class MutableClock extends Clock {
+        private Instant now;
+
+        MutableClock(Instant now) { this.now = now; }
+
+        void advance(Duration d) { now = now.plus(d); }
+
+        @Override public ZoneId getZone() { return ZoneOffset.UTC; }
+
+        @Override public Clock withZone(ZoneId zone) { return this; }
+
+        @Override public Instant instant() { return now; }
+    }
+}
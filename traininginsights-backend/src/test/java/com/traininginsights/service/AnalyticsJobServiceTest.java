@@ -0,0 +1,132 @@
+package com.traininginsights.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Analytics jobs without a database: a repeated query is answered from the fingerprint cache until the metric version
+ * moves, the job table is capped with 429, a job is only visible to its owner, and finished jobs expire.
+ */
+public class AnalyticsJobServiceTest {
+    private final AtomicLong version = new AtomicLong();
+    private final ResponseMetricService metricService = new ResponseMetricService(null, null, null, null) {
+        @Override
+        public long version() { return version.get(); }
+    };
+    private final MutableClock clock = new MutableClock(Instant.parse("2024-03-03T18:00:00Z"));
+
+    @Test
+    void repeatedQueryIsAnsweredFromTheCacheUntilTheVersionMoves() {
+        AnalyticsJobService service = new AnalyticsJobService(inline(), metricService, clock);
+        AtomicInteger runs = new AtomicInteger();
+        Map<String,Object> params = new HashMap<>(Map.of("metric", "rpe", "groupIds", List.of(3L, 1L, 2L)));
+
+        AnalyticsJobService.Job first = service.submit("coach@example.com", "aggregate", params, () -> "rows-" + runs.incrementAndGet());
+        assertEquals(AnalyticsJobService.Status.DONE, first.getStatus());
+        assertEquals(false, first.describe().get("cached"));
+
+        // same query: collection order and blank parameters do not change the fingerprint
+        Map<String,Object> same = new HashMap<>(Map.of("groupIds", List.of(1L, 2L, 3L), "metric", "rpe", "phase", " "));
+        AnalyticsJobService.Job second = service.submit("coach@example.com", "aggregate", same, () -> "rows-" + runs.incrementAndGet());
+        assertNotEquals(first.getId(), second.getId());
+        assertEquals(AnalyticsJobService.Status.DONE, second.getStatus());
+        assertEquals(true, second.describe().get("cached"));
+        assertEquals("rows-1", second.getResult());
+        assertEquals(1, runs.get());
+
+        // another type or other data is a different query
+        service.submit("coach@example.com", "drilldown", params, () -> "rows-" + runs.incrementAndGet());
+        assertEquals(2, runs.get());
+        version.incrementAndGet();
+        AnalyticsJobService.Job afterChange = service.submit("coach@example.com", "aggregate", params, () -> "rows-" + runs.incrementAndGet());
+        assertEquals(false, afterChange.describe().get("cached"));
+        assertEquals("rows-3", afterChange.getResult());
+    }
+
+    @Test
+    void fullJobTableIsRejectedWith429() {
+        List<Runnable> queued = new CopyOnWriteArrayList<>();
+        AnalyticsJobService service = new AnalyticsJobService(queued::add, metricService, clock);
+        AnalyticsJobService.Job first = null;
+        for (int i = 0; i < 500; i++) {
+            AnalyticsJobService.Job job = service.submit("coach@example.com", "aggregate", Map.of("metric", "m" + i), () -> "rows");
+            if (first == null) first = job;
+        }
+        assertEquals(500, queued.size());
+
+        ResponseStatusException full = assertThrows(ResponseStatusException.class,
+                () -> service.submit("coach@example.com", "aggregate", Map.of("metric", "one-more"), () -> "rows"));
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS, full.getStatusCode());
+        // an unfinished duplicate is still handed back rather than counted
+        assertSame(first, service.submit("coach@example.com", "aggregate", Map.of("metric", "m0"), () -> "rows"));
+        assertEquals(500, queued.size());
+    }
+
+    @Test
+    void jobIsOnlyVisibleToItsOwner() {
+        AnalyticsJobService service = new AnalyticsJobService(inline(), metricService, clock);
+        AnalyticsJobService.Job job = service.submit("coach@example.com", "aggregate", Map.of("metric", "rpe"), () -> "rows");
+
+        assertSame(job, service.get(job.getId(), "coach@example.com"));
+        assertNotFound(() -> service.get(job.getId(), "athlete@example.com"));
+        assertNotFound(() -> service.get("no-such-job", "coach@example.com"));
+    }
+
+    @Test
+    void finishedJobsExpireAfterTheRetention() {
+        AnalyticsJobService service = new AnalyticsJobService(inline(), metricService, clock);
+        AnalyticsJobService.Job done = service.submit("coach@example.com", "aggregate", Map.of("metric", "rpe"), () -> "rows");
+        AnalyticsJobService.Job failed = service.submit("coach@example.com", "aggregate", Map.of("metric", "load"), () -> { throw new IllegalStateException("boom"); });
+        assertEquals(AnalyticsJobService.Status.FAILED, failed.getStatus());
+        assertEquals("boom", failed.getError());
+
+        clock.advance(Duration.ofMinutes(29));
+        service.submit("coach@example.com", "aggregate", Map.of("metric", "other"), () -> "rows");
+        assertSame(done, service.get(done.getId(), "coach@example.com"));
+
+        // expired jobs are dropped on the next submission
+        clock.advance(Duration.ofMinutes(2));
+        service.submit("coach@example.com", "aggregate", Map.of("metric", "another"), () -> "rows");
+        assertNotFound(() -> service.get(done.getId(), "coach@example.com"));
+        assertNotFound(() -> service.get(failed.getId(), "coach@example.com"));
+    }
+
+    private static AsyncTaskExecutor inline() {
+        return Runnable::run;
+    }
+
+    private static void assertNotFound(org.junit.jupiter.api.function.Executable call) {
+        ResponseStatusException ex = assertThrows(ResponseStatusException.class, call);
+        assertEquals(HttpStatus.NOT_FOUND, ex.getStatusCode());
+    }
+
+    private static class MutableClock extends Clock {
+        private Instant now;
+
+        MutableClock(Instant now) { this.now = now; }
+
+        void advance(Duration d) { now = now.plus(d); }
+
+        @Override public ZoneId getZone() { return ZoneOffset.UTC; }
+
+        @Override public Clock withZone(ZoneId zone) { return this; }
+
+        @Override public Instant instant() { return now; }
+    }
+}
@@ -0,0 +1,159 @@
+package com.traininginsights.service;
+
+import com.traininginsights.model.PushSubscription;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Push delivery without a push service: Retry-After parsing, the outbox backoff, and the dispatcher's per-host limit,
+ * FIFO order per host, in-flight capacity and NOT_SENT result, against a stub PushService.
+ */
+public class PushDispatcherTest {
+    private final ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+
+    @AfterEach
+    void stop() {
+        executor.shutdown();
+    }
+
+    @Test
+    void retryAfterIsDelaySecondsOrHttpDate() {
+        assertEquals(Duration.ofSeconds(120), PushService.parseRetryAfter("120"));
+        assertEquals(Duration.ZERO, PushService.parseRetryAfter(" 0 "));
+        assertEquals(Duration.ZERO, PushService.parseRetryAfter("-5"));
+        String inAMinute = DateTimeFormatter.RFC_1123_DATE_TIME.format(Instant.now().plusSeconds(60).atZone(ZoneOffset.UTC));
+        Duration d = PushService.parseRetryAfter(inAMinute);
+        assertTrue(d.compareTo(Duration.ofSeconds(55)) >= 0 && d.compareTo(Duration.ofSeconds(60)) <= 0, d.toString());
+        String past = DateTimeFormatter.RFC_1123_DATE_TIME.format(Instant.now().minusSeconds(60).atZone(ZoneOffset.UTC));
+        assertEquals(Duration.ZERO, PushService.parseRetryAfter(past));
+        assertNull(PushService.parseRetryAfter("soon"));
+        assertNull(PushService.parseRetryAfter(null));
+    }
+
+    @Test
+    void backoffFollowsRetryAfterOrDoublesWithJitter() {
+        assertEquals(Duration.ofSeconds(30), NotificationOutboxService.backoff(1, Duration.ofSeconds(30)));
+        // Retry-After is capped like the computed backoff
+        assertEquals(Duration.ofMinutes(10), NotificationOutboxService.backoff(1, Duration.ofHours(1)));
+        for (int i = 0; i < 20; i++) {
+            assertBetween(Duration.ofSeconds(2), Duration.ofMillis(2400), NotificationOutboxService.backoff(1, null));
+            assertBetween(Duration.ofSeconds(8), Duration.ofMillis(9600), NotificationOutboxService.backoff(3, null));
+            assertBetween(Duration.ofMinutes(10), Duration.ofMinutes(12), NotificationOutboxService.backoff(40, null));
+        }
+    }
+
+    @Test
+    void sendsAtMostPerHostAtOnceAndCountsInFlight() throws Exception {
+        executor.setCorePoolSize(8);
+        executor.initialize();
+        CountDownLatch release = new CountDownLatch(1);
+        Map<String, AtomicInteger> running = new ConcurrentHashMap<>(), peak = new ConcurrentHashMap<>();
+        CountDownLatch otherHostSent = new CountDownLatch(2);
+        PushService stub = stub(s -> {
+            String host = java.net.URI.create(s.getEndpoint()).getHost();
+            int now = running.computeIfAbsent(host, h -> new AtomicInteger()).incrementAndGet();
+            peak.computeIfAbsent(host, h -> new AtomicInteger()).accumulateAndGet(now, Math::max);
+            try {
+                if (host.equals("busy.example.com")) release.await(10, TimeUnit.SECONDS);
+                else otherHostSent.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            running.get(host).decrementAndGet();
+            return new PushService.Delivery(201, null);
+        });
+        PushDispatcher dispatcher = new PushDispatcher(stub, executor, 2, 10);
+        List<PushService.Delivery> results = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(8);
+        for (int i = 0; i < 6; i++) dispatcher.send(message(i, "busy.example.com"), r -> { results.add(r); done.countDown(); });
+        // nothing for the busy host completes before the release
+        assertEquals(4, dispatcher.capacity());
+        for (int i = 6; i < 8; i++) dispatcher.send(message(i, "other.example.com"), r -> { results.add(r); done.countDown(); });
+
+        // a saturated host does not hold up another one
+        assertTrue(otherHostSent.await(5, TimeUnit.SECONDS));
+        release.countDown();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(2, peak.get("busy.example.com").get());
+        assertEquals(8, results.size());
+        assertTrue(results.stream().allMatch(PushService.Delivery::delivered));
+        assertEquals(10, dispatcher.capacity());
+    }
+
+    @Test
+    void busyHostSendsInArrivalOrder() throws Exception {
+        executor.setCorePoolSize(8);
+        executor.initialize();
+        CountDownLatch release = new CountDownLatch(1), firstSent = new CountDownLatch(1);
+        List<Long> order = new CopyOnWriteArrayList<>();
+        PushDispatcher dispatcher = new PushDispatcher(stub(s -> {
+            order.add(s.getId());
+            try {
+                if (s.getId() == 0) { firstSent.countDown(); release.await(10, TimeUnit.SECONDS); }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return new PushService.Delivery(201, null);
+        }), executor, 1, 50);
+        CountDownLatch done = new CountDownLatch(20);
+        for (int i = 0; i < 20; i++) dispatcher.send(message(i, "busy.example.com"), r -> done.countDown());
+        // the queued messages wait for the slot instead of spinning through the workers
+        assertTrue(firstSent.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of(0L), order);
+        assertEquals(1, executor.getActiveCount());
+        release.countDown();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(java.util.stream.LongStream.range(0, 20).boxed().toList(), order);
+        assertEquals(50, dispatcher.capacity());
+    }
+
+    @Test
+    void rejectedSendIsReportedAsRetryableNotSent() {
+        executor.setCorePoolSize(1);
+        executor.initialize();
+        executor.shutdown();
+        AtomicInteger delivered = new AtomicInteger();
+        PushDispatcher dispatcher = new PushDispatcher(stub(s -> { delivered.incrementAndGet(); return new PushService.Delivery(201, null); }), executor, 2, 10);
+        List<PushService.Delivery> results = new CopyOnWriteArrayList<>();
+        dispatcher.send(message(1, "push.example.com"), results::add);
+
+        // reported inline, never handed to the push service
+        assertEquals(1, results.size());
+        assertEquals(-1, results.get(0).status());
+        assertTrue(results.get(0).retryable());
+        assertEquals(0, delivered.get());
+        assertEquals(10, dispatcher.capacity());
+    }
+
+    private static PushService stub(java.util.function.Function<PushSubscription, PushService.Delivery> deliver) {
+        return new PushService(null, null, "", "", "mailto:test@example.com") {
+            @Override
+            public Delivery deliver(PushSubscription s, String payload) {
+                return deliver.apply(s);
+            }
+        };
+    }
+
+    private static PushDispatcher.Message message(long id, String host) {
+        return new PushDispatcher.Message(id, "https://" + host + "/push/" + id, "{}", "{\"title\":\"t\"}");
+    }
+
+    private static void assertBetween(Duration min, Duration max, Duration actual) {
+        assertTrue(actual.compareTo(min) >= 0 && actual.compareTo(max) <= 0, actual + " not in [" + min + ", " + max + "]");
+    }
+}
@@ -6,15 +6,15 @@ function buildSummary(results, channel){
   try {
     const total = results.length
     const emailAttempted = results.filter(r=>r.emailAttempted).length
-    const emailSent = results.filter(r=>r.emailSent).length
-    const pushDispatched = results.filter(r=>r.dispatched).length
+    const emailQueued = results.filter(r=>r.emailQueued).length
+    const pushQueued = results.filter(r=>r.dispatched).length
     const errors = results.filter(r=>r.error)
     let msg = `Sent to ${total} user${total!==1?'s':''}`
     if (channel !== 'notification') {
       msg += ` | email attempted: ${emailAttempted}`
-      msg += `, email sent: ${emailSent}`
+      msg += `, email queued: ${emailQueued}`
     }
-    msg += ` | push dispatch: ${pushDispatched}`
+    msg += ` | push queued: ${pushQueued}`
     if (errors.length) msg += ` | errors: ${errors.length}`
     return msg
   } catch(e){ return 'Notifications dispatched' }
@@ -126,6 +126,14 @@ export function useNotificationSend(){
     }
   }, [])
 
-  return { send, buildSummary, cancel }
+  // Email chunks are sent after the request returns: how many of the queued recipients have been emailed so far
+  const emailDelivery = useCallback(async (results) => {
+    const ids = (results||[]).filter(r=>r.emailQueued && r.notificationId).map(r=>r.notificationId)
+    if (ids.length === 0) return null
+    const { data } = await api.post('/api/notifications/email-status', ids)
+    return { emailed: (data||[]).filter(s=>s.emailedAt).length, queued: ids.length }
+  }, [])
+
+  return { send, buildSummary, cancel, emailDelivery }
 }
 export default useNotificationSend
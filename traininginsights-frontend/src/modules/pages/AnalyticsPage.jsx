@@ -173,7 +173,8 @@ export default function AnalyticsPage(){
     setValuesLoading(true)
     setValuesContext({ key, period })
     try {
-  const params = { metrics: selectedMetrics, dimension, granularity, key, period, page: 0, size: 1000, sort: 'submittedAt,desc' }
+  // cursor mode: first 1000 rows without the total count query
+  const params = { metrics: selectedMetrics, dimension, granularity, key, period, size: 1000, sort: 'submittedAt,desc', cursor: '' }
       if (groupId) params.groupId = groupId
       if (startIso) params.start = startIso
       if (endIso) params.end = endIso
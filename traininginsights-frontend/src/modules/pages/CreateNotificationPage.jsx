@@ -32,15 +32,15 @@ export default function CreateNotificationPage(){
     try {
       const total = results.length
       const emailAttempted = results.filter(r=>r.emailAttempted).length
-      const emailSent = results.filter(r=>r.emailSent).length
-      const pushDispatched = results.filter(r=>r.dispatched).length
+      const emailQueued = results.filter(r=>r.emailQueued).length
+      const pushQueued = results.filter(r=>r.dispatched).length
       const errors = results.filter(r=>r.error)
       let msg = `Sent to ${total} user${total!==1?'s':''}`
       if (mode !== 'notification') {
         msg += ` | email attempted: ${emailAttempted}`
-        msg += `, email sent: ${emailSent}`
+        msg += `, email queued: ${emailQueued}`
       }
-      msg += ` | push dispatch: ${pushDispatched}`
+      msg += ` | push queued: ${pushQueued}`
       if (errors.length) msg += ` | errors: ${errors.length}`
       return msg
     } catch(e){ return 'Notifications dispatched' }
@@ -51,7 +51,7 @@ export default function CreateNotificationPage(){
   const cancelDisabled = progress.total > 0 && (progress.completed / progress.total) >= 0.95
   const [retryContext, setRetryContext] = useState(null) // { mode, remainingIds, failedTargets, targetErrors, lastPayload }
   const attachments = useAttachmentManager()
-  const { send: sendNotifications, buildSummary, cancel } = useNotificationSend()
+  const { send: sendNotifications, buildSummary, cancel, emailDelivery } = useNotificationSend()
   const send = async () => {
     if (!title || !body) return showSnackbar('Provide title and body')
     try{
@@ -81,6 +81,10 @@ export default function CreateNotificationPage(){
         return
       }
       showSnackbar(buildSummary(results, channel))
+      // report email delivery once the queued chunks had time to go out
+      if (channel !== 'notification') setTimeout(async ()=>{
+        try { const d = await emailDelivery(results); if (d) showSnackbar(`Email delivered: ${d.emailed} of ${d.queued}`) } catch(_){}
+      }, 15000)
       // Clear fields & attachments after success
       setTitle('')
       setBody('')